@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.benchmarks;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.streams.jackson.StreamsJacksonMapper;
+import org.apache.streams.pojo.json.Activity;
+import org.apache.streams.pojo.json.ActivityObject;
+import org.apache.streams.pojo.json.Actor;
+import org.apache.streams.pojo.json.Provider;
+import org.joda.time.DateTime;
+
+import java.util.HashMap;
+
+/**
+ * Documents shared by the benchmarks, sized like a typical social media activity.
+ */
+public class BenchmarkData {
+
+    private BenchmarkData() {}
+
+    public static Activity activity(int i) {
+        Actor actor = new Actor();
+        actor.setId("id:twitter:" + i);
+        actor.setDisplayName("Benchmark User " + i);
+        actor.setUrl("http://twitter.com/benchmark" + i);
+
+        ActivityObject object = new ActivityObject();
+        object.setId("id:twitter:post:" + i);
+        object.setContent("Benchmarking the local runtime, see http://streams.incubator.apache.org #" + i);
+        object.setUrl("http://twitter.com/benchmark" + i + "/status/" + i);
+
+        Provider provider = new Provider();
+        provider.setId("id:providers:twitter");
+        provider.setDisplayName("Twitter");
+
+        Activity activity = new Activity();
+        activity.setId("id:twitter:post:" + i);
+        activity.setVerb("post");
+        activity.setActor(actor);
+        activity.setObject(object);
+        activity.setProvider(provider);
+        activity.setTitle("Benchmark activity " + i);
+        activity.setContent(object.getContent());
+        activity.setUrl(object.getUrl());
+        activity.setPublished(new DateTime(1400000000000L + i));
+        return activity;
+    }
+
+    public static ObjectNode objectNode(int i) {
+        return StreamsJacksonMapper.getInstance().convertValue(activity(i), ObjectNode.class);
+    }
+
+    public static HashMap<String, Object> serializable(int i) {
+        HashMap<String, Object> document = new HashMap<>();
+        document.put("id", "id:twitter:post:" + i);
+        document.put("verb", "post");
+        document.put("actor", "id:twitter:" + i);
+        document.put("content", "Benchmarking the local runtime, see http://streams.incubator.apache.org #" + i);
+        document.put("published", 1400000000000L + i);
+        return document;
+    }
+}
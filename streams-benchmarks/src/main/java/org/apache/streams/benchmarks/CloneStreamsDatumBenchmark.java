@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.benchmarks;
+
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.local.tasks.StreamsProcessorTask;
+import org.apache.streams.local.test.processors.DoNothingProcessor;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link org.apache.streams.local.tasks.BaseStreamsTask#cloneStreamsDatum(org.apache.streams.core.StreamsDatum)},
+ * which every datum goes through when a component fans out to more than one downstream component in clone mode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CloneStreamsDatumBenchmark {
+
+    @Param({"false", "true"})
+    public boolean withMetadata;
+
+    private CloningTask task;
+    private StreamsDatum objectNodeDatum;
+    private StreamsDatum activityDatum;
+    private StreamsDatum serializableDatum;
+
+    @Setup
+    public void setup() {
+        this.task = new CloningTask();
+        this.objectNodeDatum = datum(BenchmarkData.objectNode(1));
+        this.activityDatum = datum(BenchmarkData.activity(1));
+        this.serializableDatum = datum(BenchmarkData.serializable(1));
+    }
+
+    private StreamsDatum datum(Object document) {
+        StreamsDatum datum = new StreamsDatum(document, "id:twitter:post:1", null, BigInteger.ONE);
+        if(this.withMetadata) {
+            datum.getMetadata().put("source", "benchmark");
+            datum.getMetadata().put("offset", 1L);
+        }
+        return datum;
+    }
+
+    @Benchmark
+    public StreamsDatum objectNode() {
+        return this.task.cloneDatum(this.objectNodeDatum);
+    }
+
+    @Benchmark
+    public StreamsDatum activity() {
+        return this.task.cloneDatum(this.activityDatum);
+    }
+
+    @Benchmark
+    public StreamsDatum serializable() {
+        return this.task.cloneDatum(this.serializableDatum);
+    }
+
+    /**
+     * Exposes the clone of a task that is never run
+     */
+    private static class CloningTask extends StreamsProcessorTask {
+
+        public CloningTask() {
+            super(new DoNothingProcessor(), new HashMap<String, Object>());
+        }
+
+        public StreamsDatum cloneDatum(StreamsDatum datum) {
+            return cloneStreamsDatum(datum);
+        }
+    }
+}
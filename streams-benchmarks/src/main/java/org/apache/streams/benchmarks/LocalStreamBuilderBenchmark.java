@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.benchmarks;
+
+import org.apache.streams.core.StreamBuilder;
+import org.apache.streams.local.builders.LocalStreamBuilder;
+import org.apache.streams.local.test.processors.DoNothingProcessor;
+import org.apache.streams.local.test.providers.NumericMessageProvider;
+import org.apache.streams.local.test.writer.DoNothingWriter;
+import org.apache.streams.util.ComponentUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures end to end throughput of a local stream: a provider, a chain of processors and a writer, built from the
+ * test components of the local runtime.  Every invocation runs a complete stream, so the score includes starting
+ * and shutting down the stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@OperationsPerInvocation(LocalStreamBuilderBenchmark.NUM_DATUMS)
+public class LocalStreamBuilderBenchmark {
+
+    public static final int NUM_DATUMS = 100000;
+
+    @Param({LocalStreamBuilder.LINKED_QUEUE_TYPE, LocalStreamBuilder.RING_BUFFER_QUEUE_TYPE})
+    public String queueType;
+
+    @Param({LocalStreamBuilder.THREAD_PER_TASK_EXECUTOR_TYPE, LocalStreamBuilder.FORK_JOIN_EXECUTOR_TYPE})
+    public String executorType;
+
+    @Param({"3"})
+    public int numProcessors;
+
+    @Param({"1"})
+    public int numTasks;
+
+    @Param({"false"})
+    public boolean fuseProcessors;
+
+    private StreamBuilder builder;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        Map<String, Object> config = new HashMap<>();
+        config.put(LocalStreamBuilder.QUEUE_TYPE_KEY, this.queueType);
+        config.put(LocalStreamBuilder.EXECUTOR_TYPE_KEY, this.executorType);
+        config.put(LocalStreamBuilder.FUSE_PROCESSORS_KEY, this.fuseProcessors);
+        this.builder = new LocalStreamBuilder(config);
+        this.builder.newPerpetualStream("provider", new NumericMessageProvider(NUM_DATUMS));
+        String connectTo = "provider";
+        for(int i=0; i < this.numProcessors; ++i) {
+            this.builder.addStreamsProcessor("processor" + i, new DoNothingProcessor(), this.numTasks, connectTo);
+            connectTo = "processor" + i;
+        }
+        this.builder.addStreamsPersistWriter("writer", new DoNothingWriter(), this.numTasks, connectTo);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws Exception {
+        ComponentUtils.removeAllMBeansOfDomain("org.apache.streams.local");
+    }
+
+    @Benchmark
+    public void stream() {
+        this.builder.start();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.streams.jackson.StreamsJacksonMapper;
+import org.apache.streams.pojo.json.Activity;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures activities going through the {@link org.apache.streams.jackson.StreamsJacksonMapper}, which most
+ * serializers, clones and persist writers do at least once per datum.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamsJacksonMapperBenchmark {
+
+    private ObjectMapper mapper;
+    private Activity activity;
+    private String json;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() throws IOException {
+        this.mapper = StreamsJacksonMapper.getInstance();
+        this.activity = BenchmarkData.activity(1);
+        this.json = this.mapper.writeValueAsString(this.activity);
+        this.bytes = this.mapper.writeValueAsBytes(this.activity);
+    }
+
+    @Benchmark
+    public String writeString() throws IOException {
+        return this.mapper.writeValueAsString(this.activity);
+    }
+
+    @Benchmark
+    public Activity readString() throws IOException {
+        return this.mapper.readValue(this.json, Activity.class);
+    }
+
+    @Benchmark
+    public Activity readBytes() throws IOException {
+        return this.mapper.readValue(this.bytes, Activity.class);
+    }
+
+    @Benchmark
+    public Activity roundTripString() throws IOException {
+        return this.mapper.readValue(this.mapper.writeValueAsString(this.activity), Activity.class);
+    }
+
+    @Benchmark
+    public Activity roundTripBytes() throws IOException {
+        return this.mapper.readValue(this.mapper.writeValueAsBytes(this.activity), Activity.class);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.benchmarks;
+
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.local.builders.LocalStreamBuilder;
+import org.apache.streams.local.queues.RingBufferThroughputQueue;
+import org.apache.streams.local.queues.ThroughputQueue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Control;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures put and take on the queues connecting the components of a local stream.  Producers and consumers run in
+ * the same group, one of each by default.  Use the -tg option to benchmark other mixes, e.g. -tg 4,2 for four
+ * producers and two consumers.
+ *
+ * Producers and consumers wait for room or data with a short timeout, instead of an unbounded put and take, so the
+ * threads still running when the other side of the group has stopped can finish the iteration.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThroughputQueueBenchmark {
+
+    private static final StreamsDatum DATUM = new StreamsDatum("benchmark");
+
+    @Param({LocalStreamBuilder.LINKED_QUEUE_TYPE, LocalStreamBuilder.RING_BUFFER_QUEUE_TYPE})
+    public String queueType;
+
+    @Param({"500"})
+    public int capacity;
+
+    private BlockingQueue<StreamsDatum> queue;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        if(LocalStreamBuilder.RING_BUFFER_QUEUE_TYPE.equals(this.queueType)) {
+            this.queue = new RingBufferThroughputQueue<>(this.capacity);
+        } else {
+            this.queue = new ThroughputQueue<>(this.capacity);
+        }
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public boolean put(Control control) throws InterruptedException {
+        while(!control.stopMeasurement) {
+            if(this.queue.offer(DATUM, 1, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public StreamsDatum take(Control control) throws InterruptedException {
+        while(!control.stopMeasurement) {
+            StreamsDatum datum = this.queue.poll(1, TimeUnit.MILLISECONDS);
+            if(datum != null) {
+                return datum;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.converter;
+
+import org.xerial.snappy.SnappyFramedInputStream;
+import org.xerial.snappy.SnappyFramedOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression of the line files written by the persist writers.  The compression is recorded in the extension of
+ * the file name, so readers pick the matching decompression per file and can read a mix of compressed and
+ * uncompressed files.
+ *
+ * Only line encodings live here.  A columnar format such as Parquet or ORC is not a compression of these lines and
+ * would need its own writer and a schema for Activity.
+ */
+public enum LineCompression {
+
+    NONE("none", "") {
+        @Override
+        public OutputStream compress(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+    },
+
+    GZIP("gzip", ".gz") {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+    },
+
+    /**
+     * Snappy in the framing format, which compresses each block independently and is much cheaper on cpu than gzip
+     */
+    SNAPPY("snappy", ".snappy") {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new SnappyFramedOutputStream(out);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new SnappyFramedInputStream(in);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String name;
+    private final String extension;
+
+    LineCompression(String name, String extension) {
+        this.name = name;
+        this.extension = extension;
+    }
+
+    /**
+     * Wraps a stream so everything written to it is compressed.  Closing the returned stream finishes the compressed
+     * data and closes the wrapped stream.
+     */
+    public abstract OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Wraps a stream of compressed data so it reads uncompressed
+     */
+    public abstract InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * @return the suffix added to the names of files with this compression
+     */
+    public String getExtension() {
+        return this.extension;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    /**
+     * @param name name used in configurations, e.g. gzip
+     * @return the compression, {@link #NONE} if name is null
+     */
+    public static LineCompression fromName(String name) {
+        if(name == null) {
+            return NONE;
+        }
+        for(LineCompression compression : values()) {
+            if(compression.name.equalsIgnoreCase(name)) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression : " + name);
+    }
+
+    /**
+     * @param fileName name of a line file
+     * @return the compression matching the extension of the file name, {@link #NONE} if there is no match
+     */
+    public static LineCompression fromFileName(String fileName) {
+        for(LineCompression compression : values()) {
+            if(compression != NONE && fileName.endsWith(compression.extension)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.converter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.jackson.StreamsJacksonMapper;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * LineReadWriteUtil converts between StreamsDatums and the tab delimited lines persisted by the S3 and HDFS writers:
+ * id, timestamp, metadata json and document json.
+ */
+public class LineReadWriteUtil {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(LineReadWriteUtil.class);
+
+    public final static char DELIMITER = '\t';
+
+    private static final String NULL = "null";
+
+    private final ObjectMapper mapper;
+
+    public LineReadWriteUtil() {
+        this(StreamsJacksonMapper.getInstance());
+    }
+
+    public LineReadWriteUtil(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * @param entry datum to persist
+     * @return the line, ending in a new line, or null if the document could not be serialized
+     */
+    public String convertResultToString(StreamsDatum entry) {
+        String metadata = null;
+        try {
+            metadata = mapper.writeValueAsString(entry.getMetadata());
+        } catch (JsonProcessingException e) {
+            LOGGER.warn("Error converting metadata to a string", e);
+        }
+
+        String documentJson = null;
+        try {
+            documentJson = mapper.writeValueAsString(entry.getDocument());
+        } catch (JsonProcessingException e) {
+            LOGGER.warn("Error converting document to string", e);
+        }
+
+        if (Strings.isNullOrEmpty(documentJson))
+            return null;
+        else
+            return new StringBuilder()
+                    .append(entry.getId())
+                    .append(DELIMITER)
+                    .append(entry.getTimestamp())
+                    .append(DELIMITER)
+                    .append(metadata)
+                    .append(DELIMITER)
+                    .append(documentJson)
+                    .append("\n")
+                    .toString();
+    }
+
+    /**
+     * The document is returned as the json string it was persisted as.  The timestamp and metadata are restored when
+     * they can be parsed, so lines written by older writers still read.
+     * @param line persisted line, with or without the new line
+     * @return the datum, or null if the line does not have all fields
+     */
+    public StreamsDatum processLine(String line) {
+        if(Strings.isNullOrEmpty(line))
+            return null;
+        String[] fields = splitLine(line);
+        if(fields == null)
+            return null;
+        String document = fields[3].endsWith("\n") ? fields[3].substring(0, fields[3].length() - 1) : fields[3];
+        StreamsDatum entry = new StreamsDatum(document, NULL.equals(fields[0]) ? null : fields[0]);
+        if(!Strings.isNullOrEmpty(fields[1]) && !NULL.equals(fields[1])) {
+            try {
+                entry.setTimestamp(new DateTime(fields[1]));
+            } catch (IllegalArgumentException e) {
+                LOGGER.debug("Unable to parse timestamp {}", fields[1]);
+            }
+        }
+        if(!Strings.isNullOrEmpty(fields[2]) && !NULL.equals(fields[2]) && !"{}".equals(fields[2])) {
+            try {
+                Map<String, Object> metadata = mapper.readValue(fields[2], Map.class);
+                entry.setMetadata(metadata);
+            } catch (Exception e) {
+                LOGGER.debug("Unable to parse metadata {}", fields[2]);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Splits on the first three delimiters with indexOf, the document may contain anything after them
+     * @return the four fields, or null if there are fewer
+     */
+    private static String[] splitLine(String line) {
+        String[] fields = new String[4];
+        int start = 0;
+        for(int i=0; i < 3; ++i) {
+            int end = line.indexOf(DELIMITER, start);
+            if(end < 0)
+                return null;
+            fields[i] = line.substring(start, end);
+            start = end + 1;
+        }
+        fields[3] = line.substring(start);
+        return fields;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.converter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads new line terminated UTF-8 lines from a stream, keeping count of the bytes consumed so readers can split files
+ * by byte range and remember where they stopped.
+ */
+public class LineReader implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPosition = 0;
+    private int bufferLength = 0;
+    private byte[] line = new byte[1024];
+    private int lineLength;
+    private long position = 0;
+
+    public LineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * @return the next line without its new line, or null at the end of the stream
+     */
+    public String readLine() throws IOException {
+        this.lineLength = 0;
+        int consumed = 0;
+        while(true) {
+            if(this.bufferPosition >= this.bufferLength) {
+                this.bufferLength = this.in.read(this.buffer);
+                this.bufferPosition = 0;
+                if(this.bufferLength <= 0) {
+                    this.bufferLength = 0;
+                    if(consumed == 0)
+                        return null;
+                    this.position += consumed;
+                    return new String(this.line, 0, this.lineLength, UTF8);
+                }
+            }
+            int newLine = -1;
+            for(int i=this.bufferPosition; i < this.bufferLength; ++i) {
+                if(this.buffer[i] == '\n') {
+                    newLine = i;
+                    break;
+                }
+            }
+            int end = newLine < 0 ? this.bufferLength : newLine;
+            append(this.bufferPosition, end - this.bufferPosition);
+            consumed += end - this.bufferPosition;
+            this.bufferPosition = end;
+            if(newLine >= 0) {
+                ++this.bufferPosition;
+                this.position += consumed + 1;
+                return new String(this.line, 0, this.lineLength, UTF8);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes consumed by the lines read so far
+     */
+    public long getPosition() {
+        return this.position;
+    }
+
+    private void append(int offset, int length) {
+        if(this.lineLength + length > this.line.length) {
+            this.line = Arrays.copyOf(this.line, Math.max(this.line.length * 2, this.lineLength + length));
+        }
+        System.arraycopy(this.buffer, offset, this.line, this.lineLength, length);
+        this.lineLength += length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.converter.test;
+
+import org.apache.streams.converter.LineCompression;
+import org.apache.streams.converter.LineReadWriteUtil;
+import org.apache.streams.converter.LineReader;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.jackson.StreamsJacksonMapper;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.io.*;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Tests for
+ * @see {@link org.apache.streams.converter.LineReadWriteUtil}
+ * @see {@link org.apache.streams.converter.LineCompression}
+ * @see {@link org.apache.streams.converter.LineReader}
+ */
+public class LineReadWriteUtilTest {
+
+    private static final String DOCUMENT = "{\"id\":\"id\",\"verb\":\"post\",\"content\":\"tab\\there\"}";
+
+    private LineReadWriteUtil lineReadWriteUtil = new LineReadWriteUtil();
+
+    /**
+     * Tests that id, timestamp, metadata and document survive a round trip
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        StreamsDatum datum = new StreamsDatum(DOCUMENT, "id", new DateTime(1400000000000L, DateTimeZone.UTC));
+        datum.getMetadata().put("source", "test");
+
+        String line = lineReadWriteUtil.convertResultToString(datum);
+        assertTrue(line.endsWith("\n"));
+        StreamsDatum result = lineReadWriteUtil.processLine(line.substring(0, line.length() - 1));
+
+        assertEquals("id", result.getId());
+        assertEquals(datum.getTimestamp().getMillis(), result.getTimestamp().getMillis());
+        assertEquals("test", result.getMetadata().get("source"));
+        //the document is persisted as json, so a string document comes back quoted
+        assertEquals(StreamsJacksonMapper.getInstance().writeValueAsString(DOCUMENT), result.getDocument());
+    }
+
+    /**
+     * Tests that lines without a timestamp or metadata still read
+     */
+    @Test
+    public void testMissingFields() {
+        StreamsDatum result = lineReadWriteUtil.processLine("id\tnull\t{}\t" + DOCUMENT);
+
+        assertEquals("id", result.getId());
+        assertNull(result.getTimestamp());
+        assertFalse(result.hasMetadata());
+        assertEquals(DOCUMENT, result.getDocument());
+        assertNull(lineReadWriteUtil.processLine("id\tnull"));
+    }
+
+    /**
+     * Tests that every compression reads back what it wrote, and that it is detected from the file name
+     */
+    @Test
+    public void testCompressionRoundTrip() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for(int i=0; i < 1000; ++i) {
+            lines.append(lineReadWriteUtil.convertResultToString(new StreamsDatum(DOCUMENT, "id" + i)));
+        }
+        byte[] uncompressed = lines.toString().getBytes("UTF-8");
+
+        for(LineCompression compression : LineCompression.values()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            OutputStream out = compression.compress(bytes);
+            out.write(uncompressed);
+            out.close();
+            if(compression != LineCompression.NONE) {
+                assertTrue(compression.toString(), bytes.size() < uncompressed.length);
+            }
+
+            String fileName = "prefix-1400000000000.tsv" + compression.getExtension();
+            assertEquals(compression, LineCompression.fromFileName(fileName));
+            assertEquals(compression, LineCompression.fromName(compression.toString()));
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    LineCompression.fromFileName(fileName).decompress(new ByteArrayInputStream(bytes.toByteArray())), "UTF-8"));
+            int count = 0;
+            String line;
+            while((line = reader.readLine()) != null) {
+                assertEquals("id" + count, lineReadWriteUtil.processLine(line).getId());
+                ++count;
+            }
+            reader.close();
+            assertEquals(1000, count);
+        }
+    }
+
+    /**
+     * Tests that the line reader counts the bytes of multi byte characters and of a last line without a new line
+     */
+    @Test
+    public void testLineReaderPosition() throws IOException {
+        byte[] bytes = "first\n\u00e9t\u00e9\n\nlast".getBytes("UTF-8");
+        LineReader reader = new LineReader(new ByteArrayInputStream(bytes));
+        assertEquals("first", reader.readLine());
+        assertEquals(6, reader.getPosition());
+        assertEquals("\u00e9t\u00e9", reader.readLine());
+        assertEquals(12, reader.getPosition());
+        assertEquals("", reader.readLine());
+        assertEquals("last", reader.readLine());
+        assertEquals(bytes.length, reader.getPosition());
+        assertNull(reader.readLine());
+        reader.close();
+    }
+}
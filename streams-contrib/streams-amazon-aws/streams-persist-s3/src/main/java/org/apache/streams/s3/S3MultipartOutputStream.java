@@ -0,0 +1,371 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Streams a file to Amazon S3 as a multipart upload.  Bytes are written into a buffer from a
+ * {@link S3PartBufferPool}, and every time the buffer fills up it is uploaded as the next part on the upload executor
+ * while writing continues in another buffer.  The memory used is capped by the pool, not by the size of the file.
+ *
+ * Files that never fill a single part are uploaded with one put object request when the stream is closed.  If any
+ * part fails the upload is aborted and the failure is thrown from the next write or from {@link #close()}.  Once the
+ * upload has been aborted every write and close throws, the stream can not be written to again.
+ */
+public class S3MultipartOutputStream extends OutputStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3MultipartOutputStream.class);
+
+    private final AmazonS3 amazonS3;
+    private final String bucketName;
+    private final String key;
+    private final ObjectMetadata metadata;
+    private final S3PartBufferPool bufferPool;
+    private final ExecutorService uploadExecutor;
+    private final List<Future<PartETag>> parts = new ArrayList<>();
+
+    private ByteBuffer current;
+    private String uploadId;
+    private long bytesWritten = 0;
+    private boolean isClosed = false;
+    private boolean isAborted = false;
+
+    /**
+     * @param amazonS3 client the parts are uploaded with
+     * @param bucketName bucket to write to
+     * @param path path where the object will live
+     * @param fileName name of the object
+     * @param metaData user meta data that is written along with the object
+     * @param bufferPool pool the part buffers are taken from
+     * @param uploadExecutor executor the parts are uploaded on
+     */
+    public S3MultipartOutputStream(AmazonS3 amazonS3, String bucketName, String path, String fileName, Map<String, String> metaData,
+                                   S3PartBufferPool bufferPool, ExecutorService uploadExecutor) {
+        this.amazonS3 = amazonS3;
+        this.bucketName = bucketName;
+        this.key = path + fileName;
+        this.bufferPool = bufferPool;
+        this.uploadExecutor = uploadExecutor;
+
+        this.metadata = new ObjectMetadata();
+        this.metadata.setExpirationTime(DateTime.now().plusDays(365*3).toDate());
+        this.metadata.addUserMetadata("writer", "org.apache.streams");
+        for(String s : metaData.keySet())
+            this.metadata.addUserMetadata(s, metaData.get(s));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        try {
+            ensureBuffer();
+            this.current.put((byte) b);
+            ++this.bytesWritten;
+            if(!this.current.hasRemaining()) {
+                uploadPart(false);
+            }
+        } catch (IOException | RuntimeException e) {
+            throw abort(e);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        try {
+            while(len > 0) {
+                ensureBuffer();
+                int length = Math.min(len, this.current.remaining());
+                this.current.put(b, off, length);
+                this.bytesWritten += length;
+                off += length;
+                len -= length;
+                if(!this.current.hasRemaining()) {
+                    uploadPart(false);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            throw abort(e);
+        }
+    }
+
+    /**
+     * Parts can only be uploaded once they are full, so there is nothing to flush until the stream is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        if(this.isClosed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Uploads what is left in the current buffer and waits for every part to be uploaded before completing the upload.
+     * @throws IOException if the upload failed, in which case it was aborted
+     */
+    @Override
+    public void close() throws IOException {
+        if(this.isAborted) {
+            throw new IOException("Upload of " + this.key + " was aborted");
+        }
+        if(this.isClosed) {
+            return;
+        }
+        this.isClosed = true;
+        try {
+            if(this.uploadId == null) {
+                putObject();
+            } else {
+                if(this.current != null && this.current.position() > 0) {
+                    uploadPart(true);
+                }
+                completeUpload();
+            }
+            LOGGER.info("S3 File Close[{} kb] - {}", this.bytesWritten / 1024, this.key);
+        } catch (IOException | RuntimeException e) {
+            throw abort(e);
+        } finally {
+            releaseCurrent();
+        }
+    }
+
+    /**
+     * True once the upload has been aborted, nothing written to the stream will reach S3
+     * @return true if the upload was aborted
+     */
+    public boolean isAborted() {
+        return this.isAborted;
+    }
+
+    public long getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    private void checkOpen() throws IOException {
+        if(this.isClosed) {
+            throw new IOException(this.isAborted ? "Upload of " + this.key + " was aborted" : "Stream closed");
+        }
+    }
+
+    private void ensureBuffer() throws IOException {
+        if(this.current == null) {
+            try {
+                this.current = this.bufferPool.acquire();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a part buffer");
+            }
+        }
+    }
+
+    private void uploadPart(boolean lastPart) throws IOException {
+        checkUploadedParts();
+        if(this.uploadId == null) {
+            this.uploadId = this.amazonS3.initiateMultipartUpload(new InitiateMultipartUploadRequest(this.bucketName, this.key, this.metadata)).getUploadId();
+        }
+        final ByteBuffer buffer = this.current;
+        this.current = null;
+        buffer.flip();
+        final UploadPartRequest request = new UploadPartRequest()
+                .withBucketName(this.bucketName)
+                .withKey(this.key)
+                .withUploadId(this.uploadId)
+                .withPartNumber(this.parts.size() + 1)
+                .withPartSize(buffer.remaining())
+                .withInputStream(new ByteBufferInputStream(buffer))
+                .withLastPart(lastPart);
+        try {
+            this.parts.add(this.uploadExecutor.submit(new Callable<PartETag>() {
+                @Override
+                public PartETag call() throws Exception {
+                    try {
+                        return amazonS3.uploadPart(request).getPartETag();
+                    } finally {
+                        bufferPool.release(buffer);
+                    }
+                }
+            }));
+        } catch (RejectedExecutionException ree) {
+            this.bufferPool.release(buffer);
+            throw new IOException("Upload executor is shut down", ree);
+        }
+    }
+
+    /**
+     * Fails fast on a part that failed to upload instead of writing the rest of the file first
+     */
+    private void checkUploadedParts() throws IOException {
+        for(Future<PartETag> part : this.parts) {
+            if(part.isDone()) {
+                getPartETag(part);
+            }
+        }
+    }
+
+    private void completeUpload() throws IOException {
+        List<PartETag> partETags = new ArrayList<>(this.parts.size());
+        for(Future<PartETag> part : this.parts) {
+            partETags.add(getPartETag(part));
+        }
+        this.amazonS3.completeMultipartUpload(new CompleteMultipartUploadRequest(this.bucketName, this.key, this.uploadId, partETags));
+    }
+
+    private void putObject() {
+        ByteBuffer buffer = this.current == null ? ByteBuffer.allocate(0) : this.current;
+        buffer.flip();
+        this.metadata.setContentLength(buffer.remaining());
+        this.amazonS3.putObject(new PutObjectRequest(this.bucketName, this.key, new ByteBufferInputStream(buffer), this.metadata));
+    }
+
+    /**
+     * Closes the stream and aborts the upload after a failure
+     * @param e the failure
+     * @return the failure to throw
+     */
+    private IOException abort(Exception e) {
+        if(!this.isAborted) {
+            this.isAborted = true;
+            this.isClosed = true;
+            releaseCurrent();
+            abortUpload();
+        }
+        return e instanceof IOException ? (IOException) e : new IOException("Failed to upload " + this.key, e);
+    }
+
+    private void releaseCurrent() {
+        if(this.current != null) {
+            this.bufferPool.release(this.current);
+            this.current = null;
+        }
+    }
+
+    /**
+     * Waits for the parts that are still uploading, so their buffers are back in the pool, and then aborts the upload
+     */
+    private void abortUpload() {
+        if(this.uploadId == null) {
+            return;
+        }
+        for(Future<PartETag> part : this.parts) {
+            try {
+                part.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException ee) {
+                //already reported
+            }
+        }
+        try {
+            this.amazonS3.abortMultipartUpload(new AbortMultipartUploadRequest(this.bucketName, this.key, this.uploadId));
+        } catch (Exception e) {
+            LOGGER.warn("Failed to abort the upload of {} : {}", this.key, e);
+        }
+    }
+
+    private PartETag getPartETag(Future<PartETag> part) throws IOException {
+        try {
+            return part.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a part upload");
+        } catch (ExecutionException ee) {
+            throw new IOException("Failed to upload a part of " + this.key, ee.getCause());
+        }
+    }
+
+    /**
+     * Reads a buffer without copying it to the heap.  Supports mark and reset so the client can retry a request.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(len == 0) {
+                return 0;
+            }
+            if(!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            int length = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long n) {
+            int length = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+            this.buffer.position(this.buffer.position() + length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            this.buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            this.buffer.reset();
+        }
+    }
+}
@@ -32,7 +32,10 @@ import java.util.Map;
  * This class uses ByteArrayOutputStreams to ensure files are written to S3 properly. The stream is written to the
  * in memory ByteArrayOutPutStream before it is finally written to Amazon S3. The size the file is allowed to become
  * is directly controlled by the S3PersistWriter.
+ *
+ * @deprecated the whole file is held on heap until it is closed, use {@link S3MultipartOutputStream} instead
  */
+@Deprecated
 public class S3OutputStreamWrapper extends OutputStream
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(S3OutputStreamWrapper.class);
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.s3;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed number of direct buffers of one part size each, shared by the {@link S3MultipartOutputStream}s of a writer.
+ * Buffers are allocated the first time they are needed and reused for every part after that, so the memory held by
+ * a writer never exceeds the number of buffers times the part size.  When every buffer is filling or uploading,
+ * {@link #acquire()} blocks until an upload returns one, which slows the writer down to the speed of the uploads.
+ */
+public class S3PartBufferPool {
+
+    private final int partSize;
+    private final int maxBuffers;
+    private final BlockingQueue<ByteBuffer> available;
+    private int allocated = 0;
+
+    /**
+     * @param partSize size in bytes of every buffer
+     * @param maxBuffers the most buffers that will ever be allocated
+     */
+    public S3PartBufferPool(int partSize, int maxBuffers) {
+        if(partSize <= 0 || maxBuffers <= 0) {
+            throw new IllegalArgumentException("partSize and maxBuffers must be positive");
+        }
+        this.partSize = partSize;
+        this.maxBuffers = maxBuffers;
+        this.available = new ArrayBlockingQueue<>(maxBuffers);
+    }
+
+    /**
+     * Takes an empty buffer from the pool, waiting for one to be released if all of them are in use
+     * @return an empty buffer of the part size
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buffer = this.available.poll();
+        if(buffer != null) {
+            return buffer;
+        }
+        synchronized (this) {
+            if(this.allocated < this.maxBuffers) {
+                ++this.allocated;
+                return ByteBuffer.allocateDirect(this.partSize);
+            }
+        }
+        return this.available.take();
+    }
+
+    /**
+     * Returns a buffer to the pool
+     * @param buffer buffer taken with {@link #acquire()}
+     */
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        this.available.offer(buffer);
+    }
+
+    public int getPartSize() {
+        return this.partSize;
+    }
+
+    public int getMaxBuffers() {
+        return this.maxBuffers;
+    }
+
+    /**
+     * @return the number of buffers allocated so far
+     */
+    public synchronized int getAllocated() {
+        return this.allocated;
+    }
+}
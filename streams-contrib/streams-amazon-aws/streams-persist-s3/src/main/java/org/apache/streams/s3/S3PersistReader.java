@@ -28,7 +28,6 @@ import com.amazonaws.services.s3.S3ClientOptions;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
 import com.google.common.collect.Queues;
 import org.apache.streams.core.*;
@@ -39,28 +38,34 @@ import org.slf4j.LoggerFactory;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.*;
 
+/**
+ * Reads the line files under a path of an S3 bucket.  Every object, or every byte range split of a large
+ * uncompressed object, is read by one of readerThreads workers with a ranged GET, so a backfill of many objects is
+ * read in parallel.  Workers block on the bounded queue when the stream falls behind.
+ */
 public class S3PersistReader implements StreamsPersistReader, DatumStatusCountable {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(S3PersistReader.class);
     public final static String STREAMS_ID = "S3PersistReader";
     protected final static char DELIMITER = '\t';
+    private final static int QUEUE_CAPACITY = 10000;
 
     private S3ReaderConfiguration s3ReaderConfiguration;
     private AmazonS3Client amazonS3Client;
-    private ObjectMapper mapper = new ObjectMapper();
     private Collection<String> files;
+    private final Queue<S3ReaderSplit> splits = new ConcurrentLinkedQueue<>();
     private ExecutorService executor;
-    protected volatile Queue<StreamsDatum> persistQueue;
+    protected volatile BlockingQueue<StreamsDatum> persistQueue;
 
     protected DatumStatusCounter countersTotal = new DatumStatusCounter();
-    protected DatumStatusCounter countersCurrent = new DatumStatusCounter();
-    private Future<?> task;
+    private final List<S3PersistReaderTask> tasks = new ArrayList<>();
+    private final List<Future<?>> futures = new ArrayList<>();
+    private long reportedRead = 0;
+    private long reportedFailed = 0;
 
     public AmazonS3Client getAmazonS3Client() {
         return this.amazonS3Client;
@@ -84,7 +89,11 @@ public class S3PersistReader implements StreamsPersistReader, DatumStatusCountab
 
     @Override
     public boolean isRunning() {
-        return !task.isDone() && !task.isCancelled();
+        for(Future<?> future : this.futures) {
+            if(!future.isDone())
+                return true;
+        }
+        return false;
     }
 
     public DatumStatusCounter getDatumStatusCounter() {
@@ -95,13 +104,49 @@ public class S3PersistReader implements StreamsPersistReader, DatumStatusCountab
         return this.files;
     }
 
+    /**
+     * The workers, with their throughput
+     */
+    public List<S3PersistReaderTask> getTasks() {
+        return this.tasks;
+    }
+
+    /**
+     * @return the next split to read, or null if every split has been taken
+     */
+    protected S3ReaderSplit nextSplit() {
+        return this.splits.poll();
+    }
+
+    /**
+     * @return the size in bytes above which uncompressed objects are read in splits
+     */
+    protected long getSplitSizeBytes() {
+        return this.s3ReaderConfiguration.getSplitSize() * 1024 * 1024;
+    }
+
+    /**
+     * @return the bytes requested past the end of a split to read the line crossing it
+     */
+    protected long getMaxLineLengthBytes() {
+        return this.s3ReaderConfiguration.getMaxLineLength() * 1024;
+    }
+
     public S3PersistReader(S3ReaderConfiguration s3ReaderConfiguration) {
         this.s3ReaderConfiguration = s3ReaderConfiguration;
     }
 
+    /**
+     * Instantiator with a pre-existing amazonS3Client, this is used to help with re-use.
+     */
+    public S3PersistReader(AmazonS3Client amazonS3Client, S3ReaderConfiguration s3ReaderConfiguration) {
+        this.amazonS3Client = amazonS3Client;
+        this.s3ReaderConfiguration = s3ReaderConfiguration;
+    }
+
     public void prepare(Object configurationObject) {
         // Connect to S3
-        synchronized (this)
+        if(this.amazonS3Client == null) synchronized (this)
         {
             // Create the credentials Object
             AWSCredentials credentials = new BasicAWSCredentials(s3ReaderConfiguration.getKey(), s3ReaderConfiguration.getSecretKey());
@@ -128,6 +173,7 @@ public class S3PersistReader implements StreamsPersistReader, DatumStatusCountab
         ObjectListing listing = this.amazonS3Client.listObjects(request);
 
         this.files = new ArrayList<String>();
+        long splitSize = getSplitSizeBytes();
 
         /**
          * If you can list files that are in this path, then you must be dealing with a directory
@@ -139,36 +185,56 @@ public class S3PersistReader implements StreamsPersistReader, DatumStatusCountab
 
         if(hasCommonPrefixes || hasObjectSummaries) {
             // Handle the 'directory' use case
-            do
+            while(true)
             {
                 if(hasCommonPrefixes) {
                     for (String file : listing.getCommonPrefixes()) {
                         this.files.add(file);
+                        this.splits.addAll(S3ReaderSplit.split(file, -1, splitSize));
                     }
                 } else {
                     for(final S3ObjectSummary objectSummary : listing.getObjectSummaries()) {
                         this.files.add(objectSummary.getKey());
+                        this.splits.addAll(S3ReaderSplit.split(objectSummary.getKey(), objectSummary.getSize(), splitSize));
                     }
                 }
 
+                if(!listing.isTruncated())
+                    break;
+
                 // get the next batch.
                 listing = this.amazonS3Client.listNextBatchOfObjects(listing);
-            } while (listing.isTruncated());
+            }
         }
         else {
             // handle the single file use-case
-            this.files.add(s3ReaderConfiguration.getReaderPath());
+            String file = s3ReaderConfiguration.getReaderPath();
+            long size = -1;
+            try {
+                size = this.amazonS3Client.getObjectMetadata(this.s3ReaderConfiguration.getBucket(), file).getContentLength();
+            } catch (Exception e) {
+                LOGGER.warn("Unable to get the size of {}, reading it whole: {}", file, e.getMessage());
+            }
+            this.files.add(file);
+            this.splits.addAll(S3ReaderSplit.split(file, size, splitSize));
         }
 
         if(this.files.size() <= 0)
             LOGGER.error("There are no files to read");
 
-        this.persistQueue = Queues.synchronizedQueue(new LinkedBlockingQueue<StreamsDatum>(10000));
-        this.executor = Executors.newSingleThreadExecutor();
+        int readerThreads = Math.max(1, this.s3ReaderConfiguration.getReaderThreads().intValue());
+        LOGGER.info("Reading {} files in {} splits with {} workers", this.files.size(), this.splits.size(), readerThreads);
+
+        this.persistQueue = new LinkedBlockingQueue<StreamsDatum>(QUEUE_CAPACITY);
+        this.executor = Executors.newFixedThreadPool(readerThreads);
+        for(int i=0; i < readerThreads; ++i) {
+            this.tasks.add(new S3PersistReaderTask(this, i));
+        }
     }
 
     public void cleanUp() {
-        // no Op
+        if(this.executor != null)
+            this.executor.shutdownNow();
     }
 
     public StreamsResultSet readAll() {
@@ -178,20 +244,37 @@ public class S3PersistReader implements StreamsPersistReader, DatumStatusCountab
 
     public void startStream() {
         LOGGER.debug("startStream");
-        task = executor.submit(new S3PersistReaderTask(this));
+        for(S3PersistReaderTask task : this.tasks) {
+            this.futures.add(executor.submit(task));
+        }
+        executor.shutdown();
     }
 
     public StreamsResultSet readCurrent() {
 
         StreamsResultSet current;
 
-        synchronized( S3PersistReader.class ) {
-            current = new StreamsResultSet(Queues.newConcurrentLinkedQueue(persistQueue));
-            current.setCounter(new DatumStatusCounter());
-            current.getCounter().add(countersCurrent);
+        synchronized( this ) {
+            Queue<StreamsDatum> batch = Queues.newConcurrentLinkedQueue();
+            persistQueue.drainTo(batch);
+            current = new StreamsResultSet(batch);
+
+            // the workers count on their own, report what they counted since the last call
+            long read = 0;
+            long failed = 0;
+            for(S3PersistReaderTask task : this.tasks) {
+                read += task.getLinesRead();
+                failed += task.getLinesFailed();
+            }
+            DatumStatusCounter countersCurrent = new DatumStatusCounter();
+            countersCurrent.incrementAttempt((int) (read - reportedRead + failed - reportedFailed));
+            countersCurrent.incrementStatus(DatumStatus.SUCCESS, (int) (read - reportedRead));
+            countersCurrent.incrementStatus(DatumStatus.FAIL, (int) (failed - reportedFailed));
+            reportedRead = read;
+            reportedFailed = failed;
+
+            current.setCounter(countersCurrent);
             countersTotal.add(countersCurrent);
-            countersCurrent = new DatumStatusCounter();
-            persistQueue.clear();
         }
         return current;
     }
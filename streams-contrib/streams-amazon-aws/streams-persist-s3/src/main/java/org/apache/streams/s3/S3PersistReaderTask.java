@@ -17,67 +17,155 @@
  */
 package org.apache.streams.s3;
 
-import com.google.common.base.Strings;
-import org.apache.streams.core.DatumStatus;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import org.apache.streams.converter.LineCompression;
+import org.apache.streams.converter.LineReadWriteUtil;
+import org.apache.streams.converter.LineReader;
 import org.apache.streams.core.StreamsDatum;
-import org.apache.streams.util.ComponentUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.Closeable;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 
+/**
+ * One of the workers of a {@link S3PersistReader}.  Workers take splits from the reader until there are none left,
+ * read each split with a ranged GET and put the parsed datums on the reader's queue.
+ */
 public class S3PersistReaderTask implements Runnable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(S3PersistReaderTask.class);
 
     private S3PersistReader reader;
+    private LineReadWriteUtil lineReadWriteUtil = new LineReadWriteUtil();
+    private final int workerId;
+
+    private volatile long linesRead = 0;
+    private volatile long linesFailed = 0;
+    private volatile long bytesRead = 0;
+    private volatile long startedAt = 0;
+    private volatile long finishedAt = 0;
 
     public S3PersistReaderTask(S3PersistReader reader) {
+        this(reader, 0);
+    }
+
+    public S3PersistReaderTask(S3PersistReader reader, int workerId) {
         this.reader = reader;
+        this.workerId = workerId;
     }
 
     @Override
     public void run() {
+        this.startedAt = System.currentTimeMillis();
+        try {
+            S3ReaderSplit split;
+            while((split = reader.nextSplit()) != null && !Thread.currentThread().isInterrupted()) {
+                readSplit(split);
+            }
+        } finally {
+            this.finishedAt = System.currentTimeMillis();
+            LOGGER.info("Worker {} finished: {} lines, {} kb, {} lines/s", this.workerId, this.linesRead, this.bytesRead / 1024, (long) getLinesPerSecond());
+        }
+    }
+
+    private void readSplit(S3ReaderSplit split) {
+        LOGGER.info("Worker {} reading: {}", this.workerId, split);
+        long linesBefore = this.linesRead;
+        long splitStartedAt = System.currentTimeMillis();
 
-        for(String file : reader.getFiles()) {
-
-            // Create our buffered reader
-            S3ObjectInputStreamWrapper is = new S3ObjectInputStreamWrapper(reader.getAmazonS3Client().getObject(reader.getBucketName(), file));
-            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(is));
-            LOGGER.info("Reading: {} ", file);
-
-            String line = "";
-            try {
-                while((line = bufferedReader.readLine()) != null) {
-                    if( !Strings.isNullOrEmpty(line) ) {
-                        reader.countersCurrent.incrementAttempt();
-                        String[] fields = line.split(Character.toString(reader.DELIMITER));
-                        StreamsDatum entry = new StreamsDatum(fields[3], fields[0]);
-                        ComponentUtils.offerUntilSuccess(entry, reader.persistQueue);
-                        reader.countersCurrent.incrementStatus(DatumStatus.SUCCESS);
-                    }
+        // start a byte early, so a split starting on a line boundary knows not to skip its first line
+        long position = split.getStart() == 0 ? 0 : split.getStart() - 1;
+
+        InputStream is = null;
+        try {
+            if(split.isWholeObject()) {
+                is = new S3ObjectInputStreamWrapper(reader.getAmazonS3Client().getObject(new GetObjectRequest(reader.getBucketName(), split.getKey())));
+            } else {
+                // request the split and enough after it to finish its last line, more is only requested for longer lines
+                long maxLineLength = reader.getMaxLineLengthBytes();
+                is = new S3RangeInputStream(reader.getAmazonS3Client(), reader.getBucketName(), split.getKey(), split.getObjectSize(),
+                        position, split.getEnd() + maxLineLength, maxLineLength);
+            }
+            LineReader lineReader = new LineReader(LineCompression.fromFileName(split.getKey()).decompress(is));
+
+            if(split.getStart() > 0) {
+                // the line crossing the start of the split belongs to the previous split
+                if(lineReader.readLine() == null)
+                    return;
+            }
+            // read the lines starting before the end of the split, the last of them may end in the next split.
+            // positions count decompressed bytes, so whole objects are read to their end instead
+            long end = split.isWholeObject() ? Long.MAX_VALUE : split.getEnd();
+            String line;
+            while(position + lineReader.getPosition() < end && (line = lineReader.readLine()) != null) {
+                if(!line.isEmpty()) {
+                    processLine(line);
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
-                LOGGER.warn(e.getMessage());
-                reader.countersCurrent.incrementStatus(DatumStatus.FAIL);
             }
+            this.bytesRead += lineReader.getPosition();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.warn("Worker {} failed reading {} : {}", this.workerId, split, e.getMessage());
+            this.linesFailed++;
+        } finally {
+            closeSafely(split.getKey(), is);
+        }
 
-            LOGGER.info("Completed:  " + file);
+        long elapsed = Math.max(1, System.currentTimeMillis() - splitStartedAt);
+        LOGGER.info("Worker {} completed: {} - {} lines, {} lines/s", this.workerId, split, this.linesRead - linesBefore, (this.linesRead - linesBefore) * 1000 / elapsed);
+    }
 
-            try {
-                closeSafely(file, is);
-            } catch (Exception e) {
-                LOGGER.error(e.getMessage());
-            }
+    private void processLine(String line) throws InterruptedException {
+        StreamsDatum entry = lineReadWriteUtil.processLine(line);
+        if(entry == null) {
+            this.linesFailed++;
+            return;
         }
+        reader.persistQueue.put(entry);
+        this.linesRead++;
+    }
+
+    public int getWorkerId() {
+        return this.workerId;
+    }
+
+    /**
+     * @return the number of datums this worker put on the queue
+     */
+    public long getLinesRead() {
+        return this.linesRead;
+    }
+
+    /**
+     * @return the number of lines or splits this worker failed to read
+     */
+    public long getLinesFailed() {
+        return this.linesFailed;
+    }
+
+    /**
+     * @return the number of uncompressed bytes this worker read
+     */
+    public long getBytesRead() {
+        return this.bytesRead;
+    }
+
+    /**
+     * @return lines read per second since the worker started
+     */
+    public double getLinesPerSecond() {
+        if(this.startedAt == 0)
+            return 0;
+        long end = this.finishedAt == 0 ? System.currentTimeMillis() : this.finishedAt;
+        return this.linesRead * 1000.0 / Math.max(1, end - this.startedAt);
     }
 
     private static void closeSafely(String file, Closeable closeable) {
         try {
-            closeable.close();
+            if(closeable != null)
+                closeable.close();
         } catch(Exception e) {
             LOGGER.error("There was an issue closing file: {}", file);
         }
@@ -25,17 +25,22 @@ import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.S3ClientOptions;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import org.apache.streams.converter.LineCompression;
+import org.apache.streams.converter.LineReadWriteUtil;
 import org.apache.streams.core.*;
 import org.apache.streams.jackson.StreamsJacksonMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -45,17 +50,24 @@ public class S3PersistWriter implements StreamsPersistWriter, DatumStatusCountab
 
     private final static Logger LOGGER = LoggerFactory.getLogger(S3PersistWriter.class);
 
-    private final static char DELIMITER = '\t';
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static long MIN_PART_SIZE_MB = 5;
 
     private ObjectMapper objectMapper;
+    private LineReadWriteUtil lineReadWriteUtil;
+    private LineCompression compression = LineCompression.NONE;
     private AmazonS3Client amazonS3Client;
     private S3WriterConfiguration s3WriterConfiguration;
     private final List<String> writtenFiles = new ArrayList<String>();
 
     private final AtomicLong totalBytesWritten = new AtomicLong();
+    // bytes of the lines written to the current file before compression, the file size is taken from currentStream
     private AtomicLong bytesWrittenThisFile = new AtomicLong();
 
     private final AtomicInteger totalRecordsWritten = new AtomicInteger();
+    // records that never reached S3 because the upload of their file failed
+    private final AtomicInteger totalRecordsFailed = new AtomicInteger();
     private AtomicInteger fileLineCounter = new AtomicInteger();
 
     private Map<String, String> objectMetaData = new HashMap<String, String>() {{
@@ -65,7 +77,10 @@ public class S3PersistWriter implements StreamsPersistWriter, DatumStatusCountab
         put("line[3]", "document");
     }};
 
-    private OutputStreamWriter currentWriter = null;
+    private S3MultipartOutputStream currentStream = null;
+    private OutputStream currentWriter = null;
+    private S3PartBufferPool bufferPool;
+    private ExecutorService uploadExecutor;
 
     public AmazonS3Client getAmazonS3Client() {
         return this.amazonS3Client;
@@ -114,27 +129,41 @@ public class S3PersistWriter implements StreamsPersistWriter, DatumStatusCountab
     @Override
     public void write(StreamsDatum streamsDatum) {
 
+        // serialize outside of the lock, only appending to the file has to be serialized
+        String line = convertResultToString(streamsDatum);
+        if(line == null)
+            return;
+        byte[] bytes = line.getBytes(UTF8);
+
         synchronized (this) {
-            // Check to see if we need to reset the file that we are currently working with
-            if (this.currentWriter == null || ( this.bytesWrittenThisFile.get()  >= (this.s3WriterConfiguration.getMaxFileSize() * 1024 * 1024))) {
+            // Check to see if we need to reset the file that we are currently working with, the size of a file is
+            // what reached S3 after compression
+            if (this.currentWriter == null || ( this.currentStream.getBytesWritten() >= (this.s3WriterConfiguration.getMaxFileSize() * 1024 * 1024))) {
                 try {
                     LOGGER.info("Resetting the file");
                     this.currentWriter = resetFile();
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    LOGGER.error("Failed to create a new file : {}", e);
+                    this.totalRecordsWritten.incrementAndGet();
+                    this.totalRecordsFailed.incrementAndGet();
+                    return;
                 }
             }
 
-            String line = convertResultToString(streamsDatum);
-
             try {
-                this.currentWriter.write(line);
+                this.currentWriter.write(bytes);
             } catch (IOException e) {
-                e.printStackTrace();
+                // the upload of the file has been aborted, so every record written to it is lost.  The next record
+                // starts a new file.
+                LOGGER.error("Failed to write to {}, dropping the file : {}", this.currentStream.getKey(), e);
+                this.totalRecordsWritten.incrementAndGet();
+                this.totalRecordsFailed.addAndGet(this.fileLineCounter.get() + 1);
+                destroyFailedWriter();
+                return;
             }
 
-            // add the bytes we've written
-            int recordSize = line.getBytes().length;
+            // add the bytes we've written, before compression
+            int recordSize = bytes.length;
             this.totalBytesWritten.addAndGet(recordSize);
             this.bytesWrittenThisFile.addAndGet(recordSize);
 
@@ -145,7 +174,7 @@ public class S3PersistWriter implements StreamsPersistWriter, DatumStatusCountab
 
     }
 
-    private synchronized OutputStreamWriter resetFile() throws Exception {
+    private synchronized OutputStream resetFile() throws Exception {
         // this will keep it thread safe, so we don't create too many files
         if(this.fileLineCounter.get() == 0 && this.currentWriter != null)
             return this.currentWriter;
@@ -156,14 +185,16 @@ public class S3PersistWriter implements StreamsPersistWriter, DatumStatusCountab
         try {
             // generate a file name
             String fileName = this.s3WriterConfiguration.getWriterFilePrefix() +
-                    (this.s3WriterConfiguration.getChunk() ? "/" : "-") + new Date().getTime() + ".tsv";
+                    (this.s3WriterConfiguration.getChunk() ? "/" : "-") + new Date().getTime() + ".tsv" + this.compression.getExtension();
 
-            // create the output stream
-            OutputStream outputStream = new S3OutputStreamWrapper(this.amazonS3Client,
+            // create the output stream, parts are uploaded as they fill up
+            S3MultipartOutputStream outputStream = new S3MultipartOutputStream(this.amazonS3Client,
                     this.s3WriterConfiguration.getBucket(),
                     this.s3WriterConfiguration.getWriterPath(),
                     fileName,
-                    this.objectMetaData);
+                    this.objectMetaData,
+                    this.bufferPool,
+                    this.uploadExecutor);
 
             // reset the counter
             this.fileLineCounter = new AtomicInteger();
@@ -175,8 +206,10 @@ public class S3PersistWriter implements StreamsPersistWriter, DatumStatusCountab
             // Log that we are creating this file
             LOGGER.info("File Created: Bucket[{}] - {}", this.s3WriterConfiguration.getBucket(), this.s3WriterConfiguration.getWriterPath() + fileName);
 
-            // return the output stream
-            return new OutputStreamWriter(outputStream);
+            this.currentStream = outputStream;
+
+            // return the output stream, compressing what is written to it
+            return this.compression.compress(outputStream);
         } catch (Exception e) {
             LOGGER.error(e.getMessage());
             throw e;
@@ -186,29 +219,57 @@ public class S3PersistWriter implements StreamsPersistWriter, DatumStatusCountab
     private synchronized void closeAndDestroyWriter() {
         // if there is a current writer, we must close it first.
         if (this.currentWriter != null) {
+            S3MultipartOutputStream stream = this.currentStream;
             this.safeFlush(this.currentWriter);
-            this.closeSafely(this.currentWriter);
+            if(this.closeSafely(this.currentWriter)) {
+                // Logging of information to alert the user to the activities of this class
+                LOGGER.debug("File Closed: Records[{}] Bytes[{}] Uncompressed Bytes[{}] {} ", this.fileLineCounter.get(), stream.getBytesWritten(), this.bytesWrittenThisFile.get(), this.writtenFiles.get(this.writtenFiles.size()-1));
+            } else {
+                this.totalRecordsFailed.addAndGet(this.fileLineCounter.get());
+                this.writtenFiles.remove(this.writtenFiles.size() - 1);
+            }
             this.currentWriter = null;
+            this.currentStream = null;
+        }
+    }
 
-            // Logging of information to alert the user to the activities of this class
-            LOGGER.debug("File Closed: Records[{}] Bytes[{}] {} ", this.fileLineCounter.get(), this.bytesWrittenThisFile.get(), this.writtenFiles.get(this.writtenFiles.size()-1));
+    /**
+     * Drops the current file after its upload was aborted, the next write starts a new file
+     */
+    private synchronized void destroyFailedWriter() {
+        try {
+            // releases whatever the compression holds on to, the stream itself can only fail again
+            this.currentWriter.close();
+        } catch (IOException e) {
+            // noOp
         }
+        this.writtenFiles.remove(this.writtenFiles.size() - 1);
+        this.currentWriter = null;
+        this.currentStream = null;
+        this.fileLineCounter = new AtomicInteger();
+        this.bytesWrittenThisFile = new AtomicLong();
     }
 
-    private synchronized void closeSafely(Writer writer)  {
+    /**
+     * Closes the writer, which completes the upload of the file
+     * @param writer writer of the current file
+     * @return false if the file failed to upload
+     */
+    private synchronized boolean closeSafely(OutputStream writer)  {
         if(writer != null) {
             try {
-                writer.flush();
                 writer.close();
             } catch(Exception e) {
-                // noOp
+                LOGGER.error("Failed to upload {}, {} records are lost : {}", this.currentStream.getKey(), this.fileLineCounter.get(), e);
+                return false;
             }
             LOGGER.debug("File Closed");
         }
+        return true;
     }
 
     private void safeFlush(Flushable flushable) {
-        // This is wrapped with a ByteArrayOutputStream, so this is really safe.
+        // Parts are only uploaded once they fill up, so this is really safe.
         if(flushable != null) {
             try {
                 flushable.flush();
@@ -220,31 +281,12 @@ public class S3PersistWriter implements StreamsPersistWriter, DatumStatusCountab
 
     private String convertResultToString(StreamsDatum entry)
     {
-        String metadata = null;
-
-        try {
-            metadata = objectMapper.writeValueAsString(entry.getMetadata());
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
-        }
-
-        String documentJson = null;
-        try {
-            documentJson = objectMapper.writeValueAsString(entry.getDocument());
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
-        }
+        String line = this.lineReadWriteUtil.convertResultToString(entry);
 
         // Save the class name that it came from
-        entry.metadata.put("class", entry.getDocument().getClass().getName());
-
-        if(Strings.isNullOrEmpty(documentJson))
-            return null;
-        else
-            return  entry.getId()           + DELIMITER +   // [0] = Unique id of the verbatim
-                    entry.getTimestamp()    + DELIMITER +   // [1] = Timestamp of the item
-                    metadata                + DELIMITER +   // [2] = Metadata of the item
-                    documentJson            + "\n";         // [3] = The actual object
+        entry.getMetadata().put("class", entry.getDocument().getClass().getName());
+
+        return line;
     }
 
     public void prepare(Object configurationObject) {
@@ -255,6 +297,9 @@ public class S3PersistWriter implements StreamsPersistWriter, DatumStatusCountab
                 // if the user has chosen to not set the object mapper, then set a default object mapper for them.
                 if (this.objectMapper == null)
                     this.objectMapper = StreamsJacksonMapper.getInstance();
+                this.lineReadWriteUtil = new LineReadWriteUtil(this.objectMapper);
+                if (this.s3WriterConfiguration.getCompression() != null)
+                    this.compression = LineCompression.fromName(this.s3WriterConfiguration.getCompression().toString());
 
                 // Create the credentials Object
                 if (this.amazonS3Client == null) {
@@ -277,17 +322,35 @@ public class S3PersistWriter implements StreamsPersistWriter, DatumStatusCountab
             }
 
             Preconditions.checkArgument(this.amazonS3Client != null);
+
+            long partSize = Math.max(MIN_PART_SIZE_MB, this.s3WriterConfiguration.getPartSize());
+            int partsInFlight = Math.max(1, this.s3WriterConfiguration.getPartsInFlight().intValue());
+            // one buffer filling while the others upload
+            this.bufferPool = new S3PartBufferPool((int) Math.min(Integer.MAX_VALUE, partSize * 1024 * 1024), partsInFlight + 1);
+            this.uploadExecutor = Executors.newFixedThreadPool(partsInFlight);
         }
     }
 
     public void cleanUp() {
         closeAndDestroyWriter();
+        if(this.uploadExecutor != null) {
+            this.uploadExecutor.shutdown();
+            try {
+                if(!this.uploadExecutor.awaitTermination(5, TimeUnit.MINUTES))
+                    this.uploadExecutor.shutdownNow();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                this.uploadExecutor.shutdownNow();
+            }
+        }
     }
 
     public DatumStatusCounter getDatumStatusCounter() {
         DatumStatusCounter counters = new DatumStatusCounter();
+        int failed = this.totalRecordsFailed.get();
         counters.incrementAttempt(this.totalRecordsWritten.get());
-        counters.incrementStatus(DatumStatus.SUCCESS, this.totalRecordsWritten.get());
+        counters.incrementStatus(DatumStatus.SUCCESS, this.totalRecordsWritten.get() - failed);
+        counters.incrementStatus(DatumStatus.FAIL, failed);
         return counters;
     }
 }
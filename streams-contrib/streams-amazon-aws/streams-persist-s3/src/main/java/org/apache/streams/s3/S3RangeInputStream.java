@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads an object from a position with ranged GETs, so a split does not request the rest of the object.  The first
+ * GET ends firstEnd, later GETs of chunkSize bytes are only made if the reader keeps reading past it, e.g. to finish
+ * a line that is longer than expected.
+ */
+public class S3RangeInputStream extends InputStream {
+
+    private final AmazonS3 amazonS3;
+    private final String bucketName;
+    private final String key;
+    private final long objectSize;
+    private final long chunkSize;
+
+    private long position;
+    private long rangeEnd;
+    private S3ObjectInputStreamWrapper current;
+
+    /**
+     * @param amazonS3 client
+     * @param bucketName bucket of the object
+     * @param key key of the object
+     * @param objectSize size of the object
+     * @param start offset of the first byte to read
+     * @param firstEnd offset after the last byte of the first GET
+     * @param chunkSize bytes per GET after the first
+     */
+    public S3RangeInputStream(AmazonS3 amazonS3, String bucketName, String key, long objectSize, long start, long firstEnd, long chunkSize) {
+        this.amazonS3 = amazonS3;
+        this.bucketName = bucketName;
+        this.key = key;
+        this.objectSize = objectSize;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.position = start;
+        this.rangeEnd = Math.min(objectSize, Math.max(start + 1, firstEnd));
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return read <= 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0)
+            return 0;
+        if(this.current == null) {
+            if(this.position >= this.objectSize)
+                return -1;
+            if(this.position >= this.rangeEnd)
+                this.rangeEnd = Math.min(this.objectSize, this.position + this.chunkSize);
+            GetObjectRequest request = new GetObjectRequest(this.bucketName, this.key).withRange(this.position, this.rangeEnd - 1);
+            this.current = new S3ObjectInputStreamWrapper(this.amazonS3.getObject(request));
+        }
+        int read = this.current.read(b, off, (int) Math.min(len, this.rangeEnd - this.position));
+        if(read <= 0) {
+            // the range ended early, the object is shorter than it was listed
+            closeCurrent();
+            return -1;
+        }
+        this.position += read;
+        if(this.position >= this.rangeEnd)
+            closeCurrent();
+        return read;
+    }
+
+    /**
+     * @return offset of the next byte that will be read
+     */
+    public long getPosition() {
+        return this.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeCurrent();
+    }
+
+    private void closeCurrent() throws IOException {
+        if(this.current != null) {
+            S3ObjectInputStreamWrapper closing = this.current;
+            this.current = null;
+            closing.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.s3;
+
+import org.apache.streams.converter.LineCompression;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A byte range of an S3 object read by one {@link S3PersistReaderTask}.  A split owns every line that starts inside
+ * its range, so the line crossing into the next split is read to its end by this split and skipped by the next.
+ */
+public class S3ReaderSplit {
+
+    private final String key;
+    private final long start;
+    private final long end;
+    private final long objectSize;
+
+    /**
+     * @param key key of the object
+     * @param start offset of the first byte of the split
+     * @param end offset after the last byte of the split
+     * @param objectSize size of the object, or -1 if it is not known
+     */
+    public S3ReaderSplit(String key, long start, long end, long objectSize) {
+        this.key = key;
+        this.start = start;
+        this.end = end;
+        this.objectSize = objectSize;
+    }
+
+    /**
+     * A split covering a whole object
+     */
+    public S3ReaderSplit(String key, long objectSize) {
+        this(key, 0, objectSize < 0 ? Long.MAX_VALUE : objectSize, objectSize);
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public long getStart() {
+        return this.start;
+    }
+
+    public long getEnd() {
+        return this.end;
+    }
+
+    public long getObjectSize() {
+        return this.objectSize;
+    }
+
+    /**
+     * @return true if this split is the whole object
+     */
+    public boolean isWholeObject() {
+        return this.start == 0 && (this.objectSize < 0 || this.end >= this.objectSize);
+    }
+
+    /**
+     * Splits an object into ranges of about splitSize bytes.  Compressed objects, objects of unknown size and a
+     * splitSize of 0 or less give a single split, since they can only be read from the beginning.
+     * @param key key of the object
+     * @param objectSize size of the object, or -1 if it is not known
+     * @param splitSize bytes per split
+     * @return the splits, in order
+     */
+    public static List<S3ReaderSplit> split(String key, long objectSize, long splitSize) {
+        List<S3ReaderSplit> splits = new ArrayList<>();
+        if(splitSize <= 0 || objectSize <= splitSize || LineCompression.fromFileName(key) != LineCompression.NONE) {
+            splits.add(new S3ReaderSplit(key, objectSize));
+            return splits;
+        }
+        for(long start = 0; start < objectSize; start += splitSize) {
+            splits.add(new S3ReaderSplit(key, start, Math.min(objectSize, start + splitSize), objectSize));
+        }
+        return splits;
+    }
+
+    @Override
+    public String toString() {
+        return this.key + "[" + this.start + "-" + this.end + "]";
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In memory stand in for Amazon S3 that supports put object, multipart uploads, listing and ranged gets
+ */
+public class LocalS3Client extends AmazonS3Client {
+
+    private final ConcurrentSkipListMap<String, byte[]> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, SortedMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final AtomicInteger uploadingParts = new AtomicInteger();
+    private final AtomicInteger maxUploadingParts = new AtomicInteger();
+    private final AtomicInteger initiated = new AtomicInteger();
+    private final AtomicInteger aborted = new AtomicInteger();
+    private final AtomicInteger gets = new AtomicInteger();
+    private final AtomicLong maxRangeLength = new AtomicLong();
+    private volatile int failPartNumber = -1;
+    private volatile long partDelayMs = 0;
+
+    public LocalS3Client() {
+        super(new BasicAWSCredentials("key", "secret"));
+    }
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest request) {
+        this.objects.put(request.getBucketName() + "/" + request.getKey(), readFully(request.getInputStream()));
+        return new PutObjectResult();
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+        String uploadId = UUID.randomUUID().toString();
+        this.uploads.put(uploadId, new ConcurrentSkipListMap<Integer, byte[]>());
+        this.initiated.incrementAndGet();
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setBucketName(request.getBucketName());
+        result.setKey(request.getKey());
+        result.setUploadId(uploadId);
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest request) {
+        int uploading = this.uploadingParts.incrementAndGet();
+        try {
+            int max = this.maxUploadingParts.get();
+            while(uploading > max && !this.maxUploadingParts.compareAndSet(max, uploading)) {
+                max = this.maxUploadingParts.get();
+            }
+            if(this.partDelayMs > 0) {
+                try {
+                    Thread.sleep(this.partDelayMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if(request.getPartNumber() == this.failPartNumber) {
+                throw new AmazonClientException("Failing part " + request.getPartNumber());
+            }
+            byte[] part = readFully(request.getInputStream());
+            if(part.length != request.getPartSize()) {
+                throw new AmazonClientException("Part size " + request.getPartSize() + " does not match " + part.length + " bytes read");
+            }
+            this.uploads.get(request.getUploadId()).put(request.getPartNumber(), part);
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag(Integer.toString(request.getPartNumber()));
+            return result;
+        } finally {
+            this.uploadingParts.decrementAndGet();
+        }
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        SortedMap<Integer, byte[]> parts = this.uploads.remove(request.getUploadId());
+        ByteArrayOutputStream object = new ByteArrayOutputStream();
+        for(PartETag partETag : request.getPartETags()) {
+            byte[] part = parts.get(partETag.getPartNumber());
+            object.write(part, 0, part.length);
+        }
+        this.objects.put(request.getBucketName() + "/" + request.getKey(), object.toByteArray());
+        return new CompleteMultipartUploadResult();
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+        this.uploads.remove(request.getUploadId());
+        this.aborted.incrementAndGet();
+    }
+
+    @Override
+    public ObjectListing listObjects(ListObjectsRequest request) {
+        return listObjects(request.getBucketName(), request.getPrefix(), request.getMarker(),
+                request.getMaxKeys() == null ? 1000 : request.getMaxKeys());
+    }
+
+    @Override
+    public ObjectListing listNextBatchOfObjects(ObjectListing previousListing) {
+        return listObjects(previousListing.getBucketName(), previousListing.getPrefix(), previousListing.getNextMarker(),
+                previousListing.getMaxKeys());
+    }
+
+    private ObjectListing listObjects(String bucketName, String prefix, String marker, int maxKeys) {
+        String from = bucketName + "/" + (prefix == null ? "" : prefix);
+        SortedMap<String, byte[]> matching = marker == null ? this.objects.tailMap(from) : this.objects.tailMap(bucketName + "/" + marker, false);
+        ObjectListing listing = new ObjectListing();
+        listing.setBucketName(bucketName);
+        listing.setPrefix(prefix);
+        listing.setMaxKeys(maxKeys);
+        for(Map.Entry<String, byte[]> object : matching.entrySet()) {
+            if(!object.getKey().startsWith(from))
+                break;
+            if(listing.getObjectSummaries().size() == maxKeys) {
+                listing.setTruncated(true);
+                break;
+            }
+            S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setBucketName(bucketName);
+            summary.setKey(object.getKey().substring(bucketName.length() + 1));
+            summary.setSize(object.getValue().length);
+            listing.getObjectSummaries().add(summary);
+            listing.setNextMarker(summary.getKey());
+        }
+        return listing;
+    }
+
+    @Override
+    public S3Object getObject(GetObjectRequest request) {
+        byte[] object = getStoredObject(request.getBucketName(), request.getKey());
+        if(object == null)
+            throw new AmazonClientException("No such key " + request.getKey());
+        int start = 0;
+        int end = object.length;
+        if(request.getRange() != null) {
+            start = (int) Math.min(object.length, request.getRange()[0]);
+            end = (int) Math.min(object.length, request.getRange()[1] + 1);
+            long length = request.getRange()[1] + 1 - request.getRange()[0];
+            long max;
+            while(length > (max = this.maxRangeLength.get()) && !this.maxRangeLength.compareAndSet(max, length));
+        }
+        this.gets.incrementAndGet();
+        S3Object s3Object = new S3Object();
+        s3Object.setBucketName(request.getBucketName());
+        s3Object.setKey(request.getKey());
+        s3Object.setObjectContent(new ByteArrayInputStream(object, start, end - start));
+        return s3Object;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+        byte[] object = getStoredObject(bucketName, key);
+        if(object == null)
+            throw new AmazonClientException("No such key " + key);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(object.length);
+        return metadata;
+    }
+
+    public void putStoredObject(String bucketName, String key, byte[] object) {
+        this.objects.put(bucketName + "/" + key, object);
+    }
+
+    public byte[] getStoredObject(String bucketName, String key) {
+        return this.objects.get(bucketName + "/" + key);
+    }
+
+    public int getObjectCount() {
+        return this.objects.size();
+    }
+
+    public int getInitiated() {
+        return this.initiated.get();
+    }
+
+    public int getAborted() {
+        return this.aborted.get();
+    }
+
+    public int getGets() {
+        return this.gets.get();
+    }
+
+    /**
+     * @return the longest byte range requested by a GET
+     */
+    public long getMaxRangeLength() {
+        return this.maxRangeLength.get();
+    }
+
+    public int getMaxUploadingParts() {
+        return this.maxUploadingParts.get();
+    }
+
+    public void setFailPartNumber(int failPartNumber) {
+        this.failPartNumber = failPartNumber;
+    }
+
+    public void setPartDelayMs(long partDelayMs) {
+        this.partDelayMs = partDelayMs;
+    }
+
+    private static byte[] readFully(InputStream in) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[512];
+        try {
+            int read;
+            while((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new AmazonClientException("Failed to read request", e);
+        }
+        return out.toByteArray();
+    }
+}
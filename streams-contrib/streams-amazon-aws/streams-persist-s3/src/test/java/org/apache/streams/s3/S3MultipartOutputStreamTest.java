@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.s3;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class S3MultipartOutputStreamTest {
+
+    private static final int PART_SIZE = 1024;
+    private static final int PARTS_IN_FLIGHT = 2;
+
+    private LocalS3Client s3Client;
+    private S3PartBufferPool bufferPool;
+    private ExecutorService uploadExecutor;
+
+    @Before
+    public void setUp() {
+        s3Client = new LocalS3Client();
+        bufferPool = new S3PartBufferPool(PART_SIZE, PARTS_IN_FLIGHT + 1);
+        uploadExecutor = Executors.newFixedThreadPool(PARTS_IN_FLIGHT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        uploadExecutor.shutdownNow();
+        uploadExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testSmallFileIsPutInOneRequest() throws Exception {
+        byte[] data = randomBytes(PART_SIZE - 1);
+        S3MultipartOutputStream out = newStream("small");
+        out.write(data);
+        out.close();
+
+        assertEquals(0, s3Client.getInitiated());
+        assertArrayEquals(data, s3Client.getStoredObject("bucket", "path/small"));
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        newStream("empty").close();
+
+        assertArrayEquals(new byte[0], s3Client.getStoredObject("bucket", "path/empty"));
+    }
+
+    @Test
+    public void testLargeFileIsUploadedInParts() throws Exception {
+        s3Client.setPartDelayMs(10);
+        byte[] data = randomBytes(PART_SIZE * 20 + 17);
+        S3MultipartOutputStream out = newStream("large");
+        int offset = 0;
+        Random random = new Random();
+        while(offset < data.length) {
+            int length = Math.min(data.length - offset, random.nextInt(PART_SIZE * 2));
+            out.write(data, offset, length);
+            offset += length;
+        }
+        out.write(42);
+        out.close();
+
+        byte[] expected = new byte[data.length + 1];
+        System.arraycopy(data, 0, expected, 0, data.length);
+        expected[data.length] = 42;
+        assertEquals(1, s3Client.getInitiated());
+        assertEquals(expected.length, out.getBytesWritten());
+        assertArrayEquals(expected, s3Client.getStoredObject("bucket", "path/large"));
+        //memory is capped by the pool no matter the size of the file
+        assertTrue(bufferPool.getAllocated() <= PARTS_IN_FLIGHT + 1);
+        assertTrue(s3Client.getMaxUploadingParts() <= PARTS_IN_FLIGHT);
+    }
+
+    @Test
+    public void testFileOfExactlyOnePart() throws Exception {
+        byte[] data = randomBytes(PART_SIZE);
+        S3MultipartOutputStream out = newStream("one_part");
+        out.write(data);
+        out.close();
+
+        assertArrayEquals(data, s3Client.getStoredObject("bucket", "path/one_part"));
+    }
+
+    @Test
+    public void testFailedPartAbortsUpload() throws Exception {
+        s3Client.setFailPartNumber(2);
+        S3MultipartOutputStream out = newStream("failed");
+        boolean failed = false;
+        try {
+            out.write(randomBytes(PART_SIZE * 10));
+        } catch (IOException e) {
+            failed = true;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            failed = true;
+        }
+
+        assertTrue(failed);
+
+        assertEquals(1, s3Client.getAborted());
+        assertNull(s3Client.getStoredObject("bucket", "path/failed"));
+        //every buffer made it back to the pool
+        for(int i=0; i < PARTS_IN_FLIGHT + 1; ++i) {
+            ByteBuffer buffer = acquireWithin(1000);
+            assertNotNull(buffer);
+        }
+    }
+
+    @Test
+    public void testWriteAfterFailedPart() throws Exception {
+        s3Client.setFailPartNumber(2);
+        S3MultipartOutputStream out = newStream("aborted");
+        byte[] part = randomBytes(PART_SIZE);
+        boolean failed = false;
+        //the failed part is noticed by a write once its upload is done
+        for(int i=0; i < 1000 && !failed; ++i) {
+            try {
+                out.write(part);
+            } catch (IOException e) {
+                failed = true;
+            }
+            Thread.sleep(1);
+        }
+        assertTrue(failed);
+        assertTrue(out.isAborted());
+        assertEquals(1, s3Client.getAborted());
+
+        try {
+            out.write(part);
+            fail("write to an aborted upload");
+        } catch (IOException e) {
+            //expected
+        }
+        try {
+            out.close();
+            fail("close of an aborted upload");
+        } catch (IOException e) {
+            //expected
+        }
+        assertEquals(1, s3Client.getAborted());
+        assertNull(s3Client.getStoredObject("bucket", "path/aborted"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteAfterClose() throws Exception {
+        S3MultipartOutputStream out = newStream("closed");
+        out.close();
+        out.write(1);
+    }
+
+    private S3MultipartOutputStream newStream(String fileName) {
+        return new S3MultipartOutputStream(s3Client, "bucket", "path/", fileName, new HashMap<String, String>(), bufferPool, uploadExecutor);
+    }
+
+    private ByteBuffer acquireWithin(long timeoutMs) throws Exception {
+        return uploadExecutor.submit(new Callable<ByteBuffer>() {
+            @Override
+            public ByteBuffer call() throws Exception {
+                return bufferPool.acquire();
+            }
+        }).get(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random().nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.s3;
+
+import org.apache.streams.converter.LineCompression;
+import org.apache.streams.converter.LineReadWriteUtil;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.core.StreamsResultSet;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class S3PersistReaderTest {
+
+    private static final String BUCKET = "random_bucket";
+
+    /**
+     * Lines crossing split boundaries must be read once, by the split they start in
+     */
+    @Test
+    public void testReadSplitsOnce() throws Exception {
+        LocalS3Client s3Client = new LocalS3Client();
+        int lines = writeObject(s3Client, "read_path/a.tsv", 0, 200, LineCompression.NONE)
+                + writeObject(s3Client, "read_path/b.tsv", 200, 35, LineCompression.NONE)
+                + writeObject(s3Client, "read_path/c.tsv.gz", 235, 50, LineCompression.GZIP);
+
+        S3PersistReader reader = new S3PersistReader(s3Client, getConfig(3)) {
+            @Override
+            protected long getSplitSizeBytes() {
+                return 97;
+            }
+        };
+        reader.prepare(null);
+        assertEquals(3, reader.getFiles().size());
+        reader.startStream();
+
+        Map<String, Integer> seen = readAll(reader);
+        assertEquals(lines, seen.size());
+        for(int i=0; i < lines; ++i) {
+            assertEquals("id" + i, Integer.valueOf(1), seen.get("id" + i));
+        }
+        assertTrue(s3Client.getGets() > 3);
+        assertEquals(lines, reader.getDatumStatusCounter().getSuccess());
+        assertEquals(0, reader.getDatumStatusCounter().getFail());
+        long linesRead = 0;
+        for(S3PersistReaderTask task : reader.getTasks()) {
+            linesRead += task.getLinesRead();
+        }
+        assertEquals(lines, linesRead);
+        reader.cleanUp();
+    }
+
+    /**
+     * Splits must only request their own range and a little more, and still finish lines longer than that
+     */
+    @Test
+    public void testSplitsRequestTheirRange() throws Exception {
+        LocalS3Client s3Client = new LocalS3Client();
+        int lines = writeObject(s3Client, "read_path/a.tsv", 0, 300, LineCompression.NONE);
+
+        S3PersistReader reader = new S3PersistReader(s3Client, getConfig(2)) {
+            @Override
+            protected long getSplitSizeBytes() {
+                return 200;
+            }
+
+            @Override
+            protected long getMaxLineLengthBytes() {
+                return 16;
+            }
+        };
+        reader.prepare(null);
+        reader.startStream();
+
+        Map<String, Integer> seen = readAll(reader);
+        assertEquals(lines, seen.size());
+        for(int i=0; i < lines; ++i) {
+            assertEquals("id" + i, Integer.valueOf(1), seen.get("id" + i));
+        }
+        // a byte before the split, the split and the bytes past it
+        assertTrue(s3Client.getMaxRangeLength() <= 1 + 200 + 16);
+        reader.cleanUp();
+    }
+
+    @Test
+    public void testReadSingleFile() throws Exception {
+        LocalS3Client s3Client = new LocalS3Client();
+        int lines = writeObject(s3Client, "read_path/a.tsv", 0, 20, LineCompression.NONE);
+
+        S3ReaderConfiguration config = getConfig(2);
+        config.setReaderPath("read_path/a.tsv");
+        S3PersistReader reader = new S3PersistReader(s3Client, config);
+        reader.prepare(null);
+        reader.startStream();
+
+        assertEquals(lines, readAll(reader).size());
+        reader.cleanUp();
+    }
+
+    private Map<String, Integer> readAll(S3PersistReader reader) throws Exception {
+        Map<String, Integer> seen = new HashMap<>();
+        boolean running = true;
+        while(running) {
+            running = reader.isRunning();
+            StreamsResultSet batch = reader.readCurrent();
+            for(StreamsDatum datum : batch) {
+                Integer count = seen.get(datum.getId());
+                seen.put(datum.getId(), count == null ? 1 : count + 1);
+            }
+            if(running)
+                Thread.sleep(10);
+        }
+        return seen;
+    }
+
+    private int writeObject(LocalS3Client s3Client, String key, int firstId, int count, LineCompression compression) throws Exception {
+        LineReadWriteUtil lineReadWriteUtil = new LineReadWriteUtil();
+        ByteArrayOutputStream object = new ByteArrayOutputStream();
+        OutputStream out = compression.compress(object);
+        for(int i=firstId; i < firstId + count; ++i) {
+            StringBuilder document = new StringBuilder("document");
+            for(int j=0; j < i % 13; ++j) {
+                document.append(" ").append(j);
+            }
+            out.write(lineReadWriteUtil.convertResultToString(new StreamsDatum(document.toString(), "id" + i)).getBytes(Charset.forName("UTF-8")));
+        }
+        out.close();
+        s3Client.putStoredObject(BUCKET, key, object.toByteArray());
+        return count;
+    }
+
+    private S3ReaderConfiguration getConfig(int readerThreads) {
+        S3ReaderConfiguration s3ReaderConfiguration = new S3ReaderConfiguration();
+
+        s3ReaderConfiguration.setReaderPath("read_path/");
+        s3ReaderConfiguration.setBucket(BUCKET);
+        s3ReaderConfiguration.setKey("key");
+        s3ReaderConfiguration.setProtocol(S3Configuration.Protocol.HTTP);
+        s3ReaderConfiguration.setSecretKey("secret!");
+        s3ReaderConfiguration.setReaderThreads((long) readerThreads);
+
+        return s3ReaderConfiguration;
+    }
+}
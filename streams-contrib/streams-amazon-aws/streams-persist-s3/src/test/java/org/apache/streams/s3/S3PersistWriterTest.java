@@ -18,10 +18,17 @@
 
 package org.apache.streams.s3;
 
+import com.google.common.base.Strings;
+import org.apache.streams.core.DatumStatusCounter;
+import org.apache.streams.core.StreamsDatum;
 import org.junit.After;
 import org.junit.Test;
 
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class S3PersistWriterTest {
     private S3PersistWriter s3PersistWriter;
@@ -56,6 +63,53 @@ public class S3PersistWriterTest {
         s3PersistWriter.cleanUp();
     }
 
+    @Test
+    public void testWriteToLocalS3() {
+        LocalS3Client s3Client = new LocalS3Client();
+        s3PersistWriter = new S3PersistWriter(s3Client, getGoodConfig());
+
+        s3PersistWriter.prepare(null);
+        for(int i=0; i < 3; ++i) {
+            s3PersistWriter.write(new StreamsDatum("document" + i, "id" + i));
+        }
+        s3PersistWriter.cleanUp();
+
+        assertEquals(1, s3PersistWriter.getWrittenFiles().size());
+        byte[] object = s3Client.getStoredObject("random_bucket", s3PersistWriter.getWrittenFiles().get(0));
+        assertNotNull(object);
+        String[] lines = new String(object, Charset.forName("UTF-8")).split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("id0", lines[0].split("\t")[0]);
+    }
+
+    @Test
+    public void testFailedUploadIsCountedAsFailed() {
+        LocalS3Client s3Client = new LocalS3Client();
+        s3Client.setFailPartNumber(2);
+        S3WriterConfiguration config = getGoodConfig();
+        config.setMaxFileSize(12L);
+        s3PersistWriter = new S3PersistWriter(s3Client, config);
+
+        s3PersistWriter.prepare(null);
+        // the first file fills two parts and fails when it is rolled over, the rest fits in a single put
+        String document = Strings.repeat("x", 100 * 1024);
+        int numDatums = 130;
+        for(int i=0; i < numDatums; ++i) {
+            s3PersistWriter.write(new StreamsDatum(document, "id" + i));
+        }
+        s3PersistWriter.cleanUp();
+
+        DatumStatusCounter counter = s3PersistWriter.getDatumStatusCounter();
+        assertEquals(numDatums, counter.getAttempted());
+        assertEquals(numDatums, counter.getSuccess() + counter.getFail());
+        assertTrue(counter.getFail() > 0);
+        assertEquals(1, s3Client.getAborted());
+        assertEquals(1, s3PersistWriter.getWrittenFiles().size());
+        byte[] object = s3Client.getStoredObject("random_bucket", s3PersistWriter.getWrittenFiles().get(0));
+        assertNotNull(object);
+        assertEquals(counter.getSuccess(), new String(object, Charset.forName("UTF-8")).split("\n").length);
+    }
+
     private S3WriterConfiguration getBadConfig() {
         S3WriterConfiguration s3WriterConfiguration = new S3WriterConfiguration();
 
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.s3;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class S3ReaderSplitTest {
+
+    @Test
+    public void testSplitCoversObject() {
+        List<S3ReaderSplit> splits = S3ReaderSplit.split("path/file.tsv", 250, 100);
+        assertEquals(3, splits.size());
+        long expectedStart = 0;
+        for(S3ReaderSplit split : splits) {
+            assertEquals(expectedStart, split.getStart());
+            assertFalse(split.isWholeObject());
+            expectedStart = split.getEnd();
+        }
+        assertEquals(250, expectedStart);
+    }
+
+    @Test
+    public void testSmallObjectIsNotSplit() {
+        List<S3ReaderSplit> splits = S3ReaderSplit.split("path/file.tsv", 100, 100);
+        assertEquals(1, splits.size());
+        assertTrue(splits.get(0).isWholeObject());
+    }
+
+    @Test
+    public void testCompressedAndUnknownSizesAreNotSplit() {
+        assertEquals(1, S3ReaderSplit.split("path/file.tsv.gz", 1000, 100).size());
+        assertEquals(1, S3ReaderSplit.split("path/file.tsv", -1, 100).size());
+        assertEquals(1, S3ReaderSplit.split("path/file.tsv", 1000, 0).size());
+        assertTrue(S3ReaderSplit.split("path/file.tsv", -1, 100).get(0).isWholeObject());
+    }
+}
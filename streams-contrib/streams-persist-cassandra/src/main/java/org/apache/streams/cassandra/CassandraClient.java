@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.cassandra;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.exceptions.AlreadyExistsException;
+import com.datastax.driver.core.policies.RoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connects to the keyspace of a {@link CassandraPersistConfiguration}, creating it and the document tables if they
+ * are missing.  Documents are stored by id in the table, and by tag in table_by_tag.
+ */
+public class CassandraClient {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CassandraClient.class);
+
+    private final CassandraPersistConfiguration config;
+    private final Cluster cluster;
+    private final Session session;
+
+    public CassandraClient(CassandraPersistConfiguration config) {
+        this.config = config;
+
+        // prepared statements are sent straight to a replica of their partition
+        this.cluster = Cluster.builder()
+                .addContactPoints(config.getHosts().toArray(new String[0]))
+                .withPort(config.getPort().intValue())
+                .withLoadBalancingPolicy(new TokenAwarePolicy(new RoundRobinPolicy()))
+                .build();
+
+        Session system = cluster.connect();
+        try {
+            system.execute("CREATE KEYSPACE " + config.getKeyspace() +
+                    " WITH replication = { 'class': 'SimpleStrategy', 'replication_factor' : " + config.getReplicationFactor() + " };");
+        } catch (AlreadyExistsException ignored) {
+        }
+        system.shutdown();
+
+        this.session = cluster.connect(config.getKeyspace());
+
+        createTable("CREATE TABLE " + getTable() + " (" +
+                "id text, " +
+                "published timestamp, " +
+                "document text, " +
+                "PRIMARY KEY (id));");
+        createTable("CREATE TABLE " + getTagTable() + " (" +
+                "tag text, " +
+                "published timestamp, " +
+                "id text, " +
+                "document text, " +
+                "PRIMARY KEY (tag, published, id));");
+    }
+
+    private void createTable(String cql) {
+        try {
+            session.execute(cql);
+        } catch (AlreadyExistsException ignored) {
+        }
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * @return the table of documents by id
+     */
+    public String getTable() {
+        return config.getTable();
+    }
+
+    /**
+     * @return the table of documents partitioned by tag
+     */
+    public String getTagTable() {
+        return config.getTable() + "_by_tag";
+    }
+
+    public void close() {
+        LOGGER.info("Disconnecting from {}", config.getHosts());
+        cluster.shutdown();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.cassandra;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CassandraConfigurator {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CassandraConfigurator.class);
+
+    public static CassandraPersistConfiguration detectConfiguration(Config cassandra) {
+
+        CassandraPersistConfiguration cassandraConfiguration = new CassandraPersistConfiguration();
+
+        cassandraConfiguration.setHosts(cassandra.getStringList("hosts"));
+        cassandraConfiguration.setKeyspace(cassandra.getString("keyspace"));
+        cassandraConfiguration.setTable(cassandra.getString("table"));
+
+        if( cassandra.hasPath("port"))
+            cassandraConfiguration.setPort(cassandra.getLong("port"));
+        if( cassandra.hasPath("replicationFactor"))
+            cassandraConfiguration.setReplicationFactor(cassandra.getLong("replicationFactor"));
+        if( cassandra.hasPath("tagField"))
+            cassandraConfiguration.setTagField(cassandra.getString("tagField"));
+        if( cassandra.hasPath("batchSize"))
+            cassandraConfiguration.setBatchSize(cassandra.getLong("batchSize"));
+        if( cassandra.hasPath("maxInFlight"))
+            cassandraConfiguration.setMaxInFlight(cassandra.getLong("maxInFlight"));
+        if( cassandra.hasPath("maxTimeBetweenFlushMs"))
+            cassandraConfiguration.setMaxTimeBetweenFlushMs(cassandra.getLong("maxTimeBetweenFlushMs"));
+        if( cassandra.hasPath("readerThreads"))
+            cassandraConfiguration.setReaderThreads(cassandra.getLong("readerThreads"));
+        if( cassandra.hasPath("pageSize"))
+            cassandraConfiguration.setPageSize(cassandra.getLong("pageSize"));
+        return cassandraConfiguration;
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.cassandra;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
+import org.apache.streams.config.StreamsConfigurator;
+import org.apache.streams.core.DatumStatusCounter;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.core.StreamsPersistReader;
+import org.apache.streams.core.StreamsResultSet;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Reads every document of the table.  The token ring is split into ranges that readerThreads workers scan at the
+ * same time, pageSize rows per query, into a bounded queue.
+ */
+public class CassandraPersistReader implements StreamsPersistReader {
+
+    public final static String STREAMS_ID = "CassandraPersistReader";
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CassandraPersistReader.class);
+
+    private final static int MAX_QUEUE_SIZE = 10000;
+
+    // ranges per worker, so a worker done with a sparse range takes another
+    private final static int RANGES_PER_THREAD = 4;
+
+    protected BlockingQueue<StreamsDatum> persistQueue;
+
+    private CassandraPersistConfiguration config;
+    private CassandraClient client;
+    private PreparedStatement selectRange;
+    private int pageSize = 1000;
+    private int readerThreads = 4;
+
+    private final Queue<CassandraTokenRange> ranges = new ConcurrentLinkedQueue<CassandraTokenRange>();
+    private ExecutorService executor;
+    private final List<Future<?>> readerTasks = Lists.newArrayList();
+
+    public CassandraPersistReader() {
+        this(CassandraConfigurator.detectConfiguration(StreamsConfigurator.config.getConfig("cassandra")));
+    }
+
+    public CassandraPersistReader(CassandraPersistConfiguration config) {
+        this.config = config;
+    }
+
+    public CassandraPersistReader(CassandraPersistConfiguration config, CassandraClient client) {
+        this.config = config;
+        this.client = client;
+    }
+
+    @Override
+    public void prepare(Object configurationObject) {
+        if (config.getPageSize() != null)
+            pageSize = Math.max(1, config.getPageSize().intValue());
+        if (config.getReaderThreads() != null)
+            readerThreads = Math.max(1, config.getReaderThreads().intValue());
+
+        persistQueue = new LinkedBlockingQueue<StreamsDatum>(MAX_QUEUE_SIZE);
+
+        if (client == null)
+            client = new CassandraClient(config);
+        selectRange = client.getSession().prepare("SELECT token(id), id, published, document FROM " + client.getTable() +
+                " WHERE token(id) > ? AND token(id) <= ? LIMIT " + pageSize);
+
+        ranges.addAll(CassandraTokenRange.split(readerThreads * RANGES_PER_THREAD));
+    }
+
+    @Override
+    public void startStream() {
+        LOGGER.debug("startStream");
+        executor = Executors.newFixedThreadPool(readerThreads);
+        for (int i = 0; i < readerThreads; i++)
+            readerTasks.add(executor.submit(new CassandraPersistReaderTask(this)));
+    }
+
+    protected CassandraTokenRange nextRange() {
+        return ranges.poll();
+    }
+
+    protected Session getSession() {
+        return client.getSession();
+    }
+
+    protected PreparedStatement getSelectRange() {
+        return selectRange;
+    }
+
+    protected int getPageSize() {
+        return pageSize;
+    }
+
+    //Blocks while the queue is full, so the workers only run ahead of the stream by the size of the queue
+    protected void write(StreamsDatum entry) throws InterruptedException {
+        persistQueue.put(entry);
+    }
+
+    @Override
+    public StreamsResultSet readAll() {
+        return readCurrent();
+    }
+
+    @Override
+    public StreamsResultSet readCurrent() {
+        Queue<StreamsDatum> batch = Queues.newConcurrentLinkedQueue();
+        persistQueue.drainTo(batch);
+
+        StreamsResultSet current = new StreamsResultSet(batch);
+        current.setCounter(new DatumStatusCounter());
+        return current;
+    }
+
+    //The table is keyed by id only, so there is no sequence to continue from
+    @Override
+    public StreamsResultSet readNew(BigInteger sequence) {
+        return null;
+    }
+
+    //Filtering on published would scan every partition, use readAll and filter the stream instead
+    @Override
+    public StreamsResultSet readRange(DateTime start, DateTime end) {
+        return null;
+    }
+
+    //The workers are checked first, so what they wrote before finishing is seen in the queue
+    @Override
+    public boolean isRunning() {
+        for (Future<?> readerTask : readerTasks)
+            if (!readerTask.isDone())
+                return true;
+        return persistQueue.size() > 0;
+    }
+
+    @Override
+    public void cleanUp() {
+        if (executor != null)
+            executor.shutdownNow();
+        if (client != null)
+            client.close();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.cassandra;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.jackson.StreamsJacksonMapper;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Scans the token ranges handed out by a {@link CassandraPersistReader} a page at a time, each page starting after the
+ * last token of the one before.
+ */
+public class CassandraPersistReaderTask implements Runnable {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CassandraPersistReaderTask.class);
+
+    private final CassandraPersistReader reader;
+    private final ObjectMapper mapper = StreamsJacksonMapper.getInstance();
+
+    public CassandraPersistReaderTask(CassandraPersistReader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public void run() {
+        CassandraTokenRange range;
+        try {
+            while ((range = reader.nextRange()) != null)
+                read(range);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void read(CassandraTokenRange range) throws InterruptedException {
+        LOGGER.debug("Reading tokens {}", range);
+        long start = range.getStart();
+        int rows;
+        do {
+            ResultSet page = reader.getSession().execute(reader.getSelectRange().bind(start, range.getEnd()));
+            rows = 0;
+            // a partition sharing the last token of a full page would be skipped, murmur3 collisions are that rare
+            for (Row row : page) {
+                rows++;
+                start = row.getLong(0);
+                StreamsDatum datum = prepareDatum(row);
+                if (datum != null)
+                    reader.write(datum);
+            }
+        } while (rows >= reader.getPageSize());
+    }
+
+    private StreamsDatum prepareDatum(Row row) {
+        String id = row.getString(1);
+        try {
+            StreamsDatum datum = new StreamsDatum(mapper.readValue(row.getString(3), ObjectNode.class), id);
+            Date published = row.getDate(2);
+            if (published != null)
+                datum.setTimestamp(new DateTime(published));
+            return datum;
+        } catch (IOException e) {
+            LOGGER.warn("Document {} isn't valid JSON", id);
+            return null;
+        }
+    }
+}
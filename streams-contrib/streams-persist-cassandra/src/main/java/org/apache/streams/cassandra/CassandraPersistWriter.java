@@ -0,0 +1,345 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.cassandra;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Query;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import org.apache.streams.config.StreamsConfigurator;
+import org.apache.streams.core.DatumStatus;
+import org.apache.streams.core.DatumStatusCountable;
+import org.apache.streams.core.DatumStatusCounter;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.core.StreamsPersistWriter;
+import org.apache.streams.jackson.StreamsJacksonMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes documents to the table by id, and to table_by_tag once for each of their tags.  Every request is a prepared
+ * statement executed asynchronously, routed to a replica of its partition, with up to maxInFlight requests at once.
+ * The rows of a tag are collected into unlogged batches of batchSize rows, so each batch writes to one partition.
+ */
+public class CassandraPersistWriter implements StreamsPersistWriter, DatumStatusCountable, Flushable, Closeable {
+
+    public final static String STREAMS_ID = "CassandraPersistWriter";
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CassandraPersistWriter.class);
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static int DEFAULT_BATCH_SIZE = 20;
+    private final static int DEFAULT_MAX_IN_FLIGHT = 128;
+    private final static long DEFAULT_MAX_WAIT = 1000;
+
+    private ObjectMapper mapper = StreamsJacksonMapper.getInstance();
+
+    private CassandraPersistConfiguration config;
+    private CassandraClient client;
+    private Session session;
+
+    private PreparedStatement insertDocument;
+    // unlogged batches of one to batchSize tag rows, prepared as they are needed
+    private final ConcurrentMap<Integer, PreparedStatement> insertTagBatches = new ConcurrentHashMap<Integer, PreparedStatement>();
+    // the rows of each tag waiting for a batch, removed once they are sent so only the recently seen tags are kept
+    private final ConcurrentMap<String, Queue<Object[]>> pendingTags = new ConcurrentHashMap<String, Queue<Object[]>>();
+
+    private String tagField = "tags";
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private long maxWait = DEFAULT_MAX_WAIT;
+
+    private Semaphore inFlight;
+    private ScheduledExecutorService scheduler;
+
+    private final AtomicLong totalOk = new AtomicLong(0);
+    private final AtomicLong totalFailed = new AtomicLong(0);
+    private final AtomicLong tagRowsOk = new AtomicLong(0);
+    private final AtomicLong tagRowsFailed = new AtomicLong(0);
+    private final AtomicLong tagBatches = new AtomicLong(0);
+
+    public CassandraPersistWriter() {
+        this(CassandraConfigurator.detectConfiguration(StreamsConfigurator.config.getConfig("cassandra")));
+    }
+
+    public CassandraPersistWriter(CassandraPersistConfiguration config) {
+        this.config = config;
+    }
+
+    public CassandraPersistWriter(CassandraPersistConfiguration config, CassandraClient client) {
+        this.config = config;
+        this.client = client;
+    }
+
+    public long getTotalOk()            { return this.totalOk.get(); }
+    public long getTotalFailed()        { return this.totalFailed.get(); }
+    public long getTagRowsOk()          { return this.tagRowsOk.get(); }
+    public long getTagRowsFailed()      { return this.tagRowsFailed.get(); }
+    public long getTagBatches()         { return this.tagBatches.get(); }
+    public long getTagsPending()        { return this.pendingTags.size(); }
+
+    @Override
+    public void prepare(Object configurationObject) {
+        if (config.getTagField() != null)
+            tagField = config.getTagField();
+        if (config.getBatchSize() != null)
+            batchSize = Math.max(1, config.getBatchSize().intValue());
+        if (config.getMaxInFlight() != null)
+            maxInFlight = Math.max(1, config.getMaxInFlight().intValue());
+        if (config.getMaxTimeBetweenFlushMs() != null)
+            maxWait = config.getMaxTimeBetweenFlushMs();
+
+        inFlight = new Semaphore(maxInFlight);
+
+        if (client == null)
+            client = new CassandraClient(config);
+        session = client.getSession();
+        insertDocument = session.prepare("INSERT INTO " + client.getTable() + " (id, published, document) VALUES (?, ?, ?)");
+
+        // send the tags whose batches fill up slowly
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CassandraPersistWriter-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sendTags();
+            }
+        }, maxWait, maxWait, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void write(StreamsDatum streamsDatum) {
+
+        String document;
+        JsonNode node = null;
+        try {
+            if (streamsDatum.getDocument() instanceof String) {
+                document = (String) streamsDatum.getDocument();
+                // only parsed if it might have tags
+                if (document.contains("\"" + tagField + "\""))
+                    node = mapper.readTree(document);
+            } else {
+                node = mapper.valueToTree(streamsDatum.getDocument());
+                document = mapper.writeValueAsString(node);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Invalid json: {}", streamsDatum.getDocument());
+            totalFailed.incrementAndGet();
+            return;
+        }
+
+        String id = streamsDatum.getId() != null ? streamsDatum.getId() :
+                Hashing.murmur3_128().hashString(document, UTF8).toString();
+        Date published = streamsDatum.getTimestamp() != null ? streamsDatum.getTimestamp().toDate() : new Date();
+
+        execute(insertDocument.bind(id, published, document), 1, totalOk, totalFailed);
+
+        for (String tag : getTags(node, tagField)) {
+            Queue<Object[]> rows = pendingTags.get(tag);
+            if (rows == null) {
+                Queue<Object[]> created = new ConcurrentLinkedQueue<Object[]>();
+                rows = pendingTags.putIfAbsent(tag, created);
+                if (rows == null)
+                    rows = created;
+            }
+            rows.add(new Object[] {tag, published, id, document});
+            if (pendingTags.get(tag) != rows)
+                // sendTags removed the queue before seeing this row, so nothing else will send it
+                sendRows(rows, true);
+            else if (rows.size() >= batchSize)
+                sendRows(rows, false);
+        }
+    }
+
+    /**
+     * The tags of a document, from an array or a space separated string
+     * @param document the document, may be null
+     * @param field the field holding the tags
+     * @return the tags, empty if there are none
+     */
+    protected static List<String> getTags(JsonNode document, String field) {
+        JsonNode tags = document == null ? null : document.get(field);
+        if (tags == null)
+            return Collections.emptyList();
+        List<String> result = Lists.newArrayList();
+        if (tags.isArray()) {
+            for (JsonNode tag : tags)
+                if (tag.isTextual() && tag.textValue().length() > 0)
+                    result.add(tag.textValue());
+        } else if (tags.isTextual()) {
+            for (String tag : tags.textValue().split("\\s+"))
+                if (tag.length() > 0)
+                    result.add(tag);
+        }
+        return result;
+    }
+
+    /**
+     * Sends the rows of every tag, removing the queues it empties.  A row added while its queue is removed is sent
+     * again here if it was added before the removal, or by the writer that added it if not.
+     */
+    private void sendTags() {
+        for (Map.Entry<String, Queue<Object[]>> entry : pendingTags.entrySet()) {
+            Queue<Object[]> rows = entry.getValue();
+            sendRows(rows, true);
+            if (rows.isEmpty() && pendingTags.remove(entry.getKey(), rows))
+                sendRows(rows, true);
+        }
+    }
+
+    /**
+     * Sends full batches of the rows of a tag, and the last partial one too if all is set
+     */
+    private void sendRows(Queue<Object[]> rows, boolean all) {
+        while (rows.size() >= batchSize || (all && !rows.isEmpty())) {
+            List<Object> values = Lists.newArrayListWithCapacity(batchSize * 4);
+            int count = 0;
+            Object[] row;
+            while (count < batchSize && (row = rows.poll()) != null) {
+                Collections.addAll(values, row);
+                count++;
+            }
+            if (count == 0)
+                return;
+            tagBatches.incrementAndGet();
+            execute(insertTagBatch(count).bind(values.toArray()), count, tagRowsOk, tagRowsFailed);
+        }
+    }
+
+    private PreparedStatement insertTagBatch(int rows) {
+        PreparedStatement statement = insertTagBatches.get(rows);
+        if (statement == null) {
+            StringBuilder cql = new StringBuilder("BEGIN UNLOGGED BATCH ");
+            for (int i = 0; i < rows; i++)
+                cql.append("INSERT INTO ").append(client.getTagTable()).append(" (tag, published, id, document) VALUES (?, ?, ?, ?); ");
+            cql.append("APPLY BATCH");
+            statement = session.prepare(cql.toString());
+            PreparedStatement existing = insertTagBatches.putIfAbsent(rows, statement);
+            if (existing != null)
+                statement = existing;
+        }
+        return statement;
+    }
+
+    /**
+     * Executes a statement asynchronously, waiting while maxInFlight requests are outstanding
+     */
+    private void execute(Query statement, final int rows, final AtomicLong ok, final AtomicLong failed) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.addAndGet(rows);
+            return;
+        }
+        ResultSetFuture future;
+        try {
+            future = session.executeAsync(statement);
+        } catch (RuntimeException e) {
+            inFlight.release();
+            failed.addAndGet(rows);
+            LOGGER.warn("Failure executing write: {}", e.getMessage());
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet result) {
+                ok.addAndGet(rows);
+                inFlight.release();
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                failed.addAndGet(rows);
+                inFlight.release();
+                LOGGER.warn("Failure executing write: {}", throwable.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Sends the rows of every tag and waits for the requests in flight
+     */
+    public void flush() throws IOException {
+        sendTags();
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for writes in flight", e);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        scheduler.shutdownNow();
+        client.close();
+    }
+
+    @Override
+    public void cleanUp() {
+        try {
+            flush();
+        } catch (IOException e) {
+            LOGGER.error("Error flushing", e);
+        }
+        try {
+            close();
+        } catch (IOException e) {
+            LOGGER.error("Error closing", e);
+        }
+        LOGGER.info("Wrote {} documents, {} failed, and {} tag rows in {} batches, {} failed",
+                totalOk.get(), totalFailed.get(), tagRowsOk.get(), tagBatches.get(), tagRowsFailed.get());
+    }
+
+    @Override
+    public DatumStatusCounter getDatumStatusCounter() {
+        DatumStatusCounter counters = new DatumStatusCounter();
+        counters.incrementAttempt((int) (this.totalOk.get() + this.totalFailed.get()));
+        counters.incrementStatus(DatumStatus.SUCCESS, (int) this.totalOk.get());
+        counters.incrementStatus(DatumStatus.FAIL, (int) this.totalFailed.get());
+        return counters;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.cassandra;
+
+import com.google.common.collect.Lists;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * A range of the token ring of the Murmur3Partitioner, from start exclusive to end inclusive.  The minimum token is
+ * never assigned to a key, so the ranges starting at it cover the ring.
+ */
+public class CassandraTokenRange {
+
+    private final long start;
+    private final long end;
+
+    public CassandraTokenRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Splits the ring into ranges of equal size
+     * @param count number of ranges
+     * @return the ranges, in token order
+     */
+    public static List<CassandraTokenRange> split(int count) {
+        count = Math.max(1, count);
+        BigInteger min = BigInteger.valueOf(Long.MIN_VALUE);
+        BigInteger size = BigInteger.valueOf(Long.MAX_VALUE).subtract(min);
+        List<CassandraTokenRange> ranges = Lists.newArrayListWithCapacity(count);
+        long start = Long.MIN_VALUE;
+        for (int i = 1; i <= count; i++) {
+            long end = i == count ? Long.MAX_VALUE :
+                    min.add(size.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(count))).longValue();
+            ranges.add(new CassandraTokenRange(start, end));
+            start = end;
+        }
+        return ranges;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + start + ", " + end + "]";
+    }
+}
@@ -18,18 +18,18 @@
 
 package org.apache.streams.cassandra.repository.impl;
 
-import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.exceptions.AlreadyExistsException;
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.rave.model.ActivityStreamsEntry;
 import org.apache.rave.model.ActivityStreamsObject;
-import org.apache.rave.portal.model.impl.ActivityStreamsEntryImpl;
 import org.apache.rave.portal.model.impl.ActivityStreamsObjectImpl;
+import org.apache.streams.cassandra.CassandraTokenRange;
 import org.apache.streams.cassandra.configuration.CassandraConfiguration;
 import org.apache.streams.cassandra.model.CassandraActivityStreamsEntry;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -39,20 +39,62 @@ import java.util.Date;
 import java.util.List;
 
 
+/**
+ * Stores entries by id, and again in a table partitioned by tag so the entries of a tag published after a date are
+ * read from one partition instead of filtering the whole table.  When the tag table is created, the entries already
+ * stored by id are copied into it.
+ */
 public class CassandraActivityStreamsRepository {
 
     private static final Log LOG = LogFactory.getLog(CassandraActivityStreamsRepository.class);
 
+    private static final String COLUMNS = "id, published, verb, tags, " +
+            "actor_displayname, actor_objecttype, actor_id, actor_url, " +
+            "target_displayname, target_id, target_url, " +
+            "provider_url, " +
+            "object_displayname, object_objecttype, object_id, object_url";
+
+    private static final String BIND_MARKERS = "?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?";
+
+    // the table by id is copied a token range at a time, so every query returns a small part of it
+    private static final int BACKFILL_RANGES = 1024;
+
     private CassandraKeyspace keyspace;
     private CassandraConfiguration configuration;
 
+    private PreparedStatement insertEntry;
+    private PreparedStatement insertEntryByTag;
+    private PreparedStatement selectByTag;
+    private PreparedStatement selectRange;
+
     @Autowired
     public CassandraActivityStreamsRepository(CassandraKeyspace keyspace, CassandraConfiguration configuration) {
         this.configuration = configuration;
         this.keyspace = keyspace;
 
+        createTable(configuration.getActivitystreamsColumnFamilyName(), "id, tags, published");
+        boolean backfill = createTable(getTagColumnFamilyName(), "tags, published, id");
+
+        Session session = keyspace.getSession();
+        insertEntry = session.prepare("INSERT INTO " + configuration.getActivitystreamsColumnFamilyName() +
+                " (" + COLUMNS + ") VALUES (" + BIND_MARKERS + ")");
+        insertEntryByTag = session.prepare("INSERT INTO " + getTagColumnFamilyName() +
+                " (" + COLUMNS + ") VALUES (" + BIND_MARKERS + ")");
+        selectByTag = session.prepare("SELECT * FROM " + getTagColumnFamilyName() + " WHERE tags = ? AND published > ?");
+        selectRange = session.prepare("SELECT " + COLUMNS + " FROM " + configuration.getActivitystreamsColumnFamilyName() +
+                " WHERE token(id) > ? AND token(id) <= ?");
+
+        if (backfill)
+            backfillTagTable();
+    }
+
+    /**
+     * Creates a table of entries
+     * @return true if the table was created, false if it already existed
+     */
+    private boolean createTable(String name, String primaryKey) {
         try {
-            keyspace.getSession().execute("CREATE TABLE " + configuration.getActivitystreamsColumnFamilyName() + " (" +
+            keyspace.getSession().execute("CREATE TABLE " + name + " (" +
                     "id text, " +
                     "published timestamp, " +
                     "verb text, " +
@@ -74,58 +116,87 @@ public class CassandraActivityStreamsRepository {
                     "object_id text, " +
                     "object_objecttype text, " +
 
-                    "PRIMARY KEY (id, tags, published));");
+                    "PRIMARY KEY (" + primaryKey + "));");
+            return true;
         } catch (AlreadyExistsException ignored) {
+            return false;
         }
     }
 
+    /**
+     * Copies every entry of the table by id into the table by tag.  Writing a row again overwrites it, so this can be
+     * run again if the copy made when the tag table was created was interrupted.
+     */
+    public void backfillTagTable() {
+        LOG.info("Copying " + configuration.getActivitystreamsColumnFamilyName() + " into " + getTagColumnFamilyName());
+        Session session = keyspace.getSession();
+        String[] columns = COLUMNS.split(", ");
+        long copied = 0;
+        for (CassandraTokenRange range : CassandraTokenRange.split(BACKFILL_RANGES)) {
+            List<ResultSetFuture> inserts = new ArrayList<ResultSetFuture>();
+            for (Row row : session.execute(selectRange.bind(range.getStart(), range.getEnd()))) {
+                Object[] values = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++)
+                    values[i] = "published".equals(columns[i]) ? row.getDate(columns[i]) : row.getString(columns[i]);
+                inserts.add(session.executeAsync(insertEntryByTag.bind(values)));
+            }
+            for (ResultSetFuture insert : inserts)
+                insert.getUninterruptibly();
+            copied += inserts.size();
+        }
+        LOG.info("Copied " + copied + " entries into " + getTagColumnFamilyName());
+    }
+
+    /**
+     * The table the entries are partitioned by tag in, named after the activitystreams column family
+     * @return name of the table
+     */
+    public String getTagColumnFamilyName() {
+        return configuration.getActivitystreamsColumnFamilyName() + "_by_tag";
+    }
+
     public void save(ActivityStreamsEntry entry) {
-        String sql = "INSERT INTO " + configuration.getActivitystreamsColumnFamilyName() + " (" +
-                "id, published, verb, tags, " +
-                "actor_displayname, actor_objecttype, actor_id, actor_url, " +
-                "target_displayname, target_id, target_url, " +
-                "provider_url, " +
-                "object_displayname, object_objecttype, object_id, object_url) " +
-                "VALUES ('" +
-                entry.getId() + "','" +
-                entry.getPublished().getTime() + "','" +
-                entry.getVerb() + "','" +
-                entry.getTags() + "','" +
-
-                entry.getActor().getDisplayName() + "','" +
-                entry.getActor().getObjectType() + "','" +
-                entry.getActor().getId() + "','" +
-                entry.getActor().getUrl() + "','" +
-
-                entry.getTarget().getDisplayName() + "','" +
-                entry.getTarget().getId() + "','" +
-                entry.getTarget().getUrl() + "','" +
-
-                entry.getProvider().getUrl() + "','" +
-
-                entry.getObject().getDisplayName() + "','" +
-                entry.getObject().getObjectType() + "','" +
-                entry.getObject().getId() + "','" +
-                entry.getObject().getUrl() +
-
-                "')";
-        keyspace.getSession().execute(sql);
+        Object[] values = new Object[] {
+                entry.getId(),
+                entry.getPublished(),
+                entry.getVerb(),
+                entry.getTags(),
+
+                entry.getActor().getDisplayName(),
+                entry.getActor().getObjectType(),
+                entry.getActor().getId(),
+                entry.getActor().getUrl(),
+
+                entry.getTarget().getDisplayName(),
+                entry.getTarget().getId(),
+                entry.getTarget().getUrl(),
+
+                entry.getProvider().getUrl(),
+
+                entry.getObject().getDisplayName(),
+                entry.getObject().getObjectType(),
+                entry.getObject().getId(),
+                entry.getObject().getUrl()
+        };
+
+        // both rows are written at the same time
+        ResultSetFuture byId = keyspace.getSession().executeAsync(insertEntry.bind(values));
+        ResultSetFuture byTag = keyspace.getSession().executeAsync(insertEntryByTag.bind(values));
+        byId.getUninterruptibly();
+        byTag.getUninterruptibly();
     }
 
     public List<CassandraActivityStreamsEntry> getActivitiesForFilters(List<String> filters, Date lastUpdated) {
         List<CassandraActivityStreamsEntry> results = new ArrayList<CassandraActivityStreamsEntry>();
 
+        // every tag is one partition, so all of them are queried at the same time
+        List<ResultSetFuture> queries = new ArrayList<ResultSetFuture>(filters.size());
         for (String tag : filters) {
-            String cql = "SELECT * FROM " + configuration.getActivitystreamsColumnFamilyName() + " WHERE ";
-
-            //add filters
-            cql = cql + " tags = '" + tag + "' AND ";
-
-            //specify last modified
-            cql = cql + "published > " + lastUpdated.getTime() + " ALLOW FILTERING";
+            queries.add(keyspace.getSession().executeAsync(selectByTag.bind(tag, lastUpdated)));
+        }
 
-            //execute the cql query and store the results
-            ResultSet set = keyspace.getSession().execute(cql);
+        for (ResultSetFuture query : queries) {
+            ResultSet set = query.getUninterruptibly();
 
             //iterate through the results and create a new ActivityStreamsEntry for every result returned
 
@@ -21,6 +21,8 @@ package org.apache.streams.cassandra.repository.impl;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.exceptions.AlreadyExistsException;
+import com.datastax.driver.core.policies.RoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 import org.apache.streams.cassandra.configuration.CassandraConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -33,7 +35,11 @@ public class CassandraKeyspace {
     public CassandraKeyspace(CassandraConfiguration configuration){
         this.configuration = configuration;
 
-        cluster = Cluster.builder().addContactPoint(configuration.getCassandraPort()).build();
+        // prepared statements are sent straight to a replica of their partition
+        cluster = Cluster.builder()
+                .addContactPoint(configuration.getCassandraPort())
+                .withLoadBalancingPolicy(new TokenAwarePolicy(new RoundRobinPolicy()))
+                .build();
         session = cluster.connect();
 
         //TODO: cassandra 2 will have support for CREATE KEYSPACE IF NOT EXISTS
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.cassandra;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Query;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.Lists;
+import org.apache.streams.core.StreamsDatum;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests the token range scans of CassandraPersistReader against a mocked session
+ */
+public class CassandraPersistReaderTest {
+
+    private final static int DOCUMENTS = 500;
+    private final static long PAGE_SIZE = 7;
+
+    CassandraClient client;
+    Session session;
+    // documents by token, spread over the ring
+    final ConcurrentSkipListMap<Long, String> table = new ConcurrentSkipListMap<Long, String>();
+    // the range each bound statement was bound to
+    final Map<Object, Object[]> ranges = new ConcurrentHashMap<Object, Object[]>();
+    final AtomicInteger queries = new AtomicInteger();
+
+    @Before
+    public void setup() {
+        for (int i = 0; i < DOCUMENTS; i++)
+            table.put((i - DOCUMENTS / 2) * (Long.MAX_VALUE / DOCUMENTS), Integer.toString(i));
+
+        client = mock(CassandraClient.class);
+        session = mock(Session.class);
+        when(client.getSession()).thenReturn(session);
+        when(client.getTable()).thenReturn("documents");
+
+        PreparedStatement selectRange = mock(PreparedStatement.class);
+        when(session.prepare(anyString())).thenReturn(selectRange);
+
+        // each query is answered with up to a page of the range it was bound to
+        when(selectRange.bind((Object[]) anyVararg())).thenAnswer(new Answer<BoundStatement>() {
+            @Override
+            public BoundStatement answer(InvocationOnMock invocation) throws Throwable {
+                BoundStatement bound = mock(BoundStatement.class);
+                ranges.put(bound, invocation.getArguments());
+                return bound;
+            }
+        });
+        when(session.execute(any(Query.class))).thenAnswer(new Answer<ResultSet>() {
+            @Override
+            public ResultSet answer(InvocationOnMock invocation) throws Throwable {
+                queries.incrementAndGet();
+                Object[] range = ranges.get(invocation.getArguments()[0]);
+                List<Row> rows = Lists.newArrayList();
+                for (Map.Entry<Long, String> document : table.subMap((Long) range[0], false, (Long) range[1], true).entrySet()) {
+                    if (rows.size() >= PAGE_SIZE)
+                        break;
+                    Row row = mock(Row.class);
+                    when(row.getLong(0)).thenReturn(document.getKey());
+                    when(row.getString(1)).thenReturn(document.getValue());
+                    when(row.getDate(2)).thenReturn(new Date(1000l * Long.parseLong(document.getValue())));
+                    when(row.getString(3)).thenReturn("{\"n\":" + document.getValue() + "}");
+                    rows.add(row);
+                }
+                ResultSet page = mock(ResultSet.class);
+                when(page.iterator()).thenReturn(rows.iterator());
+                return page;
+            }
+        });
+    }
+
+    private CassandraPersistConfiguration configuration() {
+        return new CassandraPersistConfiguration()
+                .withHosts(Arrays.asList("localhost"))
+                .withKeyspace("streams")
+                .withTable("documents")
+                .withPageSize(PAGE_SIZE)
+                .withReaderThreads(3l);
+    }
+
+    @Test
+    public void testReadsEveryDocumentOnce() throws Exception {
+        CassandraPersistReader reader = new CassandraPersistReader(configuration(), client);
+        reader.prepare(null);
+        reader.startStream();
+
+        Set<String> ids = new HashSet<String>();
+        int read = 0;
+        while (reader.isRunning()) {
+            for (StreamsDatum datum : reader.readCurrent()) {
+                assertNotNull(datum.getTimestamp());
+                assertEquals(Long.parseLong(datum.getId()) * 1000, datum.getTimestamp().getMillis());
+                ids.add(datum.getId());
+                read++;
+            }
+            Thread.sleep(1);
+        }
+        reader.cleanUp();
+
+        assertEquals(DOCUMENTS, read);
+        assertEquals(DOCUMENTS, ids.size());
+        // every range is read in pages, ending with a page that isn't full
+        assertTrue(queries.get() > DOCUMENTS / PAGE_SIZE);
+    }
+
+    @Test
+    public void testReadNewIsUnsupported() {
+        CassandraPersistReader reader = new CassandraPersistReader(configuration(), client);
+        reader.prepare(null);
+        assertNull(reader.readNew(BigInteger.ONE));
+    }
+
+    @Test
+    public void testReadRangeIsUnsupported() {
+        CassandraPersistReader reader = new CassandraPersistReader(configuration(), client);
+        reader.prepare(null);
+        assertNull(reader.readRange(new DateTime(0), new DateTime()));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.cassandra;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Query;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import org.apache.streams.core.StreamsDatum;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests the writes of CassandraPersistWriter against a mocked session
+ */
+public class CassandraPersistWriterTest {
+
+    CassandraClient client;
+    Session session;
+    volatile boolean failWrites = false;
+
+    @Before
+    public void setup() {
+        client = mock(CassandraClient.class);
+        session = mock(Session.class);
+        when(client.getSession()).thenReturn(session);
+        when(client.getTable()).thenReturn("documents");
+        when(client.getTagTable()).thenReturn("documents_by_tag");
+
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(statement.bind((Object[]) anyVararg())).thenReturn(mock(BoundStatement.class));
+        when(session.prepare(anyString())).thenReturn(statement);
+
+        // every write completes as soon as it is sent
+        when(session.executeAsync(any(Query.class))).thenAnswer(new Answer<ResultSetFuture>() {
+            @Override
+            public ResultSetFuture answer(InvocationOnMock invocation) throws Throwable {
+                ResultSetFuture future = mock(ResultSetFuture.class);
+                if (failWrites)
+                    when(future.get()).thenThrow(new ExecutionException(new RuntimeException("write timeout")));
+                else
+                    when(future.get()).thenReturn(mock(ResultSet.class));
+                doAnswer(new Answer<Void>() {
+                    @Override
+                    public Void answer(InvocationOnMock invocation) throws Throwable {
+                        ((Runnable) invocation.getArguments()[0]).run();
+                        return null;
+                    }
+                }).when(future).addListener(any(Runnable.class), any(Executor.class));
+                return future;
+            }
+        });
+    }
+
+    private CassandraPersistConfiguration configuration(long batchSize) {
+        return new CassandraPersistConfiguration()
+                .withHosts(Arrays.asList("localhost"))
+                .withKeyspace("streams")
+                .withTable("documents")
+                .withBatchSize(batchSize)
+                .withMaxTimeBetweenFlushMs(60000l);
+    }
+
+    @Test
+    public void testTagRowsAreBatchedPerTag() throws Exception {
+        CassandraPersistWriter writer = new CassandraPersistWriter(configuration(2), client);
+        writer.prepare(null);
+
+        writer.write(new StreamsDatum("{\"tags\":[\"a\"]}", "1"));
+        writer.write(new StreamsDatum("{\"tags\":[\"a\",\"b\"]}", "2"));
+        writer.write(new StreamsDatum("{\"tags\":\"a\"}", "3"));
+        writer.write(new StreamsDatum("{\"untagged\":true}", "4"));
+        writer.flush();
+
+        assertEquals(4, writer.getTotalOk());
+        assertEquals(4, writer.getTagRowsOk());
+        // a full batch of a, then what is left of a and b
+        assertEquals(3, writer.getTagBatches());
+        assertEquals(0, writer.getTagsPending());
+
+        ArgumentCaptor<String> cql = ArgumentCaptor.forClass(String.class);
+        verify(session, atLeastOnce()).prepare(cql.capture());
+        int batches = 0;
+        for (String prepared : cql.getAllValues())
+            if (prepared.startsWith("BEGIN UNLOGGED BATCH"))
+                batches++;
+        // one statement for batches of two rows and one for batches of one
+        assertEquals(2, batches);
+
+        writer.cleanUp();
+    }
+
+    @Test
+    public void testSentTagsAreRemoved() throws Exception {
+        CassandraPersistWriter writer = new CassandraPersistWriter(configuration(20), client);
+        writer.prepare(null);
+
+        for (int i = 0; i < 1000; i++)
+            writer.write(new StreamsDatum("{\"tags\":[\"tag" + i + "\"]}", Integer.toString(i)));
+        assertEquals(1000, writer.getTagsPending());
+
+        writer.flush();
+
+        assertEquals(0, writer.getTagsPending());
+        assertEquals(1000, writer.getTagRowsOk());
+        assertEquals(1000, writer.getTagBatches());
+
+        // a tag seen again after being sent gets a new queue
+        writer.write(new StreamsDatum("{\"tags\":[\"tag0\"]}", "again"));
+        assertEquals(1, writer.getTagsPending());
+        writer.flush();
+        assertEquals(1001, writer.getTagRowsOk());
+
+        writer.cleanUp();
+    }
+
+    @Test
+    public void testFailedWritesAreCounted() throws Exception {
+        failWrites = true;
+        CassandraPersistWriter writer = new CassandraPersistWriter(configuration(20), client);
+        writer.prepare(null);
+
+        writer.write(new StreamsDatum("{\"tags\":[\"a\",\"b\"]}", "1"));
+        writer.write(new StreamsDatum("{\"untagged\":true}", "2"));
+        writer.flush();
+
+        assertEquals(0, writer.getTotalOk());
+        assertEquals(2, writer.getTotalFailed());
+        assertEquals(2, writer.getTagRowsFailed());
+
+        writer.cleanUp();
+    }
+}
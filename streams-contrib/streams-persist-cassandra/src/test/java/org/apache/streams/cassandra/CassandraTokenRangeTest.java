@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.cassandra;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CassandraTokenRangeTest {
+
+    @Test
+    public void splitCoversRing() {
+        List<CassandraTokenRange> ranges = CassandraTokenRange.split(16);
+
+        assertEquals(16, ranges.size());
+        assertEquals(Long.MIN_VALUE, ranges.get(0).getStart());
+        assertEquals(Long.MAX_VALUE, ranges.get(15).getEnd());
+        for (int i = 1; i < ranges.size(); i++) {
+            assertEquals(ranges.get(i - 1).getEnd(), ranges.get(i).getStart());
+            assertTrue(ranges.get(i).getStart() < ranges.get(i).getEnd());
+        }
+    }
+
+    @Test
+    public void splitOne() {
+        List<CassandraTokenRange> ranges = CassandraTokenRange.split(0);
+
+        assertEquals(1, ranges.size());
+        assertEquals(Long.MIN_VALUE, ranges.get(0).getStart());
+        assertEquals(Long.MAX_VALUE, ranges.get(0).getEnd());
+    }
+}
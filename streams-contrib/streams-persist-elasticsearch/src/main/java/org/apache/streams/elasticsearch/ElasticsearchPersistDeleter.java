@@ -84,16 +84,7 @@ public class ElasticsearchPersistDeleter extends ElasticsearchPersistWriter impl
         Preconditions.checkNotNull(request);
         Preconditions.checkNotNull(request.index());
 
-        // If our queue is larger than our flush threshold, then we should flush the queue.
-        synchronized (this) {
-            checkIndexImplications(request.index());
-
-            bulkRequest.add(request);
-
-            currentBatchItems.incrementAndGet();
-
-            checkForFlush();
-        }
+        add(request, request.index(), 0);
 
     }
 
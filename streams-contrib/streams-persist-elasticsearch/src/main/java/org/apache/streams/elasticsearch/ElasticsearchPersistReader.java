@@ -20,7 +20,9 @@ package org.apache.streams.elasticsearch;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Queues;
+import org.apache.streams.config.StreamsConfigurator;
 import org.apache.streams.core.*;
 import org.apache.streams.jackson.StreamsJacksonMapper;
 import org.elasticsearch.search.SearchHit;
@@ -33,8 +35,6 @@ import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * ***********************************************************************************************************
@@ -42,21 +42,23 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * smashew
  * steveblackmon
  * ************************************************************************************************************
+ *
+ * Reads the hits of a scroll.  With scrollThreads above one the shards of the indexes are shared among that many
+ * scrolls, which are read in parallel into a bounded queue.
  */
-
 public class ElasticsearchPersistReader implements StreamsPersistReader, Serializable {
     public static final String STREAMS_ID = "ElasticsearchPersistReader";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ElasticsearchPersistReader.class);
 
-    protected volatile Queue<StreamsDatum> persistQueue;
+    private static final int MAX_QUEUE_SIZE = 10000;
+
+    protected BlockingQueue<StreamsDatum> persistQueue;
 
-    private ElasticsearchQuery elasticsearchQuery;
+    private List<ElasticsearchQuery> elasticsearchQueries = Lists.newArrayList();
     private ElasticsearchReaderConfiguration config;
-    private int threadPoolSize = 10;
     private ExecutorService executor;
-    private ReadWriteLock lock = new ReentrantReadWriteLock();
-    private Future<?> readerTask;
+    private List<Future<?>> readerTasks = Lists.newArrayList();
 
     public ElasticsearchPersistReader() {
     }
@@ -69,15 +71,52 @@ public class ElasticsearchPersistReader implements StreamsPersistReader, Seriali
     @Override
     public void startStream() {
         LOGGER.debug("startStream");
-        executor = Executors.newSingleThreadExecutor();
-        readerTask = executor.submit(new ElasticsearchPersistReaderTask(this, elasticsearchQuery));
+        executor = Executors.newFixedThreadPool(elasticsearchQueries.size());
+        for (ElasticsearchQuery query : elasticsearchQueries)
+            readerTasks.add(executor.submit(new ElasticsearchPersistReaderTask(this, query)));
     }
 
     @Override
     public void prepare(Object o) {
-        elasticsearchQuery = this.config == null ? new ElasticsearchQuery() : new ElasticsearchQuery(config);
-        elasticsearchQuery.execute(o);
+        if (this.config == null)
+            this.config = ElasticsearchConfigurator.detectReaderConfiguration(StreamsConfigurator.config.getConfig("elasticsearch"));
         persistQueue = constructQueue();
+
+        ElasticsearchQuery query = new ElasticsearchQuery(config);
+        int scrolls = config.getScrollThreads() == null ? 1 : config.getScrollThreads().intValue();
+        int shards = scrolls > 1 ? query.getNumberOfShards() : 1;
+        scrolls = Math.max(1, Math.min(scrolls, shards));
+
+        for (int slice = 0; slice < scrolls; slice++) {
+            if (slice > 0)
+                query = new ElasticsearchQuery(config);
+            if (scrolls > 1)
+                query.setPreference(shardPreference(slice, scrolls, shards));
+            query.execute(o);
+            elasticsearchQueries.add(query);
+        }
+        LOGGER.info("Reading {} shards with {} scrolls", shards, scrolls);
+    }
+
+    /**
+     * The search preference restricting a scroll to its share of the shards
+     * @param slice number of the scroll
+     * @param scrolls number of scrolls
+     * @param shards number of shards
+     * @return a preference like "_shards:0,3,6"
+     */
+    protected static String shardPreference(int slice, int scrolls, int shards) {
+        StringBuilder preference = new StringBuilder("_shards:");
+        for (int shard = slice; shard < shards; shard += scrolls) {
+            if (shard > slice)
+                preference.append(',');
+            preference.append(shard);
+        }
+        return preference.toString();
+    }
+
+    public List<ElasticsearchQuery> getQueries() {
+        return elasticsearchQueries;
     }
 
     @Override
@@ -88,20 +127,11 @@ public class ElasticsearchPersistReader implements StreamsPersistReader, Seriali
     @Override
     public StreamsResultSet readCurrent() {
 
-        StreamsResultSet current;
-
-        try {
-            lock.writeLock().lock();
-            current = new StreamsResultSet(persistQueue);
-            current.setCounter(new DatumStatusCounter());
-//            current.getCounter().add(countersCurrent);
-//            countersTotal.add(countersCurrent);
-//            countersCurrent = new DatumStatusCounter();
-            persistQueue = constructQueue();
-        } finally {
-            lock.writeLock().unlock();
-        }
+        Queue<StreamsDatum> batch = Queues.newConcurrentLinkedQueue();
+        persistQueue.drainTo(batch);
 
+        StreamsResultSet current = new StreamsResultSet(batch);
+        current.setCounter(new DatumStatusCounter());
         return current;
 
     }
@@ -118,36 +148,28 @@ public class ElasticsearchPersistReader implements StreamsPersistReader, Seriali
         return readCurrent();
     }
 
-    //If we still have data in the queue, we are still running
+    //If a scroll is still being read or we still have data in the queue, we are still running
+    //The scrolls are checked first, so what they wrote before finishing is seen in the queue
     @Override
     public boolean isRunning() {
-        return persistQueue.size() > 0 || (!readerTask.isDone() && !readerTask.isCancelled());
+        for (Future<?> readerTask : readerTasks)
+            if (!readerTask.isDone())
+                return true;
+        return persistQueue.size() > 0;
     }
 
     @Override
     public void cleanUp() {
-        this.shutdownAndAwaitTermination(executor);
+        if (executor != null)
+            this.shutdownAndAwaitTermination(executor);
         LOGGER.info("PersistReader done");
-        if(elasticsearchQuery != null) {
-            elasticsearchQuery.cleanUp();
-        }
+        for (ElasticsearchQuery query : elasticsearchQueries)
+            query.cleanUp();
     }
 
-    //The locking may appear to be counter intuitive but we really don't care if multiple threads offer to the queue
-    //as it is a synchronized queue.  What we do care about is that we don't want to be offering to the current reference
-    //if the queue is being replaced with a new instance
-    protected void write(StreamsDatum entry) {
-        boolean success;
-        do {
-            try {
-                lock.readLock().lock();
-                success = persistQueue.offer(entry);
-                Thread.yield();
-            }finally {
-                lock.readLock().unlock();
-            }
-        }
-        while (!success);
+    //Blocks while the queue is full, so the scrolls only run ahead of the stream by the size of the queue
+    protected void write(StreamsDatum entry) throws InterruptedException {
+        persistQueue.put(entry);
     }
 
     protected void shutdownAndAwaitTermination(ExecutorService pool) {
@@ -168,8 +190,8 @@ public class ElasticsearchPersistReader implements StreamsPersistReader, Seriali
         }
     }
 
-    private Queue<StreamsDatum> constructQueue() {
-        return Queues.synchronizedQueue(new LinkedBlockingQueue<StreamsDatum>(10000));
+    private BlockingQueue<StreamsDatum> constructQueue() {
+        return new LinkedBlockingQueue<StreamsDatum>(MAX_QUEUE_SIZE);
     }
 
     public static class ElasticsearchPersistReaderTask implements Runnable {
@@ -208,14 +230,13 @@ public class ElasticsearchPersistReader implements StreamsPersistReader, Seriali
                     reader.write(item);
                 } catch (IOException e) {
                     LOGGER.warn("Unable to process json source: ", hit.getSourceAsString());
+                } catch (InterruptedException e) {
+                    LOGGER.warn("Thread interrupted", e);
+                    Thread.currentThread().interrupt();
+                    return;
                 }
 
             }
-            try {
-                Thread.sleep(new Random().nextInt(100));
-            } catch (InterruptedException e) {
-                LOGGER.warn("Thread interrupted", e);
-            }
 
         }
     }
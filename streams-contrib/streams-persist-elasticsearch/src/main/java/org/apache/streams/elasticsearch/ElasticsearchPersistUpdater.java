@@ -94,17 +94,7 @@ public class ElasticsearchPersistUpdater extends ElasticsearchPersistWriter impl
         Preconditions.checkNotNull(request);
         Preconditions.checkNotNull(request.index());
 
-        // If our queue is larger than our flush threshold, then we should flush the queue.
-        synchronized (this) {
-            checkIndexImplications(request.index());
-
-            bulkRequest.add(request);
-
-            currentBatchBytes.addAndGet(request.doc().source().length());
-            currentBatchItems.incrementAndGet();
-
-            checkForFlush();
-        }
+        add(request, request.index(), request.doc().source().length());
 
     }
 
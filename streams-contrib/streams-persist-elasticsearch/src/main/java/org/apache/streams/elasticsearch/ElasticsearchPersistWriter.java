@@ -25,18 +25,23 @@ import com.google.common.base.Preconditions;
 import org.apache.streams.config.StreamsConfigurator;
 import org.apache.streams.core.*;
 import org.apache.streams.jackson.StreamsJacksonMapper;
+import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequest;
 import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
 import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.common.joda.time.DateTime;
 import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,9 +50,17 @@ import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Indexes documents with bulk requests.  Writers add requests to a lock free pending queue, and whichever writer
+ * pushes it past the record or byte threshold sends a bulk of them, while a scheduled flusher sends whatever has
+ * waited longer than the time threshold.  Up to maxInFlightBulks bulks are outstanding at once, further flushes wait
+ * for a response.  Items rejected by a busy cluster are sent again by the flusher after an exponential backoff, writers
+ * are only held back by the limit on outstanding bulks; items failing for other reasons are counted as failed.
+ */
 public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumStatusCountable, Serializable {
 
     public static final String STREAMS_ID = ElasticsearchPersistWriter.class.getCanonicalName();
@@ -57,29 +70,37 @@ public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumSt
     private static final NumberFormat NUMBER_FORMAT = new DecimalFormat("###,###,###,###");
     private static final Long DEFAULT_BULK_FLUSH_THRESHOLD = 5l * 1024l * 1024l;
     private static final int DEFAULT_BATCH_SIZE = 100;
-    //ES defaults its bulk index queue to 50 items.  We want to be under this on our backoff so set this to 1/2 ES default
-    //at a batch size as configured here.
-    private static final long WAITING_DOCS_LIMIT = DEFAULT_BATCH_SIZE * 25;
+    //ES defaults its bulk index queue to 50 items.  Stay well under it with the bulks we keep outstanding.
+    private static final int DEFAULT_MAX_IN_FLIGHT_BULKS = 5;
+    private static final int DEFAULT_MAX_RETRIES = 3;
     //A document should have to wait no more than 10s to get flushed
     private static final long DEFAULT_MAX_WAIT = 10000;
+    //Backoff after a rejection, doubled while rejections continue
+    private static final long MIN_BACKOFF = 100;
+    private static final long MAX_BACKOFF = 10000;
 
     protected static final ObjectMapper OBJECT_MAPPER = StreamsJacksonMapper.getInstance();
 
-    protected final List<String> affectedIndexes = new ArrayList<String>();
+    protected final List<String> affectedIndexes = new CopyOnWriteArrayList<String>();
 
     protected final ElasticsearchClientManager manager;
     protected final ElasticsearchWriterConfiguration config;
 
-    protected BulkRequestBuilder bulkRequest;
+    private final Queue<PendingRequest> pending = new ConcurrentLinkedQueue<PendingRequest>();
 
     private boolean veryLargeBulk = false;  // by default this setting is set to false
     private long flushThresholdsRecords = DEFAULT_BATCH_SIZE;
     private long flushThresholdBytes = DEFAULT_BULK_FLUSH_THRESHOLD;
+    private int maxInFlightBulks = DEFAULT_MAX_IN_FLIGHT_BULKS;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
 
     private long flushThresholdTime = DEFAULT_MAX_WAIT;
-    private long lastFlush = new Date().getTime();
-    private Timer timer = new Timer();
+    private volatile long lastFlush = new Date().getTime();
+    private transient ScheduledExecutorService scheduler;
+    private transient Semaphore inFlight;
+    private transient Semaphore retried;
 
+    private volatile long backoff = 0;
 
     private final AtomicInteger batchesSent = new AtomicInteger(0);
     private final AtomicInteger batchesResponded = new AtomicInteger(0);
@@ -91,6 +112,8 @@ public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumSt
     private final AtomicLong totalSeconds = new AtomicLong(0);
     private final AtomicLong totalOk = new AtomicLong(0);
     private final AtomicLong totalFailed = new AtomicLong(0);
+    private final AtomicLong totalRetried = new AtomicLong(0);
+    private final AtomicLong waitingRetries = new AtomicLong(0);
     private final AtomicLong totalSizeInBytes = new AtomicLong(0);
 
     public ElasticsearchPersistWriter() {
@@ -104,7 +127,6 @@ public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumSt
     public ElasticsearchPersistWriter(ElasticsearchWriterConfiguration config, ElasticsearchClientManager manager) {
         this.config = config;
         this.manager = manager;
-        this.bulkRequest = this.manager.getClient().prepareBulk();
     }
 
     public long getBatchesSent()                            { return this.batchesSent.get(); }
@@ -114,6 +136,7 @@ public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumSt
     public long getFlushThresholdsRecords()                 { return this.flushThresholdsRecords; }
     public long getFlushThresholdBytes()                    { return this.flushThresholdBytes; }
     public long getFlushThreasholdMaxTime()                 { return this.flushThresholdTime; }
+    public int getMaxInFlightBulks()                        { return this.maxInFlightBulks; }
 
     public void setFlushThresholdRecords(long val)          { this.flushThresholdsRecords = val; }
     public void setFlushThresholdBytes(long val)            { this.flushThresholdBytes = val; }
@@ -122,10 +145,11 @@ public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumSt
 
     private long getLastFlush()                             { return this.lastFlush; }
 
-    public long getTotalOutstanding()                       { return this.totalSent.get() - (this.totalFailed.get() + this.totalOk.get()); }
+    public long getTotalOutstanding()                       { return this.totalSent.get() - (this.totalFailed.get() + this.totalOk.get() + this.totalRetried.get()); }
     public long getTotalSent()                              { return this.totalSent.get(); }
     public long getTotalOk()                                { return this.totalOk.get(); }
     public long getTotalFailed()                            { return this.totalFailed.get(); }
+    public long getTotalRetried()                           { return this.totalRetried.get(); }
     public long getTotalSizeInBytes()                       { return this.totalSizeInBytes.get(); }
     public long getTotalSeconds()                           { return this.totalSeconds.get(); }
     public List<String> getAffectedIndexes()                { return this.affectedIndexes; }
@@ -137,8 +161,6 @@ public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumSt
         if(streamsDatum == null || streamsDatum.getDocument() == null)
             return;
 
-        checkForBackOff();
-
         LOGGER.debug("Write Document: {}", streamsDatum.getDocument());
 
         Map<String, Object> metadata = streamsDatum.getMetadata();
@@ -175,14 +197,19 @@ public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumSt
     public void cleanUp() {
         try {
 
-            // before they close, check to ensure that
-            flushInternal();
+            // before they close, send everything that is pending, including retries that are waiting out a backoff
+            long deadline = new Date().getTime() + 5 * 60 * 1000;
+            do {
+                while(!this.pending.isEmpty())
+                    flush();
+            } while(waitForInFlight(deadline) && (!this.pending.isEmpty() || this.waitingRetries.get() > 0) && awaitRetries(deadline));
+
+            if(this.scheduler != null)
+                this.scheduler.shutdownNow();
 
-            waitToCatchUp(0, 5 * 60 * 1000);
             refreshIndexes();
 
-            LOGGER.debug("Closed ElasticSearch Writer: Ok[{}] Failed[{}] Orphaned[{}]", this.totalOk.get(), this.totalFailed.get(), this.getTotalOutstanding());
-            timer.cancel();
+            LOGGER.debug("Closed ElasticSearch Writer: Ok[{}] Failed[{}] Orphaned[{}]", this.totalOk.get(), this.totalFailed.get(), this.getTotalOutstanding() + this.pending.size());
 
         } catch (Throwable e) {
             // this line of code should be logically unreachable.
@@ -190,6 +217,48 @@ public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumSt
         }
     }
 
+    /**
+     * Waits until no bulks are in flight
+     * @return false if the deadline passed or the wait was interrupted
+     */
+    private boolean waitForInFlight(long deadline) {
+        try {
+            long wait = deadline - new Date().getTime();
+            if(wait <= 0 || !this.inFlight.tryAcquire(this.maxInFlightBulks, wait, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Timed out waiting for {} outstanding items.  Data may be lost", getTotalOutstanding());
+                return false;
+            }
+            this.inFlight.release(this.maxInFlightBulks);
+            return true;
+        } catch(InterruptedException ie) {
+            LOGGER.warn("Catchup was interrupted.  Data may be lost");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Waits until the flusher puts rejected items back on the pending queue once their backoff has passed
+     * @return false if the deadline passed or the wait was interrupted
+     */
+    private boolean awaitRetries(long deadline) {
+        if (this.waitingRetries.get() == 0)
+            return true;
+        try {
+            long wait = deadline - new Date().getTime();
+            if (wait <= 0 || !this.retried.tryAcquire(wait, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Timed out waiting for {} retries.  Data may be lost", this.waitingRetries.get());
+                return false;
+            }
+            this.retried.drainPermits();
+            return true;
+        } catch(InterruptedException ie) {
+            LOGGER.warn("Catchup was interrupted.  Data may be lost");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     private void refreshIndexes() {
         for (String indexName : this.affectedIndexes) {
 
@@ -228,79 +297,6 @@ public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumSt
         return counters;
     }
 
-    private synchronized void flushInternal() {
-        // we do not have a working bulk request, we can just exit here.
-        if (this.bulkRequest == null || this.currentBatchItems.get() == 0)
-            return;
-
-        // wait for one minute to catch up if it needs to
-        waitToCatchUp(5, 1 * 60 * 1000);
-
-        // call the flush command.
-        flush(this.bulkRequest, this.currentBatchItems.get(), this.currentBatchBytes.get());
-
-        // reset the current batch statistics
-        this.currentBatchItems.set(0);
-        this.currentBatchBytes.set(0);
-
-        // reset our bulk request builder
-        this.bulkRequest = this.manager.getClient().prepareBulk();
-    }
-
-    private synchronized void waitToCatchUp(int batchThreshold, int timeOutThresholdInMS) {
-        int counter = 0;
-        // If we still have 5 batches outstanding, we need to give it a minute to catch up
-        while(this.getBatchesSent() - this.getBatchesResponded() > batchThreshold && counter < timeOutThresholdInMS) {
-            try {
-                Thread.yield();
-                Thread.sleep(1);
-                counter++;
-            } catch(InterruptedException ie) {
-                LOGGER.warn("Catchup was interrupted.  Data may be lost");
-                return;
-            }
-        }
-    }
-
-    private void checkForBackOff() {
-        try {
-            if (this.getTotalOutstanding() > WAITING_DOCS_LIMIT) {
-                /****************************************************************************
-                 * Author:
-                 * Smashew
-                 *
-                 * Date:
-                 * 2013-10-20
-                 *
-                 * Note:
-                 * With the information that we have on hand. We need to develop a heuristic
-                 * that will determine when the cluster is having a problem indexing records
-                 * by telling it to pause and wait for it to catch back up. A
-                 *
-                 * There is an impact to us, the caller, whenever this happens as well. Items
-                 * that are not yet fully indexed by the server sit in a queue, on the client
-                 * that can cause the heap to overflow. This has been seen when re-indexing
-                 * large amounts of data to a small cluster. The "deletes" + "indexes" can
-                 * cause the server to have many 'outstandingItems" in queue. Running this
-                 * software with large amounts of data, on a small cluster, can re-create
-                 * this problem.
-                 *
-                 * DO NOT DELETE THESE LINES
-                 ****************************************************************************/
-
-                // wait for the flush to catch up. We are going to cap this at
-                int count = 0;
-                while (this.getTotalOutstanding() > WAITING_DOCS_LIMIT && count++ < 500)
-                    Thread.sleep(10);
-
-                if (this.getTotalOutstanding() > WAITING_DOCS_LIMIT)
-                    LOGGER.warn("Even after back-off there are {} items still in queue.", this.getTotalOutstanding());
-            }
-        } catch (Exception e) {
-            LOGGER.warn("We were broken from our loop: {}", e.getMessage());
-        }
-    }
-
     public void add(String indexName, String type, String id, String ts, String json) {
         add(indexName, type, id, null, ts, json);
     }
@@ -334,39 +330,98 @@ public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumSt
         Preconditions.checkNotNull(request);
         Preconditions.checkNotNull(request.index());
 
-        // If our queue is larger than our flush threshold, then we should flush the queue.
-        synchronized (this) {
-            checkIndexImplications(request.index());
+        add(request, request.index(), request.source().length());
+    }
 
-            bulkRequest.add(request);
+    /**
+     * Queues an index, update or delete request, and sends a bulk if the pending requests reached a threshold
+     * @param request the request
+     * @param index the index the request is for
+     * @param sizeInBytes size of the request's source
+     */
+    protected void add(ActionRequest request, String index, long sizeInBytes) {
+        checkIndexImplications(index);
 
-            this.currentBatchBytes.addAndGet(request.source().length());
-            this.currentBatchItems.incrementAndGet();
+        this.pending.add(new PendingRequest(request, sizeInBytes));
+        this.currentBatchBytes.addAndGet(sizeInBytes);
+        this.currentBatchItems.incrementAndGet();
 
-            checkForFlush();
-        }
+        checkForFlush();
     }
 
     protected void checkForFlush() {
-        synchronized (this) {
-            if (this.currentBatchBytes.get() >= this.flushThresholdBytes ||
-                    this.currentBatchItems.get() >= this.flushThresholdsRecords ||
-                    new Date().getTime() - this.lastFlush >= this.flushThresholdTime) {
-                // We should flush
-                flushInternal();
+        checkForFlush(true);
+    }
+
+    /**
+     * @param block wait for an outstanding bulk to respond if maxInFlightBulks are outstanding
+     */
+    private void checkForFlush(boolean block) {
+        if (this.currentBatchBytes.get() >= this.flushThresholdBytes ||
+                this.currentBatchItems.get() >= this.flushThresholdsRecords) {
+            // We should flush
+            flush(block);
+        }
+    }
+
+    private void flush() {
+        flush(true);
+    }
+
+    /**
+     * Takes up to a bulk of pending requests and sends them.  Several threads may flush at once, each sends the
+     * requests it took.
+     * @param block wait for an outstanding bulk to respond if maxInFlightBulks are outstanding, otherwise leave the
+     *              requests pending for the next flush.  The scheduler thread never blocks, it also runs the retries.
+     */
+    private void flush(boolean block) {
+        try {
+            if (block) {
+                // wait for one of the outstanding bulks to respond
+                this.inFlight.acquire();
+            } else if (!this.inFlight.tryAcquire()) {
+                return;
             }
+        } catch (InterruptedException ie) {
+            LOGGER.warn("Flush was interrupted.  Requests are still pending");
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        List<PendingRequest> requests = new ArrayList<PendingRequest>();
+        long sizeInBytes = 0;
+        PendingRequest request;
+        while (requests.size() < this.flushThresholdsRecords && sizeInBytes < this.flushThresholdBytes && (request = this.pending.poll()) != null) {
+            requests.add(request);
+            sizeInBytes += request.sizeInBytes;
         }
+        if (requests.isEmpty()) {
+            this.inFlight.release();
+            return;
+        }
+        this.currentBatchItems.addAndGet(-requests.size());
+        this.currentBatchBytes.addAndGet(-sizeInBytes);
+
+        send(requests, sizeInBytes);
+    }
+
+    private void requeue(PendingRequest request) {
+        this.pending.add(request);
+        this.currentBatchBytes.addAndGet(request.sizeInBytes);
+        this.currentBatchItems.incrementAndGet();
     }
 
     protected void checkIndexImplications(String indexName) {
+        // this will be common if we have already verified the index.
+        if (this.affectedIndexes.contains(indexName))
+            return;
+
         // We need this to be safe across all writers that are currently being executed
         synchronized (ElasticsearchPersistWriter.class) {
 
-            // this will be common if we have already verified the index.
             if (this.affectedIndexes.contains(indexName))
                 return;
 
-
             // create the index if it is missing
             createIndexIfMissing(indexName);
 
@@ -433,17 +488,56 @@ public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumSt
                 DEFAULT_BULK_FLUSH_THRESHOLD :
                 config.getBatchBytes();
 
-        timer.scheduleAtFixedRate(new TimerTask() {
+        this.maxInFlightBulks = config.getMaxInFlightBulks() == null || config.getMaxInFlightBulks() < 1 ?
+                DEFAULT_MAX_IN_FLIGHT_BULKS :
+                config.getMaxInFlightBulks().intValue();
+
+        this.maxRetries = config.getMaxRetries() == null ?
+                DEFAULT_MAX_RETRIES :
+                config.getMaxRetries().intValue();
+
+        this.inFlight = new Semaphore(this.maxInFlightBulks);
+        this.retried = new Semaphore(0);
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, STREAMS_ID + "-flusher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
             public void run() {
-                checkForFlush();
+                try {
+                    // send whatever has waited too long, even if it is not a full bulk
+                    if (new Date().getTime() - getLastFlush() >= flushThresholdTime)
+                        flush(false);
+                } catch (Throwable e) {
+                    LOGGER.warn("Scheduled flush failed: {}", e.getMessage());
+                }
             }
-        }, this.flushThresholdTime, this.flushThresholdTime);
+        }, this.flushThresholdTime, Math.max(1, this.flushThresholdTime / 2), TimeUnit.MILLISECONDS);
 
     }
 
-    private void flush(final BulkRequestBuilder bulkRequest, final Long sent, final Long sizeInBytes) {
+    /**
+     * Sends a bulk, the caller holds one of the in flight permits which is released when the bulk responds
+     */
+    private void send(final List<PendingRequest> requests, final long sizeInBytes) {
+        final long sent = requests.size();
         LOGGER.debug("Writing to ElasticSearch: Items[{}] Size[{} mb]", sent, MEGABYTE_FORMAT.format(sizeInBytes / (double) (1024 * 1024)));
 
+        BulkRequest bulkRequest = new BulkRequest();
+        for (PendingRequest request : requests) {
+            if (request.request instanceof IndexRequest)
+                bulkRequest.add((IndexRequest) request.request);
+            else if (request.request instanceof UpdateRequest)
+                bulkRequest.add((UpdateRequest) request.request);
+            else
+                bulkRequest.add((DeleteRequest) request.request);
+        }
 
         // record the last time we flushed the index
         this.lastFlush = new Date().getTime();
@@ -455,31 +549,51 @@ public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumSt
         this.batchesSent.incrementAndGet();
 
         try {
-            bulkRequest.execute().addListener(new ActionListener<BulkResponse>() {
+            this.manager.getClient().bulk(bulkRequest, new ActionListener<BulkResponse>() {
                 public void onResponse(BulkResponse bulkItemResponses) {
-                    batchesResponded.incrementAndGet();
-                    updateTotals(bulkItemResponses, sent, sizeInBytes);
+                    try {
+                        updateTotals(bulkItemResponses, requests, sizeInBytes);
+                    } finally {
+                        batchesResponded.incrementAndGet();
+                        inFlight.release();
+                    }
                 }
 
                 public void onFailure(Throwable throwable) {
-                    batchesResponded.incrementAndGet();
-                    throwable.printStackTrace();
+                    try {
+                        if (ExceptionsHelper.unwrapCause(throwable) instanceof EsRejectedExecutionException) {
+                            retry(requests);
+                        } else {
+                            LOGGER.error("Bulk request failed: {}", throwable.getMessage());
+                            totalFailed.addAndGet(sent);
+                        }
+                    } finally {
+                        batchesResponded.incrementAndGet();
+                        inFlight.release();
+                    }
                 }
             });
         }
         catch(Throwable e) {
             LOGGER.error("There was an error sending the batch: {}", e.getMessage());
+            this.totalFailed.addAndGet(sent);
+            this.batchesResponded.incrementAndGet();
+            this.inFlight.release();
         }
     }
 
-    private void updateTotals(final BulkResponse bulkItemResponses, final Long sent, final Long sizeInBytes) {
+    private void updateTotals(final BulkResponse bulkItemResponses, final List<PendingRequest> requests, final long sizeInBytes) {
         long failed = 0;
         long passed = 0;
         long millis = bulkItemResponses.getTookInMillis();
+        long sent = requests.size();
+        List<PendingRequest> rejected = new ArrayList<PendingRequest>();
 
         // keep track of the number of totalFailed and items that we have totalOk.
         for (BulkItemResponse resp : bulkItemResponses.getItems()) {
-            if (resp == null || resp.isFailed())
+            if (resp != null && resp.isFailed() && isRejection(resp.getFailureMessage()))
+                rejected.add(requests.get(resp.getItemId()));
+            else if (resp == null || resp.isFailed())
                 failed++;
             else
                 passed++;
@@ -493,12 +607,79 @@ public class ElasticsearchPersistWriter implements StreamsPersistWriter, DatumSt
         this.totalSeconds.addAndGet(millis / 1000);
         this.totalSizeInBytes.addAndGet(sizeInBytes);
 
-        if (sent != (passed + failed))
-            LOGGER.error("Count MisMatch: Sent[{}] Passed[{}] Failed[{}]", sent, passed, failed);
+        if (rejected.isEmpty())
+            this.backoff = 0;
+        else
+            retry(rejected);
+
+        if (sent != (passed + failed + rejected.size()))
+            LOGGER.error("Count MisMatch: Sent[{}] Passed[{}] Failed[{}] Rejected[{}]", sent, passed, failed, rejected.size());
 
         LOGGER.debug("Batch[{}mb {} items with {} failures in {}ms] - Total[{}mb {} items with {} failures in {}seconds] {} outstanding]",
                 MEGABYTE_FORMAT.format(sizeInBytes / (double) (1024 * 1024)), NUMBER_FORMAT.format(passed), NUMBER_FORMAT.format(failed), NUMBER_FORMAT.format(millis),
                 MEGABYTE_FORMAT.format((double) totalSizeInBytes.get() / (double) (1024 * 1024)), NUMBER_FORMAT.format(totalOk), NUMBER_FORMAT.format(totalFailed), NUMBER_FORMAT.format(totalSeconds), NUMBER_FORMAT.format(getTotalOutstanding()));
     }
 
+    private static boolean isRejection(String failureMessage) {
+        return failureMessage != null && failureMessage.contains(EsRejectedExecutionException.class.getSimpleName());
+    }
+
+    /**
+     * Puts rejected requests back on the pending queue after a backoff that doubles while rejections continue.
+     * The flusher waits out the backoff, the writer threads never do.
+     */
+    private void retry(List<PendingRequest> rejected) {
+        long delay = Math.min(MAX_BACKOFF, Math.max(MIN_BACKOFF, this.backoff * 2));
+        this.backoff = delay;
+
+        final List<PendingRequest> retries = new ArrayList<PendingRequest>();
+        for (PendingRequest request : rejected) {
+            if (++request.attempts > this.maxRetries) {
+                this.totalFailed.incrementAndGet();
+            } else {
+                this.totalRetried.incrementAndGet();
+                retries.add(request);
+            }
+        }
+        LOGGER.warn("Cluster rejected {} items, retrying {} of them in {}ms", rejected.size(), retries.size(), delay);
+        if (retries.isEmpty())
+            return;
+
+        // the retries are counted as sent again when they go out in another bulk
+        this.waitingRetries.addAndGet(retries.size());
+        try {
+            this.scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    requeueRetries(retries);
+                    checkForFlush(false);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down, retry right away
+            requeueRetries(retries);
+        }
+    }
+
+    private void requeueRetries(List<PendingRequest> retries) {
+        for (PendingRequest request : retries)
+            requeue(request);
+        this.waitingRetries.addAndGet(-retries.size());
+        this.retried.release();
+    }
+
+    /**
+     * A request waiting to be sent, and the number of times the cluster rejected it
+     */
+    private static class PendingRequest {
+        private final ActionRequest request;
+        private final long sizeInBytes;
+        private int attempts = 0;
+
+        private PendingRequest(ActionRequest request, long sizeInBytes) {
+            this.request = request;
+            this.sizeInBytes = sizeInBytes;
+        }
+    }
+
 }
@@ -24,9 +24,12 @@ import com.google.common.base.Objects;
 import com.typesafe.config.Config;
 import org.apache.streams.config.StreamsConfigurator;
 import org.apache.streams.jackson.StreamsJacksonMapper;
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.index.query.FilterBuilder;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilder;
@@ -43,6 +46,11 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+/**
+ * Scrolls through the hits of a search.  The next page of the scroll is requested as soon as the current one arrives,
+ * so it is on its way while the current page is consumed.  Setting a shard preference restricts the scroll to some of
+ * the shards, so several queries can read an index in parallel.
+ */
 public class ElasticsearchQuery implements Iterable<SearchHit>, Iterator<SearchHit>, Serializable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ElasticsearchQuery.class);
@@ -60,6 +68,8 @@ public class ElasticsearchQuery implements Iterable<SearchHit>, Iterator<SearchH
     private org.elasticsearch.index.query.FilterBuilder filterBuilder;// These are private to help us manage the scroll
     private SearchRequestBuilder search;
     private SearchResponse scrollResp;
+    private ListenableActionFuture<SearchResponse> prefetch;
+    private String preference;
     private int scrollPositionInScroll = SCROLL_POSITION_NOT_INITIALIZED;
     private SearchHit next = null;
     private long totalHits = 0;
@@ -77,6 +87,8 @@ public class ElasticsearchQuery implements Iterable<SearchHit>, Iterator<SearchH
         this.indexes.addAll(config.getIndexes());
         this.types.addAll(config.getTypes());
         this.scrollTimeout = config.getScrollTimeout();
+        if (config.getBatchSize() != null)
+            this.batchSize = config.getBatchSize().intValue();
     }
 
     public long getHitCount() {
@@ -111,6 +123,34 @@ public class ElasticsearchQuery implements Iterable<SearchHit>, Iterator<SearchH
         this.filterBuilder = filterBuilder;
     }
 
+    /**
+     * Restricts the search, for example to some shards with "_shards:0,2"
+     */
+    public void setPreference(String preference) {
+        this.preference = preference;
+    }
+
+    public String getPreference() {
+        return this.preference;
+    }
+
+    /**
+     * @return the largest number of shards of the indexes searched
+     */
+    public int getNumberOfShards() {
+        ClusterStateResponse state = elasticsearchClientManager.getClient()
+                .admin()
+                .cluster()
+                .prepareState()
+                .setIndices(indexes.toArray(new String[0]))
+                .execute()
+                .actionGet();
+        int shards = 0;
+        for (IndexMetaData index : state.getState().getMetaData())
+            shards = Math.max(shards, index.getNumberOfShards());
+        return shards;
+    }
+
     public void execute(Object o) {
 
         // If we haven't already set up the search, then set up the search.
@@ -147,6 +187,9 @@ public class ElasticsearchQuery implements Iterable<SearchHit>, Iterator<SearchH
             if (this.queryBuilder != null)
                 search = search.setQuery(this.queryBuilder);
 
+            if (this.preference != null)
+                search = search.setPreference(this.preference);
+
             // If the types are null, then don't specify a type
             if (this.types != null && this.types.size() > 0)
                 search = search.setTypes(types.toArray(new String[0]));
@@ -188,14 +231,15 @@ public class ElasticsearchQuery implements Iterable<SearchHit>, Iterator<SearchH
                 // reset the scroll position
                 scrollPositionInScroll = 0;
 
-                // get the next hits of the scroll
-                scrollResp = elasticsearchClientManager.getClient()
-                        .prepareSearchScroll(scrollResp.getScrollId())
-                        .setScroll(scrollTimeout)
-                        .execute()
-                        .actionGet();
+                // get the next hits of the scroll, which were requested when the last ones arrived
+                scrollResp = (prefetch == null ? scroll(scrollResp.getScrollId()) : prefetch).actionGet();
+                prefetch = null;
 
                 this.totalHits = scrollResp.getHits().getTotalHits();
+
+                // request the page after this one while this one is read
+                if (scrollResp.getHits().getHits().length > 0)
+                    prefetch = scroll(scrollResp.getScrollId());
             }
 
             // If this scroll has 0 items then we set the scroll position to -1
@@ -217,10 +261,33 @@ public class ElasticsearchQuery implements Iterable<SearchHit>, Iterator<SearchH
         }
     }
 
+    private ListenableActionFuture<SearchResponse> scroll(String scrollId) {
+        return elasticsearchClientManager.getClient()
+                .prepareSearchScroll(scrollId)
+                .setScroll(scrollTimeout)
+                .execute();
+    }
+
     public void remove() {
     }
 
+    /**
+     * Releases the scroll if it was not read to the end
+     */
     public void cleanUp() {
+        try {
+            if (prefetch != null)
+                scrollResp = prefetch.actionGet();
+            if (scrollResp != null && scrollResp.getScrollId() != null && scrollPositionInScroll != -1)
+                elasticsearchClientManager.getClient()
+                        .prepareClearScroll()
+                        .addScrollId(scrollResp.getScrollId())
+                        .execute()
+                        .actionGet();
+        } catch (Exception e) {
+            LOGGER.warn("Unable to clear scroll: {}", e.getMessage());
+        }
+        prefetch = null;
     }
 
     protected boolean isCompleted() {
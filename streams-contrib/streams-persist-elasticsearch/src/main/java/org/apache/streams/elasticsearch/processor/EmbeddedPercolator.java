@@ -0,0 +1,314 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.elasticsearch.processor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.NumericTokenStream;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.memory.MemoryIndex;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.NumericUtils;
+import org.elasticsearch.common.lucene.Lucene;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Percolates documents in process, the way the _percolator of an index does.  Each document is indexed on its own in
+ * a {@link org.apache.lucene.index.memory.MemoryIndex} and the compiled rules are run against it, so no request is
+ * made to the cluster.
+ *
+ * Every value of a document is indexed under its dotted path, like content or actor.displayName, and as text under
+ * _all.  Paths holding only numbers are indexed as numeric fields, so rules like count:5 or count:[1 TO 10] match them
+ * as they would in the cluster, and booleans are indexed as true or false.  The values of a multi-valued path are
+ * {@link #POSITION_GAP} positions apart, so phrases do not match across them.
+ * The rules can be replaced while documents are being percolated, and one percolator can be used by many threads.
+ */
+public class EmbeddedPercolator {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(EmbeddedPercolator.class);
+
+    public final static String ALL_FIELD = "_all";
+
+    /**
+     * Positions between two values of the same path
+     */
+    public final static int POSITION_GAP = 100;
+
+    private final static int PRECISION_STEP = NumericUtils.PRECISION_STEP_DEFAULT;
+
+    private final static Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?([eE][-+]?\\d+)?");
+
+    private final Analyzer analyzer = new StandardAnalyzer(Lucene.VERSION);
+
+    private volatile Map<String, Query> rules = Collections.emptyMap();
+
+    /**
+     * Compiles the rules, replacing the current ones.  Rules that cannot be parsed are left out.
+     * @param builders the rules, as written to the _percolator
+     * @return the number of rules compiled
+     */
+    public int setRules(Collection<PercolateTagProcessor.PercolateQueryBuilder> builders) {
+        Map<String, Query> compiled = Maps.newLinkedHashMap();
+        for (PercolateTagProcessor.PercolateQueryBuilder builder : builders) {
+            QueryParser parser = new TypedQueryParser(builder.getDefaultField(), analyzer);
+            try {
+                compiled.put(builder.getId(), parser.parse(builder.getQuery()));
+            } catch (ParseException e) {
+                LOGGER.warn("Ignoring percolate rule {}: {}", builder.getId(), e.getMessage());
+            }
+        }
+        this.rules = Collections.unmodifiableMap(compiled);
+        LOGGER.debug("Compiled {} of {} percolate rules", compiled.size(), builders.size());
+        return compiled.size();
+    }
+
+    public int size() {
+        return this.rules.size();
+    }
+
+    /**
+     * @param document the document to percolate
+     * @return the ids of the rules matching the document
+     */
+    public List<String> percolate(JsonNode document) {
+        Map<String, Query> current = this.rules;
+        List<String> matches = Lists.newArrayList();
+        if (current.isEmpty())
+            return matches;
+
+        // A field can only be added to the index once, so the values at each path are indexed as one stream
+        Map<String, List<JsonNode>> fields = Maps.newLinkedHashMap();
+        collectValues(document, "", fields);
+        MemoryIndex index = new MemoryIndex();
+        try {
+            for (Map.Entry<String, List<JsonNode>> field : fields.entrySet())
+                index.addField(field.getKey(), tokenStream(field.getKey(), field.getValue()));
+        } catch (IOException e) {
+            LOGGER.warn("Could not index document: {}", e.getMessage());
+            return matches;
+        }
+
+        for (Map.Entry<String, Query> rule : current.entrySet())
+            if (index.search(rule.getValue()) > 0.0f)
+                matches.add(rule.getKey());
+        return matches;
+    }
+
+    private static void collectValues(JsonNode node, String path, Map<String, List<JsonNode>> fields) {
+        if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> children = node.fields();
+            while (children.hasNext()) {
+                Map.Entry<String, JsonNode> child = children.next();
+                collectValues(child.getValue(), path.isEmpty() ? child.getKey() : path + "." + child.getKey(), fields);
+            }
+        } else if (node.isArray()) {
+            for (JsonNode element : node)
+                collectValues(element, path, fields);
+        } else if ((node.isTextual() || node.isNumber() || node.isBoolean()) && !path.isEmpty()) {
+            add(fields, path, node);
+            add(fields, ALL_FIELD, node);
+        }
+    }
+
+    private static void add(Map<String, List<JsonNode>> fields, String field, JsonNode value) {
+        List<JsonNode> values = fields.get(field);
+        if (values == null)
+            fields.put(field, values = Lists.newArrayList());
+        values.add(value);
+    }
+
+    // Paths holding only numbers are numeric, anything else is analyzed as text
+    private TokenStream tokenStream(String field, List<JsonNode> values) throws IOException {
+        boolean numeric = !ALL_FIELD.equals(field);
+        boolean floating = false;
+        for (JsonNode value : values) {
+            numeric &= value.isNumber();
+            floating |= value.isFloatingPointNumber();
+        }
+        if (numeric)
+            return new NumericValuesTokenStream(new NumericTokenStream(PRECISION_STEP), values, floating);
+
+        List<String> terms = Lists.newArrayList();
+        List<Integer> increments = Lists.newArrayList();
+        for (JsonNode value : values) {
+            TokenStream stream = analyzer.tokenStream(field, value.asText());
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute increment = stream.addAttribute(PositionIncrementAttribute.class);
+            try {
+                stream.reset();
+                int gap = terms.isEmpty() ? 0 : POSITION_GAP;
+                while (stream.incrementToken()) {
+                    terms.add(term.toString());
+                    increments.add(increment.getPositionIncrement() + gap);
+                    gap = 0;
+                }
+                stream.end();
+            } finally {
+                stream.close();
+            }
+        }
+        return new TextValuesTokenStream(terms, increments);
+    }
+
+    /**
+     * Replays the terms of the values at one path, with the gaps between the values.
+     */
+    private static class TextValuesTokenStream extends TokenStream {
+
+        private final CharTermAttribute term = addAttribute(CharTermAttribute.class);
+        private final PositionIncrementAttribute increment = addAttribute(PositionIncrementAttribute.class);
+
+        private final List<String> terms;
+        private final List<Integer> increments;
+        private int next;
+
+        private TextValuesTokenStream(List<String> terms, List<Integer> increments) {
+            this.terms = terms;
+            this.increments = increments;
+        }
+
+        @Override
+        public boolean incrementToken() {
+            if (next == terms.size())
+                return false;
+            clearAttributes();
+            term.setEmpty().append(terms.get(next));
+            increment.setPositionIncrement(increments.get(next));
+            next++;
+            return true;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            next = 0;
+        }
+    }
+
+    /**
+     * Indexes each number at one path as a trie encoded long, or as a double when any of them has a fraction.
+     */
+    private static class NumericValuesTokenStream extends TokenStream {
+
+        private final NumericTokenStream numeric;
+        private final List<JsonNode> values;
+        private final boolean floating;
+        private int next;
+
+        private NumericValuesTokenStream(NumericTokenStream numeric, List<JsonNode> values, boolean floating) {
+            super(numeric);
+            this.numeric = numeric;
+            this.values = values;
+            this.floating = floating;
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            while (!numeric.incrementToken()) {
+                if (next == values.size())
+                    return false;
+                setNext();
+            }
+            return true;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            next = 0;
+            setNext();
+        }
+
+        private void setNext() throws IOException {
+            JsonNode value = values.get(next++);
+            if (floating)
+                numeric.setDoubleValue(value.doubleValue());
+            else
+                numeric.setLongValue(value.longValue());
+            numeric.reset();
+        }
+    }
+
+    /**
+     * Adds numeric ranges to the term and range queries with numbers, so that they also match the numeric fields.
+     */
+    private static class TypedQueryParser extends QueryParser {
+
+        private TypedQueryParser(String defaultField, Analyzer analyzer) {
+            super(Lucene.VERSION, defaultField, analyzer);
+        }
+
+        @Override
+        protected Query getFieldQuery(String field, String queryText, boolean quoted) throws ParseException {
+            Query text = super.getFieldQuery(field, queryText, quoted);
+            return quoted ? text : withNumericRange(text, field, queryText, queryText, true, true);
+        }
+
+        @Override
+        protected Query getRangeQuery(String field, String part1, String part2, boolean startInclusive,
+                                      boolean endInclusive) throws ParseException {
+            Query text = super.getRangeQuery(field, part1, part2, startInclusive, endInclusive);
+            return withNumericRange(text, field, part1, part2, startInclusive, endInclusive);
+        }
+
+        // null bounds are open
+        private static Query withNumericRange(Query text, String field, String lower, String upper,
+                                              boolean includeLower, boolean includeUpper) {
+            if ((lower == null && upper == null) || !isNumber(lower) || !isNumber(upper))
+                return text;
+            BooleanQuery query = new BooleanQuery();
+            if (text != null)
+                query.add(text, BooleanClause.Occur.SHOULD);
+            try {
+                query.add(NumericRangeQuery.newLongRange(field, PRECISION_STEP,
+                        lower == null ? null : Long.valueOf(lower), upper == null ? null : Long.valueOf(upper),
+                        includeLower, includeUpper), BooleanClause.Occur.SHOULD);
+            } catch (NumberFormatException e) {
+                // a fraction or out of range, only the double field can hold it
+            }
+            query.add(NumericRangeQuery.newDoubleRange(field, PRECISION_STEP,
+                    lower == null ? null : Double.valueOf(lower), upper == null ? null : Double.valueOf(upper),
+                    includeLower, includeUpper), BooleanClause.Occur.SHOULD);
+            return query;
+        }
+
+        private static boolean isNumber(String text) {
+            return text == null || NUMBER.matcher(text).matches();
+        }
+    }
+}
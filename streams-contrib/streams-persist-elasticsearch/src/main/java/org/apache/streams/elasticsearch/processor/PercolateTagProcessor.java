@@ -25,13 +25,15 @@ import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.streams.core.BatchStreamsProcessor;
 import org.apache.streams.core.StreamsDatum;
-import org.apache.streams.core.StreamsProcessor;
 import org.apache.streams.data.util.ActivityUtil;
 import org.apache.streams.pojo.extensions.ExtensionUtil;
 import org.apache.streams.elasticsearch.ElasticsearchClientManager;
 import org.apache.streams.elasticsearch.ElasticsearchConfiguration;
 import org.apache.streams.elasticsearch.ElasticsearchWriterConfiguration;
+import org.apache.streams.elasticsearch.ElasticsearchWriterConfiguration.PercolateMode;
 import org.apache.streams.jackson.StreamsJacksonMapper;
 import org.apache.streams.pojo.json.Activity;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
@@ -40,19 +42,25 @@ import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsReques
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.percolate.MultiPercolateRequestBuilder;
+import org.elasticsearch.action.percolate.MultiPercolateResponse;
 import org.elasticsearch.action.percolate.PercolateRequestBuilder;
 import org.elasticsearch.action.percolate.PercolateResponse;
+import org.elasticsearch.action.percolate.PercolateSourceBuilder;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.QueryStringQueryBuilder;
 import org.elasticsearch.search.SearchHit;
-import org.elasticsearch.search.SearchHits;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * References:
@@ -62,13 +70,23 @@ import java.util.*;
  * [Status Codes]       http://www.w3.org/Protocols/rfc2616/rfc2616-sec10.html
  * [Test Cases]         http://greenbytes.de/tech/tc/httpredirects/
  * [t.co behavior]      https://dev.twitter.com/docs/tco-redirection-behavior
+ *
+ * In the remote percolateMode, the default, documents are percolated by the cluster.  In the embedded mode the rules
+ * are compiled into an {@link EmbeddedPercolator} and documents are matched in process.  When percolateRefreshMs is
+ * set, the embedded rules are also written to the _percolator and then reloaded from there periodically, which picks
+ * up rules added by others.
+ *
+ * Runtimes which hand over batches of datums get them percolated together, by one multi percolate request in the
+ * remote mode.
  */
 
-public class PercolateTagProcessor implements StreamsProcessor {
+public class PercolateTagProcessor implements BatchStreamsProcessor {
 
     public static final String STREAMS_ID = "PercolateTagProcessor";
     private final static Logger LOGGER = LoggerFactory.getLogger(PercolateTagProcessor.class);
     private final static String DEFAULT_PERCOLATE_FIELD = "_all";
+    private final static String PERCOLATE_SCROLL_TIMEOUT = "1m";
+    private final static int PERCOLATE_SCROLL_SIZE = 500;
 
     private ObjectMapper mapper;
 
@@ -82,6 +100,9 @@ public class PercolateTagProcessor implements StreamsProcessor {
     private BulkRequestBuilder bulkBuilder;
     protected String usePercolateField;
 
+    private EmbeddedPercolator percolator;
+    private ScheduledExecutorService refresher;
+
     public PercolateTagProcessor(ElasticsearchWriterConfiguration config) {
         this(config, DEFAULT_PERCOLATE_FIELD);
     }
@@ -111,60 +132,146 @@ public class PercolateTagProcessor implements StreamsProcessor {
         return outQueue;
     }
 
+    public EmbeddedPercolator getPercolator() {
+        return percolator;
+    }
+
     @Override
     public List<StreamsDatum> process(StreamsDatum entry) {
 
         List<StreamsDatum> result = Lists.newArrayList();
 
-        String json;
-        ObjectNode node;
-        // first check for valid json
-        if (entry.getDocument() instanceof String) {
-            json = (String) entry.getDocument();
+        ObjectNode node = parseDocument(entry);
+        if (node == null)
+            return null;
+
+        Iterable<String> matches;
+        if (percolator != null) {
+            matches = percolator.percolate(node);
+        } else {
+            PercolateResponse response;
             try {
-                node = (ObjectNode) mapper.readTree(json);
-            } catch (IOException e) {
-                e.printStackTrace();
+                PercolateRequestBuilder request = percolateRequest(node);
+                LOGGER.trace("Percolate request: {}", mapper.writeValueAsString(request.request()));
+                response = request.execute().actionGet();
+                LOGGER.trace("Percolate response: {} matches", response.getMatches().length);
+            } catch (Exception e) {
+                LOGGER.warn("Percolate exception: {}", e.getMessage());
                 return null;
             }
-        } else if (entry.getDocument() instanceof ObjectNode) {
-            node = (ObjectNode) entry.getDocument();
+            matches = matchIds(response);
+        }
+
+        tag(entry, node, matches);
+
+        result.add(entry);
+
+        return result;
+
+    }
+
+    /**
+     * Percolates several documents at once.  In the remote mode they are sent to the cluster in one multi percolate
+     * request rather than one request each.
+     * @param entries the datums to tag
+     * @return the tagged datums, without those that could not be percolated
+     * @throws RuntimeException if the multi percolate request failed, before any datum was tagged, so the runtime
+     *                          percolates the datums one at a time instead
+     */
+    @Override
+    public List<StreamsDatum> process(List<StreamsDatum> entries) {
+
+        List<StreamsDatum> result = Lists.newArrayList();
+
+        if (percolator != null) {
+            for (StreamsDatum entry : entries) {
+                List<StreamsDatum> tagged = process(entry);
+                if (tagged != null)
+                    result.addAll(tagged);
+            }
+            return result;
+        }
+
+        List<StreamsDatum> batch = Lists.newArrayList();
+        List<ObjectNode> nodes = Lists.newArrayList();
+        MultiPercolateRequestBuilder request = manager.getClient().prepareMultiPercolate();
+        for (StreamsDatum entry : entries) {
+            ObjectNode node = parseDocument(entry);
+            if (node == null)
+                continue;
             try {
-                json = mapper.writeValueAsString(node);
+                request.add(percolateRequest(node));
             } catch (JsonProcessingException e) {
                 LOGGER.warn("Invalid datum: ", node);
+                continue;
+            }
+            batch.add(entry);
+            nodes.add(node);
+        }
+        if (batch.isEmpty())
+            return result;
+
+        MultiPercolateResponse response;
+        try {
+            response = request.execute().actionGet();
+        } catch (Exception e) {
+            throw new RuntimeException("Multi percolate request failed: " + e.getMessage(), e);
+        }
+
+        // The items of the response are in the order of the requests
+        int i = 0;
+        for (MultiPercolateResponse.Item item : response) {
+            if (item.isFailure()) {
+                // percolated again on its own, and dropped if that fails as well
+                LOGGER.warn("Percolate failure: {}", item.getErrorMessage());
+                List<StreamsDatum> tagged = process(batch.get(i));
+                if (tagged != null)
+                    result.addAll(tagged);
+            } else {
+                tag(batch.get(i), nodes.get(i), matchIds(item.getResponse()));
+                result.add(batch.get(i));
+            }
+            i++;
+        }
+        return result;
+    }
+
+    // Checks for valid json
+    private ObjectNode parseDocument(StreamsDatum entry) {
+        if (entry.getDocument() instanceof String) {
+            try {
+                return (ObjectNode) mapper.readTree((String) entry.getDocument());
+            } catch (IOException e) {
+                LOGGER.warn("Invalid datum: {}", e.getMessage());
                 return null;
             }
+        } else if (entry.getDocument() instanceof ObjectNode) {
+            return (ObjectNode) entry.getDocument();
         } else {
             LOGGER.warn("Incompatible document type: ", entry.getDocument().getClass());
             return null;
         }
+    }
 
-        StringBuilder percolateRequestJson = new StringBuilder();
-        percolateRequestJson.append("{ \"doc\": ");
-        percolateRequestJson.append(json);
-        //percolateRequestJson.append("{ \"content\" : \"crazy good shit\" }");
-        percolateRequestJson.append("}");
-
-        PercolateRequestBuilder request;
-        PercolateResponse response;
+    private PercolateRequestBuilder percolateRequest(ObjectNode node) throws JsonProcessingException {
+        return manager.getClient().preparePercolate()
+                .setIndices(config.getIndex())
+                .setDocumentType(config.getType())
+                .setPercolateDoc(PercolateSourceBuilder.docBuilder().setDoc(mapper.writeValueAsString(node)));
+    }
 
-        try {
-            LOGGER.trace("Percolate request json: {}", percolateRequestJson.toString());
-            request = manager.getClient().preparePercolate().setIndices(config.getIndex()).setDocumentType(config.getType()).setSource(percolateRequestJson.toString());
-            LOGGER.trace("Percolate request: {}", mapper.writeValueAsString(request.request()));
-            response = request.execute().actionGet();
-            LOGGER.trace("Percolate response: {} matches", response.getMatches().length);
-        } catch (Exception e) {
-            LOGGER.warn("Percolate exception: {}", e.getMessage());
-            return null;
+    private static List<String> matchIds(PercolateResponse response) {
+        List<String> ids = Lists.newArrayList();
+        for (PercolateResponse.Match match : response) {
+            ids.add(match.getId().string());
         }
+        return ids;
+    }
 
+    private void tag(StreamsDatum entry, ObjectNode node, Iterable<String> matches) {
         ArrayNode tagArray = JsonNodeFactory.instance.arrayNode();
-
-        Iterator<PercolateResponse.Match> matchIterator = response.iterator();
-        while(matchIterator.hasNext()) {
-            tagArray.add(matchIterator.next().getId().string());
+        for (String match : matches) {
+            tagArray.add(match);
         }
 
         LOGGER.trace("Percolate matches: {}", tagArray);
@@ -174,11 +281,6 @@ public class PercolateTagProcessor implements StreamsProcessor {
         appendMatches(tagArray, activity);
 
         entry.setDocument(activity);
-
-        result.add(entry);
-
-        return result;
-
     }
 
     protected void appendMatches(ArrayNode tagArray, Activity activity) {
@@ -200,15 +302,22 @@ public class PercolateTagProcessor implements StreamsProcessor {
         //manager.getClient().admin().indices().prepareGetMappings(config.getIndex()).get().getMappings().get(config.getType()).;
 
         mapper = StreamsJacksonMapper.getInstance();
+
+        long refreshMs = config.getPercolateRefreshMs() == null ? 0 : config.getPercolateRefreshMs();
+        if( config.getPercolateMode() == PercolateMode.EMBEDDED ) {
+            percolator = new EmbeddedPercolator();
+            LOGGER.info("compiled " + percolator.setRules(getConfiguredRules()) + " tags for embedded percolation");
+            if( refreshMs <= 0 )
+                return;
+        }
+
         manager = new ElasticsearchClientManager(config);
         bulkBuilder = manager.getClient().prepareBulk();
         createIndexIfMissing(config.getIndex());
         if( config.getReplaceTags() == true ) {
             deleteOldQueries(config.getIndex());
         }
-        for (String tag : config.getTags().getAdditionalProperties().keySet()) {
-            String query = (String) config.getTags().getAdditionalProperties().get(tag);
-            PercolateQueryBuilder queryBuilder = new PercolateQueryBuilder(tag, query, this.usePercolateField);
+        for (PercolateQueryBuilder queryBuilder : getConfiguredRules()) {
             addPercolateRule(queryBuilder, config.getIndex());
         }
         if (writePercolateRules() == true)
@@ -216,19 +325,88 @@ public class PercolateTagProcessor implements StreamsProcessor {
         else
             LOGGER.error("FAILED writing " + bulkBuilder.numberOfActions() + " tags to " + config.getIndex() + " _percolator");
 
+        if( percolator != null ) {
+            refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("percolate-refresh-%d")
+                    .setDaemon(true)
+                    .build());
+            refresher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    refreshPercolateRules();
+                }
+            }, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
     public void cleanUp() {
+        if( refresher != null )
+            refresher.shutdownNow();
+        if( manager == null )
+            return;
         if( config.getCleanupTags() == true )
             deleteOldQueries(config.getIndex());
         manager.getClient().close();
     }
 
     public int numOfPercolateRules() {
+        if( bulkBuilder == null )
+            return percolator.size();
         return this.bulkBuilder.numberOfActions();
     }
 
+    /**
+     * @return the rules for the tags of the configuration
+     */
+    public List<PercolateQueryBuilder> getConfiguredRules() {
+        List<PercolateQueryBuilder> rules = Lists.newArrayList();
+        for (String tag : config.getTags().getAdditionalProperties().keySet()) {
+            String query = (String) config.getTags().getAdditionalProperties().get(tag);
+            rules.add(new PercolateQueryBuilder(tag, query, this.usePercolateField));
+        }
+        return rules;
+    }
+
+    /**
+     * Reloads the embedded rules from the _percolator of the index.  The current rules are kept if the rules cannot
+     * be read.
+     * @return true if the rules were reloaded
+     */
+    public boolean refreshPercolateRules() {
+        try {
+            List<PercolateQueryBuilder> rules = getActivePercolateRules(config.getIndex());
+            LOGGER.debug("refreshed {} tags from {} _percolator", percolator.setRules(rules), config.getIndex());
+            return true;
+        } catch (Exception e) {
+            LOGGER.warn("Unable to refresh percolate rules: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads the query_string rules from the _percolator, such as those written by this processor.  Rules of other
+     * kinds cannot be percolated in process and are left out.
+     * @param index
+     * @return the rules
+     */
+    @SuppressWarnings("unchecked")
+    public List<PercolateQueryBuilder> getActivePercolateRules(String index) {
+        List<PercolateQueryBuilder> rules = Lists.newArrayList();
+        for(SearchHit hit : getPercolateHits(index)) {
+            Object query = hit.sourceAsMap() == null ? null : hit.sourceAsMap().get("query");
+            Object queryString = query instanceof Map ? ((Map<String, Object>) query).get("query_string") : null;
+            if(queryString instanceof Map && ((Map<String, Object>) queryString).get("query") instanceof String) {
+                Map<String, Object> source = (Map<String, Object>) queryString;
+                String defaultField = source.get("default_field") instanceof String ? (String) source.get("default_field") : this.usePercolateField;
+                rules.add(new PercolateQueryBuilder(hit.id(), (String) source.get("query"), defaultField));
+            } else {
+                LOGGER.warn("Percolate rule {} is not a query_string, it is not percolated in process", hit.id());
+            }
+        }
+        return rules;
+    }
+
     public void createIndexIfMissing(String indexName) {
         if (!this.manager.getClient()
                 .admin()
@@ -292,15 +470,39 @@ public class PercolateTagProcessor implements StreamsProcessor {
 
     public Set<String> getActivePercolateTags(String index) {
         Set<String> tags = new HashSet<String>();
-        SearchRequestBuilder searchBuilder = manager.getClient().prepareSearch("*").setIndices(index).setTypes(".percolator").setSize(1000);
-        SearchResponse response = searchBuilder.setQuery(QueryBuilders.matchAllQuery()).execute().actionGet();
-        SearchHits hits = response.getHits();
-        for(SearchHit hit : hits.getHits()) {
+        for(SearchHit hit : getPercolateHits(index)) {
             tags.add(hit.id());
         }
         return tags;
     }
 
+    /**
+     * Scrolls through every rule in the _percolator of the index, however many there are.  A failed page fails the
+     * whole read rather than returning part of the rules.
+     * @param index
+     * @return the hits of all of the rules
+     */
+    protected List<SearchHit> getPercolateHits(String index) {
+        List<SearchHit> hits = Lists.newArrayList();
+        SearchRequestBuilder searchBuilder = manager.getClient().prepareSearch("*").setIndices(index).setTypes(".percolator")
+                .setSearchType(SearchType.SCAN)
+                .setScroll(PERCOLATE_SCROLL_TIMEOUT)
+                .setSize(PERCOLATE_SCROLL_SIZE);
+        SearchResponse response = searchBuilder.setQuery(QueryBuilders.matchAllQuery()).execute().actionGet();
+        // A scan only returns the scroll id, the hits come with the scrolls that follow until one comes back empty
+        while(true) {
+            response = manager.getClient().prepareSearchScroll(response.getScrollId())
+                    .setScroll(PERCOLATE_SCROLL_TIMEOUT)
+                    .execute()
+                    .actionGet();
+            SearchHit[] page = response.getHits().getHits();
+            if(page.length == 0)
+                break;
+            hits.addAll(Arrays.asList(page));
+        }
+        return hits;
+    }
+
     /**
      *
      * @param index
@@ -325,9 +527,13 @@ public class PercolateTagProcessor implements StreamsProcessor {
 
         private QueryStringQueryBuilder queryBuilder;
         private String id;
+        private String query;
+        private String defaultField;
 
         public PercolateQueryBuilder(String id, String query, String defaultPercolateField) {
             this.id = id;
+            this.query = query;
+            this.defaultField = defaultPercolateField;
             this.queryBuilder = QueryBuilders.queryString(query);
             this.queryBuilder.defaultField(defaultPercolateField);
         }
@@ -336,6 +542,14 @@ public class PercolateTagProcessor implements StreamsProcessor {
             return this.id;
         }
 
+        public String getQuery() {
+            return this.query;
+        }
+
+        public String getDefaultField() {
+            return this.defaultField;
+        }
+
         public String getSource() {
             return "{ \n\"query\" : "+this.queryBuilder.toString()+"\n}";
         }
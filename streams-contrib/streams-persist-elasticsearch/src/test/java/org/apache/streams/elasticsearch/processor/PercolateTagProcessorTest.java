@@ -18,9 +18,35 @@
 
 package org.apache.streams.elasticsearch.processor;
 
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.google.common.collect.ImmutableMap;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.elasticsearch.ElasticsearchClientManager;
+import org.apache.streams.elasticsearch.ElasticsearchWriterConfiguration;
+import org.apache.streams.elasticsearch.Tags;
+import org.apache.streams.jackson.StreamsJacksonMapper;
+import org.apache.streams.pojo.extensions.ExtensionUtil;
+import org.apache.streams.pojo.json.Activity;
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
 
 public class PercolateTagProcessorTest {
     private final String id = "test_id";
@@ -43,4 +69,160 @@ public class PercolateTagProcessorTest {
         assertEquals(id, percolateQueryBuilder.getId());
         assertEquals(expectedResults, percolateQueryBuilder.getSource());
     }
+
+    @Test
+    public void embeddedPercolateWithoutClusterTest() {
+        Tags tags = new Tags();
+        tags.setAdditionalProperty("baseball", "baseball OR homerun");
+        tags.setAdditionalProperty("soccer", "soccer");
+        tags.setAdditionalProperty("broken", "(unclosed");
+        ElasticsearchWriterConfiguration config = new ElasticsearchWriterConfiguration()
+                .withTags(tags)
+                .withPercolateMode(ElasticsearchWriterConfiguration.PercolateMode.EMBEDDED);
+
+        PercolateTagProcessor processor = new PercolateTagProcessor(config, "content");
+        processor.prepare(null);
+        assertEquals(2, processor.numOfPercolateRules());
+
+        List<StreamsDatum> result = processor.process(new StreamsDatum("{\"content\":\"What a homerun!\",\"title\":\"soccer\"}"));
+        assertNotNull(result);
+        assertEquals(1, result.size());
+        ArrayNode matches = (ArrayNode) ExtensionUtil.ensureExtensions((Activity) result.get(0).getDocument()).get(processor.TAGS_EXTENSION);
+        assertEquals(1, matches.size());
+        assertEquals("baseball", matches.get(0).asText());
+
+        processor.cleanUp();
+    }
+
+    @Test
+    public void embeddedPercolateAllFieldTest() {
+        Tags tags = new Tags();
+        tags.setAdditionalProperty("soccer", "soccer");
+        ElasticsearchWriterConfiguration config = new ElasticsearchWriterConfiguration()
+                .withTags(tags)
+                .withPercolateMode(ElasticsearchWriterConfiguration.PercolateMode.EMBEDDED);
+
+        PercolateTagProcessor processor = new PercolateTagProcessor(config);
+        processor.prepare(null);
+
+        List<StreamsDatum> result = processor.process(Arrays.asList(
+                new StreamsDatum("{\"content\":\"nothing\",\"actor\":{\"displayName\":\"soccer fan\"}}"),
+                new StreamsDatum("not json"),
+                new StreamsDatum("{\"content\":\"nothing\"}")));
+        assertEquals(2, result.size());
+        ArrayNode matches = (ArrayNode) ExtensionUtil.ensureExtensions((Activity) result.get(0).getDocument()).get(processor.TAGS_EXTENSION);
+        assertEquals(1, matches.size());
+        matches = (ArrayNode) ExtensionUtil.ensureExtensions((Activity) result.get(1).getDocument()).get(processor.TAGS_EXTENSION);
+        assertTrue(matches.size() == 0);
+
+        processor.cleanUp();
+    }
+
+    /**
+     * Numbers and booleans are indexed with their own types, and the values of an array are kept apart
+     */
+    @Test
+    public void embeddedPercolateTypedFieldsTest() throws Exception {
+        EmbeddedPercolator percolator = new EmbeddedPercolator();
+        percolator.setRules(Arrays.asList(
+                new PercolateTagProcessor.PercolateQueryBuilder("popular", "favorites:[100 TO *]", "content"),
+                new PercolateTagProcessor.PercolateQueryBuilder("exact", "favorites:150", "content"),
+                new PercolateTagProcessor.PercolateQueryBuilder("rated", "rating:[4 TO 5]", "content"),
+                new PercolateTagProcessor.PercolateQueryBuilder("verified", "verified:true", "content"),
+                new PercolateTagProcessor.PercolateQueryBuilder("crossing", "\"world cup\"", "content")));
+
+        List<String> matches = percolator.percolate(StreamsJacksonMapper.getInstance().readTree(
+                "{\"favorites\":150,\"rating\":4.5,\"verified\":true,\"content\":[\"hello world\",\"cup final\"]}"));
+        assertEquals(Arrays.asList("popular", "exact", "rated", "verified"), matches);
+
+        matches = percolator.percolate(StreamsJacksonMapper.getInstance().readTree(
+                "{\"favorites\":[7,99],\"rating\":3,\"verified\":false,\"content\":\"the world cup\"}"));
+        assertEquals(Arrays.asList("crossing"), matches);
+    }
+
+    /**
+     * A refresh reads every page of the _percolator, and keeps the current rules when a page cannot be read
+     */
+    @Test
+    public void embeddedRefreshReadsAllRulesTest() throws Exception {
+        Tags tags = new Tags();
+        tags.setAdditionalProperty("soccer", "soccer");
+        ElasticsearchWriterConfiguration config = new ElasticsearchWriterConfiguration()
+                .withTags(tags)
+                .withPercolateMode(ElasticsearchWriterConfiguration.PercolateMode.EMBEDDED);
+        config.setIndex("index");
+        config.setCleanupTags(false);
+
+        PercolateTagProcessor processor = new PercolateTagProcessor(config, "content");
+        processor.prepare(null);
+        assertEquals(1, processor.numOfPercolateRules());
+
+        Client client = mock(Client.class);
+        ElasticsearchClientManager manager = mock(ElasticsearchClientManager.class);
+        when(manager.getClient()).thenReturn(client);
+        processor.setManager(manager);
+
+        SearchRequestBuilder search = builder(SearchRequestBuilder.class);
+        when(client.prepareSearch((String[]) anyVararg())).thenReturn(search);
+        ListenableActionFuture<SearchResponse> scan = future(page(0, 0));
+        when(search.execute()).thenReturn(scan);
+        SearchScrollRequestBuilder scroll = builder(SearchScrollRequestBuilder.class);
+        when(client.prepareSearchScroll(anyString())).thenReturn(scroll);
+        ListenableActionFuture<SearchResponse> first = future(page(0, 1000));
+        ListenableActionFuture<SearchResponse> second = future(page(1000, 2000));
+        ListenableActionFuture<SearchResponse> third = future(page(2000, 2500));
+        ListenableActionFuture<SearchResponse> last = future(page(0, 0));
+        when(scroll.execute()).thenReturn(first, second, third, last);
+
+        assertTrue(processor.refreshPercolateRules());
+        assertEquals(2500, processor.numOfPercolateRules());
+        assertEquals(1, processor.getPercolator().percolate(StreamsJacksonMapper.getInstance().readTree("{\"content\":\"rule2499\"}")).size());
+
+        ListenableActionFuture<SearchResponse> failed = future(null);
+        when(failed.actionGet()).thenThrow(new RuntimeException("scroll expired"));
+        when(scroll.execute()).thenReturn(first, failed);
+
+        assertFalse(processor.refreshPercolateRules());
+        assertEquals(2500, processor.numOfPercolateRules());
+
+        processor.cleanUp();
+    }
+
+    // A mock of a request builder whose setters return the builder itself
+    private static <T> T builder(final Class<T> type) {
+        return mock(type, new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                if (invocation.getMethod().getReturnType().isAssignableFrom(type))
+                    return invocation.getMock();
+                return RETURNS_DEFAULTS.answer(invocation);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ListenableActionFuture<SearchResponse> future(SearchResponse response) {
+        ListenableActionFuture<SearchResponse> future = mock(ListenableActionFuture.class);
+        when(future.actionGet()).thenReturn(response);
+        return future;
+    }
+
+    // A page of query_string rules rule<from> to rule<to - 1>
+    private static SearchResponse page(int from, int to) {
+        SearchHit[] hits = new SearchHit[to - from];
+        for (int i = from; i < to; i++) {
+            SearchHit hit = mock(SearchHit.class);
+            when(hit.id()).thenReturn("rule" + i);
+            Map<String, Object> source = ImmutableMap.<String, Object>of("query", ImmutableMap.of("query_string",
+                    ImmutableMap.of("query", "rule" + i, "default_field", "content")));
+            when(hit.sourceAsMap()).thenReturn(source);
+            hits[i - from] = hit;
+        }
+        SearchHits searchHits = mock(SearchHits.class);
+        when(searchHits.getHits()).thenReturn(hits);
+        SearchResponse response = mock(SearchResponse.class);
+        when(response.getHits()).thenReturn(searchHits);
+        when(response.getScrollId()).thenReturn("scroll");
+        return response;
+    }
 }
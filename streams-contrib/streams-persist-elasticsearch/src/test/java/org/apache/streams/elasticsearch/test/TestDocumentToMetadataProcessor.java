@@ -65,8 +65,8 @@ public class TestDocumentToMetadataProcessor {
         StreamsDatum testInput = new StreamsDatum(document);
 
         Assert.assertNotNull(testInput.document);
-        Assert.assertNotNull(testInput.metadata);
-        Assert.assertEquals(testInput.metadata.size(), 0);
+        Assert.assertNotNull(testInput.getMetadata());
+        Assert.assertEquals(testInput.getMetadata().size(), 0);
 
         processor.prepare(null);
 
@@ -74,8 +74,8 @@ public class TestDocumentToMetadataProcessor {
 
         processor.cleanUp();
 
-        Assert.assertNotNull(testOutput.metadata);
-        Assert.assertEquals(testInput.metadata.size(), 3);
+        Assert.assertNotNull(testOutput.getMetadata());
+        Assert.assertEquals(testInput.getMetadata().size(), 3);
 
     }
 }
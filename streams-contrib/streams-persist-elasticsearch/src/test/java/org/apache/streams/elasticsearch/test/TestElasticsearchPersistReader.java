@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.elasticsearch.test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.elasticsearch.ElasticsearchPersistReader;
+import org.apache.streams.elasticsearch.ElasticsearchReaderConfiguration;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.test.ElasticsearchIntegrationTest;
+import org.junit.Test;
+
+import java.util.Set;
+
+@ElasticsearchIntegrationTest.ClusterScope(scope= ElasticsearchIntegrationTest.Scope.TEST, numNodes=1)
+public class TestElasticsearchPersistReader extends ElasticsearchIntegrationTest {
+
+    private final String TEST_INDEX = "TestElasticsearchPersistReader".toLowerCase();
+
+    @Test
+    public void testPersistReaderParallelScrolls() throws Exception {
+
+        client().admin().indices().prepareCreate(TEST_INDEX)
+                .setSettings(ImmutableSettings.settingsBuilder().put("index.number_of_shards", 3).put("index.number_of_replicas", 0))
+                .execute().actionGet();
+
+        for( int i = 0; i < 1000; i++ ) {
+            client().prepareIndex(TEST_INDEX, "doc", "test" + i).setSource("{\"dummy\":\"" + i + "\"}").execute().actionGet();
+        }
+
+        flushAndRefresh();
+
+        ElasticsearchReaderConfiguration testConfiguration = new ElasticsearchReaderConfiguration();
+        testConfiguration.setHosts(Lists.newArrayList("localhost"));
+        testConfiguration.setClusterName(cluster().getClusterName());
+        testConfiguration.setIndexes(Lists.newArrayList(TEST_INDEX));
+        testConfiguration.setTypes(Lists.newArrayList("doc"));
+        testConfiguration.setBatchSize(7l);
+        testConfiguration.setScrollThreads(3l);
+        ElasticsearchPersistReader testPersistReader = new ElasticsearchPersistReader(testConfiguration);
+        testPersistReader.prepare(null);
+        testPersistReader.startStream();
+
+        assertEquals(3, testPersistReader.getQueries().size());
+
+        Set<String> ids = Sets.newHashSet();
+        int read = 0;
+        while( testPersistReader.isRunning() ) {
+            for( StreamsDatum datum : testPersistReader.readCurrent() ) {
+                ids.add(datum.getId());
+                read++;
+            }
+            Thread.sleep(10);
+        }
+        testPersistReader.cleanUp();
+
+        assertEquals(1000, read);
+        assertEquals(1000, ids.size());
+
+    }
+}
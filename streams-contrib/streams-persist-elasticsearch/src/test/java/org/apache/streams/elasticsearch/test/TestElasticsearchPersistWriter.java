@@ -85,4 +85,34 @@ public class TestElasticsearchPersistWriter extends ElasticsearchIntegrationTest
         assert(count > 0);
 
     }
+
+    @Test
+    public void testPersistWriterManyBulks() {
+
+        ElasticsearchWriterConfiguration testConfiguration = new ElasticsearchWriterConfiguration();
+        testConfiguration.setHosts(Lists.newArrayList("localhost"));
+        testConfiguration.setClusterName(cluster().getClusterName());
+        testConfiguration.setBatchSize(10l);
+        testConfiguration.setMaxInFlightBulks(2l);
+        testConfiguration.setIndex(TEST_INDEX);
+        testConfiguration.setType("bulk");
+        ElasticsearchPersistWriter testPersistWriter = new ElasticsearchPersistWriter(testConfiguration);
+        testPersistWriter.prepare(null);
+
+        for( int i = 0; i < 1000; i++ ) {
+            testPersistWriter.write(new StreamsDatum("{\"dummy\":\"" + i + "\"}", "test" + i));
+        }
+
+        testPersistWriter.cleanUp();
+
+        flushAndRefresh();
+
+        assertEquals(1000, testPersistWriter.getTotalOk());
+        assertEquals(0, testPersistWriter.getTotalOutstanding());
+
+        long count = client().count(client().prepareCount(TEST_INDEX).setTypes("bulk").request()).actionGet().getCount();
+
+        assertEquals(1000, count);
+
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.elasticsearch.test;
+
+import org.apache.streams.elasticsearch.ElasticsearchClientManager;
+import org.apache.streams.elasticsearch.ElasticsearchPersistWriter;
+import org.apache.streams.elasticsearch.ElasticsearchWriterConfiguration;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests the retries of {@link org.apache.streams.elasticsearch.ElasticsearchPersistWriter} against a client that
+ * rejects some of its bulks and items, as a busy cluster does
+ */
+public class TestElasticsearchPersistWriterRetries {
+
+    private static final String INDEX = "index";
+    private static final String TYPE = "type";
+
+    private Client client;
+    private ElasticsearchClientManager manager;
+    private final AtomicInteger bulks = new AtomicInteger();
+    private final Set<String> indexed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> rejectedOnce = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    @Before
+    public void setUp() {
+        client = mock(Client.class, RETURNS_DEEP_STUBS);
+        manager = mock(ElasticsearchClientManager.class);
+        when(manager.getClient()).thenReturn(client);
+    }
+
+    /**
+     * A rejected bulk and rejected items are sent again until they are indexed
+     */
+    @Test
+    public void testRejectionsAreRetried() {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                BulkRequest request = (BulkRequest) invocation.getArguments()[0];
+                ActionListener<BulkResponse> listener = (ActionListener<BulkResponse>) invocation.getArguments()[1];
+                if(bulks.incrementAndGet() == 1) {
+                    listener.onFailure(new EsRejectedExecutionException("rejected execution of the first bulk"));
+                    return null;
+                }
+                // reject ids ending in 7 the first time they are sent
+                listener.onResponse(respond(request, "7", true));
+                return null;
+            }
+        }).when(client).bulk(any(BulkRequest.class), any(ActionListener.class));
+
+        RetryingWriter writer = new RetryingWriter(getConfig(3l), manager);
+        writer.prepare(null);
+        for(int i = 0; i < 50; i++) {
+            writer.index("id" + i);
+        }
+        writer.cleanUp();
+
+        assertEquals(50, indexed.size());
+        assertEquals(50, writer.getTotalOk());
+        assertEquals(0, writer.getTotalFailed());
+        assertEquals(0, writer.getTotalOutstanding());
+        // the first bulk and the five ids ending in 7
+        assertTrue(writer.getTotalRetried() >= 10 + 5);
+    }
+
+    /**
+     * Items still rejected after maxRetries attempts are counted as failed
+     */
+    @Test
+    public void testRejectionsFailAfterMaxRetries() {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                BulkRequest request = (BulkRequest) invocation.getArguments()[0];
+                ActionListener<BulkResponse> listener = (ActionListener<BulkResponse>) invocation.getArguments()[1];
+                bulks.incrementAndGet();
+                // always reject id3
+                listener.onResponse(respond(request, "id3", false));
+                return null;
+            }
+        }).when(client).bulk(any(BulkRequest.class), any(ActionListener.class));
+
+        RetryingWriter writer = new RetryingWriter(getConfig(2l), manager);
+        writer.prepare(null);
+        for(int i = 0; i < 10; i++) {
+            writer.index("id" + i);
+        }
+        writer.cleanUp();
+
+        assertEquals(9, writer.getTotalOk());
+        assertEquals(1, writer.getTotalFailed());
+        assertEquals(2, writer.getTotalRetried());
+        assertEquals(0, writer.getTotalOutstanding());
+        // the first bulk and one bulk per retry
+        assertEquals(3, bulks.get());
+    }
+
+    private BulkResponse respond(BulkRequest request, String rejectSuffix, boolean once) {
+        List<ActionRequest> requests = request.requests();
+        BulkItemResponse[] items = new BulkItemResponse[requests.size()];
+        for(int i = 0; i < items.length; i++) {
+            String id = ((IndexRequest) requests.get(i)).id();
+            if(id.endsWith(rejectSuffix) && (!once || rejectedOnce.add(id))) {
+                items[i] = new BulkItemResponse(i, "index", new BulkItemResponse.Failure(INDEX, TYPE, id,
+                        "RemoteTransportException[EsRejectedExecutionException[rejected execution]]"));
+            } else {
+                indexed.add(id);
+                items[i] = new BulkItemResponse(i, "index", new IndexResponse(INDEX, TYPE, id, 1, true));
+            }
+        }
+        return new BulkResponse(items, 1);
+    }
+
+    private ElasticsearchWriterConfiguration getConfig(long maxRetries) {
+        ElasticsearchWriterConfiguration config = new ElasticsearchWriterConfiguration();
+        config.setIndex(INDEX);
+        config.setType(TYPE);
+        config.setBatchSize(10l);
+        config.setMaxInFlightBulks(2l);
+        config.setMaxRetries(maxRetries);
+        config.setMaxTimeBetweenFlushMs(100l);
+        return config;
+    }
+
+    private static class RetryingWriter extends ElasticsearchPersistWriter {
+
+        private RetryingWriter(ElasticsearchWriterConfiguration config, ElasticsearchClientManager manager) {
+            super(config, manager);
+            // the index is known, so the writer does not check for it
+            getAffectedIndexes().add(INDEX);
+        }
+
+        private void index(String id) {
+            add(new IndexRequest(INDEX, TYPE, id).source("{\"id\":\"" + id + "\"}"));
+        }
+    }
+}
@@ -54,6 +54,14 @@ public class HbaseConfigurator {
         hbaseConfiguration.setTable(hbase.getString("table"));
         hbaseConfiguration.setFamily(hbase.getString("family"));
         hbaseConfiguration.setQualifier(hbase.getString("qualifier"));
+        if( hbase.hasPath("batchSize") )
+            hbaseConfiguration.setBatchSize(hbase.getLong("batchSize"));
+        if( hbase.hasPath("batchBytes") )
+            hbaseConfiguration.setBatchBytes(hbase.getLong("batchBytes"));
+        if( hbase.hasPath("maxTimeBetweenFlushMs") )
+            hbaseConfiguration.setMaxTimeBetweenFlushMs(hbase.getLong("maxTimeBetweenFlushMs"));
+        if( hbase.hasPath("maxInFlightBatches") )
+            hbaseConfiguration.setMaxInFlightBatches(hbase.getLong("maxInFlightBatches"));
 
         return hbaseConfiguration;
     }
@@ -19,26 +19,47 @@
 package org.apache.streams.hbase;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.*;
+import org.apache.streams.core.DatumStatus;
+import org.apache.streams.core.DatumStatusCountable;
+import org.apache.streams.core.DatumStatusCounter;
 import org.apache.streams.core.StreamsDatum;
 import org.apache.streams.core.StreamsPersistWriter;
-import org.apache.streams.util.GuidUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.Flushable;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class HbasePersistWriter implements StreamsPersistWriter, Flushable, Closeable
+/**
+ * Buffers puts and sends them to the table in batches of batchSize puts or batchBytes bytes, or after
+ * maxTimeBetweenFlushMs.  Up to maxInFlightBatches batches are sent at once, each on its own table from a pool, while
+ * write keeps filling the next one.
+ */
+public class HbasePersistWriter implements StreamsPersistWriter, DatumStatusCountable, Flushable, Closeable
 {
     private final static Logger LOGGER = LoggerFactory.getLogger(HbasePersistWriter.class);
 
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final static HashFunction ROW_KEY_HASH = Hashing.murmur3_128();
+
+    private final static int DEFAULT_BATCH_SIZE = 100;
+    private final static long DEFAULT_BATCH_BYTES = 2l * 1024l * 1024l;
+    private final static long DEFAULT_MAX_WAIT = 1000;
+    private final static int DEFAULT_MAX_IN_FLIGHT_BATCHES = 2;
+
     protected HConnection connection;
     protected HTablePool pool;
     protected HTableInterface table;
@@ -50,9 +71,37 @@ public class HbasePersistWriter implements StreamsPersistWriter, Flushable, Clos
 
     private HbaseConfiguration config;
 
+    private byte[] family;
+    private byte[] qualifier;
+
+    private final Queue<Put> pending = new ConcurrentLinkedQueue<Put>();
+    private final AtomicLong pendingPuts = new AtomicLong(0);
+    private final AtomicLong pendingBytes = new AtomicLong(0);
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long batchBytes = DEFAULT_BATCH_BYTES;
+    private long maxWait = DEFAULT_MAX_WAIT;
+    private int maxInFlightBatches = DEFAULT_MAX_IN_FLIGHT_BATCHES;
+    private volatile long lastFlush = System.currentTimeMillis();
+
+    private ExecutorService sender;
+    private ScheduledExecutorService scheduler;
+    private Semaphore inFlight;
+    private Thread task;
+
+    private final AtomicLong totalOk = new AtomicLong(0);
+    private final AtomicLong totalFailed = new AtomicLong(0);
+    private final AtomicLong totalBatches = new AtomicLong(0);
+    private final AtomicLong totalLatencyMs = new AtomicLong(0);
+    private final AtomicLong maxLatencyMs = new AtomicLong(0);
+
     public HbasePersistWriter() {
-        this.config = HbaseConfigurator.detectConfiguration();
-        this.persistQueue  = new ConcurrentLinkedQueue<StreamsDatum>();
+        this(HbaseConfigurator.detectConfiguration());
+    }
+
+    public HbasePersistWriter(HbaseConfiguration config) {
+        this.config = config;
+        this.persistQueue  = new LinkedBlockingQueue<StreamsDatum>();
     }
 
     public HbasePersistWriter(Queue<StreamsDatum> persistQueue) {
@@ -60,7 +109,26 @@ public class HbasePersistWriter implements StreamsPersistWriter, Flushable, Clos
         this.persistQueue = persistQueue;
     }
 
-    private synchronized void connectToHbase()
+    public long getTotalOk()                { return this.totalOk.get(); }
+    public long getTotalFailed()            { return this.totalFailed.get(); }
+    public long getTotalPending()           { return this.pendingPuts.get(); }
+    public long getTotalBatches()           { return this.totalBatches.get(); }
+    public long getMaxLatencyMs()           { return this.maxLatencyMs.get(); }
+
+    public double getAverageLatencyMs() {
+        long batches = this.totalBatches.get();
+        return batches == 0 ? 0 : (double) this.totalLatencyMs.get() / batches;
+    }
+
+    public double getAverageBatchSize() {
+        long batches = this.totalBatches.get();
+        return batches == 0 ? 0 : (double) (this.totalOk.get() + this.totalFailed.get()) / batches;
+    }
+
+    /**
+     * Connects to HBase and creates the pool of tables the batches are sent with
+     */
+    protected synchronized void connectToHbase()
     {
         Configuration configuration = new Configuration();
         configuration.set("hbase.rootdir", config.getRootdir());
@@ -74,118 +142,217 @@ public class HbasePersistWriter implements StreamsPersistWriter, Flushable, Clos
 
         configuration.setInt("timeout", 1000);
 
-        //pool = new HTablePool(configuration, 10);
         try {
             connection = HConnectionManager.createConnection(configuration);
         } catch (Exception e) {
-            e.printStackTrace();
+            LOGGER.error("Unable to connect to HBase: {}", e.getMessage());
             return;
         }
 
+        // HTable is not thread safe, every batch in flight borrows its own from the pool
+        pool = new HTablePool(configuration, maxInFlightBatches);
+
         try {
-        //    table = new HTable(configuration, config.getTable());
-        //    table = (HTable) pool.getTable(config.getTable());
-            table = new HTable(configuration, config.getTable().getBytes());
-            table.setAutoFlush(true);
+            table = pool.getTable(config.getTable());
         } catch (Exception e) {
-            e.printStackTrace();
+            LOGGER.error("Unable to get table {}: {}", config.getTable(), e.getMessage());
             return;
         }
-        //
 
         try {
             descriptor = table.getTableDescriptor();
+            LOGGER.info("Table : {}", descriptor);
         } catch (Exception e) {
-            e.printStackTrace();
-            return;
+            LOGGER.error("There was an error connecting to HBase, please check your settings and try again: {}", e.getMessage());
+        } finally {
+            closeTable(table);
         }
+    }
 
-        try
-        {
-            LOGGER.info("Table : {}", descriptor);
-        }
-        catch (Exception e)
-        {
-            LOGGER.error("There was an error connecting to HBase, please check your settings and try again");
-            e.printStackTrace();
+    @Override
+    public void write(StreamsDatum streamsDatum) {
+
+        // serialize once, the row key is a hash of the same bytes
+        byte[] value;
+        try {
+            if( streamsDatum.getDocument() instanceof String )
+                value = ((String) streamsDatum.getDocument()).getBytes(UTF8);
+            else
+                value = mapper.writeValueAsBytes(streamsDatum.getDocument());
+        } catch (Exception e) {
+            LOGGER.warn("Invalid json: {}: {}", streamsDatum.getDocument(), e.getMessage());
+            totalFailed.incrementAndGet();
             return;
         }
+
+        Put put = new Put(ROW_KEY_HASH.hashBytes(value).asBytes());
+        put.add(family, qualifier, value);
+        add(put);
     }
-    
-    @Override
-    public void write(StreamsDatum streamsDatum) {
 
-        ObjectNode node;
-        Put put = new Put();
-        if( streamsDatum.getDocument() instanceof String ) {
-            try {
-                node = mapper.readValue((String)streamsDatum.getDocument(), ObjectNode.class);
-            } catch (IOException e) {
-                e.printStackTrace();
-                LOGGER.warn("Invalid json: {}", streamsDatum.getDocument().toString());
-                return;
+    /**
+     * Buffers a put, and sends a batch if one has filled up
+     * @param put the put
+     */
+    protected void add(Put put) {
+        pending.add(put);
+        long puts = pendingPuts.incrementAndGet();
+        long bytes = pendingBytes.addAndGet(put.heapSize());
+        if( puts >= batchSize || bytes >= batchBytes )
+            sendBatches(false);
+    }
+
+    /**
+     * Sends the buffered puts in batches of up to batchSize, waiting for a batch to finish when maxInFlightBatches are
+     * already being sent.
+     * @param all whether to send the last partial batch too
+     */
+    private void sendBatches(boolean all) {
+        while( pendingPuts.get() >= batchSize || pendingBytes.get() >= batchBytes || (all && pendingPuts.get() > 0) ) {
+            final List<Put> batch = Lists.newArrayListWithCapacity(batchSize);
+            long bytes = 0;
+            Put put;
+            while( batch.size() < batchSize && bytes < batchBytes && (put = pending.poll()) != null ) {
+                batch.add(put);
+                bytes += put.heapSize();
             }
-            put.setId(GuidUtils.generateGuid(node.toString()));
-            try {
-                byte[] value = node.binaryValue();
-                put.add(config.getFamily().getBytes(), config.getQualifier().getBytes(), value);
-            } catch (IOException e) {
-                e.printStackTrace();
-                LOGGER.warn("Failure adding object: {}", streamsDatum.getDocument().toString());
+            if( batch.isEmpty() )
                 return;
-            }
-        } else {
+            pendingPuts.addAndGet(-batch.size());
+            pendingBytes.addAndGet(-bytes);
+            lastFlush = System.currentTimeMillis();
+
             try {
-                node = mapper.valueToTree(streamsDatum.getDocument());
-            } catch (Exception e) {
-                e.printStackTrace();
-                LOGGER.warn("Invalid json: {}", streamsDatum.getDocument().toString());
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                requeue(batch);
                 return;
             }
-            put.setId(GuidUtils.generateGuid(node.toString()));
             try {
-                byte[] value = node.binaryValue();
-                put.add(config.getFamily().getBytes(), config.getQualifier().getBytes(), value);
-            } catch (IOException e) {
-                e.printStackTrace();
-                LOGGER.warn("Failure preparing put: {}", streamsDatum.getDocument().toString());
+                sender.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            send(batch);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                requeue(batch);
                 return;
             }
         }
+    }
+
+    private void requeue(List<Put> batch) {
+        for( Put put : batch ) {
+            pending.add(put);
+            pendingPuts.incrementAndGet();
+            pendingBytes.addAndGet(put.heapSize());
+        }
+    }
+
+    private void send(List<Put> batch) {
+        long start = System.currentTimeMillis();
+        HTableInterface batchTable = null;
         try {
-            table.put(put);
-        } catch (IOException e) {
-            e.printStackTrace();
-            LOGGER.warn("Failure executin put: {}", streamsDatum.getDocument().toString());
-            return;
+            batchTable = pool.getTable(config.getTable());
+            batchTable.put(batch);
+            totalOk.addAndGet(batch.size());
+        } catch (Exception e) {
+            LOGGER.warn("Failure executing {} puts: {}", batch.size(), e.getMessage());
+            totalFailed.addAndGet(batch.size());
+        } finally {
+            closeTable(batchTable);
         }
+        long latency = System.currentTimeMillis() - start;
+        totalBatches.incrementAndGet();
+        totalLatencyMs.addAndGet(latency);
+        long max;
+        while( (max = maxLatencyMs.get()) < latency && !maxLatencyMs.compareAndSet(max, latency) );
+        LOGGER.debug("Sent {} puts in {}ms", batch.size(), latency);
+    }
 
+    private void closeTable(HTableInterface table) {
+        if( table == null )
+            return;
+        try {
+            table.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failure returning table to the pool: {}", e.getMessage());
+        }
     }
 
+    /**
+     * Sends everything buffered and waits for the batches in flight
+     */
     public void flush() throws IOException
     {
-        table.flushCommits();
+        sendBatches(true);
+        try {
+            inFlight.acquire(maxInFlightBatches);
+            inFlight.release(maxInFlightBatches);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for batches in flight", e);
+        }
     }
 
     public synchronized void close() throws IOException
     {
-        table.close();
+        if( task != null )
+            task.interrupt();
+        sender.shutdown();
+        scheduler.shutdownNow();
+        if( pool != null )
+            pool.close();
+        if( connection != null )
+            connection.close();
     }
 
     @Override
     public void prepare(Object configurationObject) {
 
+        family = config.getFamily().getBytes(UTF8);
+        qualifier = config.getQualifier().getBytes(UTF8);
+        if( config.getBatchSize() != null )
+            batchSize = Math.max(1, config.getBatchSize().intValue());
+        if( config.getBatchBytes() != null )
+            batchBytes = config.getBatchBytes();
+        if( config.getMaxTimeBetweenFlushMs() != null )
+            maxWait = config.getMaxTimeBetweenFlushMs();
+        if( config.getMaxInFlightBatches() != null )
+            maxInFlightBatches = Math.max(1, config.getMaxInFlightBatches().intValue());
+
+        inFlight = new Semaphore(maxInFlightBatches);
+        sender = Executors.newFixedThreadPool(maxInFlightBatches);
+
         connectToHbase();
 
-        Thread task = new Thread(new HbasePersistWriterTask(this));
-        task.start();
+        // send what has waited longer than maxTimeBetweenFlushMs when writes slow down
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "HbasePersistWriter-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if( pendingPuts.get() > 0 && System.currentTimeMillis() - lastFlush >= maxWait )
+                    sendBatches(true);
+            }
+        }, maxWait, maxWait, TimeUnit.MILLISECONDS);
 
-        try {
-            task.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            return;
-        }
+        task = new Thread(new HbasePersistWriterTask(this), "HbasePersistWriter-queue");
+        task.setDaemon(true);
+        task.start();
 
     }
 
@@ -195,13 +362,24 @@ public class HbasePersistWriter implements StreamsPersistWriter, Flushable, Clos
         try {
             flush();
         } catch (IOException e) {
-            e.printStackTrace();
+            LOGGER.warn("Failure flushing the puts in flight: {}", e.getMessage());
         }
         try {
             close();
         } catch (IOException e) {
-            e.printStackTrace();
+            LOGGER.warn("Failure closing the connection: {}", e.getMessage());
         }
+        LOGGER.info("Wrote {} puts in {} batches, {} failed, average latency {}ms, max latency {}ms",
+                totalOk.get(), totalBatches.get(), totalFailed.get(), getAverageLatencyMs(), maxLatencyMs.get());
+
+    }
 
+    @Override
+    public DatumStatusCounter getDatumStatusCounter() {
+        DatumStatusCounter counters = new DatumStatusCounter();
+        counters.incrementAttempt((int) (this.totalOk.get() + this.totalFailed.get()));
+        counters.incrementStatus(DatumStatus.SUCCESS, (int) this.totalOk.get());
+        counters.incrementStatus(DatumStatus.FAIL, (int) this.totalFailed.get());
+        return counters;
     }
 }
@@ -22,12 +22,21 @@ import org.apache.streams.core.StreamsDatum;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Random;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Writes the datums put on the writer's persistQueue until it is interrupted.  A blocking queue is waited on, any
+ * other queue is polled with a backoff while it is empty.
+ */
 public class HbasePersistWriterTask implements Runnable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HbasePersistWriterTask.class);
 
+    private static final long IDLE_POLL_MS = 500;
+    private static final long MAX_BACKOFF_MS = 100;
+
     private HbasePersistWriter writer;
 
     public HbasePersistWriterTask(HbasePersistWriter writer) {
@@ -37,20 +46,36 @@ public class HbasePersistWriterTask implements Runnable {
     @Override
     public void run() {
 
-        while(true) {
-            if( writer.persistQueue.peek() != null ) {
+        long backoff = 1;
+        while(!Thread.currentThread().isInterrupted()) {
+            StreamsDatum entry;
+            try {
+                entry = poll(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if( entry != null ) {
+                backoff = 1;
                 try {
-                    StreamsDatum entry = writer.persistQueue.remove();
                     writer.write(entry);
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    LOGGER.warn("Failure writing datum {}: {}", entry.getId(), e.getMessage());
                 }
+            } else {
+                backoff = Math.min(MAX_BACKOFF_MS, backoff * 2);
             }
-            try {
-                Thread.sleep(new Random().nextInt(1));
-            } catch (InterruptedException e) {}
         }
 
     }
 
+    private StreamsDatum poll(long backoff) throws InterruptedException {
+        Queue<StreamsDatum> queue = writer.persistQueue;
+        if( queue instanceof BlockingQueue )
+            return ((BlockingQueue<StreamsDatum>) queue).poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+        StreamsDatum entry = queue.poll();
+        if( entry == null )
+            Thread.sleep(backoff);
+        return entry;
+    }
+
 }
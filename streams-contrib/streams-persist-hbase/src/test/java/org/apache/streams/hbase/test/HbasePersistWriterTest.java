@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.hbase.test;
+
+import com.google.common.hash.Hashing;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.hbase.HbaseConfiguration;
+import org.apache.streams.hbase.HbasePersistWriter;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests {@link org.apache.streams.hbase.HbasePersistWriter} against a mocked table
+ */
+public class HbasePersistWriterTest {
+
+    private static final String TABLE = "table";
+
+    private HTablePool pool;
+    private HTableInterface table;
+    private final List<List<Put>> batches = Collections.synchronizedList(new ArrayList<List<Put>>());
+
+    @Before
+    public void setUp() throws Exception {
+        table = mock(HTableInterface.class);
+        pool = mock(HTablePool.class);
+        when(pool.getTable(TABLE)).thenReturn(table);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                batches.add(new ArrayList<Put>((List<Put>) invocation.getArguments()[0]));
+                return null;
+            }
+        }).when(table).put(anyListOf(Put.class));
+    }
+
+    /**
+     * Row keys are the murmur3 hash of the document, so the same document always lands on the same row
+     */
+    @Test
+    public void testRowKeyIsMurmur3OfDocument() throws Exception {
+        HbasePersistWriter writer = prepare(getConfig(10, 1000, 2));
+        String document = "{\"id\":\"1\"}";
+        writer.write(new StreamsDatum(document));
+        writer.write(new StreamsDatum(document));
+        writer.write(new StreamsDatum("{\"id\":\"2\"}"));
+        writer.cleanUp();
+
+        List<Put> puts = batches.get(0);
+        assertEquals(3, puts.size());
+        assertArrayEquals(Hashing.murmur3_128().hashBytes(document.getBytes("UTF-8")).asBytes(), puts.get(0).getRow());
+        assertArrayEquals(puts.get(0).getRow(), puts.get(1).getRow());
+        assertFalse(java.util.Arrays.equals(puts.get(0).getRow(), puts.get(2).getRow()));
+    }
+
+    /**
+     * Puts are sent in batches of batchSize, each on a table borrowed from the pool and returned to it
+     */
+    @Test
+    public void testPutsAreBatched() throws Exception {
+        HbasePersistWriter writer = prepare(getConfig(10, 60000, 2));
+        for(int i = 0; i < 35; i++) {
+            writer.write(new StreamsDatum("{\"id\":\"" + i + "\"}"));
+        }
+        writer.cleanUp();
+
+        assertEquals(4, batches.size());
+        int puts = 0;
+        for(List<Put> batch : batches) {
+            assertTrue(batch.size() <= 10);
+            puts += batch.size();
+        }
+        assertEquals(35, puts);
+        assertEquals(35, writer.getTotalOk());
+        assertEquals(4, writer.getTotalBatches());
+        // one table to read the descriptor, one per batch
+        verify(pool, times(5)).getTable(TABLE);
+        verify(table, times(5)).close();
+    }
+
+    /**
+     * No more than maxInFlightBatches batches are sent at once, writes wait for one to finish
+     */
+    @Test
+    public void testInFlightLimit() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                int current = inFlight.incrementAndGet();
+                int max;
+                while(current > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, current));
+                release.await();
+                inFlight.decrementAndGet();
+                return null;
+            }
+        }).when(table).put(anyListOf(Put.class));
+
+        final HbasePersistWriter writer = prepare(getConfig(10, 60000, 2));
+        Thread writes = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for(int i = 0; i < 100; i++) {
+                    writer.write(new StreamsDatum("{\"id\":\"" + i + "\"}"));
+                }
+            }
+        });
+        writes.start();
+
+        // two batches are stuck in flight, the third full batch holds up the writes
+        Thread.sleep(500);
+        assertTrue(writes.isAlive());
+        assertEquals(2, maxInFlight.get());
+
+        release.countDown();
+        writes.join(10000);
+        assertFalse(writes.isAlive());
+        writer.cleanUp();
+
+        assertEquals(2, maxInFlight.get());
+        assertEquals(100, writer.getTotalOk());
+    }
+
+    /**
+     * A partial batch is sent once it has waited maxTimeBetweenFlushMs, without a flush
+     */
+    @Test
+    public void testScheduledFlush() throws Exception {
+        HbasePersistWriter writer = prepare(getConfig(100, 100, 2));
+        for(int i = 0; i < 5; i++) {
+            writer.write(new StreamsDatum("{\"id\":\"" + i + "\"}"));
+        }
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while(writer.getTotalOk() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(5, writer.getTotalOk());
+        assertEquals(1, batches.size());
+        writer.cleanUp();
+    }
+
+    private HbasePersistWriter prepare(HbaseConfiguration config) {
+        HbasePersistWriter writer = new HbasePersistWriter(config) {
+            @Override
+            protected synchronized void connectToHbase() {
+                this.pool = HbasePersistWriterTest.this.pool;
+                this.table = this.pool.getTable(TABLE);
+                try {
+                    this.descriptor = this.table.getTableDescriptor();
+                    this.table.close();
+                } catch (Exception e) {
+                    fail(e.getMessage());
+                }
+            }
+        };
+        writer.prepare(null);
+        return writer;
+    }
+
+    private HbaseConfiguration getConfig(long batchSize, long maxTimeBetweenFlushMs, long maxInFlightBatches) {
+        HbaseConfiguration config = new HbaseConfiguration();
+        config.setTable(TABLE);
+        config.setFamily("family");
+        config.setQualifier("qualifier");
+        config.setBatchSize(batchSize);
+        config.setMaxTimeBetweenFlushMs(maxTimeBetweenFlushMs);
+        config.setMaxInFlightBatches(maxInFlightBatches);
+        return config;
+    }
+}
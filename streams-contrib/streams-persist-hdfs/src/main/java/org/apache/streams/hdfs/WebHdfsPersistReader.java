@@ -18,9 +18,9 @@
 
 package org.apache.streams.hdfs;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
 import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.ForwardingBlockingQueue;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
 import org.apache.hadoop.fs.FileStatus;
@@ -38,14 +38,17 @@ import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.*;
 
 /**
- * Created by sblackmon on 2/28/14.
+ * Reads the line files below a path.  Files are read by readerThreads workers in parallel, which block on the
+ * reader's bounded queue when the stream falls behind.  If a checkpointPath is configured, the offset of the last
+ * datum taken by {@link #readCurrent()}, or from the queue handed out by {@link #readAll()}, in every file is saved
+ * there, and a reader started with the same checkpoint resumes where the last one stopped.
  */
 public class WebHdfsPersistReader implements StreamsPersistReader, DatumStatusCountable {
 
@@ -55,21 +58,26 @@ public class WebHdfsPersistReader implements StreamsPersistReader, DatumStatusCo
 
     protected final static char DELIMITER = '\t';
 
+    private final static int QUEUE_CAPACITY = 10000;
+
     protected FileSystem client;
     protected Path path;
     protected FileStatus[] status;
 
-    protected volatile Queue<StreamsDatum> persistQueue;
-
-    private ObjectMapper mapper = new ObjectMapper();
+    protected volatile BlockingQueue<StreamsDatum> persistQueue;
 
     private HdfsReaderConfiguration hdfsConfiguration;
 
+    private final Queue<FileStatus> files = new ConcurrentLinkedQueue<>();
+    private WebHdfsReaderCheckpoint checkpoint;
+
     private ExecutorService executor;
 
     protected DatumStatusCounter countersTotal = new DatumStatusCounter();
-    protected DatumStatusCounter countersCurrent = new DatumStatusCounter();
-    private Future<?> task;
+    private final List<WebHdfsPersistReaderTask> tasks = new ArrayList<>();
+    private final List<Future<?>> futures = new ArrayList<>();
+    private long reportedRead = 0;
+    private long reportedFailed = 0;
 
     public WebHdfsPersistReader(HdfsReaderConfiguration hdfsConfiguration) {
         this.hdfsConfiguration = hdfsConfiguration;
@@ -86,6 +94,37 @@ public class WebHdfsPersistReader implements StreamsPersistReader, DatumStatusCo
         return new URI(uriBuilder.toString());
     }
 
+    /**
+     * The workers, with their throughput
+     */
+    public List<WebHdfsPersistReaderTask> getTasks() {
+        return this.tasks;
+    }
+
+    /**
+     * @return the checkpoint, or null if no checkpointPath is configured
+     */
+    public WebHdfsReaderCheckpoint getCheckpoint() {
+        return this.checkpoint;
+    }
+
+    /**
+     * @return the next file to read, or null if every file has been taken
+     */
+    protected FileStatus nextFile() {
+        return this.files.poll();
+    }
+
+    protected void saveCheckpoint() {
+        if(this.checkpoint == null)
+            return;
+        try {
+            this.checkpoint.save();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to save checkpoint {}: {}", this.checkpoint.getPath(), e.getMessage());
+        }
+    }
+
     public boolean isConnected() 		                { return (client != null); }
 
     public final synchronized FileSystem getFileSystem()
@@ -159,26 +198,67 @@ public class WebHdfsPersistReader implements StreamsPersistReader, DatumStatusCo
         } catch (IOException e) {
             e.printStackTrace();
         }
-        persistQueue = Queues.synchronizedQueue(new LinkedBlockingQueue<StreamsDatum>(10000));
-        //persistQueue = Queues.synchronizedQueue(new ConcurrentLinkedQueue());
-        executor = Executors.newSingleThreadExecutor();
+
+        if( !Strings.isNullOrEmpty(hdfsConfiguration.getCheckpointPath())) {
+            checkpoint = new WebHdfsReaderCheckpoint(client, new Path(hdfsConfiguration.getCheckpointPath()));
+            try {
+                checkpoint.load();
+            } catch (IOException e) {
+                LOGGER.error("Unable to load checkpoint {}, reading everything: {}", checkpoint.getPath(), e.getMessage());
+            }
+        }
+
+        if( status != null ) {
+            Path checkpointPath = checkpoint == null ? null : client.makeQualified(checkpoint.getPath());
+            for( FileStatus fileStatus : status ) {
+                String name = fileStatus.getPath().getName();
+                // skip hidden files and the checkpoint, in case it lives next to the data
+                if( fileStatus.isFile() && !name.startsWith("_") && !name.startsWith(".")
+                        && !fileStatus.getPath().equals(checkpointPath))
+                    files.add(fileStatus);
+            }
+        }
+
+        int readerThreads = Math.max(1, hdfsConfiguration.getReaderThreads().intValue());
+        LOGGER.info("Reading {} files with {} workers", files.size(), readerThreads);
+
+        persistQueue = new LinkedBlockingQueue<StreamsDatum>(QUEUE_CAPACITY);
+        executor = Executors.newFixedThreadPool(readerThreads);
+        for( int i = 0; i < readerThreads; i++ ) {
+            tasks.add(new WebHdfsPersistReaderTask(this, i));
+        }
     }
 
+    /**
+     * Stops the workers and saves the checkpoint.  Datums still on the queue were never handed on, so the checkpoint
+     * does not count them and a resumed reader reads them again.
+     */
     @Override
     public void cleanUp() {
-
+        if( executor != null )
+            executor.shutdownNow();
+        saveCheckpoint();
     }
 
+    /**
+     * Hands out the queue the workers fill.  Datums taken from it advance the checkpoint, so a restarted reader
+     * resumes after the last datum taken, as it does with {@link #readCurrent()}.
+     */
     @Override
     public StreamsResultSet readAll() {
         startStream();
-        return new StreamsResultSet(persistQueue);
+        if( checkpoint == null )
+            return new StreamsResultSet(persistQueue);
+        return new StreamsResultSet(new CheckpointingQueue(persistQueue, checkpoint));
     }
 
     @Override
     public void startStream() {
         LOGGER.debug("startStream");
-        task = executor.submit(new WebHdfsPersistReaderTask(this));
+        for( WebHdfsPersistReaderTask task : tasks ) {
+            futures.add(executor.submit(task));
+        }
+        executor.shutdown();
     }
 
     @Override
@@ -186,13 +266,31 @@ public class WebHdfsPersistReader implements StreamsPersistReader, DatumStatusCo
 
         StreamsResultSet current;
 
-        synchronized( WebHdfsPersistReader.class ) {
-            current = new StreamsResultSet(Queues.newConcurrentLinkedQueue(persistQueue));
-            current.setCounter(new DatumStatusCounter());
-            current.getCounter().add(countersCurrent);
+        synchronized( this ) {
+            Queue<StreamsDatum> batch = Queues.newConcurrentLinkedQueue();
+            persistQueue.drainTo(batch);
+            current = new StreamsResultSet(batch);
+            if( checkpoint != null ) {
+                for( StreamsDatum datum : batch )
+                    checkpoint.consumed(datum);
+            }
+
+            // the workers count on their own, report what they counted since the last call
+            long read = 0;
+            long failed = 0;
+            for( WebHdfsPersistReaderTask task : tasks ) {
+                read += task.getLinesRead();
+                failed += task.getLinesFailed();
+            }
+            DatumStatusCounter countersCurrent = new DatumStatusCounter();
+            countersCurrent.incrementAttempt((int) (read - reportedRead + failed - reportedFailed));
+            countersCurrent.incrementStatus(DatumStatus.SUCCESS, (int) (read - reportedRead));
+            countersCurrent.incrementStatus(DatumStatus.FAIL, (int) (failed - reportedFailed));
+            reportedRead = read;
+            reportedFailed = failed;
+
+            current.setCounter(countersCurrent);
             countersTotal.add(countersCurrent);
-            countersCurrent = new DatumStatusCounter();
-            persistQueue.clear();
         }
 
         return current;
@@ -210,11 +308,75 @@ public class WebHdfsPersistReader implements StreamsPersistReader, DatumStatusCo
 
     @Override
     public boolean isRunning() {
-        return !task.isDone() && !task.isCancelled();
+        for( Future<?> future : futures ) {
+            if( !future.isDone() )
+                return true;
+        }
+        return false;
     }
 
     @Override
     public DatumStatusCounter getDatumStatusCounter() {
         return countersTotal;
     }
+
+    /**
+     * Marks every datum taken from the queue as consumed in the checkpoint
+     */
+    private static class CheckpointingQueue extends ForwardingBlockingQueue<StreamsDatum> {
+
+        private final BlockingQueue<StreamsDatum> delegate;
+        private final WebHdfsReaderCheckpoint checkpoint;
+
+        private CheckpointingQueue(BlockingQueue<StreamsDatum> delegate, WebHdfsReaderCheckpoint checkpoint) {
+            this.delegate = delegate;
+            this.checkpoint = checkpoint;
+        }
+
+        @Override
+        protected BlockingQueue<StreamsDatum> delegate() {
+            return this.delegate;
+        }
+
+        @Override
+        public StreamsDatum poll() {
+            return consumed(this.delegate.poll());
+        }
+
+        @Override
+        public StreamsDatum poll(long timeout, TimeUnit unit) throws InterruptedException {
+            return consumed(this.delegate.poll(timeout, unit));
+        }
+
+        @Override
+        public StreamsDatum take() throws InterruptedException {
+            return consumed(this.delegate.take());
+        }
+
+        @Override
+        public StreamsDatum remove() {
+            return consumed(this.delegate.remove());
+        }
+
+        @Override
+        public int drainTo(Collection<? super StreamsDatum> c) {
+            return drainTo(c, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int drainTo(Collection<? super StreamsDatum> c, int maxElements) {
+            List<StreamsDatum> drained = new ArrayList<>();
+            int count = this.delegate.drainTo(drained, maxElements);
+            for( StreamsDatum datum : drained )
+                consumed(datum);
+            c.addAll(drained);
+            return count;
+        }
+
+        private StreamsDatum consumed(StreamsDatum datum) {
+            if( datum != null )
+                this.checkpoint.consumed(datum);
+            return datum;
+        }
+    }
 }
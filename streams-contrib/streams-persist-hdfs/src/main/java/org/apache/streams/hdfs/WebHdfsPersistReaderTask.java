@@ -15,87 +15,178 @@
  * specific language governing permissions and limitations
  * under the License.
  */
-
 package org.apache.streams.hdfs;
 
-import com.google.common.base.Strings;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
-import org.apache.streams.core.DatumStatus;
+import org.apache.streams.converter.LineCompression;
+import org.apache.streams.converter.LineReadWriteUtil;
+import org.apache.streams.converter.LineReader;
 import org.apache.streams.core.StreamsDatum;
-import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
 
+/**
+ * One of the workers of a {@link WebHdfsPersistReader}.  Workers take files from the reader until there are none
+ * left, resuming each from its checkpointed offset, and put the parsed datums on the reader's queue.
+ */
 public class WebHdfsPersistReaderTask implements Runnable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(WebHdfsPersistReaderTask.class);
 
+    private static final int CHECKPOINT_LINES = 10000;
+
     private WebHdfsPersistReader reader;
+    private LineReadWriteUtil lineReadWriteUtil = new LineReadWriteUtil();
+    private final int workerId;
+
+    private volatile long linesRead = 0;
+    private volatile long linesFailed = 0;
+    private volatile long bytesRead = 0;
+    private volatile long startedAt = 0;
+    private volatile long finishedAt = 0;
 
     public WebHdfsPersistReaderTask(WebHdfsPersistReader reader) {
+        this(reader, 0);
+    }
+
+    public WebHdfsPersistReaderTask(WebHdfsPersistReader reader, int workerId) {
         this.reader = reader;
+        this.workerId = workerId;
     }
 
     @Override
     public void run() {
+        this.startedAt = System.currentTimeMillis();
+        try {
+            FileStatus fileStatus;
+            while((fileStatus = reader.nextFile()) != null && !Thread.currentThread().isInterrupted()) {
+                readFile(fileStatus);
+            }
+        } finally {
+            this.finishedAt = System.currentTimeMillis();
+            LOGGER.info("Worker {} finished: {} lines, {} kb, {} lines/s", this.workerId, this.linesRead, this.bytesRead / 1024, (long) getLinesPerSecond());
+        }
+    }
 
-        for( FileStatus fileStatus : reader.status ) {
-            BufferedReader bufferedReader;
-            LOGGER.info("Found " + fileStatus.getPath().getName());
-            if( fileStatus.isFile() && !fileStatus.getPath().getName().startsWith("_")) {
-                LOGGER.info("Started Processing " + fileStatus.getPath().getName());
-                try {
-                    bufferedReader = new BufferedReader(new InputStreamReader(reader.client.open(fileStatus.getPath())));
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    LOGGER.error(e.getMessage());
-                    return;
-                }
+    private void readFile(FileStatus fileStatus) {
+        String file = fileStatus.getPath().toString();
+        WebHdfsReaderCheckpoint checkpoint = reader.getCheckpoint();
+        if(checkpoint != null && checkpoint.isCompleted(file)) {
+            LOGGER.info("Skipping {}, it was completed before", file);
+            return;
+        }
+        LineCompression compression = LineCompression.fromFileName(fileStatus.getPath().getName());
+        long offset = checkpoint == null ? 0 : checkpoint.getOffset(file);
+        if(offset > 0 && compression == LineCompression.NONE && offset > fileStatus.getLen()) {
+            LOGGER.warn("{} is shorter than its checkpointed offset {}, reading it from the start", file, offset);
+            offset = 0;
+        }
+        LOGGER.info("Worker {} started processing {} from {}", this.workerId, file, offset);
+        long linesBefore = this.linesRead;
+
+        InputStream decompressed = null;
+        try {
+            FSDataInputStream in = reader.client.open(fileStatus.getPath());
+            decompressed = in;
+            if(compression == LineCompression.NONE) {
+                in.seek(offset);
+            } else {
+                // compressed offsets count uncompressed bytes, so those files are decompressed from the start
+                decompressed = compression.decompress(in);
+                skipFully(decompressed, offset);
+            }
+            LineReader lineReader = new LineReader(decompressed);
 
-                String line = "";
-                do{
-                    try {
-                        line = bufferedReader.readLine();
-                        if( !Strings.isNullOrEmpty(line) ) {
-                            reader.countersCurrent.incrementAttempt();
-                            String[] fields = line.split(Character.toString(reader.DELIMITER));
-                            // Temporarily disabling timestamp reads to make reader and writer compatible
-                            // This capability will be restore in PR for STREAMS-169
-                            //StreamsDatum entry = new StreamsDatum(fields[3], fields[0], new DateTime(Long.parseLong(fields[2])));
-                            StreamsDatum entry = new StreamsDatum(fields[3], fields[0]);
-                            write( entry );
-                            reader.countersCurrent.incrementStatus(DatumStatus.SUCCESS);
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        LOGGER.warn(e.getMessage());
-                        reader.countersCurrent.incrementStatus(DatumStatus.FAIL);
+            int sinceCheckpoint = 0;
+            String line;
+            while((line = lineReader.readLine()) != null) {
+                if(!line.isEmpty()) {
+                    StreamsDatum entry = lineReadWriteUtil.processLine(line);
+                    if(entry == null) {
+                        this.linesFailed++;
+                    } else {
+                        // the offset only advances once the reader hands the datum on
+                        if(checkpoint != null)
+                            checkpoint.queued(entry, file, offset + lineReader.getPosition());
+                        reader.persistQueue.put(entry);
+                        this.linesRead++;
                     }
-                } while( !Strings.isNullOrEmpty(line) );
-                LOGGER.info("Finished Processing " + fileStatus.getPath().getName());
+                }
+                if(checkpoint != null && ++sinceCheckpoint == CHECKPOINT_LINES) {
+                    reader.saveCheckpoint();
+                    sinceCheckpoint = 0;
+                }
+            }
+            this.bytesRead += lineReader.getPosition();
+            if(checkpoint != null) {
+                checkpoint.finished(file);
+                reader.saveCheckpoint();
+            }
+            LOGGER.info("Worker {} finished processing {}: {} lines", this.workerId, file, this.linesRead - linesBefore);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.warn("Worker {} failed reading {} : {}", this.workerId, file, e.getMessage());
+            this.linesFailed++;
+        } finally {
+            if(decompressed != null) {
                 try {
-                    bufferedReader.close();
+                    decompressed.close();
                 } catch (Exception e) {
-                    e.printStackTrace();
-                    LOGGER.error(e.getMessage());
+                    LOGGER.error("There was an issue closing file: {}", file);
                 }
             }
         }
-
     }
 
-    private void write( StreamsDatum entry ) {
-        boolean success;
-        do {
-            synchronized( WebHdfsPersistReader.class ) {
-                success = reader.persistQueue.offer(entry);
+    private static void skipFully(InputStream in, long bytes) throws IOException {
+        while(bytes > 0) {
+            long skipped = in.skip(bytes);
+            if(skipped <= 0) {
+                if(in.read() < 0)
+                    return;
+                skipped = 1;
             }
-            Thread.yield();
+            bytes -= skipped;
         }
-        while( !success );
     }
 
+    public int getWorkerId() {
+        return this.workerId;
+    }
+
+    /**
+     * @return the number of datums this worker put on the queue
+     */
+    public long getLinesRead() {
+        return this.linesRead;
+    }
+
+    /**
+     * @return the number of lines or files this worker failed to read
+     */
+    public long getLinesFailed() {
+        return this.linesFailed;
+    }
+
+    /**
+     * @return the number of uncompressed bytes this worker read
+     */
+    public long getBytesRead() {
+        return this.bytesRead;
+    }
+
+    /**
+     * @return lines read per second since the worker started
+     */
+    public double getLinesPerSecond() {
+        if(this.startedAt == 0)
+            return 0;
+        long end = this.finishedAt == 0 ? System.currentTimeMillis() : this.finishedAt;
+        return this.linesRead * 1000.0 / Math.max(1, end - this.startedAt);
+    }
 }
@@ -18,8 +18,7 @@
 
 package org.apache.streams.hdfs;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
@@ -27,6 +26,8 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.web.WebHdfsFileSystem;
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.streams.converter.LineCompression;
+import org.apache.streams.converter.LineReadWriteUtil;
 import org.apache.streams.core.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,7 +49,6 @@ public class WebHdfsPersistWriter implements StreamsPersistWriter, Flushable, Cl
 
     private final static Logger LOGGER = LoggerFactory.getLogger(WebHdfsPersistWriter.class);
 
-    private final static char DELIMITER = '\t';
     private final static int DEFAULT_LINES_PER_FILE = 50000;
 
     private FileSystem client;
@@ -69,13 +69,19 @@ public class WebHdfsPersistWriter implements StreamsPersistWriter, Flushable, Cl
 
     protected volatile Queue<StreamsDatum> persistQueue;
 
-    private ObjectMapper mapper = new ObjectMapper();
+    // uses StreamsJacksonMapper rather than a plain ObjectMapper, so timestamps and metadata are written the way
+    // WebHdfsPersistReader and S3PersistReader parse them back
+    private LineReadWriteUtil lineReadWriteUtil = new LineReadWriteUtil();
+
+    private LineCompression compression = LineCompression.NONE;
 
     private HdfsWriterConfiguration hdfsConfiguration;
 
     public WebHdfsPersistWriter(HdfsWriterConfiguration hdfsConfiguration) {
         this.hdfsConfiguration = hdfsConfiguration;
         this.linesPerFile = hdfsConfiguration.getLinesPerFile().intValue();
+        if (hdfsConfiguration.getCompression() != null)
+            this.compression = LineCompression.fromName(hdfsConfiguration.getCompression().toString());
     }
 
     public URI getURI() throws URISyntaxException {
@@ -149,9 +155,11 @@ public class WebHdfsPersistWriter implements StreamsPersistWriter, Flushable, Cl
             if (this.currentWriter == null || (this.fileLineCounter > this.linesPerFile))
                 resetFile();
 
-            String line = convertResultToString(streamsDatum);
+            String line = lineReadWriteUtil.convertResultToString(streamsDatum);
+            if (line == null)
+                return;
             writeInternal(line);
-            int bytesInLine = line.getBytes().length;
+            int bytesInLine = line.getBytes(Charsets.UTF_8).length;
 
             totalRecordsWritten++;
             totalByteCount += bytesInLine;
@@ -204,7 +212,7 @@ public class WebHdfsPersistWriter implements StreamsPersistWriter, Flushable, Cl
             return;
 
         // Create the path for where the file is going to live.
-        Path filePath = this.path.suffix("/" + hdfsConfiguration.getWriterFilePrefix() + "-" + new Date().getTime() + ".tsv");
+        Path filePath = this.path.suffix("/" + hdfsConfiguration.getWriterFilePrefix() + "-" + new Date().getTime() + ".tsv" + compression.getExtension());
 
         try {
 
@@ -220,7 +228,7 @@ public class WebHdfsPersistWriter implements StreamsPersistWriter, Flushable, Cl
             if (client.exists(filePath))
                 throw new RuntimeException("Unable to create file: " + filePath);
 
-            this.currentWriter = new OutputStreamWriter(client.create(filePath));
+            this.currentWriter = new OutputStreamWriter(compression.compress(client.create(filePath)), "UTF-8");
 
             // Add another file to the list of written files.
             writtenFiles.add(filePath);
@@ -242,36 +250,6 @@ public class WebHdfsPersistWriter implements StreamsPersistWriter, Flushable, Cl
         }
     }
 
-    private String convertResultToString(StreamsDatum entry) {
-        String metadata = null;
-        try {
-            metadata = mapper.writeValueAsString(entry.getMetadata());
-        } catch (JsonProcessingException e) {
-            LOGGER.warn("Error converting metadata to a string", e);
-        }
-
-        String documentJson = null;
-        try {
-            documentJson = mapper.writeValueAsString(entry.getDocument());
-        } catch (JsonProcessingException e) {
-            LOGGER.warn("Error converting document to string", e);
-        }
-
-        if (Strings.isNullOrEmpty(documentJson))
-            return null;
-        else
-            return new StringBuilder()
-                    .append(entry.getId())
-                    .append(DELIMITER)
-                    .append(entry.getTimestamp())
-                    .append(DELIMITER)
-                    .append(metadata)
-                    .append(DELIMITER)
-                    .append(documentJson)
-                    .append("\n")
-                    .toString();
-    }
-
     @Override
     public void prepare(Object configurationObject) {
         connectToWebHDFS();
@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.hdfs;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.streams.core.StreamsDatum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Byte offsets reached in the files read by a {@link WebHdfsPersistReader}, saved as json to a file on the same
+ * file system.  Offsets count uncompressed bytes, and are only advanced once the datum of the line before them has
+ * been taken from the reader's queue, so datums still queued when the reader stops are read again on resume.
+ */
+public class WebHdfsReaderCheckpoint {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(WebHdfsReaderCheckpoint.class);
+
+    private static final String OFFSETS = "offsets";
+    private static final String COMPLETED = "completed";
+
+    private final FileSystem client;
+    private final Path path;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<String, Long> offsets = new ConcurrentHashMap<>();
+    private final Set<String> completed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // datums on the reader's queue, with the file and offset after their line
+    private final Map<StreamsDatum, LinePosition> queued = new IdentityHashMap<>();
+    // number of datums of each file on the reader's queue
+    private final Map<String, Integer> pending = new HashMap<>();
+    // files read to their end that still have datums on the reader's queue
+    private final Set<String> finished = new HashSet<>();
+
+    public WebHdfsReaderCheckpoint(FileSystem client, Path path) {
+        this.client = client;
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * Loads the saved checkpoint, if there is one
+     */
+    public synchronized void load() throws IOException {
+        this.offsets.clear();
+        this.completed.clear();
+        Path saved = this.path;
+        if(!this.client.exists(saved)) {
+            // a save stopped between moving the last checkpoint aside and renaming the new one into place
+            saved = getBackupPath();
+            if(!this.client.exists(saved))
+                return;
+        }
+        InputStream in = this.client.open(saved);
+        try {
+            JsonNode root = this.mapper.readTree(in);
+            Iterator<Map.Entry<String, JsonNode>> fields = root.path(OFFSETS).fields();
+            while(fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                this.offsets.put(field.getKey(), field.getValue().asLong());
+            }
+            for(JsonNode file : root.path(COMPLETED)) {
+                this.completed.add(file.asText());
+            }
+        } finally {
+            in.close();
+        }
+        LOGGER.info("Loaded checkpoint {}: {} files completed, {} in progress", saved, this.completed.size(), this.offsets.size());
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file and renames it into place.  The last checkpoint is kept as a backup
+     * until the rename succeeds, so a crash leaves either the last or the new checkpoint, never none or half of one.
+     */
+    public synchronized void save() throws IOException {
+        ObjectNode root = this.mapper.createObjectNode();
+        ObjectNode offsetsNode = root.putObject(OFFSETS);
+        for(Map.Entry<String, Long> offset : this.offsets.entrySet()) {
+            offsetsNode.put(offset.getKey(), offset.getValue());
+        }
+        ArrayNode completedNode = root.putArray(COMPLETED);
+        for(String file : this.completed) {
+            completedNode.add(file);
+        }
+
+        Path tmp = new Path(this.path.getParent(), "_" + this.path.getName() + ".tmp");
+        FSDataOutputStream out = this.client.create(tmp, true);
+        try {
+            this.mapper.writeValue(out, root);
+        } finally {
+            out.close();
+        }
+        // renames do not replace existing files on every file system, so the last checkpoint is moved aside first
+        Path backup = getBackupPath();
+        if(this.client.exists(this.path)) {
+            if(this.client.exists(backup))
+                this.client.delete(backup, false);
+            if(!this.client.rename(this.path, backup))
+                throw new IOException("Unable to rename " + this.path + " to " + backup);
+        }
+        if(!this.client.rename(tmp, this.path))
+            throw new IOException("Unable to rename " + tmp + " to " + this.path);
+        if(this.client.exists(backup))
+            this.client.delete(backup, false);
+    }
+
+    private Path getBackupPath() {
+        return new Path(this.path.getParent(), "_" + this.path.getName() + ".bak");
+    }
+
+    /**
+     * @return the offset to resume the file from, 0 if it has not been read
+     */
+    public long getOffset(String file) {
+        Long offset = this.offsets.get(file);
+        return offset == null ? 0 : offset;
+    }
+
+    public boolean isCompleted(String file) {
+        return this.completed.contains(file);
+    }
+
+    public void update(String file, long offset) {
+        this.offsets.put(file, offset);
+    }
+
+    public void complete(String file) {
+        this.completed.add(file);
+        this.offsets.remove(file);
+    }
+
+    /**
+     * Records that a datum is about to be put on the reader's queue
+     * @param datum the datum
+     * @param file file of its line
+     * @param offset offset after its line
+     */
+    public synchronized void queued(StreamsDatum datum, String file, long offset) {
+        this.queued.put(datum, new LinePosition(file, offset));
+        Integer count = this.pending.get(file);
+        this.pending.put(file, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Records that a datum was taken from the reader's queue, advancing the offset of its file past its line
+     */
+    public synchronized void consumed(StreamsDatum datum) {
+        LinePosition position = this.queued.remove(datum);
+        if(position == null)
+            return;
+        Long offset = this.offsets.get(position.file);
+        if(offset == null || offset < position.offset)
+            this.offsets.put(position.file, position.offset);
+        int count = this.pending.get(position.file) - 1;
+        if(count > 0) {
+            this.pending.put(position.file, count);
+        } else {
+            this.pending.remove(position.file);
+            if(this.finished.remove(position.file))
+                complete(position.file);
+        }
+    }
+
+    /**
+     * Records that a file was read to its end.  It is completed once its last datum is taken from the reader's queue.
+     */
+    public synchronized void finished(String file) {
+        if(this.pending.containsKey(file))
+            this.finished.add(file);
+        else
+            complete(file);
+    }
+
+    private static class LinePosition {
+        private final String file;
+        private final long offset;
+
+        private LinePosition(String file, long offset) {
+            this.file = file;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.hdfs.test;
+
+import org.apache.streams.converter.LineCompression;
+import org.apache.streams.converter.LineReadWriteUtil;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.core.StreamsResultSet;
+import org.apache.streams.hdfs.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test for reading files in parallel from the local file system and resuming from a checkpoint
+ */
+public class WebHdfsPersistReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LineReadWriteUtil lineReadWriteUtil = new LineReadWriteUtil();
+
+    @Test
+    public void readFilesInParallelTest() throws Exception {
+        File input = folder.newFolder("input");
+        writeFile(new File(input, "a.tsv"), 0, 300, LineCompression.NONE);
+        writeFile(new File(input, "b.tsv.gz"), 300, 200, LineCompression.GZIP);
+        writeFile(new File(input, "c.tsv"), 500, 100, LineCompression.NONE);
+        writeFile(new File(input, "_SUCCESS"), 600, 10, LineCompression.NONE);
+
+        WebHdfsPersistReader reader = new WebHdfsPersistReader(getConfig(3, null));
+        reader.prepare(null);
+        reader.startStream();
+        Map<String, Integer> seen = readAll(reader);
+        reader.cleanUp();
+
+        assertEquals(600, seen.size());
+        for(int i=0; i < 600; ++i) {
+            assertEquals("id" + i, Integer.valueOf(1), seen.get("id" + i));
+        }
+        assertEquals(3, reader.getTasks().size());
+        assertEquals(600, reader.getDatumStatusCounter().getSuccess());
+    }
+
+    @Test
+    public void resumeFromCheckpointTest() throws Exception {
+        File input = folder.newFolder("input");
+        File checkpointFile = new File(folder.getRoot(), "checkpoint");
+        writeFile(new File(input, "a.tsv"), 0, 100, LineCompression.NONE);
+        writeFile(new File(input, "b.tsv.gz"), 100, 100, LineCompression.GZIP);
+
+        WebHdfsPersistReader reader = new WebHdfsPersistReader(getConfig(2, checkpointFile.getAbsolutePath()));
+        reader.prepare(null);
+        reader.startStream();
+        assertEquals(200, readAll(reader).size());
+        reader.cleanUp();
+        assertTrue(checkpointFile.exists());
+
+        // completed files are not read again, new files are
+        writeFile(new File(input, "c.tsv"), 200, 50, LineCompression.NONE);
+        reader = new WebHdfsPersistReader(getConfig(2, checkpointFile.getAbsolutePath()));
+        reader.prepare(null);
+        reader.startStream();
+        Map<String, Integer> seen = readAll(reader);
+        reader.cleanUp();
+        assertEquals(50, seen.size());
+        assertTrue(seen.containsKey("id200"));
+    }
+
+    /**
+     * Datums still on the queue when the reader stops must be read again on resume
+     */
+    @Test
+    public void resumeQueuedDatumsTest() throws Exception {
+        File input = folder.newFolder("input");
+        File checkpointFile = new File(folder.getRoot(), "checkpoint");
+        writeFile(new File(input, "a.tsv"), 0, 100, LineCompression.NONE);
+
+        WebHdfsPersistReader reader = new WebHdfsPersistReader(getConfig(1, checkpointFile.getAbsolutePath()));
+        reader.prepare(null);
+        reader.startStream();
+        while(reader.isRunning())
+            Thread.sleep(10);
+        // the whole file is queued, none of it was taken
+        reader.cleanUp();
+        assertTrue(checkpointFile.exists());
+
+        reader = new WebHdfsPersistReader(getConfig(1, checkpointFile.getAbsolutePath()));
+        reader.prepare(null);
+        reader.startStream();
+        assertEquals(100, readAll(reader).size());
+        reader.cleanUp();
+
+        // this time everything was taken, so the file is completed
+        reader = new WebHdfsPersistReader(getConfig(1, checkpointFile.getAbsolutePath()));
+        reader.prepare(null);
+        reader.startStream();
+        assertEquals(0, readAll(reader).size());
+        reader.cleanUp();
+    }
+
+    /**
+     * Datums taken from the queue handed out by readAll advance the checkpoint like readCurrent does
+     */
+    @Test
+    public void resumeReadAllTest() throws Exception {
+        File input = folder.newFolder("input");
+        File checkpointFile = new File(folder.getRoot(), "checkpoint");
+        writeFile(new File(input, "a.tsv"), 0, 100, LineCompression.NONE);
+
+        WebHdfsPersistReader reader = new WebHdfsPersistReader(getConfig(1, checkpointFile.getAbsolutePath()));
+        reader.prepare(null);
+        Queue<StreamsDatum> queue = reader.readAll().getQueue();
+        for(int i=0; i < 40; ++i) {
+            StreamsDatum datum = queue.poll();
+            while(datum == null) {
+                Thread.sleep(10);
+                datum = queue.poll();
+            }
+            assertEquals("id" + i, datum.getId());
+        }
+        reader.cleanUp();
+        assertTrue(checkpointFile.exists());
+
+        reader = new WebHdfsPersistReader(getConfig(1, checkpointFile.getAbsolutePath()));
+        reader.prepare(null);
+        queue = reader.readAll().getQueue();
+        Map<String, Integer> seen = new HashMap<>();
+        boolean running = true;
+        while(running) {
+            running = reader.isRunning();
+            StreamsDatum datum;
+            while((datum = queue.poll()) != null)
+                seen.put(datum.getId(), 1);
+            if(running)
+                Thread.sleep(10);
+        }
+        reader.cleanUp();
+
+        assertEquals(60, seen.size());
+        assertFalse(seen.containsKey("id39"));
+        assertTrue(seen.containsKey("id40"));
+        assertTrue(seen.containsKey("id99"));
+    }
+
+    @Test
+    public void resumeFromOffsetTest() throws Exception {
+        File input = folder.newFolder("input");
+        File checkpointFile = new File(folder.getRoot(), "checkpoint");
+        File plain = new File(input, "a.tsv");
+        File compressed = new File(input, "b.tsv.gz");
+        writeFile(plain, 0, 100, LineCompression.NONE);
+        writeFile(compressed, 100, 100, LineCompression.GZIP);
+
+        // pretend a reader stopped after the first 40 lines of each file
+        WebHdfsPersistReader reader = new WebHdfsPersistReader(getConfig(1, checkpointFile.getAbsolutePath()));
+        reader.prepare(null);
+        WebHdfsReaderCheckpoint checkpoint = reader.getCheckpoint();
+        checkpoint.update("file:" + plain.getAbsolutePath(), lineOffset(0, 40));
+        checkpoint.update("file:" + compressed.getAbsolutePath(), lineOffset(100, 40));
+        checkpoint.save();
+        reader.cleanUp();
+
+        reader = new WebHdfsPersistReader(getConfig(2, checkpointFile.getAbsolutePath()));
+        reader.prepare(null);
+        reader.startStream();
+        Map<String, Integer> seen = readAll(reader);
+        reader.cleanUp();
+
+        assertEquals(120, seen.size());
+        assertFalse(seen.containsKey("id39"));
+        assertTrue(seen.containsKey("id40"));
+        assertFalse(seen.containsKey("id139"));
+        assertTrue(seen.containsKey("id140"));
+    }
+
+    private Map<String, Integer> readAll(WebHdfsPersistReader reader) throws Exception {
+        Map<String, Integer> seen = new HashMap<>();
+        boolean running = true;
+        while(running) {
+            running = reader.isRunning();
+            StreamsResultSet batch = reader.readCurrent();
+            for(StreamsDatum datum : batch) {
+                Integer count = seen.get(datum.getId());
+                seen.put(datum.getId(), count == null ? 1 : count + 1);
+            }
+            if(running)
+                Thread.sleep(10);
+        }
+        return seen;
+    }
+
+    private String line(int id) {
+        return lineReadWriteUtil.convertResultToString(new StreamsDatum("document " + id, "id" + id));
+    }
+
+    /**
+     * @return the uncompressed offset after the first lines of a file starting at firstId
+     */
+    private long lineOffset(int firstId, int lines) throws Exception {
+        long offset = 0;
+        for(int i=firstId; i < firstId + lines; ++i) {
+            offset += line(i).getBytes("UTF-8").length;
+        }
+        return offset;
+    }
+
+    private void writeFile(File file, int firstId, int count, LineCompression compression) throws Exception {
+        OutputStream out = compression.compress(new FileOutputStream(file));
+        for(int i=firstId; i < firstId + count; ++i) {
+            out.write(line(i).getBytes("UTF-8"));
+        }
+        out.close();
+    }
+
+    private HdfsReaderConfiguration getConfig(int readerThreads, String checkpointPath) {
+        HdfsReaderConfiguration readerConfiguration = new HdfsReaderConfiguration();
+        readerConfiguration.setScheme(HdfsConfiguration.Scheme.FILE);
+        readerConfiguration.setPath(folder.getRoot().getAbsolutePath());
+        readerConfiguration.setReaderPath("input");
+        readerConfiguration.setUser("cloudera");
+        readerConfiguration.setReaderThreads((long) readerThreads);
+        readerConfiguration.setCheckpointPath(checkpointPath);
+        return readerConfiguration;
+    }
+}
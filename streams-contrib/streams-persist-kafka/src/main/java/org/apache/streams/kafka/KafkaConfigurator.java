@@ -32,17 +32,28 @@ public class KafkaConfigurator {
 
     public static KafkaConfiguration detectConfiguration(Config kafka) {
         String brokerlist = StreamsConfigurator.config.getString("kafka.metadata.broker.list");
-        String zkconnect = StreamsConfigurator.config.getString("kafka.zkconnect");
         String topic = StreamsConfigurator.config.getString("kafka.topic");
         String groupId = StreamsConfigurator.config.getString("kafka.groupid");
 
         KafkaConfiguration kafkaConfiguration = new KafkaConfiguration();
 
         kafkaConfiguration.setBrokerlist(brokerlist);
-        kafkaConfiguration.setZkconnect(zkconnect);
         kafkaConfiguration.setTopic(topic);
         kafkaConfiguration.setGroupId(groupId);
 
+        if( kafka.hasPath("zkconnect"))
+            kafkaConfiguration.setZkconnect(kafka.getString("zkconnect"));
+        if( kafka.hasPath("acks"))
+            kafkaConfiguration.setAcks(kafka.getString("acks"));
+        if( kafka.hasPath("lingerMs"))
+            kafkaConfiguration.setLingerMs(kafka.getLong("lingerMs"));
+        if( kafka.hasPath("batchSize"))
+            kafkaConfiguration.setBatchSize(kafka.getLong("batchSize"));
+        if( kafka.hasPath("bufferMemory"))
+            kafkaConfiguration.setBufferMemory(kafka.getLong("bufferMemory"));
+        if( kafka.hasPath("compressionType"))
+            kafkaConfiguration.setCompressionType(KafkaConfiguration.CompressionType.fromValue(kafka.getString("compressionType")));
+
         return kafkaConfiguration;
     }
 
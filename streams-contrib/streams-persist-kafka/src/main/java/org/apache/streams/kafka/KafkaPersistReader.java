@@ -18,16 +18,13 @@
 
 package org.apache.streams.kafka;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.typesafe.config.Config;
-import kafka.consumer.Consumer;
-import kafka.consumer.ConsumerConfig;
-import kafka.consumer.KafkaStream;
-import kafka.consumer.Whitelist;
-import kafka.javaapi.consumer.ConsumerConnector;
-import kafka.serializer.StringDecoder;
-import kafka.utils.VerifiableProperties;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.streams.config.StreamsConfigurator;
+import org.apache.streams.core.BoundedStreamsProvider;
 import org.apache.streams.core.StreamsDatum;
 import org.apache.streams.core.StreamsPersistReader;
 import org.apache.streams.core.StreamsResultSet;
@@ -35,39 +32,43 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.apache.streams.kafka.KafkaConfiguration;
-
 import java.io.Serializable;
 import java.math.BigInteger;
-import java.util.List;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.Properties;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
-public class KafkaPersistReader implements StreamsPersistReader, Serializable {
+/**
+ * Reads the topic with the consumer of the same client as {@link KafkaPersistWriter}, as part of the consumer group
+ * groupId.  The key of a record becomes the id of the datum, and its headers the metadata of the datum.
+ */
+public class KafkaPersistReader implements StreamsPersistReader, BoundedStreamsProvider, Serializable {
+
+    public final static String STREAMS_ID = "KafkaPersistReader";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(KafkaPersistReader.class);
 
-    protected volatile Queue<StreamsDatum> persistQueue;
+    /**
+     * Messages read ahead of the stream.  Once the queue is full the consumer thread blocks, so Kafka stops being read
+     * while the stream is stalled.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
 
-    private ObjectMapper mapper = new ObjectMapper();
+    protected volatile Queue<StreamsDatum> persistQueue;
 
     private KafkaConfiguration config;
 
-    private ConsumerConfig consumerConfig;
-    private ConsumerConnector consumerConnector;
-
-    public List<KafkaStream<String, String>> inStreams;
+    private transient Consumer<String, String> consumer;
 
     private ExecutorService executor = Executors.newSingleThreadExecutor();
 
     public KafkaPersistReader() {
-        Config config = StreamsConfigurator.config.getConfig("kafka");
-        this.config = KafkaConfigurator.detectConfiguration(config);
-        this.persistQueue  = new ConcurrentLinkedQueue<StreamsDatum>();
+        this(new LinkedBlockingQueue<StreamsDatum>(DEFAULT_QUEUE_CAPACITY));
     }
 
     public KafkaPersistReader(Queue<StreamsDatum> persistQueue) {
@@ -76,28 +77,37 @@ public class KafkaPersistReader implements StreamsPersistReader, Serializable {
         this.persistQueue = persistQueue;
     }
 
+    public KafkaPersistReader(KafkaConfiguration config) {
+        this.config = config;
+        this.persistQueue = new LinkedBlockingQueue<StreamsDatum>(DEFAULT_QUEUE_CAPACITY);
+    }
+
     public void setConfig(KafkaConfiguration config) {
         this.config = config;
     }
 
+    public void setConsumer(Consumer<String, String> consumer) {
+        this.consumer = consumer;
+    }
+
     @Override
     public void startStream() {
 
-        Properties props = new Properties();
-        props.setProperty("serializer.encoding", "UTF8");
-
-        consumerConfig = new ConsumerConfig(props);
+        if (consumer == null) {
+            Properties props = new Properties();
 
-        consumerConnector = Consumer.createJavaConsumerConnector(consumerConfig);
+            props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, config.getBrokerlist());
+            props.put(ConsumerConfig.GROUP_ID_CONFIG, config.getGroupId());
+            props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+            props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
 
-        Whitelist topics = new Whitelist(config.getTopic());
-        VerifiableProperties vprops = new VerifiableProperties(props);
+            consumer = new KafkaConsumer<String, String>(props);
+        }
 
-        inStreams = consumerConnector.createMessageStreamsByFilter(topics, 1, new StringDecoder(vprops), new StringDecoder(vprops));
+        consumer.subscribe(Collections.singletonList(config.getTopic()));
 
-        for (final KafkaStream stream : inStreams) {
-            executor.submit(new KafkaPersistReaderTask(this, stream));
-        }
+        // the consumer is not thread safe, from here on only the task uses it
+        executor.submit(new KafkaPersistReaderTask(this, consumer));
 
     }
 
@@ -108,7 +118,17 @@ public class KafkaPersistReader implements StreamsPersistReader, Serializable {
 
     @Override
     public StreamsResultSet readCurrent() {
-        return null;
+        return readCurrent(Integer.MAX_VALUE);
+    }
+
+    @Override
+    public StreamsResultSet readCurrent(int maxItems) {
+        Queue<StreamsDatum> current = new LinkedList<>();
+        StreamsDatum datum;
+        while(current.size() < maxItems && (datum = persistQueue.poll()) != null) {
+            current.add(datum);
+        }
+        return new StreamsResultSet(current);
     }
 
     @Override
@@ -126,16 +146,6 @@ public class KafkaPersistReader implements StreamsPersistReader, Serializable {
         return !executor.isShutdown() && !executor.isTerminated();
     }
 
-    private static ConsumerConfig createConsumerConfig(String a_zookeeper, String a_groupId) {
-        Properties props = new Properties();
-        props.put("zookeeper.connect", a_zookeeper);
-        props.put("group.id", a_groupId);
-        props.put("zookeeper.session.timeout.ms", "400");
-        props.put("zookeeper.sync.time.ms", "200");
-        props.put("auto.commit.interval.ms", "1000");
-        return new ConsumerConfig(props);
-    }
-
     @Override
     public void prepare(Object configurationObject) {
 
@@ -143,7 +153,10 @@ public class KafkaPersistReader implements StreamsPersistReader, Serializable {
 
     @Override
     public void cleanUp() {
-        consumerConnector.shutdown();
+        // wakeup is the only method of the consumer that is safe to call from another thread, the task closes it
+        if (consumer != null)
+            consumer.wakeup();
+        executor.shutdown();
         while( !executor.isTerminated()) {
             try {
                 executor.awaitTermination(5, TimeUnit.SECONDS);
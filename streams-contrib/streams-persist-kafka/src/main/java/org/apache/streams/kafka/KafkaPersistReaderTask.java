@@ -18,45 +18,84 @@
 
 package org.apache.streams.kafka;
 
-import kafka.consumer.ConsumerIterator;
-import kafka.consumer.KafkaStream;
-import kafka.message.MessageAndMetadata;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.header.Header;
 import org.apache.streams.core.StreamsDatum;
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Random;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
 
 public class KafkaPersistReaderTask implements Runnable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(KafkaPersistReaderTask.class);
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final long POLL_TIMEOUT_MS = 100;
+
     private KafkaPersistReader reader;
-    private KafkaStream<String,String> stream;
+    private Consumer<String, String> consumer;
 
-    public KafkaPersistReaderTask(KafkaPersistReader reader, KafkaStream<String,String> stream) {
+    public KafkaPersistReaderTask(KafkaPersistReader reader, Consumer<String, String> consumer) {
         this.reader = reader;
-        this.stream = stream;
+        this.consumer = consumer;
     }
 
-
-
+    /**
+     * Polls until the reader wakes the consumer up.  Offsets are committed by the next poll, so only records that are
+     * already queued are committed.
+     */
     @Override
     public void run() {
 
-        MessageAndMetadata<String,String> item;
-        while(true) {
-
-            ConsumerIterator<String, String> it = stream.iterator();
-            while (it.hasNext()) {
-                item = it.next();
-                reader.persistQueue.add(new StreamsDatum(item.message()));
+        try {
+            while(!Thread.currentThread().isInterrupted()) {
+                ConsumerRecords<String, String> records = consumer.poll(POLL_TIMEOUT_MS);
+                for (ConsumerRecord<String, String> record : records) {
+                    enqueue(toDatum(record));
+                }
             }
-            try {
-                Thread.sleep(new Random().nextInt(100));
-            } catch (InterruptedException e) {}
+        } catch (WakeupException e) {
+            LOGGER.debug("Woken up, stopping to read from Kafka");
+        } catch (InterruptedException e) {
+            LOGGER.debug("Interrupted, stopping to read from Kafka");
+            Thread.currentThread().interrupt();
+        } finally {
+            consumer.close();
         }
 
     }
 
+    /**
+     * Headers are read back as strings, so metadata the writer sent as json stays json
+     */
+    private StreamsDatum toDatum(ConsumerRecord<String, String> record) {
+        DateTime timestamp = record.timestamp() < 0 ? null : new DateTime(record.timestamp());
+        StreamsDatum datum = new StreamsDatum(record.value(), record.key(), timestamp);
+        for (Header header : record.headers()) {
+            if (header.value() != null)
+                datum.getMetadata().put(header.key(), new String(header.value(), UTF8));
+        }
+        return datum;
+    }
+
+    /**
+     * Waits for room on a bounded queue, so the stream's backpressure stops this thread from consuming
+     */
+    private void enqueue(StreamsDatum datum) throws InterruptedException {
+        Queue<StreamsDatum> queue = reader.persistQueue;
+        if(queue instanceof BlockingQueue) {
+            ((BlockingQueue<StreamsDatum>) queue).put(datum);
+        } else {
+            queue.add(datum);
+        }
+    }
+
 }
@@ -21,98 +21,164 @@ package org.apache.streams.kafka;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.typesafe.config.Config;
-import kafka.javaapi.producer.Producer;
-import kafka.producer.KeyedMessage;
-import kafka.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.apache.streams.config.StreamsConfigurator;
+import org.apache.streams.core.DatumStatus;
+import org.apache.streams.core.DatumStatusCountable;
+import org.apache.streams.core.DatumStatusCounter;
 import org.apache.streams.core.StreamsDatum;
 import org.apache.streams.core.StreamsPersistWriter;
+import org.apache.streams.jackson.StreamsJacksonMapper;
 import org.apache.streams.util.GuidUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.Map;
 import java.util.Properties;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class KafkaPersistWriter implements StreamsPersistWriter, Serializable, Runnable {
+/**
+ * Sends each datum to the topic with the asynchronous producer, which batches the records of a partition for up to
+ * lingerMs and compresses the batches.  The key is the id of the datum, partitioned by {@link StreamsPartitioner}, the
+ * value is the document and the metadata of the datum is sent as record headers.
+ */
+public class KafkaPersistWriter implements StreamsPersistWriter, DatumStatusCountable, Serializable {
+
+    public final static String STREAMS_ID = "KafkaPersistWriter";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(KafkaPersistWriter.class);
 
-    protected volatile Queue<StreamsDatum> persistQueue;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
-    private ObjectMapper mapper = new ObjectMapper();
+    private ObjectMapper mapper = StreamsJacksonMapper.getInstance();
 
     private KafkaConfiguration config;
 
-    private Producer<String, String> producer;
+    private transient Producer<String, String> producer;
+
+    private final AtomicLong totalOk = new AtomicLong();
+    private final AtomicLong totalFailed = new AtomicLong();
+    private final AtomicLong totalPending = new AtomicLong();
 
     public KafkaPersistWriter() {
         Config config = StreamsConfigurator.config.getConfig("kafka");
         this.config = KafkaConfigurator.detectConfiguration(config);
-        this.persistQueue  = new ConcurrentLinkedQueue<StreamsDatum>();
     }
 
-    public KafkaPersistWriter(Queue<StreamsDatum> persistQueue) {
-        Config config = StreamsConfigurator.config.getConfig("kafka");
-        this.config = KafkaConfigurator.detectConfiguration(config);
-        this.persistQueue = persistQueue;
+    public KafkaPersistWriter(KafkaConfiguration config) {
+        this.config = config;
     }
 
     public void setConfig(KafkaConfiguration config) {
         this.config = config;
     }
 
-    public void start() {
-        Properties props = new Properties();
+    public void setProducer(Producer<String, String> producer) {
+        this.producer = producer;
+    }
 
-        props.put("metadata.broker.list", config.getBrokerlist());
-        props.put("serializer.class", "kafka.serializer.StringEncoder");
-        props.put("partitioner.class", "org.apache.streams.kafka.StreamsPartitioner");
-        props.put("request.required.acks", "1");
+    public long getTotalOk()            { return this.totalOk.get(); }
+    public long getTotalFailed()        { return this.totalFailed.get(); }
+    public long getTotalPending()       { return this.totalPending.get(); }
 
-        ProducerConfig config = new ProducerConfig(props);
+    public void start() {
+        if (producer != null)
+            return;
 
-        producer = new Producer<String, String>(config);
+        Properties props = new Properties();
 
-        new Thread(new KafkaPersistWriterTask(this)).start();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, config.getBrokerlist());
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        props.put(ProducerConfig.PARTITIONER_CLASS_CONFIG, StreamsPartitioner.class.getName());
+        props.put(ProducerConfig.ACKS_CONFIG, config.getAcks());
+        props.put(ProducerConfig.LINGER_MS_CONFIG, config.getLingerMs().toString());
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, config.getBatchSize().toString());
+        props.put(ProducerConfig.BUFFER_MEMORY_CONFIG, config.getBufferMemory().toString());
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, config.getCompressionType().toString());
+
+        producer = new KafkaProducer<String, String>(props);
     }
 
     public void stop() {
+        if (producer == null)
+            return;
+        // close waits for the records that are still batched to be sent
         producer.close();
-    }
-
-    public void setPersistQueue(Queue<StreamsDatum> persistQueue) {
-        this.persistQueue = persistQueue;
-    }
-
-    public Queue<StreamsDatum> getPersistQueue() {
-        return this.persistQueue;
+        producer = null;
+        LOGGER.info("Sent: {} Failed: {}", totalOk.get(), totalFailed.get());
     }
 
     @Override
     public void write(StreamsDatum entry) {
 
+        String text;
         try {
-            String text = mapper.writeValueAsString(entry);
-
-            String hash = GuidUtils.generateGuid(text);
-
-            KeyedMessage<String, String> data = new KeyedMessage<String, String>(config.getTopic(), hash, text);
-
-            producer.send(data);
-
+            text = entry.getDocument() instanceof String ? (String) entry.getDocument() : mapper.writeValueAsString(entry.getDocument());
         } catch (JsonProcessingException e) {
-            LOGGER.warn("save: {}", e);
-        }// put
+            LOGGER.warn("Unable to serialize document {}: {}", entry.getId(), e.getMessage());
+            totalFailed.incrementAndGet();
+            return;
+        }
+
+        String key = entry.getId() != null ? entry.getId() : GuidUtils.generateGuid(text);
+        Long timestamp = entry.getTimestampMillis() == StreamsDatum.NO_TIMESTAMP ? null : entry.getTimestampMillis();
+
+        ProducerRecord<String, String> record = new ProducerRecord<String, String>(config.getTopic(), null, timestamp, key, text);
+        if (entry.hasMetadata()) {
+            for (Map.Entry<String, Object> metadata : entry.getMetadata().entrySet()) {
+                byte[] value = headerValue(metadata.getValue());
+                if (value != null)
+                    record.headers().add(metadata.getKey(), value);
+            }
+        }
+
+        totalPending.incrementAndGet();
+        // only blocks while the buffer of the producer is full
+        producer.send(record, new Callback() {
+            @Override
+            public void onCompletion(RecordMetadata metadata, Exception exception) {
+                totalPending.decrementAndGet();
+                if (exception == null) {
+                    totalOk.incrementAndGet();
+                } else {
+                    totalFailed.incrementAndGet();
+                    LOGGER.warn("Unable to send to {}: {}", config.getTopic(), exception.getMessage());
+                }
+            }
+        });
     }
 
-    @Override
-    public void run() {
-        start();
+    /**
+     * Strings are sent as they are, anything else as json
+     */
+    private byte[] headerValue(Object value) {
+        if (value == null)
+            return null;
+        if (value instanceof String)
+            return ((String) value).getBytes(UTF8);
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            LOGGER.warn("Unable to serialize metadata: {}", e.getMessage());
+            return null;
+        }
+    }
 
-        // stop();
+    /**
+     * Sends the records that are batched and waits for them to be acknowledged
+     */
+    public void flush() {
+        if (producer != null)
+            producer.flush();
     }
 
     @Override
@@ -124,4 +190,13 @@ public class KafkaPersistWriter implements StreamsPersistWriter, Serializable, R
     public void cleanUp() {
         stop();
     }
+
+    @Override
+    public DatumStatusCounter getDatumStatusCounter() {
+        DatumStatusCounter counters = new DatumStatusCounter();
+        counters.incrementAttempt((int) (this.totalOk.get() + this.totalFailed.get()));
+        counters.incrementStatus(DatumStatus.SUCCESS, (int) this.totalOk.get());
+        counters.incrementStatus(DatumStatus.FAIL, (int) this.totalFailed.get());
+        return counters;
+    }
 }
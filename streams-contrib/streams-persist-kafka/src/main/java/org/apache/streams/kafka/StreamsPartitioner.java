@@ -18,24 +18,56 @@
 
 package org.apache.streams.kafka;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.PartitionInfo;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * Created by sblackmon on 12/15/13.
+ * Partitions records by a murmur3 hash of their key, the id of the datum, so every version of a document lands on the
+ * same partition whatever the id looks like.  Records without a key are spread over the available partitions.
  */
-import kafka.producer.Partitioner;
-import kafka.utils.VerifiableProperties;
+public class StreamsPartitioner implements Partitioner {
+
+    private static final HashFunction MURMUR = Hashing.murmur3_32();
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public void configure(Map<String, ?> configs) {
 
-public class StreamsPartitioner implements Partitioner<String> {
-    public StreamsPartitioner (VerifiableProperties props) {
+    }
+
+    @Override
+    public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
+        List<PartitionInfo> partitions = cluster.partitionsForTopic(topic);
+        if (keyBytes != null)
+            return partition(keyBytes, partitions.size());
 
+        List<PartitionInfo> available = cluster.availablePartitionsForTopic(topic);
+        int next = counter.getAndIncrement() & Integer.MAX_VALUE;
+        if (available.isEmpty())
+            return next % partitions.size();
+        return available.get(next % available.size()).partition();
     }
 
-    public int partition(String key, int a_numPartitions) {
-        int partition = 0;
-        int offset = key.lastIndexOf('.');
-        if (offset > 0) {
-            partition = Integer.parseInt( key.substring(offset+1)) % a_numPartitions;
-        }
-        return partition;
+    /**
+     * @param keyBytes the serialized key
+     * @param numPartitions number of partitions of the topic
+     * @return the partition of the key
+     */
+    public static int partition(byte[] keyBytes, int numPartitions) {
+        return (MURMUR.hashBytes(keyBytes).asInt() & Integer.MAX_VALUE) % numPartitions;
+    }
+
+    @Override
+    public void close() {
+
     }
 
 }
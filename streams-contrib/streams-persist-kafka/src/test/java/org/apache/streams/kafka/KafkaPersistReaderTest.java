@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.streams.core.StreamsDatum;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KafkaPersistReaderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final TopicPartition PARTITION = new TopicPartition("topic", 0);
+
+    @Test
+    public void readsRecordsWithMetadataHeaders() throws Exception {
+        final MockConsumer<String, String> consumer = new MockConsumer<String, String>(OffsetResetStrategy.EARLIEST);
+        // runs in the first poll, after the reader subscribed
+        consumer.schedulePollTask(new Runnable() {
+            @Override
+            public void run() {
+                consumer.rebalance(Collections.singletonList(PARTITION));
+                consumer.updateBeginningOffsets(Collections.singletonMap(PARTITION, 0L));
+                RecordHeaders headers = new RecordHeaders();
+                headers.add("index", "activity".getBytes(UTF8));
+                consumer.addRecord(new ConsumerRecord<String, String>(PARTITION.topic(), PARTITION.partition(), 0L,
+                        1400000000000L, TimestampType.CREATE_TIME, null, ConsumerRecord.NULL_SIZE, ConsumerRecord.NULL_SIZE,
+                        "tag:example.com,2014:activity", "{\"a\":1}", headers));
+                consumer.addRecord(new ConsumerRecord<String, String>(PARTITION.topic(), PARTITION.partition(), 1L,
+                        "id1", "{\"a\":2}"));
+            }
+        });
+
+        KafkaPersistReader reader = new KafkaPersistReader(new KafkaConfiguration().withTopic("topic"));
+        reader.setConsumer(consumer);
+        reader.startStream();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (reader.persistQueue.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(consumer.subscription().contains("topic"));
+
+        Iterator<StreamsDatum> read = reader.readCurrent().iterator();
+        StreamsDatum datum = read.next();
+        assertEquals("tag:example.com,2014:activity", datum.getId());
+        assertEquals("{\"a\":1}", datum.getDocument());
+        assertEquals(1400000000000L, datum.getTimestamp().getMillis());
+        assertEquals("activity", datum.getMetadata().get("index"));
+        assertEquals("id1", read.next().getId());
+        assertFalse(read.hasNext());
+
+        reader.cleanUp();
+        assertFalse(reader.isRunning());
+        assertTrue(consumer.closed());
+    }
+}
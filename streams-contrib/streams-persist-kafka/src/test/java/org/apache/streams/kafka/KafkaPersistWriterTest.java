@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.kafka;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.streams.core.StreamsDatum;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KafkaPersistWriterTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void writeSendsDocumentWithMetadataHeaders() {
+        MockProducer<String, String> producer = new MockProducer<String, String>(true, new StringSerializer(), new StringSerializer());
+        KafkaPersistWriter writer = new KafkaPersistWriter(new KafkaConfiguration().withTopic("topic"));
+        writer.setProducer(producer);
+
+        StreamsDatum datum = new StreamsDatum("{\"a\":1}", "tag:example.com,2014:activity", new DateTime(1400000000000L));
+        datum.getMetadata().put("index", "activity");
+        datum.getMetadata().put("count", 2);
+        writer.write(datum);
+
+        assertEquals(1, producer.history().size());
+        ProducerRecord<String, String> record = producer.history().get(0);
+        assertEquals("topic", record.topic());
+        assertEquals("tag:example.com,2014:activity", record.key());
+        assertEquals("{\"a\":1}", record.value());
+        assertEquals(Long.valueOf(1400000000000L), record.timestamp());
+        assertEquals("activity", new String(record.headers().lastHeader("index").value(), UTF8));
+        assertEquals("2", new String(record.headers().lastHeader("count").value(), UTF8));
+
+        assertEquals(1, writer.getTotalOk());
+        assertEquals(0, writer.getTotalPending());
+        assertEquals(1, writer.getDatumStatusCounter().getSuccess());
+    }
+
+    @Test
+    public void writeWithoutIdOrTimestamp() {
+        MockProducer<String, String> producer = new MockProducer<String, String>(true, new StringSerializer(), new StringSerializer());
+        KafkaPersistWriter writer = new KafkaPersistWriter(new KafkaConfiguration().withTopic("topic"));
+        writer.setProducer(producer);
+
+        writer.write(new StreamsDatum("{\"a\":1}"));
+
+        ProducerRecord<String, String> record = producer.history().get(0);
+        assertTrue(record.key() != null);
+        assertNull(record.timestamp());
+    }
+
+    @Test
+    public void partitionIsStableForAnyId() {
+        int numPartitions = 12;
+        for (String id : new String[] {"1234", "id.56", "tag:example.com,2014:activity", ""}) {
+            int partition = StreamsPartitioner.partition(id.getBytes(UTF8), numPartitions);
+            assertTrue(partition >= 0 && partition < numPartitions);
+            assertEquals(partition, StreamsPartitioner.partition(id.getBytes(UTF8), numPartitions));
+        }
+    }
+}
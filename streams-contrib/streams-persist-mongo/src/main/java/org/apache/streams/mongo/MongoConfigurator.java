@@ -43,6 +43,14 @@ public class MongoConfigurator {
             mongoConfiguration.setUser(mongo.getString("user"));
         if( mongo.hasPath("password"))
             mongoConfiguration.setPassword(mongo.getString("password"));
+        if( mongo.hasPath("batchSize"))
+            mongoConfiguration.setBatchSize(mongo.getLong("batchSize"));
+        if( mongo.hasPath("maxTimeBetweenFlushMs"))
+            mongoConfiguration.setMaxTimeBetweenFlushMs(mongo.getLong("maxTimeBetweenFlushMs"));
+        if( mongo.hasPath("maxInFlightBatches"))
+            mongoConfiguration.setMaxInFlightBatches(mongo.getLong("maxInFlightBatches"));
+        if( mongo.hasPath("writeConcern"))
+            mongoConfiguration.setWriteConcern(MongoConfiguration.WriteConcern.fromValue(mongo.getString("writeConcern")));
         return mongoConfiguration;
     }
 
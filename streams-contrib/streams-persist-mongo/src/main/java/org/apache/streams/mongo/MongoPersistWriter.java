@@ -18,18 +18,16 @@
 
 package org.apache.streams.mongo;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.mongodb.DB;
-import com.mongodb.DBAddress;
-import com.mongodb.DBCollection;
-import com.mongodb.DBObject;
-import com.mongodb.MongoClient;
+import com.mongodb.*;
 import com.mongodb.util.JSON;
-import com.typesafe.config.Config;
 import org.apache.streams.config.StreamsConfigurator;
+import org.apache.streams.core.DatumStatus;
+import org.apache.streams.core.DatumStatusCountable;
+import org.apache.streams.core.DatumStatusCounter;
 import org.apache.streams.core.StreamsDatum;
 import org.apache.streams.core.StreamsPersistWriter;
 import org.apache.streams.jackson.StreamsJacksonMapper;
@@ -38,19 +36,25 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
-import java.util.Random;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class MongoPersistWriter implements StreamsPersistWriter, Runnable {
+/**
+ * Inserts documents with unordered bulk writes of batchSize documents, sent after maxTimeBetweenFlushMs at the latest.
+ * Up to maxInFlightBatches bulk writes are sent at once with the configured write concern while the next batch fills.
+ */
+public class MongoPersistWriter implements StreamsPersistWriter, DatumStatusCountable, Runnable {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(MongoPersistWriter.class);
-    private final static long MAX_WRITE_LATENCY = 1000;
+
+    private final static int DEFAULT_BATCH_SIZE = 100;
+    private final static long DEFAULT_MAX_WRITE_LATENCY = 1000;
+    private final static int DEFAULT_MAX_IN_FLIGHT_BATCHES = 2;
+    private final static long MAX_POLL_BACKOFF_MS = 100;
 
     protected volatile Queue<StreamsDatum> persistQueue;
 
@@ -64,9 +68,20 @@ public class MongoPersistWriter implements StreamsPersistWriter, Runnable {
     protected DBAddress dbaddress;
     protected DBCollection collection;
 
-    protected List<DBObject> insertBatch = Lists.newArrayList();
+    private final Queue<DBObject> insertBatch = new ConcurrentLinkedQueue<DBObject>();
+    private final AtomicLong batchCount = new AtomicLong(0);
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long maxWriteLatency = DEFAULT_MAX_WRITE_LATENCY;
+    private int maxInFlightBatches = DEFAULT_MAX_IN_FLIGHT_BATCHES;
+    private WriteConcern writeConcern = WriteConcern.ACKNOWLEDGED;
 
-    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private ExecutorService sender;
+    private Semaphore inFlight;
+
+    private final AtomicLong totalOk = new AtomicLong(0);
+    private final AtomicLong totalFailed = new AtomicLong(0);
+    private final AtomicLong totalBatches = new AtomicLong(0);
 
     public MongoPersistWriter() {
         this(MongoConfigurator.detectConfiguration(StreamsConfigurator.config.getConfig("mongo")));
@@ -84,6 +99,11 @@ public class MongoPersistWriter implements StreamsPersistWriter, Runnable {
         return persistQueue;
     }
 
+    public long getTotalOk()            { return this.totalOk.get(); }
+    public long getTotalFailed()        { return this.totalFailed.get(); }
+    public long getTotalPending()       { return this.batchCount.get(); }
+    public long getTotalBatches()       { return this.totalBatches.get(); }
+
     @Override
     public void write(StreamsDatum streamsDatum) {
 
@@ -91,35 +111,52 @@ public class MongoPersistWriter implements StreamsPersistWriter, Runnable {
         if (dbObject != null) {
             addToBatch(dbObject);
             flushIfNecessary();
+        } else {
+            totalFailed.incrementAndGet();
         }
     }
 
+    /**
+     * Sends everything in the batch and waits for the bulk writes in flight
+     */
     public void flush() throws IOException {
+        LOGGER.debug("Attempting to flush {} items to mongo", batchCount.get());
+        sendBatches(true);
         try {
-            LOGGER.debug("Attempting to flush {} items to mongo", insertBatch.size());
-            lock.writeLock().lock();
-            collection.insert(insertBatch);
-            lastWrite.set(System.currentTimeMillis());
-            insertBatch = Lists.newArrayList();
-        } finally {
-            lock.writeLock().unlock();
+            inFlight.acquire(maxInFlightBatches);
+            inFlight.release(maxInFlightBatches);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for bulk writes in flight", e);
         }
-
     }
 
     public synchronized void close() throws IOException {
         client.cleanCursors(true);
         backgroundFlushTask.shutdownNow();
+        sender.shutdown();
     }
 
     public void start() {
+        if (config.getBatchSize() != null)
+            batchSize = Math.max(1, config.getBatchSize().intValue());
+        if (config.getMaxTimeBetweenFlushMs() != null)
+            maxWriteLatency = config.getMaxTimeBetweenFlushMs();
+        if (config.getMaxInFlightBatches() != null)
+            maxInFlightBatches = Math.max(1, config.getMaxInFlightBatches().intValue());
+        if (config.getWriteConcern() != null)
+            writeConcern = WriteConcern.valueOf(config.getWriteConcern().toString());
+
+        inFlight = new Semaphore(maxInFlightBatches);
+        sender = Executors.newFixedThreadPool(maxInFlightBatches);
+
         connectToMongo();
         backgroundFlushTask.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
                 flushIfNecessary();
             }
-        }, 0, MAX_WRITE_LATENCY * 2, TimeUnit.MILLISECONDS);
+        }, 0, maxWriteLatency, TimeUnit.MILLISECONDS);
     }
 
     public void stop() {
@@ -150,32 +187,56 @@ public class MongoPersistWriter implements StreamsPersistWriter, Runnable {
             // Preserve interrupt status
             Thread.currentThread().interrupt();
         }
+        LOGGER.info("Inserted {} documents in {} bulk writes, {} failed", totalOk.get(), totalBatches.get(), totalFailed.get());
 
     }
 
+    /**
+     * Writes what is put on the persist queue, taking up to a batch at a time.  A BlockingQueue is waited on while it
+     * is empty, any other queue is polled with a backoff of up to MAX_POLL_BACKOFF_MS.
+     */
     @Override
     public void run() {
 
-        while (true) {
-            if (persistQueue.peek() != null) {
+        List<StreamsDatum> entries = Lists.newArrayListWithCapacity(batchSize);
+        long backoff = 1;
+        while (!Thread.currentThread().isInterrupted()) {
+            Queue<StreamsDatum> queue = persistQueue;
+            try {
+                if (queue instanceof BlockingQueue) {
+                    BlockingQueue<StreamsDatum> blockingQueue = (BlockingQueue<StreamsDatum>) queue;
+                    entries.add(blockingQueue.take());
+                    blockingQueue.drainTo(entries, batchSize - 1);
+                } else {
+                    StreamsDatum entry;
+                    while (entries.size() < batchSize && (entry = queue.poll()) != null)
+                        entries.add(entry);
+                    if (entries.isEmpty()) {
+                        Thread.sleep(backoff);
+                        backoff = Math.min(backoff * 2, MAX_POLL_BACKOFF_MS);
+                        continue;
+                    }
+                    backoff = 1;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (StreamsDatum entry : entries) {
                 try {
-                    StreamsDatum entry = persistQueue.remove();
                     write(entry);
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    LOGGER.error("Error writing datum {}", entry.getId(), e);
                 }
             }
-            try {
-                Thread.sleep(new Random().nextInt(1));
-            } catch (InterruptedException e) {
-            }
+            entries.clear();
         }
 
     }
 
     @Override
     public void prepare(Object configurationObject) {
-        this.persistQueue = new ConcurrentLinkedQueue<StreamsDatum>();
+        this.persistQueue = new LinkedBlockingQueue<StreamsDatum>();
         start();
     }
 
@@ -186,24 +247,80 @@ public class MongoPersistWriter implements StreamsPersistWriter, Runnable {
 
     protected void flushIfNecessary() {
         long lastLatency = System.currentTimeMillis() - lastWrite.get();
-        //Flush iff the size > 0 AND the size is divisible by 100 or the time between now and the last flush is greater
+        //Flush iff a batch is full or there is something to flush and the time since the last flush is greater
         //than the maximum desired latency
-        if (insertBatch.size() > 0 && (insertBatch.size() % 100 == 0 || lastLatency > MAX_WRITE_LATENCY)) {
+        if (batchCount.get() >= batchSize)
+            sendBatches(false);
+        else if (batchCount.get() > 0 && lastLatency > maxWriteLatency)
+            sendBatches(true);
+    }
+
+    /**
+     * Sends full batches, and the last partial one too if all is set.  Waits while maxInFlightBatches bulk writes are
+     * in flight.
+     */
+    private void sendBatches(boolean all) {
+        while (batchCount.get() >= batchSize || (all && batchCount.get() > 0)) {
+            final List<DBObject> batch = Lists.newArrayListWithCapacity(batchSize);
+            DBObject dbObject;
+            while (batch.size() < batchSize && (dbObject = insertBatch.poll()) != null)
+                batch.add(dbObject);
+            if (batch.isEmpty())
+                return;
+            batchCount.addAndGet(-batch.size());
+            lastWrite.set(System.currentTimeMillis());
+
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                insertBatch.addAll(batch);
+                batchCount.addAndGet(batch.size());
+                return;
+            }
             try {
-                flush();
-            } catch (IOException e) {
-                LOGGER.error("Error writing to Mongo", e);
+                sender.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            insert(batch);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                insertBatch.addAll(batch);
+                batchCount.addAndGet(batch.size());
+                return;
             }
         }
     }
 
-    protected void addToBatch(DBObject dbObject) {
+    private void insert(List<DBObject> batch) {
+        BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+        for (DBObject dbObject : batch)
+            bulk.insert(dbObject);
         try {
-            lock.readLock().lock();
-            insertBatch.add(dbObject);
-        } finally {
-            lock.readLock().unlock();
+            bulk.execute(writeConcern);
+            totalOk.addAndGet(batch.size());
+        } catch (BulkWriteException e) {
+            // unordered, so everything but the failed documents was inserted
+            int failed = e.getWriteErrors().size();
+            totalOk.addAndGet(batch.size() - failed);
+            totalFailed.addAndGet(failed);
+            LOGGER.warn("{} of {} documents failed to insert: {}", failed, batch.size(), e.getMessage());
+        } catch (Exception e) {
+            totalFailed.addAndGet(batch.size());
+            LOGGER.error("Error writing to Mongo", e);
         }
+        totalBatches.incrementAndGet();
+    }
+
+    protected void addToBatch(DBObject dbObject) {
+        insertBatch.add(dbObject);
+        batchCount.incrementAndGet();
     }
 
     protected DBObject prepareObject(StreamsDatum streamsDatum) {
@@ -212,22 +329,69 @@ public class MongoPersistWriter implements StreamsPersistWriter, Runnable {
             dbObject = (DBObject) JSON.parse((String) streamsDatum.getDocument());
         } else {
             try {
-                ObjectNode node = mapper.valueToTree(streamsDatum.getDocument());
-                dbObject = (DBObject) JSON.parse(node.toString());
+                JsonNode node = mapper.valueToTree(streamsDatum.getDocument());
+                Object converted = toBson(node);
+                if (converted instanceof DBObject)
+                    dbObject = (DBObject) converted;
+                else
+                    LOGGER.error("Unsupported type: " + streamsDatum.getDocument().getClass());
             } catch (Exception e) {
-                e.printStackTrace();
                 LOGGER.error("Unsupported type: " + streamsDatum.getDocument().getClass(), e);
             }
         }
         return dbObject;
     }
 
-    private synchronized void connectToMongo() {
+    /**
+     * Converts a jackson tree to the values the driver encodes as BSON, without writing it out as a String
+     * @param node a jackson node
+     * @return a BasicDBObject, BasicDBList or scalar value
+     */
+    protected static Object toBson(JsonNode node) {
+        switch (node.getNodeType()) {
+            case OBJECT:
+                BasicDBObject object = new BasicDBObject();
+                Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    object.put(field.getKey(), toBson(field.getValue()));
+                }
+                return object;
+            case ARRAY:
+                BasicDBList list = new BasicDBList();
+                for (JsonNode element : node)
+                    list.add(toBson(element));
+                return list;
+            case STRING:
+                return node.textValue();
+            case BOOLEAN:
+                return node.booleanValue();
+            case NUMBER:
+                if (node.isInt())
+                    return node.intValue();
+                if (node.isLong())
+                    return node.longValue();
+                // BSON has no arbitrary precision numbers, these become doubles as they would parsing the json
+                return node.doubleValue();
+            case BINARY:
+                try {
+                    return node.binaryValue();
+                } catch (IOException e) {
+                    return node.asText();
+                }
+            case POJO:
+                return node.asText();
+            default:
+                return null;
+        }
+    }
+
+    protected synchronized void connectToMongo() {
 
         try {
             client = new MongoClient(config.getHost(), config.getPort().intValue()).getDB(config.getDb());
         } catch (UnknownHostException e) {
-            e.printStackTrace();
+            LOGGER.error("Unable to connect to Mongo at {}:{}", config.getHost(), config.getPort(), e);
             return;
         }
 
@@ -241,4 +405,13 @@ public class MongoPersistWriter implements StreamsPersistWriter, Runnable {
 
         collection = client.getCollection(config.getCollection());
     }
+
+    @Override
+    public DatumStatusCounter getDatumStatusCounter() {
+        DatumStatusCounter counters = new DatumStatusCounter();
+        counters.incrementAttempt((int) (this.totalOk.get() + this.totalFailed.get()));
+        counters.incrementStatus(DatumStatus.SUCCESS, (int) this.totalOk.get());
+        counters.incrementStatus(DatumStatus.FAIL, (int) this.totalFailed.get());
+        return counters;
+    }
 }
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.mongo.test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.mongo.MongoConfiguration;
+import org.apache.streams.mongo.MongoPersistWriter;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests the bulk writes of MongoPersistWriter against a mocked collection
+ */
+public class MongoPersistWriterTest {
+
+    DB db;
+    DBCollection collection;
+    BulkWriteOperation bulk;
+
+    @Before
+    public void setup() {
+        db = mock(DB.class);
+        collection = mock(DBCollection.class);
+        bulk = mock(BulkWriteOperation.class);
+        when(collection.initializeUnorderedBulkOperation()).thenReturn(bulk);
+    }
+
+    private MongoConfiguration configuration() {
+        return new MongoConfiguration()
+                .withHost("localhost")
+                .withPort(37017l)
+                .withDb("test")
+                .withCollection("activities")
+                .withMaxTimeBetweenFlushMs(60000l);
+    }
+
+    private StreamsDatum datum(int i) {
+        return new StreamsDatum("{\"id\":\"" + i + "\"}", Integer.toString(i));
+    }
+
+    @Test
+    public void testUnorderedBulkWithWriteConcern() throws Exception {
+        MongoPersistWriter writer = new MockedMongoPersistWriter(configuration()
+                .withBatchSize(2l)
+                .withWriteConcern(MongoConfiguration.WriteConcern.MAJORITY));
+        writer.prepare(null);
+
+        for (int i = 0; i < 4; i++)
+            writer.write(datum(i));
+        writer.flush();
+
+        verify(collection, times(2)).initializeUnorderedBulkOperation();
+        verify(bulk, times(4)).insert(any(DBObject.class));
+        verify(bulk, times(2)).execute(WriteConcern.MAJORITY);
+        assertEquals(4, writer.getTotalOk());
+        assertEquals(2, writer.getTotalBatches());
+        assertEquals(0, writer.getTotalPending());
+
+        writer.cleanUp();
+    }
+
+    @Test
+    public void testPartialBulkFailure() throws Exception {
+        BulkWriteException failure = mock(BulkWriteException.class);
+        when(failure.getWriteErrors()).thenReturn(Collections.singletonList(mock(BulkWriteError.class)));
+        when(bulk.execute(any(WriteConcern.class))).thenThrow(failure);
+
+        MongoPersistWriter writer = new MockedMongoPersistWriter(configuration().withBatchSize(3l));
+        writer.prepare(null);
+
+        for (int i = 0; i < 3; i++)
+            writer.write(datum(i));
+        writer.flush();
+
+        // unordered, so only the failed document is lost
+        assertEquals(2, writer.getTotalOk());
+        assertEquals(1, writer.getTotalFailed());
+
+        writer.cleanUp();
+    }
+
+    @Test
+    public void testInFlightLimit() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        when(bulk.execute(any(WriteConcern.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                int now = running.incrementAndGet();
+                int max;
+                while ((max = maxRunning.get()) < now && !maxRunning.compareAndSet(max, now));
+                release.await(10, TimeUnit.SECONDS);
+                running.decrementAndGet();
+                return null;
+            }
+        });
+
+        final MongoPersistWriter writer = new MockedMongoPersistWriter(configuration()
+                .withBatchSize(1l)
+                .withMaxInFlightBatches(2l));
+        writer.prepare(null);
+
+        final CountDownLatch written = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 5; i++)
+                    writer.write(datum(i));
+                written.countDown();
+            }
+        });
+        producer.start();
+
+        // the third batch waits for one of the two in flight to finish
+        assertTrue(!written.await(500, TimeUnit.MILLISECONDS));
+        assertEquals(2, running.get());
+
+        release.countDown();
+        assertTrue(written.await(10, TimeUnit.SECONDS));
+        writer.flush();
+
+        assertEquals(2, maxRunning.get());
+        assertEquals(5, writer.getTotalOk());
+        assertEquals(5, writer.getTotalBatches());
+
+        writer.cleanUp();
+    }
+
+    private class MockedMongoPersistWriter extends MongoPersistWriter {
+
+        MockedMongoPersistWriter(MongoConfiguration config) {
+            super(config);
+        }
+
+        @Override
+        protected synchronized void connectToMongo() {
+            this.client = db;
+            this.collection = MongoPersistWriterTest.this.collection;
+        }
+    }
+}
@@ -20,25 +20,19 @@ package org.apache.streams.lucene;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.inject.Injector;
 import com.jayway.jsonpath.InvalidPathException;
 import com.jayway.jsonpath.JsonPath;
-import com.w2olabs.core.graph.CommunityRepository;
-import com.w2olabs.core.graph.CommunityRepositoryResolver;
-import com.w2olabs.core.graph.entities.Entity;
-import com.w2olabs.streams.pojo.W2OActivity;
-import com.w2olabs.util.guice.GuiceInjector;
-import com.w2olabs.util.tagging.SimpleVerbatim;
-import com.w2olabs.util.tagging.engines.international.LanguageTag;
-import com.w2olabs.util.tagging.engines.international.TaggingEngineLanguage;
-import org.apache.avro.data.Json;
+import com.typesafe.config.ConfigRenderOptions;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.streams.config.StreamsConfigurator;
 import org.apache.streams.core.StreamsDatum;
 import org.apache.streams.core.StreamsProcessor;
 import org.apache.streams.jackson.StreamsJacksonMapper;
@@ -50,6 +44,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Pattern;
 
 /**
  * References:
@@ -67,18 +62,22 @@ public class LuceneSimpleTaggingProcessor implements StreamsProcessor
 
     private final static Logger LOGGER = LoggerFactory.getLogger(LuceneSimpleTaggingProcessor.class);
 
+    // Paths made only of field names, like $.actor.displayName, are read from the parsed document
+    private final static Pattern SIMPLE_PATH = Pattern.compile("\\$(\\.[A-Za-z0-9_]+)+");
+
     private ObjectMapper mapper;
 
     private Queue<StreamsDatum> inQueue;
     private Queue<StreamsDatum> outQueue;
 
     private String community;
-    private JsonPath[] textPaths;
+    private Map<String, String[]> fieldPaths;
+    private Map<String, JsonPath> textPaths;
     private String[] jsonPathsToText;
-    private List<LanguageTag> tags;
+    private List<LuceneTag> tags;
     private String metaDataKey;
 
-    private static TaggingEngineLanguage<LanguageTag, SimpleVerbatim> taggingEngine;
+    private transient TagQueryIndex tagIndex;
 
     /**
      * Constructor for a tagging processor that will operate on the document of StreamsDatum at the paths noted by
@@ -104,12 +103,12 @@ public class LuceneSimpleTaggingProcessor implements StreamsProcessor
 
 
     /**
-     * For testing purposes. LanguageTag are not serializable and need to be set through the community resolver in production.
+     * Tags the documents with the given tags rather than the ones configured under lucene.tags
      * @param community
      * @param jsonPathsToText
      * @param tags
      */
-    public LuceneSimpleTaggingProcessor(String community, String[] jsonPathsToText, String metaDataKey, List<LanguageTag> tags) {
+    public LuceneSimpleTaggingProcessor(String community, String[] jsonPathsToText, String metaDataKey, List<LuceneTag> tags) {
         this.community = community;
         this.jsonPathsToText = jsonPathsToText;
         this.tags = tags;
@@ -142,29 +141,26 @@ public class LuceneSimpleTaggingProcessor implements StreamsProcessor
 
         List<StreamsDatum> result = Lists.newArrayList();
 
-        List<String> jsons = Lists.newLinkedList();
-        ObjectNode node;
-        // first check for valid json
-        if(this.metaDataKey == null)
-            jsons.add(getJson(entry.getDocument()));
-        else
-            getMetaDataJsons(entry, jsons);
+        List<ObjectNode> nodes = Lists.newLinkedList();
+        // first check for valid json, each document is parsed once
+        try {
+            if(this.metaDataKey == null)
+                addNode(entry.getDocument(), nodes);
+            else
+                getMetaDataNodes(entry, nodes);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to parse document: {}", e.getMessage());
+            return result;
+        }
 
-        for(String json : jsons) {
-            try {
-                node = (ObjectNode) mapper.readTree(json);
-            } catch (IOException e) {
-                e.printStackTrace();
-                return result;
-            }
+        for(ObjectNode node : nodes) {
 
-            List<SimpleVerbatim> verbatimList = convertEntryToWorkUnit(json);
-            Map<SimpleVerbatim, List<LanguageTag>> objectTags = taggingEngine.findMatches(verbatimList);
-            Set<String> tagSet = Sets.newHashSet();
-            for( List<LanguageTag> fieldtags : objectTags.values() ) {
-                for( LanguageTag tag : fieldtags ) {
-                    tagSet.add(tag.getTag());
-                }
+            Set<String> tagSet;
+            try {
+                tagSet = tagIndex.findTags(convertEntryToText(node));
+            } catch (JsonProcessingException e) {
+                LOGGER.warn("Unable to read the text of document: {}", e.getMessage());
+                continue;
             }
 
             ArrayNode tagArray = JsonNodeFactory.instance.arrayNode();
@@ -190,10 +186,7 @@ public class LuceneSimpleTaggingProcessor implements StreamsProcessor
             }
             w2o.put("tags", tagArray);
             w2o.put("contentTags", tagArray);
-            if(entry.getDocument() instanceof W2OActivity) {
-                entry.setDocument(mapper.convertValue(node, W2OActivity.class));
-            }
-            else if(entry.getDocument() instanceof Activity) {
+            if(entry.getDocument() instanceof Activity) {
                 entry.setDocument(mapper.convertValue(node, Activity.class));
             }
             else if(entry.getDocument() instanceof String) {
@@ -212,7 +205,7 @@ public class LuceneSimpleTaggingProcessor implements StreamsProcessor
         return result;
     }
 
-    private void getMetaDataJsons(StreamsDatum datum, List<String> jsons) {
+    private void getMetaDataNodes(StreamsDatum datum, List<ObjectNode> nodes) throws IOException {
        if(datum.getMetadata() == null)
            return;
         Object obj = datum.getMetadata().get(this.metaDataKey);
@@ -222,51 +215,34 @@ public class LuceneSimpleTaggingProcessor implements StreamsProcessor
         }
         if(obj instanceof List) {
             List list = (List) obj;
-            String json;
             for(Object o : list) {
-                json = getJson(o);
-                if(json != null) {
-                    jsons.add(json);
-                }
+                addNode(o, nodes);
             }
         }
         else {
-            String json = getJson(obj);
-            if(json != null) {
-                jsons.add(json);
-            }
+            addNode(obj, nodes);
         }
     }
 
-    private String getJson(Object object) {
-        String json = null;
+    private void addNode(Object object, List<ObjectNode> nodes) throws IOException {
         if( object instanceof String ) {
-            json = (String) object;
+            nodes.add((ObjectNode) mapper.readTree((String) object));
         } else if(object instanceof Activity){
-            try {
-                json = mapper.writeValueAsString(object);
-            } catch (JsonProcessingException jpe) {
-                json = null;
-                LOGGER.error("Failed to convert Activity to String : {}", jpe);
-            }
-        } else {
-            ObjectNode node = (ObjectNode) object;
-            json = node.asText();
+            nodes.add((ObjectNode) mapper.valueToTree(object));
+        } else if(object instanceof ObjectNode) {
+            nodes.add((ObjectNode) object);
         }
-        return json;
     }
 
     @Override
     public void prepare(Object o) {
         mapper = StreamsJacksonMapper.getInstance();
+        // The configured tags are reloaded each time the processor is prepared, so changes to them are picked up
         if(this.tags == null) {
-            resolver = injector.getInstance(CommunityRepositoryResolver.class);
-            repo = resolver.get(community);
-            List<Entity> entities = repo.getTaggableEntities();
-            taggingEngine = new TaggingEngineLanguage<LanguageTag, SimpleVerbatim>(createLanguageTagsFromRexsterTags(entities));
+            tagIndex = new TagQueryIndex(detectConfiguration().getTags());
         }
         else {
-            taggingEngine = new TaggingEngineLanguage<LanguageTag, SimpleVerbatim>(this.tags);
+            tagIndex = new TagQueryIndex(this.tags);
         }
         compileTextJsonPaths();
     }
@@ -276,33 +252,12 @@ public class LuceneSimpleTaggingProcessor implements StreamsProcessor
 
     }
 
-    private static List<LanguageTag> createLanguageTagsFromRexsterTags(List<Entity> graphTags) {
-        List<LanguageTag> result = new ArrayList<LanguageTag>(graphTags.size());
-        LOGGER.info("Attempting to convert {} Graph tags into Language tags.", graphTags.size());
-        String tagLang;
-        for(Entity tag : graphTags) {
-//            net.sf.json.JSONObject json = null;
-            try {
-//                json = (net.sf.json.JSONObject) tag;
-                tagLang = tag.getAdditionalProperties().get("language") == null ? "en" : tag.getAdditionalProperties().get("language").toString();
-            } catch (Exception e) {
-                tagLang = "en";
-            }
-            LOGGER.debug("Tag : {}\n{}\n{}", new String[] {tag.getIdentifier(),tag.getQuery(),tagLang});
-            if(TaggingEngineLanguage.SUPPORTED.contains(tagLang)) {
-                try {
-                    result.add(new LanguageTag(tag.getIdentifier(),tag.getQuery(), tagLang));
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    //result.add(new LanguageTag(tag.getIdentifier(), tag.getQuery(), tagLang));
-                }
-            }
-            else {
-                LOGGER.warn("Attempted to load a tag for Language, {}, but that language is not currently supported. SimpleTag is being ignored!");
-            }
+    private LuceneTaggerConfiguration detectConfiguration() {
+        try {
+            return mapper.readValue(StreamsConfigurator.config.getConfig("lucene").root().render(ConfigRenderOptions.concise()), LuceneTaggerConfiguration.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read the tags configured under lucene", e);
         }
-        LOGGER.info("Loaded {} Language Tags. {} tags were not supported.", result.size(), graphTags.size() - result.size());
-        return result;
     }
 
     // Does basic verification that paths are not null and in JsonPath syntax.
@@ -319,37 +274,63 @@ public class LuceneSimpleTaggingProcessor implements StreamsProcessor
         return jsonPathsToText;
     }
 
-    // Compiles jsonPathToText to JsonPath
+    // Splits the simple paths into the fields along them, and compiles any other path to JsonPath
     private void compileTextJsonPaths() {
-        this.textPaths = new JsonPath[this.jsonPathsToText.length];
-        for(int i=0; i < this.jsonPathsToText.length; ++i) {
-            this.textPaths[i] = JsonPath.compile(this.jsonPathsToText[i]);
+        this.fieldPaths = Maps.newLinkedHashMap();
+        this.textPaths = Maps.newLinkedHashMap();
+        for(String path : this.jsonPathsToText) {
+            if(SIMPLE_PATH.matcher(path).matches())
+                this.fieldPaths.put(path.substring(2), path.substring(2).split("\\."));
+            else
+                this.textPaths.put(path, JsonPath.compile(path));
         }
     }
 
-    private List<SimpleVerbatim> convertEntryToWorkUnit(String json) {
-        List<SimpleVerbatim> textFields = new ArrayList<SimpleVerbatim>();
-        for(JsonPath path : this.textPaths) {
-            try {
-                Object pathObject = path.read(json);
-                if( pathObject instanceof String )
-                    textFields.add(new SimpleVerbatim((String) pathObject) );
-                else if( pathObject instanceof List ) {
-                    List<String> pathObjectList = (List<String>) pathObject;
-                    for( String pathItem : pathObjectList ) {
-                        textFields.add(new SimpleVerbatim(pathItem) );
+    // Reads the text at each path, a path may lead to a string or a list of strings.  The text at a simple path is
+    // searchable under the path's field names, like actor.displayName, the text at any other path through the
+    // default field only.
+    private Map<String, List<String>> convertEntryToText(ObjectNode node) throws JsonProcessingException {
+        Map<String, List<String>> textFields = Maps.newLinkedHashMap();
+        for(Map.Entry<String, String[]> path : this.fieldPaths.entrySet()) {
+            JsonNode pathNode = node;
+            for(int i=0; i < path.getValue().length && pathNode != null; ++i) {
+                pathNode = pathNode.get(path.getValue()[i]);
+            }
+            List<String> texts = Lists.newArrayList();
+            if( pathNode == null )
+                LOGGER.debug("No text at {}", path.getKey());
+            else if( pathNode.isTextual() )
+                texts.add(pathNode.asText());
+            else if( pathNode.isArray() ) {
+                for( JsonNode pathItem : pathNode ) {
+                    if( pathItem.isTextual() )
+                        texts.add(pathItem.asText());
+                }
+            }
+            if( !texts.isEmpty() )
+                textFields.put(path.getKey(), texts);
+        }
+        if( !this.textPaths.isEmpty() ) {
+            String json = mapper.writeValueAsString(node);
+            List<String> texts = Lists.newArrayList();
+            for(JsonPath path : this.textPaths.values()) {
+                try {
+                    Object pathObject = path.read(json);
+                    if( pathObject instanceof String )
+                        texts.add((String) pathObject);
+                    else if( pathObject instanceof List ) {
+                        for( Object pathItem : (List) pathObject ) {
+                            if( pathItem instanceof String )
+                                texts.add((String) pathItem);
+                        }
                     }
+                } catch( InvalidPathException x ) {
+                    LOGGER.debug("{}: {}", x.getMessage(), path.getPath());
                 }
-            } catch( InvalidPathException x ) {
-                LOGGER.debug("{}: {}", x.getMessage(), path.getPath());
-            } catch( ClassCastException x ) {
-                LOGGER.warn(x.getMessage());
             }
+            if( !texts.isEmpty() )
+                textFields.put(TagQueryIndex.ALL_FIELD, texts);
         }
-
-        if(textFields.size() == 0)
-            return null;
-
         return textFields;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,442 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.streams.lucene;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.de.GermanAnalyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.es.SpanishAnalyzer;
+import org.apache.lucene.analysis.fr.FrenchAnalyzer;
+import org.apache.lucene.analysis.it.ItalianAnalyzer;
+import org.apache.lucene.analysis.nl.DutchAnalyzer;
+import org.apache.lucene.analysis.pt.PortugueseAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.memory.MemoryIndex;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.Version;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Matches documents against a large number of Lucene tag queries.  Each query is parsed once with the analyzer of
+ * its language and posted under its anchors, terms or prefixes of which any matching document contains at least
+ * one.  A document is then only run through Lucene, in a {@link org.apache.lucene.index.memory.MemoryIndex}, against
+ * the queries sharing an anchor with it, plus the few queries that have no anchor, instead of against every query.
+ *
+ * A document is made of named text fields, like content or actor.displayName.  Every field is also indexed under
+ * {@link #ALL_FIELD}, the default field of the queries.  The index does not change once built and can be shared by
+ * any number of threads.
+ */
+public class TagQueryIndex {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(TagQueryIndex.class);
+
+    public final static String ALL_FIELD = "_all";
+
+    public final static String DEFAULT_LANGUAGE = "en";
+
+    private final static Version VERSION = Version.LUCENE_47;
+
+    private final List<LanguageQueries> languages;
+    private final int queryCount;
+
+    private final AtomicLong totalDocuments = new AtomicLong(0);
+    private final AtomicLong totalCandidates = new AtomicLong(0);
+    private final AtomicLong totalMatches = new AtomicLong(0);
+
+    /**
+     * Compiles the tags, skipping those whose queries cannot be parsed
+     * @param tags the tags and their queries
+     */
+    public TagQueryIndex(Collection<LuceneTag> tags) {
+        Map<String, LanguageQueries.Builder> builders = Maps.newLinkedHashMap();
+        for (LuceneTag tag : tags) {
+            String language = tag.getLanguage() == null ? DEFAULT_LANGUAGE : tag.getLanguage();
+            LanguageQueries.Builder builder = builders.get(language);
+            if (builder == null) {
+                builder = new LanguageQueries.Builder(analyzerFor(language));
+                builders.put(language, builder);
+            }
+            try {
+                builder.add(tag.getTag(), tag.getQuery());
+            } catch (ParseException e) {
+                LOGGER.warn("Ignoring tag {}: {}", tag.getTag(), e.getMessage());
+            }
+        }
+        List<LanguageQueries> compiled = Lists.newArrayListWithCapacity(builders.size());
+        int count = 0;
+        for (Map.Entry<String, LanguageQueries.Builder> builder : builders.entrySet()) {
+            LanguageQueries queries = builder.getValue().build();
+            LOGGER.info("Indexed {} {} tag queries under {} terms and {} prefixes, {} queries have no anchor",
+                    new Object[] {queries.queries.size(), builder.getKey(), queries.byTerm.size(), queries.byPrefix.size(), queries.always.length});
+            compiled.add(queries);
+            count += queries.queries.size();
+        }
+        this.languages = ImmutableList.copyOf(compiled);
+        this.queryCount = count;
+    }
+
+    /**
+     * @param texts the texts of a document, searched through the default field only
+     * @return the tags whose queries match the document
+     */
+    public Set<String> findTags(Iterable<String> texts) {
+        return findTags(Collections.<String, Iterable<String>>singletonMap(ALL_FIELD, texts));
+    }
+
+    /**
+     * @param fields the texts of a document by field name
+     * @return the tags whose queries match the document
+     */
+    public Set<String> findTags(Map<String, ? extends Iterable<String>> fields) {
+        Set<String> matched = Sets.newHashSet();
+        long candidates = 0;
+        for (LanguageQueries language : languages) {
+            BitSet ids = language.candidates(fields);
+            int cardinality = ids.cardinality();
+            candidates += cardinality;
+            if (cardinality == 0)
+                continue;
+
+            MemoryIndex index = language.index(fields);
+            for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+                if (index.search(language.queries.get(id)) > 0.0f)
+                    matched.add(language.tags.get(id));
+        }
+
+        totalDocuments.incrementAndGet();
+        totalCandidates.addAndGet(candidates);
+        totalMatches.addAndGet(matched.size());
+        return matched;
+    }
+
+    public int getQueryCount()          { return this.queryCount; }
+    public long getTotalDocuments()     { return this.totalDocuments.get(); }
+    public long getTotalCandidates()    { return this.totalCandidates.get(); }
+    public long getTotalMatches()       { return this.totalMatches.get(); }
+
+    private static Analyzer analyzerFor(String language) {
+        switch (language) {
+            case "en": return new EnglishAnalyzer(VERSION);
+            case "de": return new GermanAnalyzer(VERSION);
+            case "es": return new SpanishAnalyzer(VERSION);
+            case "fr": return new FrenchAnalyzer(VERSION);
+            case "it": return new ItalianAnalyzer(VERSION);
+            case "nl": return new DutchAnalyzer(VERSION);
+            case "pt": return new PortugueseAnalyzer(VERSION);
+            default:
+                LOGGER.debug("No analyzer for language {}, using the standard analyzer", language);
+                return new StandardAnalyzer(VERSION);
+        }
+    }
+
+    /**
+     * The terms and prefixes of which a document matching a query contains at least one.  A query has no anchors
+     * when it can match without any particular term, like a leading wildcard or a purely negative query.
+     */
+    static class Anchors {
+
+        final Set<String> terms = Sets.newHashSet();
+        final Set<String> prefixes = Sets.newHashSet();
+
+        int size() {
+            return terms.size() + prefixes.size();
+        }
+
+        // The length of the shortest anchor, longer anchors being rarer in documents
+        int weight() {
+            int weight = Integer.MAX_VALUE;
+            for (String term : terms)
+                weight = Math.min(weight, term.length());
+            for (String prefix : prefixes)
+                weight = Math.min(weight, prefix.length());
+            return weight;
+        }
+
+        /**
+         * @param query a parsed query
+         * @return the anchors of the query, or null when it has none
+         */
+        static Anchors of(Query query) {
+            Anchors anchors = new Anchors();
+            if (query instanceof TermQuery) {
+                anchors.terms.add(((TermQuery) query).getTerm().text());
+            } else if (query instanceof PhraseQuery) {
+                // Every term of a phrase is required, its longest one will do
+                String longest = null;
+                for (Term term : ((PhraseQuery) query).getTerms())
+                    if (longest == null || term.text().length() > longest.length())
+                        longest = term.text();
+                if (longest == null)
+                    return null;
+                anchors.terms.add(longest);
+            } else if (query instanceof PrefixQuery) {
+                String prefix = ((PrefixQuery) query).getPrefix().text();
+                if (prefix.isEmpty())
+                    return null;
+                anchors.prefixes.add(prefix);
+            } else if (query instanceof WildcardQuery) {
+                String pattern = ((WildcardQuery) query).getTerm().text();
+                int end = 0;
+                while (end < pattern.length()
+                        && pattern.charAt(end) != WildcardQuery.WILDCARD_STRING
+                        && pattern.charAt(end) != WildcardQuery.WILDCARD_CHAR
+                        && pattern.charAt(end) != WildcardQuery.WILDCARD_ESCAPE)
+                    end++;
+                if (end == 0)
+                    return null;
+                if (end == pattern.length())
+                    anchors.terms.add(pattern);
+                else
+                    anchors.prefixes.add(pattern.substring(0, end));
+            } else if (query instanceof BooleanQuery) {
+                return ofBoolean((BooleanQuery) query);
+            } else if (query instanceof DisjunctionMaxQuery) {
+                for (Query disjunct : ((DisjunctionMaxQuery) query).getDisjuncts())
+                    if (!anchors.addAll(of(disjunct)))
+                        return null;
+                if (anchors.size() == 0)
+                    return null;
+            } else if (query instanceof ConstantScoreQuery && ((ConstantScoreQuery) query).getQuery() != null) {
+                return of(((ConstantScoreQuery) query).getQuery());
+            } else {
+                // Fuzzy, regular expression, range and match all queries are always checked
+                return null;
+            }
+            return anchors;
+        }
+
+        // A required clause anchors the whole query, the lightest one is kept.  Without required clauses every
+        // optional clause needs anchors, and a query made only of prohibited clauses has none.
+        private static Anchors ofBoolean(BooleanQuery query) {
+            Anchors required = null;
+            Anchors optional = new Anchors();
+            boolean anyRequired = false;
+            boolean allOptionalAnchored = true;
+            for (BooleanClause clause : query.getClauses()) {
+                if (clause.getOccur() == BooleanClause.Occur.MUST) {
+                    anyRequired = true;
+                    Anchors anchors = of(clause.getQuery());
+                    if (anchors != null && (required == null || lighter(anchors, required)))
+                        required = anchors;
+                } else if (clause.getOccur() == BooleanClause.Occur.SHOULD) {
+                    allOptionalAnchored &= optional.addAll(of(clause.getQuery()));
+                }
+            }
+            if (anyRequired)
+                return required;
+            if (!allOptionalAnchored || optional.size() == 0)
+                return null;
+            return optional;
+        }
+
+        private static boolean lighter(Anchors anchors, Anchors than) {
+            if (anchors.size() != than.size())
+                return anchors.size() < than.size();
+            return anchors.weight() > than.weight();
+        }
+
+        private boolean addAll(Anchors other) {
+            if (other == null)
+                return false;
+            terms.addAll(other.terms);
+            prefixes.addAll(other.prefixes);
+            return true;
+        }
+    }
+
+    /**
+     * The queries of one language, analyzed the same way as the documents they are matched against
+     */
+    static class LanguageQueries {
+
+        final Analyzer analyzer;
+        final List<String> tags;
+        final List<Query> queries;
+        final Map<String, int[]> byTerm;
+        final Map<String, int[]> byPrefix;
+        final int longestPrefix;
+        final int[] always;
+
+        private LanguageQueries(Builder builder) {
+            this.analyzer = builder.analyzer;
+            this.tags = ImmutableList.copyOf(builder.tags);
+            this.queries = ImmutableList.copyOf(builder.queries);
+            this.byTerm = freeze(builder.terms);
+            this.byPrefix = freeze(builder.prefixes);
+            this.longestPrefix = builder.longestPrefix;
+            this.always = toArray(builder.always);
+        }
+
+        BitSet candidates(Map<String, ? extends Iterable<String>> fields) {
+            BitSet candidates = new BitSet(queries.size());
+            for (int id : always)
+                candidates.set(id);
+            if (byTerm.isEmpty() && byPrefix.isEmpty())
+                return candidates;
+            for (String token : tokens(fields)) {
+                collect(byTerm.get(token), candidates);
+                for (int length = Math.min(token.length(), longestPrefix); length > 0 && !byPrefix.isEmpty(); length--)
+                    collect(byPrefix.get(token.substring(0, length)), candidates);
+            }
+            return candidates;
+        }
+
+        // A field can only be added to the index once, so the texts of each field are joined
+        MemoryIndex index(Map<String, ? extends Iterable<String>> fields) {
+            MemoryIndex index = new MemoryIndex();
+            StringBuilder all = new StringBuilder();
+            for (Map.Entry<String, ? extends Iterable<String>> field : fields.entrySet()) {
+                StringBuilder value = new StringBuilder();
+                for (String text : field.getValue()) {
+                    if (value.length() > 0)
+                        value.append('\n');
+                    value.append(text);
+                }
+                if (!ALL_FIELD.equals(field.getKey()))
+                    index.addField(field.getKey(), value.toString(), analyzer);
+                if (all.length() > 0)
+                    all.append('\n');
+                all.append(value);
+            }
+            index.addField(ALL_FIELD, all.toString(), analyzer);
+            return index;
+        }
+
+        private Set<String> tokens(Map<String, ? extends Iterable<String>> fields) {
+            Set<String> tokens = Sets.newHashSet();
+            for (Iterable<String> texts : fields.values()) {
+                for (String text : texts) {
+                    try {
+                        TokenStream stream = analyzer.tokenStream(ALL_FIELD, text);
+                        try {
+                            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+                            stream.reset();
+                            while (stream.incrementToken())
+                                tokens.add(term.toString());
+                            stream.end();
+                        } finally {
+                            stream.close();
+                        }
+                    } catch (IOException e) {
+                        // Text is read from memory, this is not expected
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+            return tokens;
+        }
+
+        static class Builder {
+
+            private final Analyzer analyzer;
+            private final QueryParser parser;
+            private final List<String> tags = Lists.newArrayList();
+            private final List<Query> queries = Lists.newArrayList();
+            private final Map<String, List<Integer>> terms = Maps.newHashMap();
+            private final Map<String, List<Integer>> prefixes = Maps.newHashMap();
+            private final List<Integer> always = Lists.newArrayList();
+            private int longestPrefix = 0;
+
+            Builder(Analyzer analyzer) {
+                this.analyzer = analyzer;
+                this.parser = new QueryParser(VERSION, ALL_FIELD, analyzer);
+            }
+
+            void add(String tag, String query) throws ParseException {
+                Query parsed = parser.parse(query);
+                int id = queries.size();
+                tags.add(tag);
+                queries.add(parsed);
+                Anchors anchors = Anchors.of(parsed);
+                if (anchors == null) {
+                    LOGGER.debug("Tag {} has no anchor and is checked against every document", tag);
+                    always.add(id);
+                    return;
+                }
+                for (String term : anchors.terms)
+                    post(terms, term, id);
+                for (String prefix : anchors.prefixes) {
+                    post(prefixes, prefix, id);
+                    longestPrefix = Math.max(longestPrefix, prefix.length());
+                }
+            }
+
+            LanguageQueries build() {
+                return new LanguageQueries(this);
+            }
+        }
+    }
+
+    private static void collect(int[] ids, BitSet candidates) {
+        if (ids != null)
+            for (int id : ids)
+                candidates.set(id);
+    }
+
+    private static void post(Map<String, List<Integer>> postings, String key, int id) {
+        List<Integer> ids = postings.get(key);
+        if (ids == null) {
+            ids = Lists.newArrayListWithCapacity(1);
+            postings.put(key, ids);
+        }
+        ids.add(id);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = list.get(i);
+        return array;
+    }
+
+    private static Map<String, int[]> freeze(Map<String, List<Integer>> postings) {
+        Map<String, int[]> frozen = Maps.newHashMapWithExpectedSize(postings.size());
+        for (Map.Entry<String, List<Integer>> entry : postings.entrySet())
+            frozen.put(entry.getKey(), toArray(entry.getValue()));
+        return frozen;
+    }
+}
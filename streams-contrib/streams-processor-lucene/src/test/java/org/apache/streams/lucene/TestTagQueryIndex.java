@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.lucene;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TestTagQueryIndex {
+
+    private static Set<String> tags(TagQueryIndex index, String... texts) {
+        return index.findTags(Arrays.asList(texts));
+    }
+
+    private static LuceneTag tag(String tag, String query) {
+        return tag(tag, query, "en");
+    }
+
+    private static LuceneTag tag(String tag, String query, String language) {
+        return new LuceneTag().withTag(tag).withQuery(query).withLanguage(language);
+    }
+
+    @Test
+    public void testTermsAndPhrases() {
+        TagQueryIndex index = new TagQueryIndex(Lists.newArrayList(
+                tag("baseball", "baseball OR homerun OR \"home run\""),
+                tag("soccer", "soccer"),
+                tag("slop", "\"ticket available\"~2")));
+        assertEquals(Sets.newHashSet("baseball", "soccer"), tags(index, "Men's Basketball baseball soccer Single-Game Tickets"));
+        assertEquals(Sets.newHashSet("baseball"), tags(index, "What a HOME RUN!"));
+        assertEquals(Sets.newHashSet(), tags(index, "run home"));
+        assertEquals(Sets.newHashSet("soccer"), tags(index, "nothing here", "soccer"));
+        assertEquals(Sets.newHashSet("slop"), tags(index, "Single-Game Tickets still Available"));
+        assertEquals(Sets.newHashSet(), tags(index, "Tickets for the game are no longer Available"));
+    }
+
+    @Test
+    public void testBooleanOperators() {
+        TagQueryIndex index = new TagQueryIndex(Lists.newArrayList(
+                tag("and", "apple AND pie"),
+                tag("not", "apple NOT pie"),
+                tag("plus", "+apple banana"),
+                tag("minus", "cherry -pie"),
+                tag("group", "(apple OR cherry) AND (tart OR crumble)")));
+        assertEquals(Sets.newHashSet("and", "plus"), tags(index, "apple pie"));
+        assertEquals(Sets.newHashSet("not", "plus", "group"), tags(index, "apple tart"));
+        assertEquals(Sets.newHashSet("minus", "group"), tags(index, "cherry crumble"));
+        assertEquals(Sets.newHashSet(), tags(index, "cherry pie"));
+    }
+
+    @Test
+    public void testAnalysis() {
+        // Leading wildcards are not allowed by the query parser, so the leading tag is left out
+        TagQueryIndex index = new TagQueryIndex(Lists.newArrayList(
+                tag("stemmed", "running shoes"),
+                tag("prefix", "bake*"),
+                tag("wildcard", "c?t"),
+                tag("infix", "ki*en"),
+                tag("leading", "*ball"),
+                tag("fuzzy", "colour~1"),
+                tag("french", "chevaux", "fr")));
+        assertEquals(Sets.newHashSet("stemmed"), tags(index, "He runs in new shoe"));
+        assertEquals(Sets.newHashSet("prefix"), tags(index, "fresh bakery"));
+        assertEquals(Sets.newHashSet("wildcard"), tags(index, "the cat"));
+        assertEquals(Sets.newHashSet(), tags(index, "the coat"));
+        assertEquals(Sets.newHashSet("infix"), tags(index, "kitchen"));
+        assertEquals(Sets.newHashSet(), tags(index, "football"));
+        assertEquals(Sets.newHashSet("fuzzy"), tags(index, "color"));
+        assertEquals(Sets.newHashSet("french"), tags(index, "un cheval"));
+        assertEquals(6, index.getQueryCount());
+    }
+
+    @Test
+    public void testFields() {
+        TagQueryIndex index = new TagQueryIndex(Lists.newArrayList(
+                tag("content", "content:banana^2"),
+                tag("actor", "actor.displayName:kentucky AND basketball")));
+        assertEquals(Sets.newHashSet("content"), index.findTags(ImmutableMap.of(
+                "content", Arrays.asList("banana"))));
+        assertEquals(Sets.newHashSet(), index.findTags(ImmutableMap.of(
+                "title", Arrays.asList("banana"))));
+        assertEquals(Sets.newHashSet(), tags(index, "banana"));
+        assertEquals(Sets.newHashSet("actor"), index.findTags(ImmutableMap.of(
+                "actor.displayName", Arrays.asList("Kentucky Basketball"),
+                "content", Arrays.asList("Single-Game Tickets"))));
+        assertEquals(Sets.newHashSet(), index.findTags(ImmutableMap.of(
+                "content", Arrays.asList("Kentucky Basketball"))));
+    }
+
+    @Test
+    public void testCandidatesOnly() {
+        List<LuceneTag> many = Lists.newArrayList();
+        for (int i = 0; i < 10000; i++)
+            many.add(tag("tag" + i, "term" + i + " AND ball"));
+        many.add(tag("broken", "(unclosed"));
+        many.add(tag("unanchored", "xyzzy~1"));
+        TagQueryIndex index = new TagQueryIndex(many);
+        assertEquals(10001, index.getQueryCount());
+
+        assertEquals(Sets.newHashSet("tag42"), tags(index, "ball term42 term43x"));
+        assertEquals(1, index.getTotalDocuments());
+        assertEquals(2, index.getTotalCandidates());
+        assertEquals(1, index.getTotalMatches());
+    }
+}
@@ -76,8 +76,20 @@ public abstract class AbstractRegexExtensionExtractor<T> implements StreamsProce
             prepare(null);
         }
         Map<String, List<Integer>> matches = RegexUtils.extractMatches(pattern, activity.getContent());
+        addExtracted(activity, matches.keySet());
+
+        entry.setDocument(activity);
+        return Lists.newArrayList(entry);
+    }
+
+    /**
+     * Adds the objects for the matched values to the extensions of the activity, without duplicates
+     * @param activity the activity the values were extracted from
+     * @param extracted the distinct values matched by the regex
+     */
+    protected void addExtracted(Activity activity, Collection<String> extracted) {
         Collection<T> entities = ensureTargetObject(activity);
-        for (String key : matches.keySet()) {
+        for (String key : extracted) {
             entities.add(prepareObject(key));
         }
 
@@ -85,9 +97,6 @@ public abstract class AbstractRegexExtensionExtractor<T> implements StreamsProce
         set.addAll(entities);
         entities.clear();
         entities.addAll(set);
-
-        entry.setDocument(activity);
-        return Lists.newArrayList(entry);
     }
 
     @Override
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.regex;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.core.StreamsProcessor;
+import org.apache.streams.jackson.StreamsJacksonMapper;
+import org.apache.streams.pojo.json.Activity;
+
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs several regex extractors in one pass over the content of an {@link org.apache.streams.pojo.json.Activity}.
+ * The patterns of the extractors are compiled into a single alternation, so the content is scanned once no matter
+ * how many extensions are written.  By default the hashtags, mentions and URLs are extracted.
+ *
+ * Unlike running the extractors one after another, matches do not overlap: where two patterns match at the same
+ * position the extractor given first wins, and text inside a match is not scanned again.  So the fragment of a URL
+ * is not taken for a hashtag.
+ */
+public class RegexCombinedExtractor implements StreamsProcessor {
+
+    private final static ObjectMapper mapper = StreamsJacksonMapper.getInstance();
+
+    private final List<AbstractRegexExtensionExtractor<?>> extractors;
+
+    private Pattern pattern;
+
+    // The matcher and the buffers for the matches are reused by each thread
+    private transient ThreadLocal<Scanner> scanners;
+
+    public RegexCombinedExtractor() {
+        this(new RegexUrlExtractor(), new RegexHashtagExtractor(), new RegexMentionsExtractor());
+    }
+
+    public RegexCombinedExtractor(AbstractRegexExtensionExtractor<?>... extractors) {
+        this.extractors = ImmutableList.copyOf(extractors);
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public List<StreamsDatum> process(StreamsDatum entry) {
+        Activity activity;
+        if (entry.getDocument() instanceof Activity) {
+            activity = (Activity) entry.getDocument();
+        } else if (entry.getDocument() instanceof ObjectNode) {
+            activity = mapper.convertValue(entry.getDocument(), Activity.class);
+        } else {
+            return Lists.newArrayList();
+        }
+        if (pattern == null) {
+            prepare(null);
+        }
+
+        Scanner scanner = getScanner();
+        scanner.scan(activity.getContent());
+        for (int i = 0; i < extractors.size(); i++) {
+            extractors.get(i).addExtracted(activity, scanner.matches.get(i));
+        }
+
+        entry.setDocument(activity);
+        return Lists.newArrayList(entry);
+    }
+
+    /**
+     * Prepares each extractor with the configuration, then compiles their patterns into one
+     * @param configurationObject the configuration passed to each extractor
+     */
+    @Override
+    public void prepare(Object configurationObject) {
+        StringBuilder combined = new StringBuilder();
+        for (int i = 0; i < extractors.size(); i++) {
+            AbstractRegexExtensionExtractor<?> extractor = extractors.get(i);
+            extractor.prepare(configurationObject);
+            if (Strings.isNullOrEmpty(extractor.getPattern())) {
+                extractor.prepare(null);
+            }
+            if (i > 0) {
+                combined.append('|');
+            }
+            combined.append("(?<").append(groupName(i)).append('>').append(extractor.getPattern()).append(')');
+        }
+        pattern = Pattern.compile(combined.toString());
+        scanners = null;
+    }
+
+    @Override
+    public void cleanUp() {
+        //NOP
+    }
+
+    private Scanner getScanner() {
+        if (scanners == null) {
+            final Pattern combined = pattern;
+            scanners = new ThreadLocal<Scanner>() {
+                @Override
+                protected Scanner initialValue() {
+                    return new Scanner(combined, extractors.size());
+                }
+            };
+        }
+        return scanners.get();
+    }
+
+    private static String groupName(int index) {
+        return "extractor" + index;
+    }
+
+    /**
+     * Finds the distinct matches of each extractor in a single pass
+     */
+    private static class Scanner {
+        private final Matcher matcher;
+        private final List<Set<String>> matches;
+
+        private Scanner(Pattern pattern, int extractors) {
+            this.matcher = pattern.matcher("");
+            this.matches = Lists.newArrayListWithCapacity(extractors);
+            for (int i = 0; i < extractors; i++) {
+                matches.add(Sets.<String>newLinkedHashSet());
+            }
+        }
+
+        private void scan(String content) {
+            for (Set<String> extracted : matches) {
+                extracted.clear();
+            }
+            if (content == null) {
+                return;
+            }
+            matcher.reset(content);
+            while (matcher.find()) {
+                for (int i = 0; i < matches.size(); i++) {
+                    String group = matcher.group(groupName(i));
+                    if (group != null) {
+                        if (!group.equals("")) {
+                            matches.get(i).add(group);
+                        }
+                        break;
+                    }
+                }
+            }
+            matcher.reset("");
+        }
+    }
+}
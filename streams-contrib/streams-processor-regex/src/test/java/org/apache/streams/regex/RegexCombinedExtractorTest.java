@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.regex;
+
+
+import com.google.common.collect.Sets;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.pojo.extensions.ExtensionUtil;
+import org.apache.streams.pojo.json.Activity;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(Parameterized.class)
+public class RegexCombinedExtractorTest {
+
+    private static final RegexCombinedExtractor extractor = new RegexCombinedExtractor();
+
+    private Activity activity;
+    private Set<String> hashtags;
+    private Set<String> mentions;
+    private Set<String> links;
+
+    public RegexCombinedExtractorTest(String activityContent, Set<String> hashtags, Set<String> mentions, Set<String> links) {
+        this.activity = new Activity();
+        this.activity.setContent(activityContent);
+        this.hashtags = hashtags;
+        this.mentions = mentions;
+        this.links = links;
+    }
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> params() {
+        return Arrays.asList(new Object[][]{
+                {"This is the content of a standard tweet", Sets.newHashSet(), Sets.newHashSet(), Sets.newHashSet()},
+                {"This is the #content of a standard @tweet", Sets.newHashSet("content"), Sets.newHashSet("tweet"), Sets.newHashSet()},
+                {"This is the #content of a #standard @tweet @tweet #content", Sets.newHashSet("content", "standard"), Sets.newHashSet("tweet"), Sets.newHashSet()},
+                {"This is the http://t.co/foo of a standard #tweet", Sets.newHashSet("tweet"), Sets.newHashSet(), Sets.newHashSet("http://t.co/foo")},
+                {"This is the https://t.co/foo#bar of a standard @tweet", Sets.newHashSet(), Sets.newHashSet("tweet"), Sets.newHashSet("https://t.co/foo#bar")},
+                {"This is the body of a @fbpost. It can have multiple lines of #content, as well as links to http://www.google.com/articles/awesome?with=query&params=true",
+                        Sets.newHashSet("content"), Sets.newHashSet("fbpost"), Sets.newHashSet("http://www.google.com/articles/awesome?with=query&params=true")}
+        });
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExtraction() {
+        StreamsDatum datum = new StreamsDatum(activity, "Test");
+        List<StreamsDatum> result = extractor.process(datum);
+        assertThat(result.size(), is(equalTo(1)));
+        Activity output = (Activity)result.get(0).getDocument();
+        Map<String, Object> extensions = ExtensionUtil.ensureExtensions(output);
+
+        assertThat(Sets.newHashSet((Set<String>) extensions.get(RegexHashtagExtractor.EXTENSION_KEY)), is(equalTo(hashtags)));
+        Set<String> displayNames = Sets.newHashSet();
+        for (Map<String, Object> mention : (Set<Map<String, Object>>) extensions.get(RegexMentionsExtractor.EXTENSION_KEY)) {
+            displayNames.add((String) mention.get(RegexMentionsExtractor.DISPLAY_KEY));
+        }
+        assertThat(displayNames, is(equalTo(mentions)));
+        assertThat(Sets.newHashSet(output.getLinks()), is(equalTo(links)));
+    }
+}
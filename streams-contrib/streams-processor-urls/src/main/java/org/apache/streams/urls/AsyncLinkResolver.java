@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.urls;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.streams.jackson.StreamsJacksonMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves links in the background.  Links are followed by a pool of threads sharing a client that keeps connections
+ * alive and limits the connections open to a host, and the links of a document are resolved in parallel.  Resolved
+ * links are cached, so a link that is shared again is not followed again, and a link that is being resolved is only
+ * followed once however often it is asked for.
+ *
+ * Each redirect is a separate request on the pool.  A request to a domain that has to be waited for is parked on a
+ * timer until the domain's turn comes, so the threads keep following links to other domains meanwhile.
+ *
+ * The copies of a processor that run in parallel {@link #acquire} the same resolver, so a stream has one pool and one
+ * cache, which is saved once after the last copy released it.
+ */
+public class AsyncLinkResolver implements Closeable {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(AsyncLinkResolver.class);
+
+    // resolvers that are shared, by their configuration
+    private final static Map<String, AsyncLinkResolver> SHARED = Maps.newHashMap();
+
+    private final LinkResolverConfiguration config;
+    private final CloseableHttpClient httpClient;
+    private final ListeningExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final LinkResolverCache cache;
+    private final ConcurrentMap<String, ListenableFuture<LinkDetails>> inFlight = Maps.newConcurrentMap();
+
+    private final AtomicLong totalResolved = new AtomicLong();
+    private final AtomicLong totalLatencyMs = new AtomicLong();
+    private final AtomicLong maxLatencyMs = new AtomicLong();
+    private final AtomicLong totalParked = new AtomicLong();
+    private final AtomicLong parked = new AtomicLong();
+
+    private String sharedKey;
+    private int references = 0;
+
+    public AsyncLinkResolver(LinkResolverConfiguration config) {
+        this.config = config;
+        this.httpClient = LinkResolver.createHttpClient(
+                config.getMaxConnections().intValue(),
+                config.getMaxConnectionsPerHost().intValue(),
+                config.getTimeoutMs().intValue());
+        this.executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+                config.getThreads().intValue(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("link-resolver-%d").build()));
+        this.timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("link-resolver-timer").build());
+        this.cache = new LinkResolverCache(config.getCacheSize(), config.getCacheTtlMs());
+
+        if (config.getCacheFile() != null && new File(config.getCacheFile()).exists()) {
+            try {
+                cache.load(new File(config.getCacheFile()));
+            } catch (IOException e) {
+                LOGGER.warn("Unable to load cached links from {}: {}", config.getCacheFile(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the resolver shared by everything with the same configuration, each call has to be matched by a
+     * {@link #release}
+     */
+    public static synchronized AsyncLinkResolver acquire(LinkResolverConfiguration config) {
+        String key = sharedKey(config);
+        AsyncLinkResolver resolver = SHARED.get(key);
+        if (resolver == null) {
+            resolver = new AsyncLinkResolver(config);
+            resolver.sharedKey = key;
+            SHARED.put(key, resolver);
+        }
+        resolver.references++;
+        return resolver;
+    }
+
+    /**
+     * Closes a shared resolver once everything that acquired it released it
+     */
+    public static void release(AsyncLinkResolver resolver) {
+        synchronized (AsyncLinkResolver.class) {
+            if (--resolver.references > 0)
+                return;
+            SHARED.remove(resolver.sharedKey);
+        }
+        resolver.close();
+    }
+
+    /**
+     * Copies of a processor have equal configurations rather than the same one, so they are told apart by value
+     */
+    private static String sharedKey(LinkResolverConfiguration config) {
+        try {
+            return StreamsJacksonMapper.getInstance().writeValueAsString(config);
+        } catch (JsonProcessingException e) {
+            LOGGER.warn("Unable to share the resolver: {}", e.getMessage());
+            return AsyncLinkResolver.class.getName() + "@" + System.identityHashCode(config);
+        }
+    }
+
+    public long getCacheHits()          { return this.cache.stats().hitCount(); }
+    public long getCacheMisses()        { return this.cache.stats().missCount(); }
+    public double getCacheHitRate()     { return this.cache.stats().hitRate(); }
+    public long getCacheSize()          { return this.cache.size(); }
+    public long getTotalResolved()      { return this.totalResolved.get(); }
+    public long getMaxLatencyMs()       { return this.maxLatencyMs.get(); }
+    public double getAverageLatencyMs() { return this.totalResolved.get() == 0 ? 0.0 : (double) this.totalLatencyMs.get() / this.totalResolved.get(); }
+    public long getTotalParked()        { return this.totalParked.get(); }
+    public long getParked()             { return this.parked.get(); }
+
+    public LinkResolverCache getCache() {
+        return this.cache;
+    }
+
+    /**
+     * @param url the link that was shared
+     * @return the details of where the link leads, cached ones are returned straight away
+     */
+    public ListenableFuture<LinkDetails> resolve(String url) {
+        LinkDetails cached = cache.get(url);
+        if (cached != null)
+            return Futures.immediateFuture(cached);
+
+        Resolution resolution = new Resolution(url);
+
+        // the link is already being followed for another document
+        ListenableFuture<LinkDetails> pending = inFlight.putIfAbsent(url, resolution.future);
+        if (pending != null)
+            return pending;
+
+        resolution.next();
+        return resolution.future;
+    }
+
+    /**
+     * Resolves the links in parallel
+     * @return the details of each link in the same order, null for a link that could not be resolved
+     */
+    public ListenableFuture<List<LinkDetails>> resolveAll(Collection<String> urls) {
+        List<ListenableFuture<LinkDetails>> futures = Lists.newArrayListWithCapacity(urls.size());
+        for (String url : urls)
+            futures.add(resolve(url));
+        return Futures.successfulAsList(futures);
+    }
+
+    /**
+     * The state of a link being resolved, which moves from one request to the next until the link is resolved
+     */
+    private class Resolution implements Runnable {
+
+        private final String url;
+        private final LinkResolver resolver;
+        private final SettableFuture<LinkDetails> future = SettableFuture.create();
+        private final long start = System.currentTimeMillis();
+        private volatile String nextURL;
+
+        private Resolution(String url) {
+            this.url = url;
+            this.resolver = new LinkResolver(url, httpClient);
+            this.resolver.start();
+        }
+
+        /**
+         * Sends the next request of the link to the pool, or parks it until its domain is free
+         */
+        private void next() {
+            try {
+                nextURL = resolver.nextURL();
+                if (nextURL == null) {
+                    complete();
+                    return;
+                }
+
+                long wait = resolver.domainWait(nextURL);
+                if (wait > 0) {
+                    totalParked.incrementAndGet();
+                    parked.incrementAndGet();
+                    timer.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            parked.decrementAndGet();
+                            submit();
+                        }
+                    }, wait, TimeUnit.MILLISECONDS);
+                } else {
+                    submit();
+                }
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void submit() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                resolver.follow(nextURL);
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            }
+            next();
+        }
+
+        private void complete() {
+            resolver.finish();
+            LinkDetails linkDetails = resolver.getLinkDetails();
+            if (isFinal(linkDetails.getLinkStatus()))
+                cache.put(url, linkDetails);
+            done();
+            future.set(linkDetails);
+        }
+
+        private void fail(Throwable t) {
+            LOGGER.warn("Unable to resolve {}: {}", url, t.getMessage());
+            done();
+            future.setException(t);
+        }
+
+        private void done() {
+            inFlight.remove(url, future);
+
+            long latency = System.currentTimeMillis() - start;
+            totalResolved.incrementAndGet();
+            totalLatencyMs.addAndGet(latency);
+            long max;
+            while (latency > (max = maxLatencyMs.get()) && !maxLatencyMs.compareAndSet(max, latency)) {
+            }
+        }
+    }
+
+    /**
+     * Errors that may go away, like timeouts and server errors, are not cached so the link is tried again next time
+     */
+    private static boolean isFinal(LinkDetails.LinkStatus status) {
+        return status != null
+                && status != LinkDetails.LinkStatus.ERROR
+                && status != LinkDetails.LinkStatus.EXCEPTION
+                && status != LinkDetails.LinkStatus.HTTP_ERROR_STATUS;
+    }
+
+    /**
+     * Waits for the links being resolved, closes the connections and saves the cache if it has a file
+     */
+    @Override
+    public void close() {
+        // links move between the timer and the pool until they are resolved, so wait for the links rather than the pools
+        try {
+            Futures.successfulAsList(Lists.newArrayList(inFlight.values())).get(config.getTimeoutMs() * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // successfulAsList does not fail
+        } catch (TimeoutException e) {
+            LOGGER.warn("Gave up waiting for {} links", inFlight.size());
+        }
+        timer.shutdownNow();
+        executor.shutdownNow();
+
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to close the http client: {}", e.getMessage());
+        }
+
+        if (config.getCacheFile() != null) {
+            try {
+                cache.save(new File(config.getCacheFile()));
+            } catch (IOException e) {
+                LOGGER.warn("Unable to save cached links to {}: {}", config.getCacheFile(), e.getMessage());
+            }
+        }
+
+        LOGGER.info("Resolved: {} Cache hit rate: {} Average latency: {}ms Max latency: {}ms",
+                getTotalResolved(), getCacheHitRate(), getAverageLatencyMs(), getMaxLatencyMs());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.urls;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spaces the requests made to a domain.  Each domain has the time it is free again, which callers reserve with a
+ * compare and set, so callers for different domains never wait on each other and no caller holds a lock.
+ *
+ * A caller that finds the domain free goes straight away and keeps it busy for the back-off.  A caller that finds it
+ * busy is told to wait until the end of the back-off that follows the current one, plus a random stagger so waiting
+ * callers do not all wake up at once.  Domains that are free again are purged now and then by whichever caller comes
+ * along, so the map only holds the domains visited recently.  A purged slot is first set to a tombstone with a compare
+ * and set, so it is either reserved or purged, never both.
+ */
+public class DomainScheduler {
+
+    // the time of a slot that has been purged, which can no longer be reserved
+    private static final long PURGED = Long.MIN_VALUE;
+
+    private final long backoffMs;
+    private final long staggerMs;
+
+    private final ConcurrentMap<String, AtomicLong> freeAt = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong nextPurge = new AtomicLong();
+
+    /**
+     * @param backoffMs milliseconds between requests to a domain
+     * @param staggerMs largest random delay added to a wait
+     */
+    public DomainScheduler(long backoffMs, long staggerMs) {
+        this.backoffMs = backoffMs;
+        this.staggerMs = staggerMs;
+    }
+
+    /**
+     * Reserves the next turn of the domain
+     * @return milliseconds to wait before the request, 0 to go ahead
+     */
+    public long reserve(String domain) {
+        domain = domain.toLowerCase();
+        purgeExpired();
+
+        while (true) {
+            AtomicLong slot = freeAt.get(domain);
+            if (slot == null) {
+                AtomicLong created = new AtomicLong();
+                slot = freeAt.putIfAbsent(domain, created);
+                if (slot == null)
+                    slot = created;
+            }
+
+            long now = now();
+            long free = slot.get();
+            if (free == PURGED) {
+                // the purge may not have removed it yet
+                freeAt.remove(domain, slot);
+                continue;
+            }
+            long wait = now >= free ? 0 : (free - now) + backoffMs;
+            if (!slot.compareAndSet(free, now + (wait == 0 ? backoffMs : wait)))
+                continue;
+
+            return wait == 0 ? 0 : wait + stagger() + 1;
+        }
+    }
+
+    private long stagger() {
+        return staggerMs > 0 ? ThreadLocalRandom.current().nextLong(staggerMs) : 0;
+    }
+
+    /**
+     * Forgets the domains that are free again, at most once per back-off
+     */
+    public void purgeExpired() {
+        long now = now();
+        long purge = nextPurge.get();
+        if (now < purge || !nextPurge.compareAndSet(purge, now + backoffMs))
+            return;
+
+        for (Map.Entry<String, AtomicLong> entry : freeAt.entrySet()) {
+            AtomicLong slot = entry.getValue();
+            long free = slot.get();
+            // fails if the slot was reserved since it was read
+            if (now >= free && slot.compareAndSet(free, PURGED))
+                freeAt.remove(entry.getKey(), slot);
+        }
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Forgets all domains
+     */
+    public void clear() {
+        freeAt.clear();
+    }
+
+    /**
+     * @return number of domains visited recently
+     */
+    public int size() {
+        return freeAt.size();
+    }
+}
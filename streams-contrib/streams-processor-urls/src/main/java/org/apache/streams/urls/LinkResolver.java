@@ -22,17 +22,22 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import org.apache.commons.codec.net.URLCodec;
 import org.apache.commons.validator.routines.UrlValidator;
+import org.apache.http.Header;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLDecoder;
 import java.util.*;
 
 public class LinkResolver implements Serializable {
@@ -54,8 +59,10 @@ public class LinkResolver implements Serializable {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(LinkResolver.class);
 
-    private static final int MAX_ALLOWED_REDIRECTS = 30;                // We will only chase the link to it's final destination a max of 30 times.
+    static final int MAX_ALLOWED_REDIRECTS = 30;                        // We will only chase the link to it's final destination a max of 30 times.
     private static final int DEFAULT_HTTP_TIMEOUT = 10000;              // We will only wait a max of 10,000 milliseconds (10 seconds) for any HTTP response
+    private static final int DEFAULT_MAX_CONNECTIONS = 64;              // Connections pooled by the client shared by resolvers that are not given one
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;      // Connections open to one host at the same time
     private static final String LOCATION_IDENTIFIER = "location";
     private static final String SET_COOKIE_IDENTIFIER = "set-cookie";
 
@@ -104,6 +111,15 @@ public class LinkResolver implements Serializable {
     private final LinkDetails linkDetails;
     private Collection<String> domainsSensitiveTo = new HashSet<String>();
 
+    // Client used to follow the link, the pooled connections are kept alive between resolvers
+    private transient CloseableHttpClient httpClient;
+
+    // The link to follow next, set when the last one redirected
+    private String pendingURL;
+    private int attempts = 0;
+
+    private static CloseableHttpClient defaultHttpClient;
+
     /**
      * Get the link details
      *
@@ -119,22 +135,126 @@ public class LinkResolver implements Serializable {
      * @param originalURL The URL you wish to unwind represented as a string.
      */
     public LinkResolver(String originalURL) {
+        this(originalURL, null);
+    }
+
+    /**
+     * @param originalURL The URL you wish to unwind represented as a string.
+     * @param httpClient  The client to follow the link with, see {@link #createHttpClient(int, int, int)}. A client shared
+     *                    by all resolvers is used when it is null.
+     */
+    public LinkResolver(String originalURL, CloseableHttpClient httpClient) {
         linkDetails = new LinkDetails();
         linkDetails.setOriginalURL(originalURL);
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * Creates a client for resolvers. Connections are pooled and kept alive, so following a link to a host that was
+     * just visited does not open a new connection. Redirects and cookies are left to the resolver. A request sent on a
+     * pooled connection the server has closed in the meantime is retried.
+     *
+     * @param maxConnections        connections in the pool
+     * @param maxConnectionsPerHost connections open to one host at the same time, further requests wait for one of them
+     * @param timeoutMs             milliseconds to wait to connect and for a response
+     * @return the client, to be closed once all its resolvers are done
+     */
+    public static CloseableHttpClient createHttpClient(int maxConnections, int maxConnectionsPerHost, int timeoutMs) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(timeoutMs)
+                .setSocketTimeout(timeoutMs)
+                .setRedirectsEnabled(false)
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .disableRedirectHandling()
+                .disableCookieManagement()
+                .build();
+    }
+
+    private static synchronized CloseableHttpClient getDefaultHttpClient() {
+        if (defaultHttpClient == null)
+            defaultHttpClient = createHttpClient(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_HTTP_TIMEOUT);
+        return defaultHttpClient;
     }
 
     public void run() {
 
+        start();
+
+        String url;
+        while ((url = nextURL()) != null) {
+            waitForDomain(url);
+            follow(url);
+        }
+
+        finish();
+    }
+
+    /**
+     * Starts resolving the link, {@link #run()} is made of start, then follow for each of the links returned by
+     * nextURL and finish.  Callers that follow the links themselves have to respect {@link #domainWait(String)}.
+     */
+    void start() {
         Preconditions.checkNotNull(linkDetails.getOriginalURL());
 
         linkDetails.setStartTime(DateTime.now());
+    }
+
+    /**
+     * @return the link to follow next, or null once the link is resolved
+     */
+    String nextURL() {
+        if (pendingURL != null)
+            return pendingURL;
 
         // we are going to try three times just in case we catch a slow server or one that needs
         // to be warmed up. This tends to happen many times with smaller private servers
-        for (int i = 0; (i < 3) && linkDetails.getFinalURL() == null; i++)
-            if (linkDetails.getLinkStatus() != LinkDetails.LinkStatus.SUCCESS)
-                unwindLink(linkDetails.getOriginalURL());
+        if (attempts < 3 && linkDetails.getFinalURL() == null && linkDetails.getLinkStatus() != LinkDetails.LinkStatus.SUCCESS) {
+            attempts++;
+            return linkDetails.getOriginalURL();
+        }
+        return null;
+    }
+
+    /**
+     * Be sensitive to overloading domains STREAMS-77.  Each domain is waited for the first time this resolver visits it.
+     *
+     * @return milliseconds to wait before following the link
+     */
+    long domainWait(String url) {
+        try {
+            String host = new URL(url).getHost().toLowerCase();
+            if (domainsSensitiveTo.add(host))
+                return LinkResolverHelperFunctions.waitTimeForDomain(host);
+        } catch (MalformedURLException e) {
+            // noOp, following it will mark the link malformed
+        }
+        return 0;
+    }
+
+    private void waitForDomain(String url) {
+        long domainWait = domainWait(url);
+        if (domainWait > 0) {
+            LOGGER.debug("Waiting for domain: {}", domainWait);
+            try {
+                Thread.sleep(domainWait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
+    /**
+     * Sets what is derived from the final link and the time it took
+     */
+    void finish() {
         // because this is a POJO we need to make sure that we set this to false if it was never re-directed
         if(this.linkDetails.getRedirectCount() == 0 || this.linkDetails.getRedirected() == null)
             this.linkDetails.setRedirected(false);
@@ -153,10 +273,26 @@ public class LinkResolver implements Serializable {
         linkDetails.setTookInMills(DateTime.now().minus(linkDetails.getStartTime().getMillis()).getMillis());
     }
 
+    /**
+     * Follows the link and the links it redirects to
+     */
     public void unwindLink(String url) {
+        while (url != null) {
+            waitForDomain(url);
+            follow(url);
+            url = pendingURL;
+        }
+    }
+
+    /**
+     * Requests the link once, if it redirects the link it redirects to is returned by {@link #nextURL()}
+     */
+    void follow(String url) {
         Preconditions.checkNotNull(linkDetails);
         Preconditions.checkNotNull(url);
 
+        pendingURL = null;
+
         // Check url validity
         UrlValidator urlValidator = new UrlValidator();
         if (!urlValidator.isValid(url)) {
@@ -176,7 +312,7 @@ public class LinkResolver implements Serializable {
         if (!linkDetails.getOriginalURL().equals(url))
             linkDetails.getRedirects().add(url);
 
-        HttpURLConnection connection = null;
+        CloseableHttpResponse response = null;
 
         // Store where the redirected link will go (if there is one)
         String reDirectedLink = null;
@@ -185,31 +321,14 @@ public class LinkResolver implements Serializable {
             // Turn the string into a URL
             URL thisURL = new URL(url);
 
-            // Be sensitive to overloading domains STREAMS-77
-            try {
-                String host = thisURL.getHost().toLowerCase();
-                if(!domainsSensitiveTo.contains(host)) {
-                    domainsSensitiveTo.add(host);
-                    long domainWait = LinkResolverHelperFunctions.waitTimeForDomain(thisURL.getHost());
-                    if (domainWait > 0) {
-                        LOGGER.debug("Waiting for domain: {}", domainWait);
-                        Thread.sleep(domainWait);
-                    }
-                }
-            } catch(Exception e) {
-                // noOp
-            }
-
-            connection = (HttpURLConnection) new URL(url).openConnection();
+            HttpGet request = new HttpGet(url);
 
             // now we are going to pretend that we are a browser...
             // This is the way my mac works.
             if (!BOTS_ARE_OK.contains(thisURL.getHost())) {
-                connection.addRequestProperty("Host", thisURL.getHost());
-
                 // Bots are not 'ok', so we need to spoof the headers
                 for (String k : SPOOF_HTTP_HEADERS.keySet())
-                    connection.addRequestProperty(k, SPOOF_HTTP_HEADERS.get(k));
+                    request.addHeader(k, SPOOF_HTTP_HEADERS.get(k));
 
                 // the test to seattlemamadoc.com prompted this change.
                 // they auto detect bots by checking the referrer chain and the 'user-agent'
@@ -217,34 +336,29 @@ public class LinkResolver implements Serializable {
                 // there is a list for URLS that behave this way at the top in BOTS_ARE_OK
                 // smashew 2013-13-2013
                 if (linkDetails.getRedirectCount() > 0 && BOTS_ARE_OK.contains(thisURL.getHost()))
-                    connection.addRequestProperty("Referrer", linkDetails.getOriginalURL());
+                    request.addHeader("Referrer", linkDetails.getOriginalURL());
             }
 
-            connection.setReadTimeout(DEFAULT_HTTP_TIMEOUT);
-            connection.setConnectTimeout(DEFAULT_HTTP_TIMEOUT);
-
             // we want to follow this behavior on our own to ensure that we are getting to the
             // proper place. This is especially true with links that are wounded by special
-            // link winders,
-            // IE:
-            connection.setInstanceFollowRedirects(false);
+            // link winders, the client is created with redirect handling disabled.
 
             if (linkDetails.getCookies() != null)
                 for (String cookie : linkDetails.getCookies())
-                    connection.addRequestProperty("Cookie", cookie.split(";", 1)[0]);
+                    request.addHeader("Cookie", cookie.split(";", 1)[0]);
 
-            connection.connect();
+            response = (httpClient == null ? getDefaultHttpClient() : httpClient).execute(request);
 
-            linkDetails.setFinalResponseCode((long) connection.getResponseCode());
+            linkDetails.setFinalResponseCode((long) response.getStatusLine().getStatusCode());
 
-            Map<String, List<String>> headers = createCaseInsensitiveMap(connection.getHeaderFields());
             /******************************************************************
              * If they want us to set cookies, well, then we will set cookies
              * Example URL:
              * http://nyti.ms/1bCpesx
              *****************************************************************/
-            if (headers.containsKey(SET_COOKIE_IDENTIFIER))
-                linkDetails.getCookies().add(headers.get(SET_COOKIE_IDENTIFIER).get(0));
+            Header setCookie = response.getFirstHeader(SET_COOKIE_IDENTIFIER);
+            if (setCookie != null)
+                linkDetails.getCookies().add(setCookie.getValue());
 
             switch (linkDetails.getFinalResponseCode().intValue()) {
                 /**
@@ -252,8 +366,8 @@ public class LinkResolver implements Serializable {
                  * http://www.w3.org/Protocols/rfc2616/rfc2616-sec10.html
                  */
                 case 200: // HTTP OK
-                    linkDetails.setFinalURL(connection.getURL().toString());
-                    linkDetails.setDomain(new URL(linkDetails.getFinalURL()).getHost());
+                    linkDetails.setFinalURL(url);
+                    linkDetails.setDomain(thisURL.getHost());
                     linkDetails.setLinkStatus(LinkDetails.LinkStatus.SUCCESS);
                     break;
                 case 300: // Multiple choices
@@ -279,16 +393,20 @@ public class LinkResolver implements Serializable {
                      * still render the page with it's content, but for us to assert
                      * a success, we are really hoping for a 304 message.
                      *******************************************************************/
-                    if (!linkDetails.getOriginalURL().toLowerCase().equals(connection.getURL().toString().toLowerCase()))
-                        linkDetails.setFinalURL(connection.getURL().toString());
-                    if (!headers.containsKey(LOCATION_IDENTIFIER)) {
-                        LOGGER.info("Headers: {}", headers);
+                    if (!linkDetails.getOriginalURL().toLowerCase().equals(url.toLowerCase()))
+                        linkDetails.setFinalURL(url);
+                    Header location = response.getFirstHeader(LOCATION_IDENTIFIER);
+                    if (location == null) {
+                        LOGGER.info("Headers: {}", Arrays.toString(response.getAllHeaders()));
                         linkDetails.setLinkStatus(LinkDetails.LinkStatus.REDIRECT_ERROR);
                     } else {
                         linkDetails.setRedirected(Boolean.TRUE);
                         linkDetails.setRedirectCount(linkDetails.getRedirectCount() + 1);
-                        reDirectedLink = connection.getHeaderField(LOCATION_IDENTIFIER);
+                        // the location may be relative to the link that redirected
+                        reDirectedLink = new URL(thisURL, location.getValue()).toString();
                     }
+                    // the body of a redirect is short, reading it lets the connection be reused
+                    EntityUtils.consumeQuietly(response.getEntity());
                     break;
                 case 305: // User must use the specified proxy (deprecated by W3C)
                     break;
@@ -324,25 +442,19 @@ public class LinkResolver implements Serializable {
             // there was an unknown issue we are going to set to exception.
             linkDetails.setLinkStatus(LinkDetails.LinkStatus.EXCEPTION);
         } finally {
-            // if the connection is not null, then we need to disconnect to close any underlying resources
-            if (connection != null)
-                connection.disconnect();
+            // closing the response hands the connection back to the pool, or drops it if the body was not read,
+            // so the pages links end on are not downloaded
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException e) {
+                    // noOp
+                }
+            }
         }
 
         // If there was a redirection, then we have to keep going
-        // Placing this code here should help to satisfy ensuring that the connection object
-        // is closed successfully.
-        if (reDirectedLink != null)
-            unwindLink(reDirectedLink);
-
-    }
-
-    private Map<String, List<String>> createCaseInsensitiveMap(Map<String, List<String>> input) {
-        Map<String, List<String>> toReturn = new HashMap<String, List<String>>();
-        for (String k : input.keySet())
-            if (k != null && input.get(k) != null)
-                toReturn.put(k.toLowerCase(), input.get(k));
-        return toReturn;
+        pendingURL = reDirectedLink;
     }
 
     private String cleanURL(String url) {
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.urls;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.apache.streams.jackson.StreamsJacksonMapper;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Details of resolved links by the link that was shared.  The least recently used links are evicted once the cache is
+ * full and links are resolved again once they are older than the time to live.  The cache can be saved to a file, one
+ * json document per line, and loaded by the next resolver.
+ */
+public class LinkResolverCache {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(LinkResolverCache.class);
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ObjectMapper mapper = StreamsJacksonMapper.getInstance();
+
+    private final Cache<String, LinkDetails> cache;
+    private final long ttlMs;
+
+    public LinkResolverCache(long maximumSize, long ttlMs) {
+        this.ttlMs = ttlMs;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return the details of the link, or null if it was not resolved recently
+     */
+    public LinkDetails get(String url) {
+        return cache.getIfPresent(url);
+    }
+
+    public void put(String url, LinkDetails linkDetails) {
+        cache.put(url, linkDetails);
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * Writes the cached links to a file
+     * @return the number of links written
+     */
+    public int save(File file) throws IOException {
+        int count = 0;
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8));
+        try {
+            for (Map.Entry<String, LinkDetails> entry : cache.asMap().entrySet()) {
+                writer.write(mapper.writeValueAsString(entry.getValue()));
+                writer.newLine();
+                count++;
+            }
+        } finally {
+            writer.close();
+        }
+        LOGGER.info("Saved {} links to {}", count, file);
+        return count;
+    }
+
+    /**
+     * Reads links written by {@link #save(java.io.File)}, skipping the ones that are older than the time to live
+     * @return the number of links read
+     */
+    public int load(File file) throws IOException {
+        int count = 0;
+        long oldest = DateTime.now().getMillis() - ttlMs;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                LinkDetails linkDetails;
+                try {
+                    linkDetails = mapper.readValue(line, LinkDetails.class);
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to read cached link: {}", e.getMessage());
+                    continue;
+                }
+                if (linkDetails.getOriginalURL() == null || linkDetails.getStartTime() == null || linkDetails.getStartTime().getMillis() < oldest)
+                    continue;
+                cache.put(linkDetails.getOriginalURL(), linkDetails);
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+        LOGGER.info("Loaded {} links from {}", count, file);
+        return count;
+    }
+}
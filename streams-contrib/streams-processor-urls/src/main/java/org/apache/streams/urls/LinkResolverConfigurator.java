@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.urls;
+
+import com.typesafe.config.Config;
+
+/**
+ * Reads the configuration of the link resolver, settings that are missing keep their defaults
+ */
+public class LinkResolverConfigurator {
+
+    public static LinkResolverConfiguration detectConfiguration(Config linkresolver) {
+
+        LinkResolverConfiguration linkResolverConfiguration = new LinkResolverConfiguration();
+
+        if( linkresolver.hasPath("threads"))
+            linkResolverConfiguration.setThreads(linkresolver.getLong("threads"));
+        if( linkresolver.hasPath("maxConnections"))
+            linkResolverConfiguration.setMaxConnections(linkresolver.getLong("maxConnections"));
+        if( linkresolver.hasPath("maxConnectionsPerHost"))
+            linkResolverConfiguration.setMaxConnectionsPerHost(linkresolver.getLong("maxConnectionsPerHost"));
+        if( linkresolver.hasPath("timeoutMs"))
+            linkResolverConfiguration.setTimeoutMs(linkresolver.getLong("timeoutMs"));
+        if( linkresolver.hasPath("unwindTimeoutMs"))
+            linkResolverConfiguration.setUnwindTimeoutMs(linkresolver.getLong("unwindTimeoutMs"));
+        if( linkresolver.hasPath("cacheSize"))
+            linkResolverConfiguration.setCacheSize(linkresolver.getLong("cacheSize"));
+        if( linkresolver.hasPath("cacheTtlMs"))
+            linkResolverConfiguration.setCacheTtlMs(linkresolver.getLong("cacheTtlMs"));
+        if( linkresolver.hasPath("cacheFile"))
+            linkResolverConfiguration.setCacheFile(linkresolver.getString("cacheFile"));
+
+        return linkResolverConfiguration;
+    }
+
+}
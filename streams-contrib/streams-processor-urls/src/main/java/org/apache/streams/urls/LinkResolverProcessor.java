@@ -20,6 +20,8 @@ package org.apache.streams.urls;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.streams.config.StreamsConfigurator;
 import org.apache.streams.jackson.StreamsJacksonMapper;
 import org.apache.streams.core.StreamsDatum;
 import org.apache.streams.core.StreamsProcessor;
@@ -28,6 +30,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class LinkResolverProcessor implements StreamsProcessor {
 
@@ -35,6 +40,20 @@ public class LinkResolverProcessor implements StreamsProcessor {
     private static final Logger LOGGER = LoggerFactory.getLogger(LinkResolverProcessor.class);
     private static ObjectMapper mapper = StreamsJacksonMapper.getInstance();
 
+    private LinkResolverConfiguration config;
+    private transient AsyncLinkResolver resolver;
+
+    public LinkResolverProcessor() {
+    }
+
+    public LinkResolverProcessor(LinkResolverConfiguration config) {
+        this.config = config;
+    }
+
+    public AsyncLinkResolver getResolver() {
+        return resolver;
+    }
+
     @Override
     public List<StreamsDatum> process(StreamsDatum entry) {
 
@@ -60,8 +79,7 @@ public class LinkResolverProcessor implements StreamsProcessor {
             try {
                 activity = mapper.readValue((String) entry.getDocument(), Activity.class);
             } catch (Exception e) {
-                e.printStackTrace();
-                LOGGER.warn(e.getMessage());
+                LOGGER.warn("Unable to read an Activity from {}", entry.getId(), e);
                 return (Lists.newArrayList(entry));
             }
 
@@ -70,8 +88,7 @@ public class LinkResolverProcessor implements StreamsProcessor {
             try {
                 entry.setDocument(mapper.writeValueAsString(activity));
             } catch (Exception e) {
-                e.printStackTrace();
-                LOGGER.warn(e.getMessage());
+                LOGGER.warn("Unable to write the Activity of {}", entry.getId(), e);
                 return (Lists.newArrayList());
             }
 
@@ -87,27 +104,55 @@ public class LinkResolverProcessor implements StreamsProcessor {
 
     @Override
     public void prepare(Object o) {
-        // noOp
+        if (this.config == null)
+            this.config = StreamsConfigurator.config.hasPath("linkresolver") ?
+                    LinkResolverConfigurator.detectConfiguration(StreamsConfigurator.config.getConfig("linkresolver")) :
+                    new LinkResolverConfiguration();
+        if (this.resolver == null)
+            this.resolver = AsyncLinkResolver.acquire(this.config);
     }
 
     @Override
     public void cleanUp() {
-        // noOp
+        if (this.resolver != null)
+            AsyncLinkResolver.release(this.resolver);
+        this.resolver = null;
     }
 
 
+    /**
+     * Resolves the links in parallel, waiting as long as following every redirect a link may have could take, but no
+     * longer than unwindTimeoutMs.  Links that could not be resolved by then are dropped from the document, they are
+     * still cached once they are resolved.
+     */
     protected Set<String> unwind(List<String> inputLinks) {
         Set<String> outputLinks = new HashSet<String>();
-        for (String link : inputLinks) {
+        if (inputLinks == null || inputLinks.isEmpty())
+            return outputLinks;
+        if (resolver == null)
+            prepare(null);
+
+        Map<String, ListenableFuture<LinkDetails>> resolutions = new LinkedHashMap<String, ListenableFuture<LinkDetails>>();
+        for (String link : inputLinks)
+            if (!resolutions.containsKey(link))
+                resolutions.put(link, resolver.resolve(link));
+
+        long deadline = System.currentTimeMillis() + Math.min(config.getTimeoutMs() * LinkResolver.MAX_ALLOWED_REDIRECTS, config.getUnwindTimeoutMs());
+        for (Map.Entry<String, ListenableFuture<LinkDetails>> resolution : resolutions.entrySet()) {
             try {
-                LinkResolver unwinder = new LinkResolver(link);
-                unwinder.run();
-                outputLinks.add(unwinder.getLinkDetails().getFinalURL());
-            } catch (Exception e) {
-                //if unwindable drop
-                LOGGER.debug("Failed to unwind link : {}", link);
-                LOGGER.debug("Exception unwinding link : {}", e);
-                e.printStackTrace();
+                LinkDetails linkDetails = resolution.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (linkDetails != null && linkDetails.getFinalURL() != null)
+                    outputLinks.add(linkDetails.getFinalURL());
+                else
+                    LOGGER.debug("Failed to unwind link : {}", resolution.getKey());
+            } catch (InterruptedException e) {
+                LOGGER.warn("Interrupted unwinding links : {}", inputLinks);
+                Thread.currentThread().interrupt();
+                break;
+            } catch (TimeoutException e) {
+                LOGGER.debug("Timed out unwinding link : {}", resolution.getKey());
+            } catch (ExecutionException e) {
+                LOGGER.debug("Failed to unwind link : {}", resolution.getKey(), e.getCause());
             }
         }
         return outputLinks;
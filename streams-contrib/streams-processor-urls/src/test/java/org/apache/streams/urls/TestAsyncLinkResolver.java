@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.urls;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.pojo.json.Activity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Resolves links against a local server: /short/n redirects to /long/n, which is found after delayMs
+ */
+public class TestAsyncLinkResolver {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private int port;
+    private volatile long delayMs = 0;
+    private final ConcurrentMap<String, AtomicInteger> hits = Maps.newConcurrentMap();
+
+    @Before
+    public void startServer() throws IOException {
+        LinkResolverHelperFunctions.purgeAllDomainWaitTimes();
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                hits.putIfAbsent(path, new AtomicInteger());
+                hits.get(path).incrementAndGet();
+                if (path.startsWith("/short/")) {
+                    exchange.getResponseHeaders().add("Location", path.replace("/short/", "/long/"));
+                    exchange.sendResponseHeaders(301, -1);
+                } else if (path.startsWith("/long/")) {
+                    try {
+                        Thread.sleep(delayMs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    byte[] body = "<html></html>".getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } else {
+                    exchange.sendResponseHeaders(404, -1);
+                }
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        port = server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private String url(int host, String path) {
+        return "http://127.0.0." + host + ":" + port + path;
+    }
+
+    private int hits(String path) {
+        AtomicInteger count = hits.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    @Test
+    public void testFollowsRedirects() throws Exception {
+        AsyncLinkResolver resolver = new AsyncLinkResolver(new LinkResolverConfiguration());
+
+        LinkDetails linkDetails = resolver.resolve(url(1, "/short/a")).get();
+        assertEquals(LinkDetails.LinkStatus.SUCCESS, linkDetails.getLinkStatus());
+        assertEquals(url(1, "/long/a"), linkDetails.getFinalURL());
+        assertEquals(Long.valueOf(1), linkDetails.getRedirectCount());
+
+        assertEquals(LinkDetails.LinkStatus.NOT_FOUND, resolver.resolve(url(1, "/missing")).get().getLinkStatus());
+        resolver.close();
+    }
+
+    @Test
+    public void testCachesResolvedLinks() throws Exception {
+        AsyncLinkResolver resolver = new AsyncLinkResolver(new LinkResolverConfiguration());
+
+        for (int i = 0; i < 5; i++)
+            assertEquals(url(1, "/long/b"), resolver.resolve(url(1, "/short/b")).get().getFinalURL());
+
+        assertEquals(1, hits("/short/b"));
+        assertEquals(4, resolver.getCacheHits());
+        assertEquals(1, resolver.getTotalResolved());
+        assertTrue(resolver.getCacheHitRate() > 0.7);
+        resolver.close();
+    }
+
+    @Test
+    public void testResolvesLinksOfADocumentInParallel() throws Exception {
+        delayMs = 500;
+        LinkResolverProcessor processor = new LinkResolverProcessor(new LinkResolverConfiguration());
+        processor.prepare(null);
+
+        List<String> links = Lists.newArrayList();
+        for (int host = 1; host <= 4; host++)
+            links.add(url(host, "/short/" + host));
+        Activity activity = new Activity();
+        activity.setLinks(links);
+
+        long start = System.currentTimeMillis();
+        List<StreamsDatum> result = processor.process(new StreamsDatum(activity));
+        long took = System.currentTimeMillis() - start;
+
+        Activity resolved = (Activity) result.get(0).getDocument();
+        assertEquals(Sets.newHashSet(url(1, "/long/1"), url(2, "/long/2"), url(3, "/long/3"), url(4, "/long/4")),
+                Sets.newHashSet(resolved.getLinks()));
+        // one after the other it would take 2000ms
+        assertTrue("took " + took + "ms", took < 1500);
+        processor.cleanUp();
+    }
+
+    @Test
+    public void testBusyDomainDoesNotHoldUpOthers() throws Exception {
+        LinkResolverConfiguration config = new LinkResolverConfiguration();
+        config.setThreads(1L);
+        AsyncLinkResolver resolver = new AsyncLinkResolver(config);
+
+        long start = System.currentTimeMillis();
+        List<ListenableFuture<LinkDetails>> busy = Lists.newArrayList();
+        for (String path : new String[] {"/short/d1", "/short/d2", "/short/d3"})
+            busy.add(resolver.resolve(url(1, path)));
+        LinkDetails other = resolver.resolve(url(2, "/short/e")).get();
+        long otherTook = System.currentTimeMillis() - start;
+
+        assertEquals(url(2, "/long/e"), other.getFinalURL());
+        // the only thread is not held by the links waiting for their turn on the first domain
+        assertTrue("took " + otherTook + "ms", otherTook < LinkResolverHelperFunctions.RECENT_DOMAINS_BACKOFF);
+        assertEquals(2, resolver.getTotalParked());
+
+        assertEquals(url(1, "/long/d3"), busy.get(2).get().getFinalURL());
+        long busyTook = System.currentTimeMillis() - start;
+        assertTrue("took " + busyTook + "ms", busyTook >= LinkResolverHelperFunctions.RECENT_DOMAINS_BACKOFF * 2);
+        resolver.close();
+    }
+
+    @Test
+    public void testCacheIsSavedAndLoaded() throws Exception {
+        LinkResolverConfiguration config = new LinkResolverConfiguration();
+        config.setCacheFile(folder.newFile("links.json").getAbsolutePath());
+
+        AsyncLinkResolver resolver = new AsyncLinkResolver(config);
+        resolver.resolve(url(1, "/short/c")).get();
+        resolver.close();
+
+        resolver = new AsyncLinkResolver(config);
+        assertEquals(1, resolver.getCacheSize());
+        assertEquals(url(1, "/long/c"), resolver.resolve(url(1, "/short/c")).get().getFinalURL());
+        assertEquals(1, hits("/short/c"));
+        resolver.close();
+    }
+
+    @Test
+    public void testCopiesOfAProcessorShareOneResolver() throws Exception {
+        LinkResolverConfiguration config = new LinkResolverConfiguration();
+        config.setCacheFile(folder.newFile("shared.json").getAbsolutePath());
+        LinkResolverProcessor processor = new LinkResolverProcessor(config);
+        LinkResolverProcessor copy = SerializationUtils.clone(processor);
+        processor.prepare(null);
+        copy.prepare(null);
+        assertSame(processor.getResolver(), copy.getResolver());
+
+        processor.process(new StreamsDatum(activity(url(1, "/short/f1"))));
+        copy.process(new StreamsDatum(activity(url(1, "/short/f1"))));
+        assertEquals(1, hits("/short/f1"));
+
+        // the resolver is kept until the last copy is cleaned up
+        AsyncLinkResolver shared = copy.getResolver();
+        processor.cleanUp();
+        copy.process(new StreamsDatum(activity(url(1, "/short/f2"))));
+        copy.cleanUp();
+
+        AsyncLinkResolver resolver = AsyncLinkResolver.acquire(config);
+        assertNotSame(shared, resolver);
+        // the cache was saved once, with the links of both copies
+        assertEquals(2, resolver.getCacheSize());
+        AsyncLinkResolver.release(resolver);
+    }
+
+    private static Activity activity(String link) {
+        Activity activity = new Activity();
+        activity.setLinks(Lists.newArrayList(link));
+        return activity;
+    }
+}
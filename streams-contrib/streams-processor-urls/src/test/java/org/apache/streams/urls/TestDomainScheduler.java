@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.urls;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reserves domains from many threads at once, on a clock the test moves forward
+ */
+public class TestDomainScheduler {
+
+    private static final int THREADS = 8;
+    private static final long BACKOFF = 100;
+
+    private final AtomicLong clock = new AtomicLong(1000);
+    private ExecutorService executor;
+    private DomainScheduler scheduler;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(THREADS);
+        scheduler = new DomainScheduler(BACKOFF, 0) {
+            @Override
+            long now() {
+                return clock.get();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Reserves the domain from every thread at the same time
+     * @return what each thread was told to wait
+     */
+    private long[] reserveAtOnce(final String domain) throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<Future<Long>> reservations = new ArrayList<Future<Long>>();
+        for (int i = 0; i < THREADS; i++)
+            reservations.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    start.await();
+                    return scheduler.reserve(domain);
+                }
+            }));
+        long[] waits = new long[THREADS];
+        for (int i = 0; i < THREADS; i++)
+            waits[i] = reservations.get(i).get();
+        return waits;
+    }
+
+    @Test
+    public void testOneCallerGoesAtATime() throws Exception {
+        long[] waits = reserveAtOnce("example.com");
+
+        int immediate = 0;
+        for (long wait : waits)
+            if (wait == 0)
+                immediate++;
+            else
+                assertTrue(wait > BACKOFF);
+        assertEquals(1, immediate);
+    }
+
+    @Test
+    public void testPurgeNeverLosesAReservation() throws Exception {
+        // every round the domain is free and due to be purged, so a purge races the reservations
+        for (int round = 0; round < 2000; round++) {
+            clock.addAndGet(BACKOFF * (THREADS + 2));
+            int immediate = 0;
+            for (long wait : reserveAtOnce("example.com"))
+                if (wait == 0)
+                    immediate++;
+            assertEquals("round " + round, 1, immediate);
+        }
+    }
+
+    @Test
+    public void testExpiredDomainsArePurged() throws Exception {
+        for (int i = 0; i < 100; i++)
+            reserveAtOnce("domain" + i + ".com");
+        assertEquals(100, scheduler.size());
+
+        clock.addAndGet(BACKOFF * (THREADS + 2));
+        scheduler.purgeExpired();
+        assertEquals(0, scheduler.size());
+
+        // a purged domain is reserved again as if it was never seen
+        assertEquals(0, scheduler.reserve("domain0.com"));
+        assertEquals(1, scheduler.size());
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.core;
+
+import java.util.List;
+
+/**
+ * A {@link org.apache.streams.core.StreamsPersistWriter} that can persist many {@link org.apache.streams.core.StreamsDatum}s
+ * in a single call, typically as one round trip to the underlying data store.  Runtimes that support batching hand
+ * over whatever they have drained from the inbound queue, up to their configured batch size; other runtimes keep
+ * calling {@link #write(StreamsDatum)}.
+ */
+public interface BatchStreamsPersistWriter extends StreamsPersistWriter {
+
+    /**
+     * Persist a batch of StreamsDatums to the corresponding data store.  The list is owned by the runtime and may be
+     * reused once this method returns, so implementations must not hold on to it.
+     * @param entries to be stored, never empty
+     */
+    public void write( List<StreamsDatum> entries );
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.core;
+
+import java.util.List;
+
+/**
+ * A {@link org.apache.streams.core.StreamsProcessor} that can process many {@link org.apache.streams.core.StreamsDatum}s
+ * in a single call.  Runtimes that support batching hand over whatever they have drained from the inbound queue, up to
+ * their configured batch size; other runtimes keep calling {@link #process(StreamsDatum)}.
+ *
+ * If {@link #process(java.util.List)} throws, nothing it returned is emitted and the runtime processes the same datums
+ * again, one at a time through {@link #process(StreamsDatum)}, failing only those that fail on their own.  A batch
+ * call must therefore be safe to repeat: it should throw before changing the datums or making side effects, or make
+ * them idempotent.
+ */
+public interface BatchStreamsProcessor extends StreamsProcessor {
+
+    /**
+     * Process/Analyze a batch of {@link org.apache.streams.core.StreamsDatum}s and return the StreamsDatums that will
+     * be passed to every down stream operation that reads from this processor.  The list is owned by the runtime and
+     * may be reused once this method returns, so implementations must not hold on to it.
+     * @param entries StreamsDatums to be processed, never empty
+     * @return resulting StreamDatums from process. Should never be null or contain null object.  Empty list OK.
+     * @throws RuntimeException if the batch could not be processed, the datums are then retried one at a time
+     */
+    public List<StreamsDatum> process( List<StreamsDatum> entries );
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.core;
+
+/**
+ * A {@link org.apache.streams.core.StreamsProvider} that can be told how much data the stream is ready to take.
+ * Runtimes that apply backpressure pass the room left downstream, so a stalled stream stops the provider from reading
+ * its source instead of the data piling up in the provider.  Other runtimes keep calling {@link #readCurrent()}.
+ * <p/>
+ * The local runtime only applies credits to perpetual streams, which read the provider over and over.  A read current
+ * stream reads the provider once, through {@link #readCurrent()}, and blocks on the bounded queues while it hands the
+ * result over.
+ */
+public interface BoundedStreamsProvider extends StreamsProvider {
+
+    /**
+     * Read at most maxItems of the items currently available from the provider.  Items beyond that should stay with
+     * the source, and any buffer between the source and this method should be bounded, so that a provider asked for
+     * nothing stops consuming from the source.
+     * @param maxItems the most items the stream can take, always greater than 0
+     * @return a non-null {@link org.apache.streams.core.StreamsResultSet} with no more than maxItems items
+     */
+    StreamsResultSet readCurrent(int maxItems);
+
+}
@@ -18,6 +18,7 @@
 
 package org.apache.streams.core;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.apache.streams.pojo.json.Activity;
 import org.joda.time.DateTime;
 
@@ -28,9 +29,23 @@ import java.util.Map;
 
 /**
  * Created by sblackmon on 1/2/14.
+ *
+ * Every datum gets its own metadata map, but an empty {@link java.util.HashMap} only allocates its table once the
+ * first entry is put, so datums without metadata stay small.  {@link #getTimestampMillis()} and
+ * {@link #getSequenceidLong()} read the timestamp and sequence id without allocating.
  */
 public class StreamsDatum implements Serializable {
 
+    /**
+     * Returned by {@link #getTimestampMillis()} when the datum has no timestamp
+     */
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    /**
+     * Returned by {@link #getSequenceidLong()} when the datum has no sequence id, or one that does not fit in a long
+     */
+    public static final long NO_SEQUENCE = Long.MIN_VALUE;
+
     public StreamsDatum(Object document) {
         this(document, null, null, null);
     }
@@ -67,6 +82,17 @@ public class StreamsDatum implements Serializable {
         this.metadata = new HashMap<String, Object>();
     }
 
+    /**
+     * Creates a datum from an epoch milliseconds timestamp and a long sequence id.
+     * @param document document
+     * @param id id, may be null
+     * @param timestampMillis epoch milliseconds, or {@link #NO_TIMESTAMP}
+     * @param sequenceid sequence id, or {@link #NO_SEQUENCE}
+     */
+    public StreamsDatum(Object document, String id, long timestampMillis, long sequenceid) {
+        this(document, id, toDateTime(timestampMillis), toBigInteger(sequenceid));
+    }
+
     public DateTime timestamp;
 
     public BigInteger sequenceid;
@@ -85,6 +111,24 @@ public class StreamsDatum implements Serializable {
         this.timestamp = timestamp;
     }
 
+    /**
+     * The timestamp in epoch milliseconds
+     * @return timestamp, or {@link #NO_TIMESTAMP} if there is none
+     */
+    @JsonIgnore
+    public long getTimestampMillis() {
+        return this.timestamp != null ? this.timestamp.getMillis() : NO_TIMESTAMP;
+    }
+
+    /**
+     * Sets the timestamp in epoch milliseconds, {@link #getTimestamp()} will be in the default time zone
+     * @param timestampMillis epoch milliseconds, or {@link #NO_TIMESTAMP} to clear the timestamp
+     */
+    @JsonIgnore
+    public void setTimestampMillis(long timestampMillis) {
+        this.timestamp = toDateTime(timestampMillis);
+    }
+
     public BigInteger getSequenceid() {
         return sequenceid;
     }
@@ -93,6 +137,27 @@ public class StreamsDatum implements Serializable {
         this.sequenceid = sequenceid;
     }
 
+    /**
+     * The sequence id as a long
+     * @return sequence id, or {@link #NO_SEQUENCE} if there is none or it does not fit in a long
+     */
+    @JsonIgnore
+    public long getSequenceidLong() {
+        if(this.sequenceid == null) {
+            return NO_SEQUENCE;
+        }
+        return this.sequenceid.bitLength() < 64 ? this.sequenceid.longValue() : NO_SEQUENCE;
+    }
+
+    /**
+     * Sets the sequence id from a long
+     * @param sequenceid sequence id, or {@link #NO_SEQUENCE} to clear the sequence id
+     */
+    @JsonIgnore
+    public void setSequenceidLong(long sequenceid) {
+        this.sequenceid = toBigInteger(sequenceid);
+    }
+
     public Map<String, Object> getMetadata() {
         return metadata;
     }
@@ -101,6 +166,15 @@ public class StreamsDatum implements Serializable {
         this.metadata = metadata;
     }
 
+    /**
+     * Returns true if this datum has any metadata
+     * @return true if there is metadata
+     */
+    @JsonIgnore
+    public boolean hasMetadata() {
+        return this.metadata != null && !this.metadata.isEmpty();
+    }
+
     public Object getDocument() {
         return document;
     }
@@ -143,4 +217,12 @@ public class StreamsDatum implements Serializable {
         return this.id+"\tDocument="+this.document+"\ttimestamp="+this.timestamp+"\tsequence="+this.sequenceid;
     }
 
+    private static DateTime toDateTime(long timestampMillis) {
+        return timestampMillis == NO_TIMESTAMP ? null : new DateTime(timestampMillis);
+    }
+
+    private static BigInteger toBigInteger(long sequenceid) {
+        return sequenceid == NO_SEQUENCE ? null : BigInteger.valueOf(sequenceid);
+    }
+
 }
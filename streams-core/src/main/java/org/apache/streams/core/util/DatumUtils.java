@@ -43,11 +43,13 @@ public class DatumUtils {
      */
     @SuppressWarnings("all")
     public static void addErrorToMetadata(StreamsDatum datum, Throwable e, Class<? extends StreamsOperation> operationClass) {
-        if(!datum.getMetadata().containsKey("errors")) {
-            datum.getMetadata().put("errors", Maps.<String, Throwable>newHashMap());
+        // replace rather than update the errors map, it may be shared with datums on other branches of the stream
+        Map<String, Throwable> errors = Maps.newHashMap();
+        if(datum.getMetadata().containsKey("errors")) {
+            errors.putAll((Map) datum.getMetadata().get("errors"));
         }
-        Map<String, Throwable> errors = (Map)datum.getMetadata().get("errors");
         errors.put(operationClass.getCanonicalName(), e);
+        datum.getMetadata().put("errors", errors);
     }
 
     public static StreamsDatum cloneDatum(StreamsDatum datum) {
@@ -55,7 +57,7 @@ public class DatumUtils {
         clone.setId(datum.getId() == null ? null : new String(datum.getId()));
         clone.setTimestamp(datum.getTimestamp() == null ? null : new DateTime(datum.getTimestamp()));
         clone.setSequenceid(datum.getSequenceid() == null ? null : datum.getSequenceid());
-        clone.setMetadata(datum.getMetadata() == null ? null : new HashMap<>(datum.getMetadata()));
+        clone.setMetadata(datum.hasMetadata() ? new HashMap<>(datum.getMetadata()) : null);
         return clone;
     }
 }
@@ -3,12 +3,10 @@ package org.apache.streams.dropwizard;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Splitter;
-import com.google.common.collect.Queues;
+import org.apache.streams.core.BoundedStreamsProvider;
 import org.apache.streams.core.StreamsDatum;
-import org.apache.streams.core.StreamsProvider;
 import org.apache.streams.core.StreamsResultSet;
 import org.apache.streams.jackson.StreamsJacksonMapper;
-import org.apache.streams.util.ComponentUtils;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,9 +21,12 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.math.BigInteger;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
@@ -40,7 +41,7 @@ import java.util.regex.Pattern;
 @Path("/streams/webhooks")
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
-public class GenericWebhookResource implements StreamsProvider {
+public class GenericWebhookResource implements BoundedStreamsProvider {
 
     public GenericWebhookResource() {
     }
@@ -50,8 +51,24 @@ public class GenericWebhookResource implements StreamsProvider {
 
     private static ObjectMapper mapper = StreamsJacksonMapper.getInstance();
 
-    protected Queue<StreamsDatum> providerQueue = new ConcurrentLinkedQueue<>();
+    /**
+     * Posted data waiting for the stream.  Once the queue is full, requests wait up to {@link #OFFER_TIMEOUT_MS} for
+     * the stream to catch up and are answered with 503 Service Unavailable if it does not, instead of the data piling
+     * up in memory.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
 
+    /**
+     * How long a request waits for room on a full queue, per posted item
+     */
+    public static final long OFFER_TIMEOUT_MS = 1000;
+
+    protected Queue<StreamsDatum> providerQueue = new LinkedBlockingQueue<>(DEFAULT_QUEUE_CAPACITY);
+
+    /**
+     * No longer taken, the queue is thread safe and requests must not hold a lock while they wait for room on it.
+     */
+    @Deprecated
     protected final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     private static Pattern newLinePattern = Pattern.compile("(\\r\\n?|\\n)", Pattern.MULTILINE);
@@ -69,15 +86,17 @@ public class GenericWebhookResource implements StreamsProvider {
 
             StreamsDatum datum = new StreamsDatum(body);
 
-            lock.writeLock().lock();
-            ComponentUtils.offerUntilSuccess(datum, providerQueue);
-            lock.writeLock().unlock();
-
-            Boolean success = true;
+            Boolean success = enqueue(datum);
 
             response.put("success", success);
 
-            responseCode = Response.Status.OK.getStatusCode();
+            responseCode = success ? Response.Status.OK.getStatusCode() : Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
+
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+
+            response.put("success", false);
+            responseCode = Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
 
         } catch (Exception e) {
             log.warn(e.toString(), e);
@@ -112,21 +131,31 @@ public class GenericWebhookResource implements StreamsProvider {
 
         try {
 
+            Boolean success = true;
+            int accepted = 0;
+
             for( String line : Splitter.on(newLinePattern).split(body)) {
                 ObjectNode item = mapper.readValue(line, ObjectNode.class);
 
                 StreamsDatum datum = new StreamsDatum(item);
 
-                lock.writeLock().lock();
-                ComponentUtils.offerUntilSuccess(datum, providerQueue);
-                lock.writeLock().unlock();
+                if(!enqueue(datum)) {
+                    success = false;
+                    break;
+                }
+                ++accepted;
 
             }
 
-            Boolean success = true;
-
             response.put("success", success);
-            responseCode = Response.Status.OK.getStatusCode();
+            response.put("accepted", accepted);
+            responseCode = success ? Response.Status.OK.getStatusCode() : Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
+
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+
+            response.put("success", false);
+            responseCode = Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
 
         } catch (Exception e) {
             log.warn(e.toString(), e);
@@ -165,19 +194,29 @@ public class GenericWebhookResource implements StreamsProvider {
 
             GenericWebhookData objectWrapper = mapper.readValue(body, GenericWebhookData.class);
 
+            Boolean success = true;
+            int accepted = 0;
+
             for( ObjectNode item : objectWrapper.getData()) {
 
                 StreamsDatum datum = new StreamsDatum(item);
 
-                lock.writeLock().lock();
-                ComponentUtils.offerUntilSuccess(datum, providerQueue);
-                lock.writeLock().unlock();
+                if(!enqueue(datum)) {
+                    success = false;
+                    break;
+                }
+                ++accepted;
             }
 
-            Boolean success = true;
-
             response.put("success", success);
-            responseCode = Response.Status.OK.getStatusCode();
+            response.put("accepted", accepted);
+            responseCode = success ? Response.Status.OK.getStatusCode() : Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
+
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+
+            response.put("success", false);
+            responseCode = Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
 
         } catch (Exception e) {
             log.warn(e.toString(), e);
@@ -192,6 +231,19 @@ public class GenericWebhookResource implements StreamsProvider {
 
     }
 
+    /**
+     * Adds the datum to the queue, waiting up to {@link #OFFER_TIMEOUT_MS} for room.
+     * @param datum posted datum
+     * @return false if the queue stayed full
+     * @throws InterruptedException
+     */
+    protected boolean enqueue(StreamsDatum datum) throws InterruptedException {
+        if(providerQueue instanceof BlockingQueue) {
+            return ((BlockingQueue<StreamsDatum>) providerQueue).offer(datum, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        return providerQueue.offer(datum);
+    }
+
     @Override
     public void startStream() {
         return;
@@ -199,15 +251,22 @@ public class GenericWebhookResource implements StreamsProvider {
 
     @Override
     public StreamsResultSet readCurrent() {
+        return readCurrent(Integer.MAX_VALUE);
+    }
 
-        StreamsResultSet current;
+    /**
+     * Drains whatever is queued, up to maxItems.
+     */
+    @Override
+    public StreamsResultSet readCurrent(int maxItems) {
 
-        lock.writeLock().lock();
-        current = new StreamsResultSet(Queues.newConcurrentLinkedQueue(providerQueue));
-        providerQueue.clear();
-        lock.writeLock().unlock();
+        Queue<StreamsDatum> current = new LinkedList<>();
+        StreamsDatum datum;
+        while( current.size() < maxItems && (datum = providerQueue.poll()) != null ) {
+            current.add(datum);
+        }
 
-        return current;
+        return new StreamsResultSet(current);
 
     }
 
@@ -25,6 +25,7 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.xml.ws.Response;
 
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import static org.mockito.Mockito.*;
 
@@ -78,5 +79,19 @@ public class GenericWebhookResourceTest {
 
     };
 
+    @Test
+    public void testPostToFullQueue() {
+        GenericWebhookResource fullResource = new GenericWebhookResource() {
+            {
+                providerQueue = new LinkedBlockingQueue<>(1);
+            }
+        };
+        Assert.assertEquals(200, fullResource.json(null, "{\"valid\":\"true\"}").getStatus());
+        Assert.assertEquals(503, fullResource.json(null, "{\"valid\":\"true\"}").getStatus());
+        Assert.assertEquals(503, fullResource.json_new_line(null, "{\"valid\":\"true\"}").getStatus());
+        Assert.assertEquals(1, fullResource.readCurrent(10).size());
+        Assert.assertEquals(200, fullResource.json_new_line(null, "{\"valid\":\"true\"}").getStatus());
+    };
+
 
 }
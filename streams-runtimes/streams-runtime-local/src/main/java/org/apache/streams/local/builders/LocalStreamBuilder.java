@@ -20,19 +20,34 @@ package org.apache.streams.local.builders;
 
 import org.apache.streams.core.*;
 import org.apache.streams.local.counters.StreamsTaskCounter;
+import org.apache.streams.local.executors.ForkJoinTaskScheduler;
 import org.apache.streams.local.executors.ShutdownStreamOnUnhandleThrowableThreadPoolExecutor;
+import org.apache.streams.local.queues.EndOfStreamLatch;
+import org.apache.streams.local.queues.RingBufferThroughputQueue;
+import org.apache.streams.local.queues.SignallingBlockingQueue;
 import org.apache.streams.local.queues.ThroughputQueue;
 import org.apache.streams.local.tasks.*;
 import org.apache.streams.monitoring.tasks.BroadcastMonitorThread;
+import com.google.common.base.Joiner;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * {@link org.apache.streams.local.builders.LocalStreamBuilder} implementation to run a data processing stream in a single
@@ -43,6 +58,7 @@ public class LocalStreamBuilder implements StreamBuilder {
 
     private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(LocalStreamBuilder.class);
     private static final int DEFAULT_QUEUE_SIZE = 500;
+    private static final long AWAIT_POLL_TIME_MS = 500;
 
     public static final String TIMEOUT_KEY = "TIMEOUT";
     public static final String BROADCAST_KEY = "broadcastURI";
@@ -50,6 +66,20 @@ public class LocalStreamBuilder implements StreamBuilder {
     public static final String BROADCAST_INTERVAL_KEY = "monitoring_broadcast_interval_ms";
     public static final String DEFAULT_STREAM_IDENTIFIER = "Unknown_Stream";
     public static final String DEFAULT_STARTED_AT_KEY = "startedAt";
+    public static final String QUEUE_TYPE_KEY = "queueType";
+    public static final String LINKED_QUEUE_TYPE = "linked";
+    public static final String RING_BUFFER_QUEUE_TYPE = "ringbuffer";
+    public static final String BATCH_SIZE_KEY = "batchSize";
+    public static final String BATCH_TIMEOUT_KEY = "batchTimeoutMs";
+    public static final String FAN_OUT_MODE_KEY = "fanOutMode";
+    public static final String EXECUTOR_TYPE_KEY = "executorType";
+    public static final String THREAD_PER_TASK_EXECUTOR_TYPE = "threadPerTask";
+    public static final String FORK_JOIN_EXECUTOR_TYPE = "forkJoin";
+    public static final String PARALLELISM_KEY = "parallelism";
+    public static final String AUTOSCALE_INTERVAL_KEY = "autoscaleIntervalMs";
+    public static final String AUTOSCALE_MAX_WAIT_KEY = "autoscaleMaxWaitMs";
+    public static final String FUSE_PROCESSORS_KEY = "fuseProcessors";
+    public static final String FUSED_ID_SEPARATOR = "+";
 
     private Map<String, StreamComponent> providers;
     private Map<String, StreamComponent> components;
@@ -57,9 +87,11 @@ public class LocalStreamBuilder implements StreamBuilder {
     private Map<StreamsTask, Future> futures;
     private ExecutorService executor;
     private ExecutorService monitor;
+    private ForkJoinTaskScheduler scheduler;
     private int totalTasks;
     private int monitorTasks;
     private LocalStreamProcessMonitorThread monitorThread;
+    private StreamComponentAutoscaler autoscaler;
     private Map<String, List<StreamsTask>> tasks;
     private Thread shutdownHook;
     private BroadcastMonitorThread broadcastMonitor;
@@ -121,7 +153,7 @@ public class LocalStreamBuilder implements StreamBuilder {
         this.useDeprecatedMonitors = false;
         this.broadcastMonitor = new BroadcastMonitorThread(this.streamConfig);
 
-        this.futures = new HashMap<>();
+        this.futures = new ConcurrentHashMap<>();
     }
 
     public void setUseDeprecatedMonitors(boolean useDeprecatedMonitors) {
@@ -171,7 +203,7 @@ public class LocalStreamBuilder implements StreamBuilder {
     @Override
     public StreamBuilder addStreamsProcessor(String id, StreamsProcessor processor, int numTasks, String... inBoundIds) {
         validateId(id);
-        StreamComponent comp = new StreamComponent(id, processor, new ThroughputQueue<StreamsDatum>(this.maxQueueCapacity, id, streamIdentifier, startedAt.getMillis()), numTasks, streamConfig);
+        StreamComponent comp = new StreamComponent(id, processor, createInBoundQueue(id), numTasks, streamConfig);
         this.components.put(id, comp);
         connectToOtherComponents(inBoundIds, comp);
         this.totalTasks += numTasks;
@@ -183,7 +215,7 @@ public class LocalStreamBuilder implements StreamBuilder {
     @Override
     public StreamBuilder addStreamsPersistWriter(String id, StreamsPersistWriter writer, int numTasks, String... inBoundIds) {
         validateId(id);
-        StreamComponent comp = new StreamComponent(id, writer, new ThroughputQueue<StreamsDatum>(this.maxQueueCapacity, id, streamIdentifier, startedAt.getMillis()), numTasks, streamConfig);
+        StreamComponent comp = new StreamComponent(id, writer, createInBoundQueue(id), numTasks, streamConfig);
         this.components.put(id, comp);
         connectToOtherComponents(inBoundIds, comp);
         this.totalTasks += numTasks;
@@ -192,14 +224,59 @@ public class LocalStreamBuilder implements StreamBuilder {
         return this;
     }
 
+    /**
+     * Sets how the component with the given id hands datums to more than one downstream component, overriding
+     * {@link #FAN_OUT_MODE_KEY} for that component.
+     * @param id id of a provider or processor already added to the stream
+     * @param fanOutMode fan out mode
+     * @return this builder
+     */
+    public LocalStreamBuilder setFanOutMode(String id, FanOutMode fanOutMode) {
+        StreamComponent comp = this.providers.containsKey(id) ? this.providers.get(id) : this.components.get(id);
+        if(comp == null) {
+            throw new InvalidStreamException("Cannot set fan out mode of id, "+id+", because id does not exist.");
+        }
+        comp.setFanOutMode(fanOutMode);
+        return this;
+    }
+
+    /**
+     * Lets the number of tasks of the processor or writer with the given id change while the stream runs.  The
+     * {@link org.apache.streams.local.builders.StreamComponentAutoscaler} adds tasks while the component's inbound
+     * queue backs up and removes them again when it drains, staying within the given bounds.  The number of tasks
+     * the component was added with is the number it starts with.
+     * @param id id of a processor or writer already added to the stream
+     * @param minTasks fewest tasks to run, at least 1
+     * @param maxTasks most tasks to run, at least minTasks
+     * @return this builder
+     */
+    public LocalStreamBuilder setParallelismBounds(String id, int minTasks, int maxTasks) {
+        StreamComponent comp = this.components.get(id);
+        if(comp == null) {
+            throw new InvalidStreamException("Cannot set parallelism bounds of id, "+id+", because id does not exist or is a provider.");
+        } else if(minTasks < 1 || maxTasks < minTasks) {
+            throw new InvalidStreamException("Invalid parallelism bounds ["+minTasks+", "+maxTasks+"] for id "+id);
+        }
+        comp.setParallelismBounds(minTasks, maxTasks);
+        return this;
+    }
+
     /**
      * Runs the data stream in the this JVM and blocks till completion.
      */
     @Override
     public void start() {
         attachShutdownHandler();
-        boolean isRunning = true;
-        this.executor = new ShutdownStreamOnUnhandleThrowableThreadPoolExecutor(this.totalTasks, this);
+        if(isFuseProcessors()) {
+            fuseProcessorChains();
+        }
+        if(isForkJoinExecutor()) {
+            //only providers get a thread of their own, everything else shares the scheduler's workers
+            this.executor = new ShutdownStreamOnUnhandleThrowableThreadPoolExecutor(Math.max(1, this.providers.size()), this);
+            this.scheduler = new ForkJoinTaskScheduler(getParallelism());
+        } else {
+            this.executor = new ShutdownStreamOnUnhandleThrowableThreadPoolExecutor(this.totalTasks + getAutoscaleHeadroom(), this);
+        }
         this.monitor = Executors.newCachedThreadPool();
         Map<String, StreamsProviderTask> provTasks = new HashMap<String, StreamsProviderTask>();
         tasks = new HashMap<String, List<StreamsTask>>();
@@ -212,27 +289,10 @@ public class LocalStreamBuilder implements StreamBuilder {
             }
             setupComponentTasks(tasks);
             setupProviderTasks(provTasks);
+            setupAutoscaler();
             LOGGER.info("Started stream with {} components", tasks.size());
-            while(isRunning) {
-                isRunning = false;
-                for(StreamsProviderTask task : provTasks.values()) {
-                    isRunning = isRunning || task.isRunning();
-                }
-                for(StreamComponent task: components.values()) {
-                    boolean tasksRunning = false;
-                    for(StreamsTask t : task.getStreamsTasks()) {
-                        if(t instanceof BaseStreamsTask) {
-                            tasksRunning = tasksRunning || ((BaseStreamsTask) t).isRunning();
-                        }
-                    }
-                    isRunning = isRunning || (tasksRunning && task.getInBoundQueue().size() > 0);
-                }
-                if(isRunning) {
-                    Thread.sleep(3000);
-                } else {
-                    LOGGER.info("Stream has completed successfully, shutting down @ {}", System.currentTimeMillis());
-                }
-            }
+            awaitCompletion(provTasks, tasks);
+            LOGGER.info("Stream has completed successfully, shutting down @ {}", System.currentTimeMillis());
             LOGGER.debug("Components are no longer running or timed out");
         } catch (InterruptedException e){
             LOGGER.warn("Runtime interrupted.  Beginning shutdown");
@@ -243,6 +303,96 @@ public class LocalStreamBuilder implements StreamBuilder {
 
     }
 
+    /**
+     * Blocks until every task of the stream has finished.  Providers finish on their own, every other task finishes
+     * once it has taken the end of stream marker that follows the last datum its upstream components produced.  A
+     * component whose tasks all exit before the end of the stream, because they were stopped or failed, no longer
+     * drains its inbound queue, so the tasks upstream of it are cancelled instead of being left blocked on that queue.
+     * @param provTasks provider tasks
+     * @param streamsTasks non-provider tasks
+     * @throws InterruptedException
+     */
+    protected void awaitCompletion(Map<String, StreamsProviderTask> provTasks, Map<String, List<StreamsTask>> streamsTasks) throws InterruptedException {
+        Set<String> exitedEarly = new HashSet<>();
+        StreamsTask running;
+        do {
+            running = null;
+            for(StreamsProviderTask task : provTasks.values()) {
+                if(!isDone(task)) {
+                    running = task;
+                }
+            }
+            //the autoscaler may add tasks while we wait, the task lists are copy on write
+            for(Map.Entry<String, List<StreamsTask>> entry : streamsTasks.entrySet()) {
+                boolean done = true;
+                boolean endOfStream = false;
+                for(StreamsTask task : entry.getValue()) {
+                    if(!isDone(task)) {
+                        running = task;
+                        done = false;
+                    } else if(task instanceof BaseStreamsTask && ((BaseStreamsTask) task).isEndOfStream()) {
+                        endOfStream = true;
+                    }
+                }
+                if(done && !endOfStream && !entry.getValue().isEmpty() && exitedEarly.add(entry.getKey())) {
+                    cancelUpStreamTasks(this.components.get(entry.getKey()), provTasks, streamsTasks);
+                }
+            }
+            if(running != null) {
+                awaitTask(running, AWAIT_POLL_TIME_MS);
+            }
+        } while(running != null);
+    }
+
+    /**
+     * Stops and cancels the tasks of every component feeding the given component.
+     */
+    private void cancelUpStreamTasks(StreamComponent comp, Map<String, StreamsProviderTask> provTasks, Map<String, List<StreamsTask>> streamsTasks) {
+        if(comp == null) {
+            return;
+        }
+        LOGGER.warn("Every task of {} exited before the end of the stream, cancelling the tasks upstream of it", comp.getId());
+        for(StreamComponent parent : comp.getUpStreamComponents()) {
+            List<StreamsTask> parentTasks = new ArrayList<>();
+            if(provTasks.containsKey(parent.getId())) {
+                parentTasks.add(provTasks.get(parent.getId()));
+            } else if(streamsTasks.containsKey(parent.getId())) {
+                parentTasks.addAll(streamsTasks.get(parent.getId()));
+            }
+            for(StreamsTask task : parentTasks) {
+                task.stopTask();
+                Future future = this.futures.get(task);
+                if(future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    private boolean isDone(StreamsTask task) {
+        Future future = this.futures.get(task);
+        return future == null || future.isDone();
+    }
+
+    /**
+     * Waits up to the given time for the task to finish
+     */
+    private void awaitTask(StreamsTask task, long timeoutMs) throws InterruptedException {
+        Future future = this.futures.get(task);
+        if(future == null) {
+            return;
+        }
+        try {
+            future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException te) {
+            LOGGER.trace("Task {} still running", task);
+        } catch (ExecutionException ee) {
+            LOGGER.warn("Task {} exited with an exception : {}", task, ee.getCause());
+        } catch (CancellationException ce) {
+            LOGGER.debug("Task {} was cancelled", task);
+        }
+    }
+
     private void attachShutdownHandler() {
         LOGGER.debug("Attaching shutdown handler");
         Runtime.getRuntime().addShutdownHook(shutdownHook);
@@ -265,6 +415,9 @@ public class LocalStreamBuilder implements StreamBuilder {
         }
         this.executor.shutdown();
         this.monitor.shutdown();
+        if(this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
         try {
             if(!this.executor.awaitTermination(3, TimeUnit.SECONDS)){
                 this.executor.shutdownNow();
@@ -284,6 +437,10 @@ public class LocalStreamBuilder implements StreamBuilder {
         if (this.monitorThread != null) {
             this.monitorThread.shutdown();
         }
+        if(this.autoscaler != null) {
+            this.autoscaler.shutdown();
+        }
+        this.broadcastMonitor.shutdown();
         this.executor.shutdown();
         //complete stream shut down gracfully
         for(StreamComponent prov : this.providers.values()) {
@@ -294,10 +451,16 @@ public class LocalStreamBuilder implements StreamBuilder {
             this.executor.shutdownNow();
             this.executor.awaitTermination(10, TimeUnit.SECONDS);
         }
-        if(!this.monitor.awaitTermination(5, TimeUnit.SECONDS)) { // all threads should have terminated already.
-            this.monitor.shutdownNow();
-            this.monitor.awaitTermination(5, TimeUnit.SECONDS);
+        if(this.scheduler != null) {
+            this.scheduler.shutdown();
+            if(!this.scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+                this.scheduler.shutdownNow();
+                this.scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            }
         }
+        //monitors only sleep between reports, so there is nothing to wait for
+        this.monitor.shutdownNow();
+        this.monitor.awaitTermination(5, TimeUnit.SECONDS);
     }
 
     protected void setupProviderTasks(Map<String, StreamsProviderTask> provTasks) {
@@ -306,7 +469,7 @@ public class LocalStreamBuilder implements StreamBuilder {
             task.setStreamConfig(this.streamConfig);
             StreamsTaskCounter counter = new StreamsTaskCounter(prov.getId(), streamIdentifier, startedAt.getMillis());
             task.setStreamsTaskCounter(counter);
-            this.executor.submit(task);
+            this.futures.put(task, this.executor.submit(task));
             provTasks.put(prov.getId(), (StreamsProviderTask) task);
             if(this.useDeprecatedMonitors && prov.isOperationCountable() ) {
                 this.monitor.submit(new StatusCounterMonitorThread((DatumStatusCountable) prov.getOperation(), 10));
@@ -318,13 +481,14 @@ public class LocalStreamBuilder implements StreamBuilder {
     protected void setupComponentTasks(Map<String, List<StreamsTask>> streamsTasks) {
         for(StreamComponent comp : this.components.values()) {
             int tasks = comp.getNumTasks();
-            List<StreamsTask> compTasks = new LinkedList<StreamsTask>();
+            List<StreamsTask> compTasks = new CopyOnWriteArrayList<StreamsTask>();
             StreamsTaskCounter counter = new StreamsTaskCounter(comp.getId(), streamIdentifier, startedAt.getMillis());
+            comp.setStreamsTaskCounter(counter);
             for(int i=0; i < tasks; ++i) {
                 StreamsTask task = comp.createConnectedTask(getTimeout());
                 task.setStreamsTaskCounter(counter);
                 task.setStreamConfig(this.streamConfig);
-                this.futures.put(task, this.executor.submit(task));
+                this.futures.put(task, submitTask(task));
                 compTasks.add(task);
                 if(this.useDeprecatedMonitors &&  comp.isOperationCountable() ) {
                     this.monitor.submit(new StatusCounterMonitorThread((DatumStatusCountable) comp.getOperation(), 10));
@@ -336,6 +500,206 @@ public class LocalStreamBuilder implements StreamBuilder {
         }
     }
 
+    /**
+     * Replaces every chain of processors, where each processor is the only input of the next and the next is its only
+     * output, with a single component running a {@link org.apache.streams.local.tasks.FusedStreamsProcessor}.  Only
+     * processors with the same number of tasks and parallelism bounds are fused.  The fused component is identified
+     * by the ids of its stages joined with {@link #FUSED_ID_SEPARATOR}, every stage keeps a counter under its own id.
+     */
+    protected void fuseProcessorChains() {
+        for(StreamComponent comp : new ArrayList<>(this.components.values())) {
+            if(!comp.isProcessor() || isFusedIntoUpStream(comp)) {
+                continue;
+            }
+            List<StreamComponent> chain = new ArrayList<>();
+            for(StreamComponent next = comp; next != null; next = getFusableDownStream(next)) {
+                chain.add(next);
+            }
+            if(chain.size() > 1) {
+                fuse(chain);
+            }
+        }
+    }
+
+    private boolean isFusedIntoUpStream(StreamComponent comp) {
+        Collection<StreamComponent> parents = comp.getUpStreamComponents();
+        return parents.size() == 1 && getFusableDownStream(parents.iterator().next()) != null;
+    }
+
+    private StreamComponent getFusableDownStream(StreamComponent comp) {
+        if(!comp.isProcessor() || comp.getDownStreamComponents().size() != 1) {
+            return null;
+        }
+        StreamComponent child = comp.getDownStreamComponents().iterator().next();
+        if(child.isProcessor() && child.getUpStreamComponents().size() == 1 &&
+                child.getNumTasks() == comp.getNumTasks() &&
+                child.getMinTasks() == comp.getMinTasks() &&
+                child.getMaxTasks() == comp.getMaxTasks()) {
+            return child;
+        }
+        return null;
+    }
+
+    private void fuse(List<StreamComponent> chain) {
+        StreamComponent head = chain.get(0);
+        StreamComponent tail = chain.get(chain.size() - 1);
+        List<String> ids = new ArrayList<>(chain.size());
+        List<StreamsProcessor> processors = new ArrayList<>(chain.size());
+        List<StreamsTaskCounter> counters = new ArrayList<>(chain.size());
+        for(StreamComponent stage : chain) {
+            ids.add(stage.getId());
+            processors.add((StreamsProcessor) stage.getOperation());
+            counters.add(new StreamsTaskCounter(stage.getId(), streamIdentifier, startedAt.getMillis()));
+            this.components.remove(stage.getId());
+            this.totalTasks -= stage.getNumTasks();
+            if(stage != head) {
+                //the fused component reads the head's queue, the inbound queues of later stages are left unused
+                unregisterInBoundQueue(stage.getId());
+            }
+        }
+        String id = Joiner.on(FUSED_ID_SEPARATOR).join(ids);
+        StreamComponent fused = new StreamComponent(id, new FusedStreamsProcessor(ids, processors, counters), head.getInBoundQueue(), head.getNumTasks(), streamConfig);
+        fused.setParallelismBounds(head.getMinTasks(), head.getMaxTasks());
+        fused.setFanOutMode(tail.getFanOutMode());
+        for(StreamComponent parent : head.getUpStreamComponents()) {
+            parent.replaceDownStreamComponent(head, fused);
+            fused.addInboundQueue(parent);
+        }
+        for(StreamComponent child : tail.getDownStreamComponents()) {
+            fused.addOutBoundQueue(child, tail.getOutBoundQueue(child));
+            child.replaceUpStreamComponent(tail, fused);
+        }
+        this.components.put(id, fused);
+        this.totalTasks += fused.getNumTasks();
+        LOGGER.info("Fused processors {} into component {}", ids, id);
+    }
+
+    private void unregisterInBoundQueue(String id) {
+        try {
+            ObjectName name = new ObjectName(String.format(ThroughputQueue.NAME_TEMPLATE, id, streamIdentifier, startedAt.getMillis()));
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            if(mbs.isRegistered(name)) {
+                mbs.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Failed to unregister inbound queue of fused component {} : {}", id, e);
+        }
+    }
+
+    /**
+     * Starts the {@link org.apache.streams.local.builders.StreamComponentAutoscaler} if any component has parallelism
+     * bounds.
+     */
+    protected void setupAutoscaler() {
+        List<StreamComponent> scaled = new ArrayList<>();
+        for(StreamComponent comp : this.components.values()) {
+            if(comp.isAutoscaled()) {
+                scaled.add(comp);
+            }
+        }
+        if(!scaled.isEmpty()) {
+            this.autoscaler = new StreamComponentAutoscaler(this, scaled, getConfiguredMillis(AUTOSCALE_INTERVAL_KEY, StreamComponentAutoscaler.DEFAULT_INTERVAL_MS),
+                    getConfiguredMillis(AUTOSCALE_MAX_WAIT_KEY, StreamComponentAutoscaler.DEFAULT_MAX_WAIT_MS));
+            this.monitor.submit(this.autoscaler);
+        }
+    }
+
+    /**
+     * Starts another task for the component.  The task is registered with the end of stream latches of the component
+     * and its children first, so it is refused once the component has been told its input ended.
+     * @param comp component to grow
+     * @return true if a task was started
+     */
+    protected synchronized boolean addComponentTask(StreamComponent comp) {
+        List<StreamsTask> compTasks = this.tasks.get(comp.getId());
+        EndOfStreamLatch inLatch = comp.getEndOfStreamLatch();
+        if(compTasks == null || comp.getActiveStreamsTasks().size() >= comp.getMaxTasks() || !inLatch.addConsumer()) {
+            return false;
+        }
+        List<EndOfStreamLatch> outLatches = new ArrayList<>();
+        for(StreamComponent child : comp.getDownStreamComponents()) {
+            EndOfStreamLatch outLatch = child.getEndOfStreamLatch();
+            if(!outLatch.addProducer()) {
+                LOGGER.debug("Not adding a task to {}, downstream component {} has already ended", comp.getId(), child.getId());
+                releaseLatches(inLatch, outLatches);
+                return false;
+            }
+            outLatches.add(outLatch);
+        }
+        try {
+            StreamsTask task = comp.createConnectedTask(getTimeout());
+            task.setStreamsTaskCounter(comp.getStreamsTaskCounter());
+            task.setStreamConfig(this.streamConfig);
+            this.futures.put(task, submitTask(task));
+            compTasks.add(task);
+            return true;
+        } catch (RuntimeException re) {
+            LOGGER.warn("Unable to add a task to {} : {}", comp.getId(), re);
+            releaseLatches(inLatch, outLatches);
+            return false;
+        }
+    }
+
+    private void releaseLatches(EndOfStreamLatch inLatch, List<EndOfStreamLatch> outLatches) {
+        inLatch.removeConsumer();
+        try {
+            for(EndOfStreamLatch outLatch : outLatches) {
+                outLatch.countDown();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the most recently added task of the component, unless that would leave it with fewer than its minimum.
+     * The task finishes the datums it holds and signals its children like any other finishing task.
+     * @param comp component to shrink
+     * @return the stopped task, or null if none was stopped
+     */
+    protected synchronized StreamsTask retireComponentTask(StreamComponent comp) {
+        if(comp.getActiveStreamsTasks().size() <= comp.getMinTasks()) {
+            return null;
+        }
+        StreamsTask task = comp.retireStreamsTask();
+        if(task != null) {
+            task.stopTask();
+            if(isScheduled(task)) {
+                //an idle cooperative task only runs again when data arrives
+                this.futures.get(task).cancel(false);
+            }
+        }
+        return task;
+    }
+
+    /**
+     * Extra threads the thread per task executor needs for components that may grow past their initial tasks
+     */
+    private int getAutoscaleHeadroom() {
+        int headroom = 0;
+        for(StreamComponent comp : this.components.values()) {
+            headroom += Math.max(0, comp.getMaxTasks() - comp.getNumTasks());
+        }
+        return headroom;
+    }
+
+    /**
+     * Returns true if the task runs on the fork join scheduler rather than a thread of its own
+     */
+    private boolean isScheduled(StreamsTask task) {
+        return this.scheduler != null && task instanceof CooperativeStreamsTask;
+    }
+
+    /**
+     * Writers are scheduled as blocking tasks, their writes wait on I/O
+     */
+    private Future submitTask(StreamsTask task) {
+        if(isScheduled(task)) {
+            return this.scheduler.submit((CooperativeStreamsTask) task, task instanceof StreamsPersistWriterTask);
+        }
+        return this.executor.submit(task);
+    }
+
     /**
      * Shutsdown the running tasks in sudo depth first search kind of way. Checks that the upstream components have
      * finished running before shutting down. Waits till inbound queue is empty to shutdown.
@@ -359,18 +723,25 @@ public class LocalStreamBuilder implements StreamBuilder {
             if(parentsShutDown) {
                 for(StreamsTask task : tasks) {
                     task.stopTask();
-                    if(task.isWaiting()) {
-                        this.futures.get(task).cancel(true); // no data to process, interrupt block queue
+                    if(task.isWaiting() || isScheduled(task)) {
+                        // no data to process, interrupt block queue.  A scheduled task gets a final turn instead
+                        this.futures.get(task).cancel(true);
                     }
                 }
                 for(StreamsTask task : tasks) {
-                    int count = 0;
-                    while(count < 20 && task.isRunning()) {
-                        Thread.sleep(500);
-                        count++;
-                    }
-                    if(task.isRunning()) {
+                    try {
+                        if(isScheduled(task)) {
+                            //the future of a cancelled scheduled task is done before its final turn has completed it
+                            if(!this.scheduler.awaitCompletion(this.futures.get(task), 10, TimeUnit.SECONDS)) {
+                                LOGGER.warn("Task {} failed to terminate in allotted timeframe", task.toString());
+                            }
+                        } else {
+                            this.futures.get(task).get(10, TimeUnit.SECONDS);
+                        }
+                    } catch (TimeoutException te) {
                         LOGGER.warn("Task {} failed to terminate in allotted timeframe", task.toString());
+                    } catch (ExecutionException | CancellationException e) {
+                        LOGGER.debug("Task {} terminated abnormally : {}", task.toString(), e);
                     }
                 }
             }
@@ -431,6 +802,56 @@ public class LocalStreamBuilder implements StreamBuilder {
         }
     }
 
+    /**
+     * Creates the inbound queue for a component.  Uses a {@link org.apache.streams.local.queues.RingBufferThroughputQueue}
+     * when {@link #QUEUE_TYPE_KEY} is set to {@link #RING_BUFFER_QUEUE_TYPE} and the queue is bounded, otherwise a
+     * {@link org.apache.streams.local.queues.ThroughputQueue}.  The queue is wrapped in a
+     * {@link org.apache.streams.local.queues.SignallingBlockingQueue}, adds wake up tasks run by the
+     * {@link org.apache.streams.local.executors.ForkJoinTaskScheduler} and takes grant providers credits.
+     * @param id id of the component the queue feeds
+     * @return inbound queue registered under the component id
+     */
+    protected BlockingQueue<StreamsDatum> createInBoundQueue(String id) {
+        if(RING_BUFFER_QUEUE_TYPE.equals(getQueueType())) {
+            if(this.maxQueueCapacity > 0) {
+                return new SignallingBlockingQueue<StreamsDatum>(new RingBufferThroughputQueue<StreamsDatum>(this.maxQueueCapacity, id, streamIdentifier, startedAt.getMillis()));
+            }
+            LOGGER.warn("{} queues must be bounded, using {} queue for unbounded component {}", RING_BUFFER_QUEUE_TYPE, LINKED_QUEUE_TYPE, id);
+        }
+        return new SignallingBlockingQueue<StreamsDatum>(new ThroughputQueue<StreamsDatum>(this.maxQueueCapacity, id, streamIdentifier, startedAt.getMillis()));
+    }
+
+    protected String getQueueType() {
+        return streamConfig != null && streamConfig.get(QUEUE_TYPE_KEY) != null ? streamConfig.get(QUEUE_TYPE_KEY).toString() : LINKED_QUEUE_TYPE;
+    }
+
+    protected boolean isFuseProcessors() {
+        return streamConfig != null && streamConfig.get(FUSE_PROCESSORS_KEY) != null && Boolean.parseBoolean(streamConfig.get(FUSE_PROCESSORS_KEY).toString());
+    }
+
+    protected boolean isForkJoinExecutor() {
+        return streamConfig != null && streamConfig.get(EXECUTOR_TYPE_KEY) != null && FORK_JOIN_EXECUTOR_TYPE.equals(streamConfig.get(EXECUTOR_TYPE_KEY).toString());
+    }
+
+    /**
+     * The number of workers of the fork join scheduler, configured with {@link #PARALLELISM_KEY}.  Defaults to the
+     * number of available processors.
+     * @return parallelism
+     */
+    protected int getParallelism() {
+        if(streamConfig != null && streamConfig.get(PARALLELISM_KEY) instanceof Number) {
+            return Math.max(1, ((Number) streamConfig.get(PARALLELISM_KEY)).intValue());
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private long getConfiguredMillis(String key, long defaultMillis) {
+        if(streamConfig != null && streamConfig.get(key) instanceof Number) {
+            return ((Number) streamConfig.get(key)).longValue();
+        }
+        return defaultMillis;
+    }
+
     protected int getTimeout() {
         //Set the timeout of it is configured, otherwise signal downstream components to use their default
         return streamConfig != null && streamConfig.containsKey(TIMEOUT_KEY) ? (Integer)streamConfig.get(TIMEOUT_KEY) : -1;
@@ -18,8 +18,12 @@
 
 package org.apache.streams.local.builders;
 
-import com.google.common.collect.Lists;
 import org.apache.streams.core.*;
+import org.apache.streams.local.counters.StreamsTaskCounter;
+import org.apache.streams.local.queues.EndOfStreamLatch;
+import org.apache.streams.local.tasks.BaseStreamsTask;
+import org.apache.streams.local.tasks.FanOutMode;
+import org.apache.streams.local.tasks.FusedStreamsProcessor;
 import org.apache.streams.local.tasks.StreamsPersistWriterTask;
 import org.apache.streams.local.tasks.StreamsProcessorTask;
 import org.apache.streams.local.tasks.StreamsProviderTask;
@@ -30,6 +34,7 @@ import org.joda.time.DateTime;
 import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Stores the implementations of {@link org.apache.streams.core.StreamsOperation}, the StreamsOperations it is connected
@@ -51,8 +56,14 @@ public class StreamComponent {
     private BigInteger sequence;
     private int numTasks = 1;
     private boolean perpetual;
+    private FanOutMode fanOutMode;
+    private EndOfStreamLatch endOfStreamLatch;
+    private int minTasks;
+    private int maxTasks;
+    private StreamsTaskCounter counter;
 
     private List<StreamsTask> tasks;
+    private List<StreamsTask> activeTasks;
 
     private Map<String, Object> streamConfig;
 
@@ -112,6 +123,8 @@ public class StreamComponent {
         this.processor = processor;
         this.inQueue = inQueue;
         this.numTasks = numTasks;
+        this.minTasks = numTasks;
+        this.maxTasks = numTasks;
         this.streamConfig = streamConfig;
         initializePrivateVariables();
     }
@@ -128,6 +141,8 @@ public class StreamComponent {
         this.writer = writer;
         this.inQueue = inQueue;
         this.numTasks = numTasks;
+        this.minTasks = numTasks;
+        this.maxTasks = numTasks;
         this.streamConfig = streamConfig;
         initializePrivateVariables();
     }
@@ -135,7 +150,8 @@ public class StreamComponent {
     private void initializePrivateVariables() {
         this.inBound = new HashSet<StreamComponent>();
         this.outBound = new HashMap<StreamComponent, BlockingQueue<StreamsDatum>>();
-        this.tasks = Lists.newArrayList();
+        this.tasks = new CopyOnWriteArrayList<>();
+        this.activeTasks = new CopyOnWriteArrayList<>();
     }
 
     /**
@@ -147,6 +163,38 @@ public class StreamComponent {
         this.outBound.put(component, queue);
     }
 
+    /**
+     * The queue this component puts data on for the given downstream component
+     * @param component downstream component
+     * @return outbound queue, or null if the component is not downstream of this one
+     */
+    public BlockingQueue<StreamsDatum> getOutBoundQueue(StreamComponent component) {
+        return this.outBound.get(component);
+    }
+
+    /**
+     * Connects the queue going to one downstream component to another component instead.
+     * @param component current downstream component
+     * @param replacement component that takes over the queue
+     */
+    public void replaceDownStreamComponent(StreamComponent component, StreamComponent replacement) {
+        BlockingQueue<StreamsDatum> queue = this.outBound.remove(component);
+        if(queue != null) {
+            this.outBound.put(replacement, queue);
+        }
+    }
+
+    /**
+     * Replaces a component that supplies data through the inbound queue.
+     * @param component current upstream component
+     * @param replacement component that supplies the data instead
+     */
+    public void replaceUpStreamComponent(StreamComponent component, StreamComponent replacement) {
+        if(this.inBound.remove(component)) {
+            this.inBound.add(replacement);
+        }
+    }
+
     /**
      * Add a component that supplies data through the inbound queue.
      * @param component that supplies data through the inbound queue
@@ -187,6 +235,52 @@ public class StreamComponent {
         return this.numTasks;
     }
 
+    /**
+     * Lets the number of tasks running this component change between the given bounds while the stream runs.
+     * @param minTasks fewest tasks to run
+     * @param maxTasks most tasks to run
+     */
+    public void setParallelismBounds(int minTasks, int maxTasks) {
+        this.minTasks = minTasks;
+        this.maxTasks = maxTasks;
+    }
+
+    /**
+     * The fewest tasks this component is scaled down to
+     * @return min tasks
+     */
+    public int getMinTasks() {
+        return this.minTasks;
+    }
+
+    /**
+     * The most tasks this component is scaled up to
+     * @return max tasks
+     */
+    public int getMaxTasks() {
+        return this.maxTasks;
+    }
+
+    /**
+     * Whether the number of tasks running this component may change while the stream runs
+     * @return true if the parallelism bounds allow more than one task count
+     */
+    public boolean isAutoscaled() {
+        return this.minTasks != this.maxTasks;
+    }
+
+    /**
+     * The counter shared by all tasks of this component
+     * @return counter, or null if it has not been created yet
+     */
+    public StreamsTaskCounter getStreamsTaskCounter() {
+        return this.counter;
+    }
+
+    public void setStreamsTaskCounter(StreamsTaskCounter counter) {
+        this.counter = counter;
+    }
+
     /**
      * Creates a {@link org.apache.streams.local.tasks.StreamsTask} that is running a clone of this component whose
      * inbound and outbound queues are appropriately connected to the parent and child nodes.
@@ -196,9 +290,11 @@ public class StreamComponent {
      */
     public StreamsTask createConnectedTask(int timeout) {
         StreamsTask task;
+        //tasks added while the stream runs must not start from the state of a running instance
+        boolean clone = this.numTasks > 1 || this.maxTasks > 1;
         if(this.processor != null) {
-            if(this.numTasks > 1) {
-                task =  new StreamsProcessorTask((StreamsProcessor)SerializationUtil.cloneBySerialization(this.processor), streamConfig);
+            if(clone) {
+                task =  new StreamsProcessorTask(cloneProcessor(), streamConfig);
                 task.addInputQueue(this.inQueue);
                 for(BlockingQueue<StreamsDatum> q : this.outBound.values()) {
                     task.addOutputQueue(q);
@@ -212,7 +308,7 @@ public class StreamComponent {
             }
         }
         else if(this.writer != null) {
-            if(this.numTasks > 1) {
+            if(clone) {
                 task = new StreamsPersistWriterTask((StreamsPersistWriter) SerializationUtil.cloneBySerialization(this.writer), streamConfig);
                 task.addInputQueue(this.inQueue);
             } else {
@@ -222,7 +318,7 @@ public class StreamComponent {
         }
         else if(this.provider != null) {
             StreamsProvider prov;
-            if(this.numTasks > 1) {
+            if(clone) {
                 prov = (StreamsProvider)SerializationUtil.cloneBySerialization(this.provider);
             } else {
                 prov = this.provider;
@@ -245,17 +341,94 @@ public class StreamComponent {
             throw new InvalidStreamException("Underlying StreamComponoent was NULL.");
         }
 
+        if(task instanceof BaseStreamsTask) {
+            if(this.fanOutMode != null) {
+                ((BaseStreamsTask) task).setFanOutMode(this.fanOutMode);
+            }
+            for(StreamComponent child : this.outBound.keySet()) {
+                ((BaseStreamsTask) task).addEndOfStreamLatch(child.getEndOfStreamLatch());
+            }
+        }
+
         if(task != null) {
             tasks.add(task);
+            activeTasks.add(task);
         }
 
         return task;
     }
 
+    /**
+     * Fused processors share the counters of their stages, which are not serialized
+     */
+    private StreamsProcessor cloneProcessor() {
+        if(this.processor instanceof FusedStreamsProcessor) {
+            return ((FusedStreamsProcessor) this.processor).copy();
+        }
+        return (StreamsProcessor)SerializationUtil.cloneBySerialization(this.processor);
+    }
+
+    /**
+     * Whether this component runs a {@link org.apache.streams.core.StreamsProcessor}
+     * @return true for processors
+     */
+    public boolean isProcessor() {
+        return this.processor != null;
+    }
+
+    /**
+     * Overrides the stream wide {@link org.apache.streams.local.tasks.FanOutMode} for the tasks of this component.
+     * @param fanOutMode fan out mode, null to use the stream wide setting
+     */
+    public void setFanOutMode(FanOutMode fanOutMode) {
+        this.fanOutMode = fanOutMode;
+    }
+
+    /**
+     * The fan out mode of this component
+     * @return fan out mode, or null if the stream wide setting is used
+     */
+    public FanOutMode getFanOutMode() {
+        return this.fanOutMode;
+    }
+
+    /**
+     * The latch that puts end of stream markers on the inbound queue once every task of every upstream component has
+     * finished.  Must not be called before all components have been connected.
+     * @return end of stream latch, or null for providers
+     */
+    public synchronized EndOfStreamLatch getEndOfStreamLatch() {
+        if(this.endOfStreamLatch == null && this.inQueue != null) {
+            int producers = 0;
+            for(StreamComponent parent : this.inBound) {
+                producers += parent.getNumTasks();
+            }
+            this.endOfStreamLatch = new EndOfStreamLatch(this.inQueue, producers, this.numTasks);
+        }
+        return this.endOfStreamLatch;
+    }
+
     public List<StreamsTask> getStreamsTasks() {
         return this.tasks;
     }
 
+    /**
+     * The tasks of this component that have not been retired by {@link #retireStreamsTask()}
+     * @return active tasks
+     */
+    public List<StreamsTask> getActiveStreamsTasks() {
+        return this.activeTasks;
+    }
+
+    /**
+     * Removes the most recently created active task from the active tasks.  The caller is responsible for stopping it.
+     * @return retired task, or null if there are no active tasks
+     */
+    public synchronized StreamsTask retireStreamsTask() {
+        int last = this.activeTasks.size() - 1;
+        return last < 0 ? null : this.activeTasks.remove(last);
+    }
+
     /**
      * The unique of this component
      * @return
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.local.builders;
+
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.local.counters.StreamsTaskCounterMXBean;
+import org.apache.streams.local.queues.SignallingBlockingQueue;
+import org.apache.streams.local.queues.ThroughputQueueMXBean;
+import org.apache.streams.local.tasks.BaseStreamsTask;
+import org.apache.streams.local.tasks.StreamsTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Periodically resizes the components of a stream that have parallelism bounds.  Each check reads the
+ * {@link org.apache.streams.local.queues.ThroughputQueueMXBean} of the component's inbound queue and the
+ * {@link org.apache.streams.local.counters.StreamsTaskCounterMXBean} shared by its tasks.  A component gets more tasks
+ * while its queue is backing up and loses one after the queue has stayed nearly empty for a few checks.
+ */
+public class StreamComponentAutoscaler implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamComponentAutoscaler.class);
+
+    public static final long DEFAULT_INTERVAL_MS = 1000;
+    public static final long DEFAULT_MAX_WAIT_MS = 500;
+    public static final double HIGH_WATERMARK = 0.75;
+    public static final double LOW_WATERMARK = 0.1;
+    public static final double MAX_ERROR_RATE = 0.5;
+    public static final int IDLE_CHECKS_BEFORE_SCALE_DOWN = 3;
+
+    private final LocalStreamBuilder builder;
+    private final Collection<StreamComponent> components;
+    private final long intervalMs;
+    private final long maxWaitMs;
+    private final Map<StreamComponent, Sample> samples;
+    private final List<Retiree> retiring;
+    private volatile boolean run = true;
+
+    /**
+     * @param builder builder running the stream
+     * @param components components with parallelism bounds
+     * @param intervalMs time between checks in milliseconds
+     * @param maxWaitMs average queue wait in milliseconds above which a growing queue counts as backed up
+     */
+    public StreamComponentAutoscaler(LocalStreamBuilder builder, Collection<StreamComponent> components, long intervalMs, long maxWaitMs) {
+        this.builder = builder;
+        this.components = components;
+        this.intervalMs = Math.max(1, intervalMs);
+        this.maxWaitMs = maxWaitMs;
+        this.samples = new HashMap<>();
+        this.retiring = new LinkedList<>();
+    }
+
+    public void shutdown() {
+        this.run = false;
+    }
+
+    public boolean isRunning() {
+        return this.run;
+    }
+
+    @Override
+    public void run() {
+        while(this.run) {
+            try {
+                Thread.sleep(this.intervalMs);
+                check();
+            } catch (InterruptedException ie) {
+                this.run = false;
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                LOGGER.warn("Exception while resizing stream components : {}", e);
+            }
+        }
+    }
+
+    /**
+     * Resizes every component once
+     */
+    protected void check() {
+        releaseRetiredTasks();
+        for(StreamComponent comp : this.components) {
+            if(!this.run) {
+                return;
+            }
+            ThroughputQueueMXBean queue = getQueueMXBean(comp.getInBoundQueue());
+            StreamsTaskCounterMXBean counter = comp.getStreamsTaskCounter();
+            if(queue == null || counter == null) {
+                continue;
+            }
+            Sample sample = this.samples.get(comp);
+            if(sample == null) {
+                sample = new Sample();
+                this.samples.put(comp, sample);
+            }
+            int active = comp.getActiveStreamsTasks().size();
+            int target = sample.update(this, active, comp.getMinTasks(), comp.getMaxTasks(), comp.getInBoundQueue().remainingCapacity(), queue, counter);
+            for(int i=active; i < target && this.builder.addComponentTask(comp); ++i) {
+                LOGGER.debug("Added a task to {}, {} tasks running", comp.getId(), i+1);
+            }
+            for(int i=active; i > target; --i) {
+                StreamsTask task = this.builder.retireComponentTask(comp);
+                if(task == null) {
+                    break;
+                }
+                this.retiring.add(new Retiree(comp, task));
+                LOGGER.debug("Retired a task of {}, {} tasks running", comp.getId(), i-1);
+            }
+        }
+    }
+
+    /**
+     * A retired task that stopped before taking its end of stream marker no longer needs one
+     */
+    private void releaseRetiredTasks() {
+        Iterator<Retiree> it = this.retiring.iterator();
+        while(it.hasNext()) {
+            Retiree retiree = it.next();
+            if(!retiree.task.isRunning()) {
+                it.remove();
+                if(!(retiree.task instanceof BaseStreamsTask) || !((BaseStreamsTask) retiree.task).isEndOfStream()) {
+                    retiree.comp.getEndOfStreamLatch().removeConsumer();
+                }
+            }
+        }
+    }
+
+    /**
+     * Decides how many tasks a component should run.  Grows by at least one task while the queue is backing up, using
+     * the arrival rate and average processing time to estimate how many tasks keep up with it.  Shrinks by one task
+     * after the queue stayed nearly empty for {@link #IDLE_CHECKS_BEFORE_SCALE_DOWN} checks.  Components that mostly
+     * fail are not grown, more tasks would only fail faster.
+     * @param active tasks currently running
+     * @param minTasks lower bound
+     * @param maxTasks upper bound
+     * @param size datums waiting in the inbound queue
+     * @param capacity capacity of the inbound queue, {@link Integer#MAX_VALUE} if unbounded
+     * @param added datums added to the queue since the last check
+     * @param removed datums removed from the queue since the last check
+     * @param avgWait average time datums waited in the queue in milliseconds
+     * @param avgTime average processing time of the component in milliseconds
+     * @param errorRate error rate of the component
+     * @param idleChecks consecutive checks, including this one, that found the queue nearly empty
+     * @return number of tasks to run
+     */
+    protected int targetTasks(int active, int minTasks, int maxTasks, long size, long capacity, long added, long removed,
+                              double avgWait, double avgTime, double errorRate, int idleChecks) {
+        if(active < minTasks) {
+            return minTasks;
+        } else if(active > maxTasks) {
+            return maxTasks;
+        }
+        double fill = capacity >= Integer.MAX_VALUE || capacity <= 0 ? 0.0 : (double) size / capacity;
+        boolean backedUp = size > 0 && (fill >= HIGH_WATERMARK || (avgWait >= this.maxWaitMs && added >= removed));
+        if(backedUp && errorRate < MAX_ERROR_RATE) {
+            int required = active + 1;
+            if(avgTime > 0) {
+                double arrivalsPerMs = (double) added / this.intervalMs;
+                required = Math.max(required, (int) Math.ceil(arrivalsPerMs * avgTime));
+            }
+            return Math.min(maxTasks, required);
+        }
+        if(idleChecks >= IDLE_CHECKS_BEFORE_SCALE_DOWN) {
+            return Math.max(minTasks, active - 1);
+        }
+        return active;
+    }
+
+    private boolean isIdle(long size, long capacity) {
+        return size == 0 || (capacity < Integer.MAX_VALUE && capacity > 0 && (double) size / capacity <= LOW_WATERMARK);
+    }
+
+    private static ThroughputQueueMXBean getQueueMXBean(BlockingQueue<StreamsDatum> queue) {
+        if(queue instanceof SignallingBlockingQueue) {
+            return getQueueMXBean(((SignallingBlockingQueue<StreamsDatum>) queue).getDelegate());
+        }
+        return queue instanceof ThroughputQueueMXBean ? (ThroughputQueueMXBean) queue : null;
+    }
+
+    /**
+     * Queue counters of a component at its last check
+     */
+    private static class Sample {
+        private long added;
+        private long removed;
+        private int idleChecks;
+
+        private int update(StreamComponentAutoscaler scaler, int active, int minTasks, int maxTasks, int remainingCapacity,
+                           ThroughputQueueMXBean queue, StreamsTaskCounterMXBean counter) {
+            long size = queue.getCurrentSize();
+            long capacity = size + remainingCapacity;
+            long added = queue.getAdded();
+            long removed = queue.getRemoved();
+            this.idleChecks = scaler.isIdle(size, capacity) ? this.idleChecks + 1 : 0;
+            int target = scaler.targetTasks(active, minTasks, maxTasks, size, capacity, added - this.added,
+                    removed - this.removed, queue.getAvgWait(), counter.getAvgTime(), counter.getErrorRate(), this.idleChecks);
+            this.added = added;
+            this.removed = removed;
+            if(target != active) {
+                this.idleChecks = 0;
+            }
+            return target;
+        }
+    }
+
+    private static class Retiree {
+        private final StreamComponent comp;
+        private final StreamsTask task;
+
+        private Retiree(StreamComponent comp, StreamsTask task) {
+            this.comp = comp;
+            this.task = task;
+        }
+    }
+}
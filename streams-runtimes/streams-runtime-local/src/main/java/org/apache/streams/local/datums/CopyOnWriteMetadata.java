@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.local.datums;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link java.util.Map} view over a metadata map that is shared between several
+ * {@link org.apache.streams.local.datums.SharedStreamsDatum}s.  Reads go to the shared map until the first mutation,
+ * which copies the shared map into a private {@link java.util.HashMap} that is used from then on.
+ * <p/>
+ * The shared map must not be mutated by anyone once it is wrapped.  Only the top level map is copied; values should be
+ * replaced rather than mutated in place.
+ */
+public class CopyOnWriteMetadata implements Map<String, Object>, Serializable {
+
+    private Map<String, Object> shared;
+    private Map<String, Object> local;
+
+    public CopyOnWriteMetadata(Map<String, Object> shared) {
+        this.shared = shared == null ? Collections.<String, Object>emptyMap() : shared;
+    }
+
+    /**
+     * Returns true once this map has been mutated and no longer reads from the shared map
+     * @return true if copied
+     */
+    public boolean isCopied() {
+        return this.local != null;
+    }
+
+    private Map<String, Object> read() {
+        return this.local != null ? this.local : this.shared;
+    }
+
+    private Map<String, Object> write() {
+        if(this.local == null) {
+            this.local = new HashMap<>(this.shared);
+            this.shared = null;
+        }
+        return this.local;
+    }
+
+    @Override
+    public int size() {
+        return read().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return read().isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return read().containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return read().containsValue(value);
+    }
+
+    @Override
+    public Object get(Object key) {
+        return read().get(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return write().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if(!read().containsKey(key)) {
+            return null;
+        }
+        return write().remove(key);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> m) {
+        write().putAll(m);
+    }
+
+    @Override
+    public void clear() {
+        if(this.local == null) {
+            this.local = new HashMap<>();
+            this.shared = null;
+        } else {
+            this.local.clear();
+        }
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return this.local != null ? this.local.keySet() : Collections.unmodifiableSet(this.shared.keySet());
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return this.local != null ? this.local.values() : Collections.unmodifiableCollection(this.shared.values());
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return this.local != null ? this.local.entrySet() : Collections.unmodifiableMap(this.shared).entrySet();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return read().equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return read().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return read().toString();
+    }
+}
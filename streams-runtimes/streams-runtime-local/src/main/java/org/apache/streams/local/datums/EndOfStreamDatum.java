@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.local.datums;
+
+import org.apache.streams.core.StreamsDatum;
+
+/**
+ * Marker put on a component's inbound queue once every task upstream of it has finished.  Each task consuming the
+ * queue takes exactly one marker and stops reading the queue when it does.  The marker is never handed to a
+ * {@link org.apache.streams.core.StreamsOperation}.
+ */
+public final class EndOfStreamDatum extends StreamsDatum {
+
+    public static final EndOfStreamDatum INSTANCE = new EndOfStreamDatum();
+
+    private EndOfStreamDatum() {
+        super(null);
+    }
+
+    /**
+     * Returns true if the datum is the end of stream marker
+     * @param datum datum taken from a queue
+     * @return true if end of stream
+     */
+    public static boolean isEndOfStream(StreamsDatum datum) {
+        return datum == INSTANCE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public String toString() {
+        return "EndOfStreamDatum";
+    }
+}
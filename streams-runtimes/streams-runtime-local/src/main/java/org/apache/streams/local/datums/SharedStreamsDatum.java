@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.local.datums;
+
+import org.apache.streams.core.StreamsDatum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link org.apache.streams.core.StreamsDatum} handed to one branch of a fan-out that shares its document with the
+ * datums handed to the other branches.  Id, timestamp and sequence id are per datum, metadata is a
+ * {@link org.apache.streams.local.datums.CopyOnWriteMetadata} over the original metadata, and the document itself is
+ * shared and must be treated as read-only until the datum has been claimed.
+ * <p/>
+ * Operations that may mutate the document, such as processors, call {@link #claim()} before touching it.  Only the
+ * last datum still holding a share gets the document to itself, everybody else has to copy the document and then
+ * {@link #release()} its share.  The share is given up only once the copy is taken, so the document cannot be claimed
+ * and mutated by another branch while it is still being copied.  Operations that only read the document, such as
+ * writers, never claim and so never copy.
+ */
+public class SharedStreamsDatum extends StreamsDatum {
+
+    private final AtomicInteger shares;
+    private boolean claimed;
+    private boolean exclusive;
+
+    private SharedStreamsDatum(StreamsDatum datum, AtomicInteger shares) {
+        super(datum.getDocument(), datum.getId(), datum.getTimestamp(), datum.getSequenceid());
+        if(datum.hasMetadata()) {
+            setMetadata(new CopyOnWriteMetadata(datum.getMetadata()));
+        }
+        this.shares = shares;
+        this.claimed = false;
+        this.exclusive = false;
+    }
+
+    /**
+     * Creates one shared datum per branch over the same document.  The original datum must not be used afterwards.
+     * @param datum datum to share
+     * @param branches number of branches
+     * @return shared datums, one per branch
+     */
+    public static List<StreamsDatum> share(StreamsDatum datum, int branches) {
+        AtomicInteger shares = new AtomicInteger(branches);
+        List<StreamsDatum> shared = new ArrayList<>(branches);
+        for(int i=0; i < branches; ++i) {
+            shared.add(new SharedStreamsDatum(datum, shares));
+        }
+        return shared;
+    }
+
+    /**
+     * Takes ownership of the document if no other datum still holds a share of it.  A datum that does not get the
+     * document keeps its share until {@link #release()} is called.
+     * @return true if this datum now owns the document and may mutate it, false if it must copy the document first
+     */
+    public synchronized boolean claim() {
+        if(!this.claimed && this.shares.compareAndSet(1, 0)) {
+            this.claimed = true;
+            this.exclusive = true;
+        }
+        return this.exclusive;
+    }
+
+    /**
+     * Gives up this datum's share of the document.  Called once the document has been copied, or the copy has failed,
+     * so the last remaining datum can claim the document.
+     */
+    public synchronized void release() {
+        if(!this.claimed) {
+            this.claimed = true;
+            this.shares.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns true if this datum owns its document
+     * @return true if exclusive
+     */
+    public synchronized boolean isExclusive() {
+        return this.exclusive;
+    }
+}
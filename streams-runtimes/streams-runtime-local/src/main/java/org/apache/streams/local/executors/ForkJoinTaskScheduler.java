@@ -0,0 +1,296 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.local.executors;
+
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.local.queues.SignallingBlockingQueue;
+import org.apache.streams.local.tasks.CooperativeStreamsTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs {@link org.apache.streams.local.tasks.CooperativeStreamsTask}s on a shared {@link java.util.concurrent.ForkJoinPool}
+ * instead of giving each task its own thread.  A task is only scheduled when something has been added to one of its
+ * input queues or it has been stopped, runs a bounded number of steps, and then gives the worker back.  Idle tasks hold no thread and busy
+ * tasks can use whichever workers are free.  Tasks that block on I/O, such as writers, are submitted as blocking so
+ * their steps run as {@link java.util.concurrent.ForkJoinPool.ManagedBlocker}s and the pool adds a worker for the
+ * other tasks while they wait.
+ */
+public class ForkJoinTaskScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ForkJoinTaskScheduler.class);
+
+    /**
+     * Maximum number of steps a task runs before giving its worker to the next task
+     */
+    public static final int DEFAULT_STEPS_PER_TURN = 16;
+
+    private final ForkJoinPool pool;
+    private final int stepsPerTurn;
+
+    /**
+     * Creates a scheduler with one worker per available processor
+     */
+    public ForkJoinTaskScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism number of workers
+     */
+    public ForkJoinTaskScheduler(int parallelism) {
+        this(parallelism, DEFAULT_STEPS_PER_TURN);
+    }
+
+    /**
+     * @param parallelism number of workers
+     * @param stepsPerTurn maximum number of steps a task runs before giving its worker to the next task
+     */
+    public ForkJoinTaskScheduler(int parallelism, int stepsPerTurn) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism), ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.stepsPerTurn = Math.max(1, stepsPerTurn);
+    }
+
+    /**
+     * Schedules a task that does not block.  Every input queue of the task must be a
+     * {@link org.apache.streams.local.queues.SignallingBlockingQueue}, that is how the task gets woken up.
+     * @param task task to schedule
+     * @return future that completes when the task has completed
+     */
+    public Future<?> submit(CooperativeStreamsTask task) {
+        return submit(task, false);
+    }
+
+    /**
+     * Schedules the task.  Every input queue of the task must be a
+     * {@link org.apache.streams.local.queues.SignallingBlockingQueue}, that is how the task gets woken up.
+     * @param task task to schedule
+     * @param blocking true if the steps of the task may block, on I/O for example, and must not hold a worker the
+     *                 other tasks need while they do
+     * @return future that completes when the task has completed
+     */
+    public Future<?> submit(CooperativeStreamsTask task, boolean blocking) {
+        TaskRunner runner = new TaskRunner(task, blocking);
+        for(BlockingQueue<StreamsDatum> queue : task.getInputQueues()) {
+            if(!(queue instanceof SignallingBlockingQueue)) {
+                throw new IllegalArgumentException("Input queues of cooperative tasks must be SignallingBlockingQueues");
+            }
+            ((SignallingBlockingQueue<StreamsDatum>) queue).addListener(runner);
+        }
+        //a task stopped while idle has no data coming to wake it up
+        task.addStopListener(runner);
+        runner.run();
+        return runner.completion;
+    }
+
+    public ForkJoinPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * Stops accepting new work.  Tasks that are still running keep running.
+     */
+    public void shutdown() {
+        this.pool.shutdown();
+    }
+
+    public void shutdownNow() {
+        this.pool.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.pool.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Waits for a task of this scheduler to complete.  Unlike {@link java.util.concurrent.Future#get()} this also waits
+     * for the final turn of a task whose future has been cancelled.
+     * @param future future returned when the task was submitted
+     * @param timeout maximum time to wait
+     * @param unit unit of the timeout
+     * @return true if the task completed, false if the timeout elapsed first
+     * @throws InterruptedException
+     */
+    public boolean awaitCompletion(Future<?> future, long timeout, TimeUnit unit) throws InterruptedException {
+        if(!(future instanceof TaskCompletion)) {
+            throw new IllegalArgumentException("Future was not returned by this scheduler");
+        }
+        return ((TaskCompletion) future).terminated.await(timeout, unit);
+    }
+
+    /**
+     * Future of a task.  Cancelling it schedules the task one last time so it can complete.
+     */
+    private static class TaskCompletion extends FutureTask<Void> {
+
+        private final TaskRunner runner;
+        private final CountDownLatch terminated = new CountDownLatch(1);
+
+        private TaskCompletion(TaskRunner runner) {
+            super(new Runnable() {
+                @Override
+                public void run() {
+                    //completion carries no result
+                }
+            }, null);
+            this.runner = runner;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            this.runner.run();
+            return cancelled;
+        }
+
+        private void fail(Throwable t) {
+            super.setException(t);
+        }
+    }
+
+    /**
+     * Wakes the task up when data arrives.  {@link #run()} is the signal, {@link #turn()} is the work.
+     */
+    private class TaskRunner implements Runnable {
+
+        private final CooperativeStreamsTask task;
+        private final boolean blocking;
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final TaskCompletion completion;
+        private boolean prepared = false;
+        private volatile boolean completed = false;
+
+        private TaskRunner(CooperativeStreamsTask task, boolean blocking) {
+            this.task = task;
+            this.blocking = blocking;
+            this.completion = new TaskCompletion(this);
+        }
+
+        @Override
+        public void run() {
+            if(!this.completed && this.scheduled.compareAndSet(false, true)) {
+                try {
+                    pool.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            turn();
+                        }
+                    });
+                } catch (RejectedExecutionException ree) {
+                    this.scheduled.set(false);
+                    LOGGER.warn("Scheduler has shut down, task {} will not run again", this.task);
+                }
+            }
+        }
+
+        private void turn() {
+            boolean yielded = false;
+            try {
+                if(!this.prepared) {
+                    this.prepared = true;
+                    this.task.prepareTask();
+                }
+                int steps = 0;
+                while(!this.task.isComplete() && !this.completion.isCancelled() && step()) {
+                    if(++steps == stepsPerTurn) {
+                        yielded = true;
+                        break;
+                    }
+                }
+                if(this.task.isComplete() || this.completion.isCancelled()) {
+                    complete(null);
+                    return;
+                }
+            } catch (Throwable t) {
+                LOGGER.error("Task {} exited with an unhandled throwable : {}", this.task, t);
+                complete(t);
+                return;
+            }
+            this.scheduled.set(false);
+            //data that arrived while this turn was running found the task already scheduled
+            if(yielded || hasInput()) {
+                run();
+            }
+        }
+
+        private boolean step() throws InterruptedException {
+            if(!this.blocking) {
+                return this.task.step();
+            }
+            BlockingStep step = new BlockingStep(this.task);
+            ForkJoinPool.managedBlock(step);
+            return step.handled;
+        }
+
+        private boolean hasInput() {
+            for(BlockingQueue<StreamsDatum> queue : this.task.getInputQueues()) {
+                if(!queue.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void complete(Throwable t) {
+            this.completed = true;
+            try {
+                this.task.completeTask();
+            } catch (Throwable ct) {
+                LOGGER.error("Task {} failed to complete : {}", this.task, ct);
+                if(t == null) {
+                    t = ct;
+                }
+            }
+            if(t == null) {
+                this.completion.run();
+            } else {
+                this.completion.fail(t);
+            }
+            this.completion.terminated.countDown();
+        }
+    }
+
+    /**
+     * Runs one step of a blocking task, letting the pool add a worker while the step blocks
+     */
+    private static class BlockingStep implements ForkJoinPool.ManagedBlocker {
+
+        private final CooperativeStreamsTask task;
+        private boolean done = false;
+        private boolean handled = false;
+
+        private BlockingStep(CooperativeStreamsTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public boolean block() {
+            this.handled = this.task.step();
+            this.done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return this.done;
+        }
+    }
+}
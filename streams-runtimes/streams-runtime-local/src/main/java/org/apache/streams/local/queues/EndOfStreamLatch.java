@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.local.queues;
+
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.local.datums.EndOfStreamDatum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts down the tasks producing into a component's inbound queue.  When the last of them finishes, one
+ * {@link org.apache.streams.local.datums.EndOfStreamDatum} per consuming task is put on the queue behind the data
+ * that is already there, so consumers finish as soon as they have drained it.
+ */
+public class EndOfStreamLatch {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(EndOfStreamLatch.class);
+
+    /**
+     * How long to wait for room on a full queue before giving up on an end of stream marker.  A queue that stays full
+     * this long has no consumer left draining it.
+     */
+    public static final long MARKER_TIMEOUT_MS = 30000;
+
+    private final BlockingQueue<StreamsDatum> queue;
+    private int producers;
+    private int consumers;
+    private boolean released = false;
+
+    /**
+     * If there are no producers the end of stream markers are put on the queue immediately.
+     * @param queue queue to signal the end of stream on
+     * @param producers number of tasks producing into the queue
+     * @param consumers number of tasks consuming the queue
+     */
+    public EndOfStreamLatch(BlockingQueue<StreamsDatum> queue, int producers, int consumers) {
+        this.queue = queue;
+        this.producers = producers;
+        this.consumers = consumers;
+        if(producers <= 0) {
+            this.released = true;
+            for(int i=0; i < this.consumers; ++i) {
+                this.queue.offer(EndOfStreamDatum.INSTANCE);
+            }
+        }
+    }
+
+    /**
+     * Called once by every producing task when it will not put anything else on the queue.
+     * @throws InterruptedException if interrupted while waiting for room on the queue
+     */
+    public void countDown() throws InterruptedException {
+        int markers;
+        synchronized (this) {
+            if(this.released || --this.producers > 0) {
+                return;
+            }
+            this.released = true;
+            markers = this.consumers;
+        }
+        for(int i=0; i < markers; ++i) {
+            if(!putMarker()) {
+                LOGGER.warn("Queue stayed full for {} ms, dropping {} end of stream markers", MARKER_TIMEOUT_MS, markers - i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Registers a task that started producing into the queue after the latch was created.
+     * @return false if the end of stream was already signalled, in which case the task must not produce
+     */
+    public synchronized boolean addProducer() {
+        if(this.released) {
+            return false;
+        }
+        ++this.producers;
+        return true;
+    }
+
+    /**
+     * Registers a task that started consuming the queue after the latch was created.
+     * @return false if the end of stream was already signalled, in which case there is nothing left to consume
+     */
+    public synchronized boolean addConsumer() {
+        if(this.released) {
+            return false;
+        }
+        ++this.consumers;
+        return true;
+    }
+
+    /**
+     * Unregisters a consuming task that stopped before it received its end of stream marker.  If the markers were
+     * already put on the queue the one meant for this task is left behind, which is harmless.
+     */
+    public synchronized void removeConsumer() {
+        if(!this.released && this.consumers > 0) {
+            --this.consumers;
+        }
+    }
+
+    /**
+     * The consumers may be waiting for a fork join worker, so a full queue is waited on as a managed block there.
+     * @return false if the queue stayed full for {@link #MARKER_TIMEOUT_MS}
+     */
+    private boolean putMarker() throws InterruptedException {
+        if(!(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+            return offerMarker(this.queue);
+        } else if(this.queue.offer(EndOfStreamDatum.INSTANCE)) {
+            return true;
+        }
+        MarkerBlocker blocker = new MarkerBlocker();
+        ForkJoinPool.managedBlock(blocker);
+        return blocker.added;
+    }
+
+    /**
+     * Puts an end of stream marker on the queue, waiting up to {@link #MARKER_TIMEOUT_MS} for room.
+     * @param queue queue to put the marker on
+     * @return false if the queue stayed full
+     * @throws InterruptedException
+     */
+    public static boolean offerMarker(BlockingQueue<StreamsDatum> queue) throws InterruptedException {
+        return queue.offer(EndOfStreamDatum.INSTANCE, MARKER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private class MarkerBlocker implements ForkJoinPool.ManagedBlocker {
+
+        private boolean added = false;
+        private boolean done = false;
+
+        @Override
+        public boolean block() throws InterruptedException {
+            this.added = offerMarker(queue);
+            this.done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            if(!this.done) {
+                this.added = queue.offer(EndOfStreamDatum.INSTANCE);
+                this.done = this.added;
+            }
+            return this.done;
+        }
+    }
+
+    /**
+     * The number of producing tasks that have not finished yet
+     * @return remaining producers
+     */
+    public synchronized int getCount() {
+        return Math.max(0, this.producers);
+    }
+
+    /**
+     * The number of consuming tasks that will receive an end of stream marker
+     * @return consumers
+     */
+    public synchronized int getConsumers() {
+        return this.consumers;
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.local.queues;
+
+import org.apache.commons.lang.NotImplementedException;
+import org.apache.streams.local.builders.LocalStreamBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free {@link java.util.concurrent.BlockingQueue} backed by a preallocated ring buffer that supports
+ * multiple producers and multiple consumers.  Producers and consumers claim slots by advancing padded sequence cursors,
+ * and every slot carries its own sequence number so a slot is only read once it has been published and only reused
+ * once it has been consumed.
+ * <p/>
+ * Exposes the same {@link org.apache.streams.local.queues.ThroughputQueueMXBean} metrics as
+ * {@link org.apache.streams.local.queues.ThroughputQueue}, but records the enqueue time of each element in a parallel
+ * array instead of wrapping it, and derives the added/removed counts from the cursors themselves.
+ * <p/>
+ * Capacity is rounded up to the next power of two, with a minimum of two slots.  Threads blocked on a full or empty
+ * queue spin briefly, then yield, then park for increasing intervals.
+ * <p/>
+ * !!! Warning !!!
+ * Only the necessary methods for the local streams runtime are implemented.  All other methods throw a
+ * {@link org.apache.commons.lang.NotImplementedException}.
+ */
+public class RingBufferThroughputQueue<E> implements BlockingQueue<E>, ThroughputQueueMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RingBufferThroughputQueue.class);
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 200;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int capacity;
+    private final int mask;
+    private final Object[] elements;
+    private final long[] queuedTimes;
+    private final AtomicLongArray sequences;
+
+    private final PaddedAtomicLong tail = new PaddedAtomicLong(0);
+    private final PaddedAtomicLong head = new PaddedAtomicLong(0);
+
+    private final PaddedAtomicLong totalQueueTime = new PaddedAtomicLong(0);
+    private final PaddedAtomicLong maxQueuedTime = new PaddedAtomicLong(0);
+    private final AtomicLong startTime = new AtomicLong(-1);
+
+    /**
+     * Creates a bounded, unregistered {@code RingBufferThroughputQueue}
+     *
+     * @param maxSize minimum capacity of the queue, rounded up to the next power of two
+     */
+    public RingBufferThroughputQueue(int maxSize) {
+        this(maxSize, null, LocalStreamBuilder.DEFAULT_STREAM_IDENTIFIER, -1);
+    }
+
+    /**
+     * Creates a bounded, registered {@code RingBufferThroughputQueue}
+     *
+     * @param maxSize minimum capacity of the queue, rounded up to the next power of two
+     * @param id      unique id for this queue to be registered with. if id == NULL then not registered
+     */
+    public RingBufferThroughputQueue(int maxSize, String id) {
+        this(maxSize, id, LocalStreamBuilder.DEFAULT_STREAM_IDENTIFIER, -1);
+    }
+
+    /**
+     * Creates a bounded, registered {@code RingBufferThroughputQueue}
+     *
+     * @param maxSize minimum capacity of the queue, rounded up to the next power of two
+     * @param id      unique id for this queue to be registered with. if id == NULL then not registered
+     * @param streamIdentifier
+     * @param startedAt
+     */
+    public RingBufferThroughputQueue(int maxSize, String id, String streamIdentifier, long startedAt) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("RingBufferThroughputQueue must be bounded, maxSize : " + maxSize);
+        }
+        this.capacity = nextPowerOfTwo(Math.max(maxSize, 2));
+        this.mask = this.capacity - 1;
+        this.elements = new Object[this.capacity];
+        this.queuedTimes = new long[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; ++i) {
+            this.sequences.set(i, i);
+        }
+        if (id != null) {
+            try {
+                ObjectName name = new ObjectName(String.format(ThroughputQueue.NAME_TEMPLATE, id, streamIdentifier, startedAt));
+                MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+                mbs.registerMBean(this, name);
+            } catch (MalformedObjectNameException | InstanceAlreadyExistsException | MBeanRegistrationException | NotCompliantMBeanException e) {
+                LOGGER.error("Failed to register MXBean : {}", e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * The actual capacity of the ring buffer
+     * @return capacity of the ring buffer
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    @Override
+    public boolean add(E e) {
+        if (offer(e)) {
+            return true;
+        }
+        throw new IllegalStateException("Queue full");
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long pos = this.tail.get();
+        while (true) {
+            int index = (int) pos & this.mask;
+            long diff = this.sequences.get(index) - pos;
+            if (diff == 0) {
+                if (this.tail.compareAndSet(pos, pos + 1)) {
+                    long now = System.currentTimeMillis();
+                    this.elements[index] = e;
+                    this.queuedTimes[index] = now;
+                    this.sequences.lazySet(index, pos + 1);
+                    if (pos == 0) {
+                        this.startTime.compareAndSet(-1, now);
+                    }
+                    return true;
+                }
+                pos = this.tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = this.tail.get();
+            }
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        int attempt = 0;
+        while (!offer(e)) {
+            idle(attempt++);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int attempt = 0;
+        while (!offer(e)) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            idle(attempt++);
+        }
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        long pos = this.head.get();
+        while (true) {
+            int index = (int) pos & this.mask;
+            long diff = this.sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (this.head.compareAndSet(pos, pos + 1)) {
+                    @SuppressWarnings("unchecked")
+                    E e = (E) this.elements[index];
+                    long queuedTime = this.queuedTimes[index];
+                    this.elements[index] = null;
+                    this.sequences.lazySet(index, pos + this.capacity);
+                    internalRemoveElement(System.currentTimeMillis() - queuedTime);
+                    return e;
+                }
+                pos = this.head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = this.head.get();
+            }
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        int attempt = 0;
+        E e;
+        while ((e = poll()) == null) {
+            idle(attempt++);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int attempt = 0;
+        E e;
+        while ((e = poll()) == null) {
+            if (System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+            idle(attempt++);
+        }
+        return e;
+    }
+
+    @Override
+    public E remove() {
+        return poll();
+    }
+
+    @Override
+    public E peek() {
+        long pos = this.head.get();
+        int index = (int) pos & this.mask;
+        if (this.sequences.get(index) == pos + 1) {
+            @SuppressWarnings("unchecked")
+            E e = (E) this.elements[index];
+            return e;
+        }
+        return null;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return this.capacity - size();
+    }
+
+    @Override
+    public int size() {
+        long size = this.tail.get() - this.head.get();
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, this.capacity);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            c.add(e);
+            ++drained;
+        }
+        return drained;
+    }
+
+    @Override
+    public E element() {
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public Object[] toArray() {
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public void clear() {
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public long getCurrentSize() {
+        return size();
+    }
+
+    /**
+     * If elements have been removed from the queue or no elements have been added, it returns the average wait time
+     * in milliseconds. If elements have been added, but none have been removed, it returns the time waited by the first
+     * element in the queue.
+     *
+     * @return the average wait time in milliseconds
+     */
+    @Override
+    public double getAvgWait() {
+        long removed = this.head.get();
+        if (removed == 0) {
+            long waited = getHeadWait();
+            return waited < 0 ? 0.0 : waited;
+        } else {
+            return (double) this.totalQueueTime.get() / (double) removed;
+        }
+    }
+
+    @Override
+    public long getMaxWait() {
+        return Math.max(getHeadWait(), this.maxQueuedTime.get());
+    }
+
+    @Override
+    public long getRemoved() {
+        return this.head.get();
+    }
+
+    @Override
+    public long getAdded() {
+        return this.tail.get();
+    }
+
+    @Override
+    public double getThroughput() {
+        long started = this.startTime.get();
+        if (started > 0) {
+            return this.head.get() / ((System.currentTimeMillis() - started) / 1000.0);
+        }
+        return 0.0;
+    }
+
+    /**
+     * Time the element at the head of the queue has been waiting, or -1 if there is no published element at the head.
+     */
+    private long getHeadWait() {
+        long pos = this.head.get();
+        int index = (int) pos & this.mask;
+        if (this.sequences.get(index) == pos + 1) {
+            long queuedTime = this.queuedTimes[index];
+            if (this.head.get() == pos) {
+                return System.currentTimeMillis() - queuedTime;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Handle updating the stats whenever elements are removed from the queue
+     * @param queueTime time the element spent in the queue
+     */
+    private void internalRemoveElement(long queueTime) {
+        this.totalQueueTime.addAndGet(queueTime);
+        long max = this.maxQueuedTime.get();
+        while (queueTime > max && !this.maxQueuedTime.compareAndSet(max, queueTime)) {
+            max = this.maxQueuedTime.get();
+        }
+    }
+
+    /**
+     * Back off while waiting on a full or empty ring buffer: spin, then yield, then park with an increasing interval.
+     * @param attempt number of consecutive failed attempts
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    private static void idle(int attempt) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (attempt < SPIN_TRIES) {
+            return;
+        } else if (attempt < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            int shift = Math.min(attempt - SPIN_TRIES - YIELD_TRIES, 20);
+            LockSupport.parkNanos(Math.min(1000L << shift, MAX_PARK_NANOS));
+        }
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        int highest = Integer.highestOneBit(value);
+        if (highest == value) {
+            return value;
+        }
+        if (highest == 1 << 30) {
+            throw new IllegalArgumentException("RingBufferThroughputQueue capacity too large : " + value);
+        }
+        return highest << 1;
+    }
+
+    /**
+     * {@link java.util.concurrent.atomic.AtomicLong} padded to fill a cache line so that the producer and consumer
+     * cursors do not falsely share.
+     */
+    @SuppressWarnings("unused")
+    private static class PaddedAtomicLong extends AtomicLong {
+        public volatile long p1, p2, p3, p4, p5, p6 = 7L;
+
+        PaddedAtomicLong(long initialValue) {
+            super(initialValue);
+        }
+
+        public long sumPaddingToPreventOptimisation() {
+            return p1 + p2 + p3 + p4 + p5 + p6;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.local.queues;
+
+import com.google.common.util.concurrent.ForwardingBlockingQueue;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps a {@link java.util.concurrent.BlockingQueue} and runs its listeners every time something is added to it.
+ * Lets tasks that do not block on the queue be scheduled only when there is something for them to do.  Take listeners
+ * run every time something is taken from it, which lets producers wait for room instead of polling for it.
+ * Listeners run on the adding or taking thread and must not block.
+ */
+public class SignallingBlockingQueue<E> extends ForwardingBlockingQueue<E> {
+
+    private final BlockingQueue<E> delegate;
+    private final List<Runnable> listeners;
+    private final List<Runnable> takeListeners;
+
+    public SignallingBlockingQueue(BlockingQueue<E> delegate) {
+        this.delegate = delegate;
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.takeListeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Adds a listener to run after every successful add.
+     * @param listener listener
+     */
+    public void addListener(Runnable listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Adds a listener to run after every successful take, poll or drain.
+     * @param listener listener
+     */
+    public void addTakeListener(Runnable listener) {
+        this.takeListeners.add(listener);
+    }
+
+    /**
+     * The wrapped queue
+     * @return the wrapped queue
+     */
+    public BlockingQueue<E> getDelegate() {
+        return this.delegate;
+    }
+
+    @Override
+    protected BlockingQueue<E> delegate() {
+        return this.delegate;
+    }
+
+    @Override
+    public boolean add(E e) {
+        boolean added = this.delegate.add(e);
+        signal();
+        return added;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        boolean added = this.delegate.addAll(c);
+        if(added) {
+            signal();
+        }
+        return added;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        boolean added = this.delegate.offer(e);
+        if(added) {
+            signal();
+        }
+        return added;
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        boolean added = this.delegate.offer(e, timeout, unit);
+        if(added) {
+            signal();
+        }
+        return added;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        this.delegate.put(e);
+        signal();
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e = this.delegate.take();
+        signalTaken();
+        return e;
+    }
+
+    @Override
+    public E poll() {
+        E e = this.delegate.poll();
+        if(e != null) {
+            signalTaken();
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E e = this.delegate.poll(timeout, unit);
+        if(e != null) {
+            signalTaken();
+        }
+        return e;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        int drained = this.delegate.drainTo(c);
+        if(drained > 0) {
+            signalTaken();
+        }
+        return drained;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int drained = this.delegate.drainTo(c, maxElements);
+        if(drained > 0) {
+            signalTaken();
+        }
+        return drained;
+    }
+
+    private void signal() {
+        for(Runnable listener : this.listeners) {
+            listener.run();
+        }
+    }
+
+    private void signalTaken() {
+        for(Runnable listener : this.takeListeners) {
+            listener.run();
+        }
+    }
+}
@@ -227,12 +227,25 @@ public class ThroughputQueue<E> implements BlockingQueue<E>, ThroughputQueueMXBe
 
     @Override
     public int drainTo(Collection<? super E> c) {
-        throw new NotImplementedException();
+        return drainTo(c, Integer.MAX_VALUE);
     }
 
     @Override
     public int drainTo(Collection<? super E> c, int maxElements) {
-        throw new NotImplementedException();
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int drained = 0;
+        ThroughputElement<E> e;
+        while (drained < maxElements && (e = this.underlyingQueue.poll()) != null) {
+            internalRemoveElement(e);
+            c.add(e.getElement());
+            ++drained;
+        }
+        return drained;
     }
 
     @Override
@@ -24,6 +24,9 @@ import com.google.common.collect.Lists;
 import org.apache.streams.core.StreamsDatum;
 import org.apache.streams.jackson.StreamsJacksonMapper;
 import org.apache.streams.local.builders.LocalStreamBuilder;
+import org.apache.streams.local.datums.EndOfStreamDatum;
+import org.apache.streams.local.datums.SharedStreamsDatum;
+import org.apache.streams.local.queues.EndOfStreamLatch;
 import org.apache.streams.pojo.json.Activity;
 import org.apache.streams.util.ComponentUtils;
 import org.apache.streams.util.SerializationUtil;
@@ -33,7 +36,11 @@ import org.slf4j.LoggerFactory;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  *
@@ -42,9 +49,19 @@ public abstract class BaseStreamsTask implements StreamsTask {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BaseStreamsTask.class);
 
+    /**
+     * Default number of datums drained per iteration for operations that accept batches
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
     private List<BlockingQueue<StreamsDatum>> inQueues = new ArrayList<BlockingQueue<StreamsDatum>>();
     private List<BlockingQueue<StreamsDatum>> outQueues = new LinkedList<BlockingQueue<StreamsDatum>>();
     private int inIndex = 0;
+    private FanOutMode fanOutMode = FanOutMode.CLONE;
+    private List<EndOfStreamLatch> endOfStreamLatches = new ArrayList<EndOfStreamLatch>();
+    private final AtomicBoolean endOfStreamSignalled = new AtomicBoolean(false);
+    private final List<Runnable> stopListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean endOfStream = false;
     private ObjectMapper mapper;
     protected Map<String, Object> streamConfig;
 
@@ -58,6 +75,7 @@ public abstract class BaseStreamsTask implements StreamsTask {
 
         setStreamIdentifier();
         setStartedAt();
+        setFanOutMode();
     }
 
 
@@ -99,27 +117,303 @@ public abstract class BaseStreamsTask implements StreamsTask {
     }
 
     /**
-     * Adds a StreamDatum to the outgoing queues.  If there are multiple queues, it uses serialization to create
-     * clones of the datum and adds a new clone to each queue.
+     * Add the latch of a downstream component's inbound queue.  The task counts it down once, when it has finished
+     * putting datums on its output queues.
+     * @param latch end of stream latch of a downstream component
+     */
+    public void addEndOfStreamLatch(EndOfStreamLatch latch) {
+        this.endOfStreamLatches.add(latch);
+    }
+
+    /**
+     * Adds a listener to run when the task is stopped.  Listeners run on the stopping thread and must not block.
+     * @param listener listener
+     */
+    public void addStopListener(Runnable listener) {
+        this.stopListeners.add(listener);
+    }
+
+    /**
+     * Runs the stop listeners.  Called by subclasses from {@link #stopTask()}.
+     */
+    protected void signalStopped() {
+        for(Runnable listener : this.stopListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Signals downstream components that this task will not put any more datums on its output queues.  Only the
+     * first call has any effect.
+     */
+    protected void signalEndOfStream() {
+        if(this.endOfStreamSignalled.compareAndSet(false, true)) {
+            try {
+                for(EndOfStreamLatch latch : this.endOfStreamLatches) {
+                    latch.countDown();
+                }
+            } catch (InterruptedException ie) {
+                LOGGER.warn("Interrupted while signalling end of stream downstream");
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns true once this task has taken an end of stream marker from its input queue
+     * @return true if the end of the stream has been reached
+     */
+    public boolean isEndOfStream() {
+        return this.endOfStream;
+    }
+
+    /**
+     * Set how datums are handed to more than one output queue.
+     * @param fanOutMode fan out mode, defaults to {@link org.apache.streams.local.tasks.FanOutMode#CLONE}
+     */
+    public void setFanOutMode(FanOutMode fanOutMode) {
+        this.fanOutMode = fanOutMode;
+    }
+
+    public FanOutMode getFanOutMode() {
+        return this.fanOutMode;
+    }
+
+    private void setFanOutMode() {
+        if(streamConfig != null && streamConfig.get(LocalStreamBuilder.FAN_OUT_MODE_KEY) != null) {
+            Object mode = streamConfig.get(LocalStreamBuilder.FAN_OUT_MODE_KEY);
+            if(mode instanceof FanOutMode) {
+                this.fanOutMode = (FanOutMode) mode;
+            } else {
+                try {
+                    this.fanOutMode = FanOutMode.valueOf(mode.toString().toUpperCase());
+                } catch (IllegalArgumentException iae) {
+                    LOGGER.warn("Unknown fan out mode {}, using {}", mode, this.fanOutMode);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a StreamDatum to the outgoing queues.  If there are multiple queues, it either uses serialization to
+     * create clones of the datum and adds a new clone to each queue, or adds a
+     * {@link org.apache.streams.local.datums.SharedStreamsDatum} over the same document to each queue, depending on
+     * the {@link org.apache.streams.local.tasks.FanOutMode}.
+     * <p/>
+     * When called from a {@link java.util.concurrent.ForkJoinPool} worker, waiting for room on a full queue is done as
+     * a {@link java.util.concurrent.ForkJoinPool.ManagedBlocker} so the pool can keep the downstream tasks running.
      * @param datum
      */
     protected void addToOutgoingQueue(StreamsDatum datum) throws InterruptedException{
-        if(this.outQueues.size() == 1) {
+        boolean forkJoinWorker = Thread.currentThread() instanceof ForkJoinWorkerThread;
+        if(this.outQueues.size() == 1 && !forkJoinWorker) {
             outQueues.get(0).put(datum);
         }
         else {
-            List<BlockingQueue<StreamsDatum>> toOutput = Lists.newLinkedList(this.outQueues);
-            while(!toOutput.isEmpty()) {
-                for (BlockingQueue<StreamsDatum> queue : toOutput) {
-                    StreamsDatum newDatum = cloneStreamsDatum(datum);
-                    if (newDatum != null) {
-                        if (queue.offer(newDatum, 500, TimeUnit.MILLISECONDS)) {
-                            toOutput.remove(queue);
-                        }
+            List<StreamsDatum> outDatums;
+            if(this.outQueues.size() == 1) {
+                outDatums = Collections.singletonList(datum);
+            } else if(this.fanOutMode == FanOutMode.COPY_ON_WRITE) {
+                outDatums = SharedStreamsDatum.share(datum, this.outQueues.size());
+            } else {
+                outDatums = Lists.newArrayListWithCapacity(this.outQueues.size());
+                for(int i=0; i < this.outQueues.size(); ++i) {
+                    outDatums.add(cloneStreamsDatum(datum));
+                }
+            }
+            OutgoingDelivery delivery = new OutgoingDelivery(outDatums);
+            if(!forkJoinWorker) {
+                delivery.block();
+            } else if(!delivery.isReleasable()) {
+                ForkJoinPool.managedBlock(delivery);
+            }
+        }
+    }
+
+    /**
+     * Delivers one datum per output queue.  Doubles as a {@link java.util.concurrent.ForkJoinPool.ManagedBlocker} that
+     * keeps trying the full queues without blocking until the pool lets it block.
+     */
+    private class OutgoingDelivery implements ForkJoinPool.ManagedBlocker {
+
+        private final List<StreamsDatum> outDatums;
+        private final List<Integer> toOutput;
+
+        private OutgoingDelivery(List<StreamsDatum> outDatums) {
+            this.outDatums = outDatums;
+            this.toOutput = Lists.newLinkedList();
+            for(int i=0; i < outDatums.size(); ++i) {
+                if(outDatums.get(i) != null) {
+                    this.toOutput.add(i);
+                }
+            }
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            while(!this.toOutput.isEmpty()) {
+                Iterator<Integer> remaining = this.toOutput.iterator();
+                while(remaining.hasNext()) {
+                    int index = remaining.next();
+                    if (outQueues.get(index).offer(this.outDatums.get(index), 500, TimeUnit.MILLISECONDS)) {
+                        remaining.remove();
                     }
                 }
             }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            Iterator<Integer> remaining = this.toOutput.iterator();
+            while(remaining.hasNext()) {
+                int index = remaining.next();
+                if (outQueues.get(index).offer(this.outDatums.get(index))) {
+                    remaining.remove();
+                }
+            }
+            if(this.toOutput.isEmpty()) {
+                return true;
+            }
+            //the pool may call this in a loop until it can compensate for the blocked worker
+            Thread.yield();
+            return false;
+        }
+    }
+
+    /**
+     * Makes sure the datum's document can be mutated by this task.  A
+     * {@link org.apache.streams.local.datums.SharedStreamsDatum} whose document is still held by another branch is
+     * replaced by a copy, every other datum is returned as is.  The shared datum only gives up its share once the copy
+     * has been taken.
+     * @param datum datum about to be handed to an operation that may mutate it
+     * @return a datum this task owns, or null if the shared document could not be copied
+     */
+    protected StreamsDatum claimStreamsDatum(StreamsDatum datum) {
+        if(datum instanceof SharedStreamsDatum) {
+            SharedStreamsDatum shared = (SharedStreamsDatum) datum;
+            if(!shared.claim()) {
+                try {
+                    return cloneStreamsDatum(shared);
+                } finally {
+                    shared.release();
+                }
+            }
+        }
+        return datum;
+    }
+
+    /**
+     * Fills the batch from the queue.  Blocks up to {@code pollTimeoutMs} for the first datum, then drains whatever
+     * else is available, waiting up to {@code batchTimeoutMs} more for the batch to fill up to {@code batchSize}.
+     * Datums already added to the batch stay there if the wait is interrupted.  End of stream markers are never added
+     * to the batch, taking one stops the fill and marks this task as having reached the end of the stream.
+     * @param queue queue to drain
+     * @param batch batch to add datums to
+     * @param batchSize maximum number of datums to add
+     * @param pollTimeoutMs time to wait for the first datum in milliseconds
+     * @param batchTimeoutMs time to wait for the batch to fill in milliseconds
+     * @return number of datums added to the batch
+     * @throws InterruptedException
+     */
+    protected int fillBatch(BlockingQueue<StreamsDatum> queue, List<StreamsDatum> batch, int batchSize, long pollTimeoutMs, long batchTimeoutMs) throws InterruptedException {
+        if(this.endOfStream) {
+            return 0;
+        }
+        int start = batch.size();
+        StreamsDatum datum = queue.poll(pollTimeoutMs, TimeUnit.MILLISECONDS);
+        if(datum == null) {
+            return 0;
+        }
+        if(EndOfStreamDatum.isEndOfStream(datum)) {
+            this.endOfStream = true;
+            return 0;
+        }
+        batch.add(datum);
+        if(batchSize > 1) {
+            int scanned = batch.size();
+            queue.drainTo(batch, batchSize - (batch.size() - start));
+            removeEndOfStream(queue, batch, scanned);
+            long deadline = System.currentTimeMillis() + batchTimeoutMs;
+            long remaining = batchTimeoutMs;
+            while(!this.endOfStream && batch.size() - start < batchSize && remaining > 0) {
+                datum = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                if(datum == null) {
+                    break;
+                }
+                if(EndOfStreamDatum.isEndOfStream(datum)) {
+                    this.endOfStream = true;
+                    break;
+                }
+                batch.add(datum);
+                scanned = batch.size();
+                queue.drainTo(batch, batchSize - (batch.size() - start));
+                removeEndOfStream(queue, batch, scanned);
+                remaining = deadline - System.currentTimeMillis();
+            }
         }
+        return batch.size() - start;
+    }
+
+    /**
+     * Removes end of stream markers drained into the batch.  The first one ends the stream for this task, any others
+     * belong to other tasks reading the same queue and are put back.
+     */
+    private void removeEndOfStream(BlockingQueue<StreamsDatum> queue, List<StreamsDatum> batch, int from) throws InterruptedException {
+        int markers = 0;
+        for(int i=batch.size()-1; i >= from; --i) {
+            if(EndOfStreamDatum.isEndOfStream(batch.get(i))) {
+                batch.remove(i);
+                ++markers;
+            }
+        }
+        if(markers > 0) {
+            this.endOfStream = true;
+            for(int i=1; i < markers; ++i) {
+                if(!EndOfStreamLatch.offerMarker(queue)) {
+                    LOGGER.warn("Input queue stayed full, dropping {} end of stream markers of other tasks", markers - i);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * The maximum number of datums to hand over per iteration, configured with
+     * {@link org.apache.streams.local.builders.LocalStreamBuilder#BATCH_SIZE_KEY}.  Defaults to
+     * {@link #DEFAULT_BATCH_SIZE}.  Operations that do not accept batches always get 1, so a datum they have not
+     * started on stays on the queue where other tasks can take it.
+     * @param batchCapable true if the operation accepts batches
+     * @return batch size
+     */
+    protected int getBatchSize(boolean batchCapable) {
+        return batchCapable ? getBatchSize(DEFAULT_BATCH_SIZE) : 1;
+    }
+
+    /**
+     * The maximum number of datums to hand over per iteration, configured with
+     * {@link org.apache.streams.local.builders.LocalStreamBuilder#BATCH_SIZE_KEY}.
+     * @param defaultBatchSize batch size to use if none is configured
+     * @return batch size
+     */
+    protected int getBatchSize(int defaultBatchSize) {
+        if(streamConfig != null && streamConfig.get(LocalStreamBuilder.BATCH_SIZE_KEY) instanceof Number) {
+            return Math.max(1, ((Number) streamConfig.get(LocalStreamBuilder.BATCH_SIZE_KEY)).intValue());
+        }
+        return defaultBatchSize;
+    }
+
+    /**
+     * The time in milliseconds to wait for a partial batch to fill, configured with
+     * {@link org.apache.streams.local.builders.LocalStreamBuilder#BATCH_TIMEOUT_KEY}.  Defaults to 0, which hands over
+     * whatever is available without waiting.
+     * @return batch timeout in milliseconds
+     */
+    protected long getBatchTimeout() {
+        if(streamConfig != null && streamConfig.get(LocalStreamBuilder.BATCH_TIMEOUT_KEY) instanceof Number) {
+            return Math.max(0, ((Number) streamConfig.get(LocalStreamBuilder.BATCH_TIMEOUT_KEY)).longValue());
+        }
+        return 0;
     }
 
     @Override
@@ -155,13 +449,13 @@ public abstract class BaseStreamsTask implements StreamsTask {
         try {
 
             if(datum.document instanceof ObjectNode) {
-                return copyMetaData(datum, new StreamsDatum(((ObjectNode) datum.document).deepCopy(), datum.timestamp, datum.sequenceid));
+                return copyMetaData(datum, new StreamsDatum(((ObjectNode) datum.document).deepCopy(), datum.getTimestamp(), datum.getSequenceid()));
             }
             else if(datum.document instanceof Activity) {
 
                 return copyMetaData(datum, new StreamsDatum(this.mapper.readValue(this.mapper.writeValueAsString(datum.document), Activity.class),
-                                        datum.timestamp,
-                                        datum.sequenceid));
+                                        datum.getTimestamp(),
+                                        datum.getSequenceid()));
             }
 //            else if(this.mapper.canSerialize(datum.document.getClass())){
 //                return new StreamsDatum(this.mapper.readValue(this.mapper.writeValueAsString(datum.document), datum.document.getClass()),
@@ -169,6 +463,12 @@ public abstract class BaseStreamsTask implements StreamsTask {
 //                                        datum.sequenceid);
 //            }
 
+            else if(datum instanceof SharedStreamsDatum && datum.document instanceof Serializable) {
+                return copyMetaData(datum, new StreamsDatum(SerializationUtil.cloneBySerialization((Serializable) datum.document),
+                                        datum.getId(),
+                                        datum.getTimestamp(),
+                                        datum.getSequenceid()));
+            }
             else if(datum.document instanceof Serializable) {
                 return (StreamsDatum) SerializationUtil.cloneBySerialization(datum);
             }
@@ -188,6 +488,9 @@ public abstract class BaseStreamsTask implements StreamsTask {
     }
 
     private StreamsDatum copyMetaData(StreamsDatum copyFrom, StreamsDatum copyTo) {
+        if(!copyFrom.hasMetadata()) {
+            return copyTo;
+        }
         Map<String, Object> fromMeta = copyFrom.getMetadata();
         Map<String, Object> toMeta = copyTo.getMetadata();
         for(String key : fromMeta.keySet()) {
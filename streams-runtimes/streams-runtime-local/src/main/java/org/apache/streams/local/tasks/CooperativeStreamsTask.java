@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.local.tasks;
+
+/**
+ * A {@link org.apache.streams.local.tasks.StreamsTask} that can be run in steps instead of owning a thread for its
+ * whole life.  A scheduler calls {@link #prepareTask()} once, {@link #step()} whenever there may be data on the input
+ * queue, and {@link #completeTask()} once {@link #isComplete()} returns true.  {@link #run()} still runs the whole
+ * task on the calling thread.
+ */
+public interface CooperativeStreamsTask extends StreamsTask {
+
+    /**
+     * Prepares the underlying operation.  Called once before the first step.
+     */
+    public void prepareTask();
+
+    /**
+     * Handles whatever is on the input queue without waiting for more to arrive.
+     * @return true if any datums were handled
+     */
+    public boolean step();
+
+    /**
+     * Returns true once the task has been stopped or has reached the end of its stream
+     * @return true if no more steps are needed
+     */
+    public boolean isComplete();
+
+    /**
+     * Adds a listener to run when {@link #stopTask()} is called, so a scheduler can give an idle task the turn it
+     * needs to complete.  Listeners run on the stopping thread and must not block.
+     * @param listener listener
+     */
+    public void addStopListener(Runnable listener);
+
+    /**
+     * Cleans up the underlying operation and signals downstream that this task has finished.  Called once.
+     */
+    public void completeTask();
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.local.tasks;
+
+/**
+ * How a task hands a datum to more than one output queue.
+ */
+public enum FanOutMode {
+
+    /**
+     * Every output queue receives its own deep copy of the datum.
+     */
+    CLONE,
+
+    /**
+     * Every output queue receives a {@link org.apache.streams.local.datums.SharedStreamsDatum} over the same document.
+     * Downstream processors copy the document only if another branch still holds it; writers never copy.
+     */
+    COPY_ON_WRITE
+
+}
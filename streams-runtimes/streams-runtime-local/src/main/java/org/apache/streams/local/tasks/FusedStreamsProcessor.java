@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.local.tasks;
+
+import org.apache.streams.core.BatchStreamsProcessor;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.core.StreamsProcessor;
+import org.apache.streams.core.util.DatumUtils;
+import org.apache.streams.local.counters.StreamsTaskCounter;
+import org.apache.streams.util.SerializationUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a linear chain of {@link org.apache.streams.core.StreamsProcessor}s one after the other on the calling thread,
+ * so datums do not pass through a queue and a thread hand off between every stage.  Each stage still reports to a
+ * {@link org.apache.streams.local.counters.StreamsTaskCounter} of its own.  A datum that fails in a stage gets the
+ * error added to its metadata and does not reach the following stages, as if the stages were separate tasks.  Like
+ * {@link org.apache.streams.local.tasks.StreamsProcessorTask}, a batch stage that fails has its datums processed again
+ * one at a time, so a datum only fails if it fails on its own.
+ */
+public class FusedStreamsProcessor implements BatchStreamsProcessor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FusedStreamsProcessor.class);
+
+    private final List<String> ids;
+    private final List<StreamsProcessor> processors;
+    private final transient List<StreamsTaskCounter> counters;
+
+    /**
+     * @param ids ids of the fused components, in stream order
+     * @param processors processors of the fused components, in stream order
+     * @param counters counters of the fused components, in stream order
+     */
+    public FusedStreamsProcessor(List<String> ids, List<StreamsProcessor> processors, List<StreamsTaskCounter> counters) {
+        if(ids.size() != processors.size() || processors.size() != counters.size()) {
+            throw new IllegalArgumentException("Every fused processor needs an id and a counter");
+        }
+        this.ids = Collections.unmodifiableList(new ArrayList<>(ids));
+        this.processors = Collections.unmodifiableList(new ArrayList<>(processors));
+        this.counters = Collections.unmodifiableList(new ArrayList<>(counters));
+    }
+
+    /**
+     * Creates a copy running clones of the processors that reports to the same counters.
+     * @return copy of this processor
+     */
+    public FusedStreamsProcessor copy() {
+        List<StreamsProcessor> clones = new ArrayList<>(this.processors.size());
+        for(StreamsProcessor processor : this.processors) {
+            clones.add(SerializationUtil.cloneBySerialization(processor));
+        }
+        return new FusedStreamsProcessor(this.ids, clones, this.counters);
+    }
+
+    /**
+     * Returns true if any of the fused processors is a {@link org.apache.streams.core.BatchStreamsProcessor}
+     * @return true if a stage takes batches
+     */
+    public boolean hasBatchStage() {
+        for(StreamsProcessor processor : this.processors) {
+            if(processor instanceof BatchStreamsProcessor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The ids of the fused components, in stream order
+     * @return ids
+     */
+    public List<String> getIds() {
+        return this.ids;
+    }
+
+    @Override
+    public List<StreamsDatum> process(StreamsDatum entry) {
+        List<StreamsDatum> entries = new ArrayList<>(1);
+        entries.add(entry);
+        return process(entries);
+    }
+
+    @Override
+    public List<StreamsDatum> process(List<StreamsDatum> entries) {
+        List<StreamsDatum> current = entries;
+        for(int stage=0; stage < this.processors.size() && !current.isEmpty(); ++stage) {
+            current = processStage(stage, current);
+        }
+        return current;
+    }
+
+    private List<StreamsDatum> processStage(int stage, List<StreamsDatum> entries) {
+        StreamsProcessor processor = this.processors.get(stage);
+        StreamsTaskCounter counter = this.counters.get(stage);
+        List<StreamsDatum> output = new ArrayList<>(entries.size());
+        counter.incrementReceivedCount(entries.size());
+        if(processor instanceof BatchStreamsProcessor) {
+            try {
+                long startTime = System.currentTimeMillis();
+                List<StreamsDatum> result = ((BatchStreamsProcessor) processor).process(entries);
+                counter.addTime(System.currentTimeMillis() - startTime);
+                if(result != null) {
+                    output.addAll(result);
+                }
+            } catch (Throwable t) {
+                //the results of the failed batch are dropped and each datum is retried on its own, as the unfused task
+                //does; BatchStreamsProcessor requires a failed batch call to be safe to repeat
+                LOGGER.warn("Caught Throwable in fused batch processor {}, {} : {}, processing the batch one datum at a time", this.ids.get(stage), processor.getClass().getName(), t.getMessage());
+                output.clear();
+                processEach(stage, entries, output);
+            }
+        } else {
+            processEach(stage, entries, output);
+        }
+        counter.incrementEmittedCount(output.size());
+        return output;
+    }
+
+    private void processEach(int stage, List<StreamsDatum> entries, List<StreamsDatum> output) {
+        StreamsProcessor processor = this.processors.get(stage);
+        StreamsTaskCounter counter = this.counters.get(stage);
+        for(StreamsDatum datum : entries) {
+            try {
+                long startTime = System.currentTimeMillis();
+                List<StreamsDatum> result = processor.process(datum);
+                counter.addTime(System.currentTimeMillis() - startTime);
+                if(result != null) {
+                    output.addAll(result);
+                }
+            } catch (Throwable t) {
+                counter.incrementErrorCount();
+                LOGGER.warn("Caught Throwable in fused processor {}, {} : {}", this.ids.get(stage), processor.getClass().getName(), t.getMessage());
+                DatumUtils.addErrorToMetadata(datum, t, processor.getClass());
+            }
+        }
+    }
+
+    @Override
+    public void prepare(Object configurationObject) {
+        for(StreamsProcessor processor : this.processors) {
+            processor.prepare(configurationObject);
+        }
+    }
+
+    @Override
+    public void cleanUp() {
+        for(StreamsProcessor processor : this.processors) {
+            processor.cleanUp();
+        }
+    }
+}
@@ -32,7 +32,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 /**
  *
  */
-public class StreamsPersistWriterTask extends BaseStreamsTask implements DatumStatusCountable {
+public class StreamsPersistWriterTask extends BaseStreamsTask implements CooperativeStreamsTask, DatumStatusCountable {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(StreamsPersistWriterTask.class);
 
@@ -44,6 +44,10 @@ public class StreamsPersistWriterTask extends BaseStreamsTask implements DatumSt
     private AtomicBoolean isRunning;
     private AtomicBoolean blocked;
     private StreamsTaskCounter counter;
+    private boolean batchCapable;
+    private int batchSize;
+    private long batchTimeout;
+    private List<StreamsDatum> batch;
 
     private DatumStatusCounter statusCounter = new DatumStatusCounter();
 
@@ -102,55 +106,147 @@ public class StreamsPersistWriterTask extends BaseStreamsTask implements DatumSt
     @Override
     public void run() {
         try {
-            this.writer.prepare(this.streamConfig);
-            if(this.counter == null) {
-                this.counter = new StreamsTaskCounter(this.writer.getClass().getName()+ UUID.randomUUID().toString(), getStreamIdentifier(), getStartedAt());
+            prepareTask();
+            while(!isComplete()) {
+                runBatch(IDLE_POLL_TIME_MS, this.batchTimeout);
             }
-            while(this.keepRunning.get()) {
-                StreamsDatum datum = null;
-                try {
-                    this.blocked.set(true);
-                    datum = this.inQueue.poll(5, TimeUnit.SECONDS);
-                } catch (InterruptedException ie) {
-                    LOGGER.debug("Received InterruptedException. Shutting down and re-applying interrupt status.");
-                    this.keepRunning.set(false);
-                    if(!this.inQueue.isEmpty()) {
-                        LOGGER.error("Received InteruptedException and input queue still has data, count={}, processor={}",this.inQueue.size(), this.writer.getClass().getName());
-                    }
-                    Thread.currentThread().interrupt();
-                } finally {
-                    this.blocked.set(false);
-                }
-                if(datum != null) {
-                    this.counter.incrementReceivedCount();
-                    try {
-                        long startTime = System.currentTimeMillis();
-                        this.writer.write(datum);
-                        this.counter.addTime(System.currentTimeMillis() - startTime);
-                        statusCounter.incrementStatus(DatumStatus.SUCCESS);
-                    } catch (Exception e) {
-                        LOGGER.error("Error writing to persist writer {}", this.writer.getClass().getSimpleName(), e);
-                        this.keepRunning.set(false); // why do we shutdown on a failed write ?
-                        statusCounter.incrementStatus(DatumStatus.FAIL);
-                        DatumUtils.addErrorToMetadata(datum, e, this.writer.getClass());
-                        this.counter.incrementErrorCount();
-                    }
-                } else { //datums should never be null
-                    LOGGER.debug("Received null StreamsDatum @ writer : {}", this.writer.getClass().getName());
-                }
-            }
-
         } catch(Exception e) {
             LOGGER.error("Failed to execute Persist Writer {}",this.writer.getClass().getSimpleName(), e);
         } finally {
-            this.writer.cleanUp();
-            this.isRunning.set(false);
+            completeTask();
+        }
+    }
+
+    @Override
+    public void prepareTask() {
+        this.writer.prepare(this.streamConfig);
+        if(this.counter == null) {
+            this.counter = new StreamsTaskCounter(this.writer.getClass().getName()+ UUID.randomUUID().toString(), getStreamIdentifier(), getStartedAt());
+        }
+        this.batchCapable = this.writer instanceof BatchStreamsPersistWriter;
+        this.batchSize = getBatchSize(this.batchCapable);
+        this.batchTimeout = getBatchTimeout();
+        this.batch = new ArrayList<>(this.batchSize);
+    }
+
+    @Override
+    public boolean step() {
+        return runBatch(0, 0);
+    }
+
+    @Override
+    public boolean isComplete() {
+        return !this.keepRunning.get() || isEndOfStream();
+    }
+
+    @Override
+    public void completeTask() {
+        this.writer.cleanUp();
+        this.isRunning.set(false);
+    }
+
+    /**
+     * Takes a batch from the inbound queue and writes it.
+     * @param pollTimeout time to wait for the first datum in milliseconds
+     * @param batchTimeout time to wait for the batch to fill in milliseconds
+     * @return true if any datums were written
+     */
+    private boolean runBatch(long pollTimeout, long batchTimeout) {
+        try {
+            this.blocked.set(true);
+            fillBatch(this.inQueue, this.batch, this.batchSize, pollTimeout, batchTimeout);
+        } catch (InterruptedException ie) {
+            LOGGER.debug("Received InterruptedException. Shutting down and re-applying interrupt status.");
+            this.keepRunning.set(false);
+            if(!this.inQueue.isEmpty()) {
+                LOGGER.error("Received InteruptedException and input queue still has data, count={}, processor={}",this.inQueue.size(), this.writer.getClass().getName());
+            }
+            Thread.currentThread().interrupt();
+        } finally {
+            this.blocked.set(false);
+        }
+        if(this.batch.isEmpty()) { //datums should never be null
+            LOGGER.debug("Received null StreamsDatum @ writer : {}", this.writer.getClass().getName());
+            return false;
+        }
+        this.counter.incrementReceivedCount(this.batch.size());
+        if(this.batchCapable) {
+            writeBatch(this.batch);
+        } else {
+            for(int i=0; i < this.batch.size(); ++i) {
+                if(!writeDatum(this.batch.get(i))) {
+                    failRemaining(this.batch, i + 1);
+                    break;
+                }
+            }
+        }
+        this.batch.clear();
+        return true;
+    }
+
+    /**
+     * Counts the datums of the batch that were not written because the task stopped as failed.
+     * @param batch batch being written
+     * @param from index of the first datum that was not written
+     */
+    private void failRemaining(List<StreamsDatum> batch, int from) {
+        int remaining = batch.size() - from;
+        if(remaining > 0) {
+            LOGGER.warn("Task stopped with {} datums of its batch unwritten at writer : {}", remaining, this.writer.getClass().getName());
+            this.counter.incrementErrorCount(remaining);
+            statusCounter.incrementStatus(DatumStatus.FAIL, remaining);
+        }
+    }
+
+    /**
+     * Writes a single datum.
+     * @param datum datum to write
+     * @return false if the write failed and the task is shutting down
+     */
+    private boolean writeDatum(StreamsDatum datum) {
+        try {
+            long startTime = System.currentTimeMillis();
+            this.writer.write(datum);
+            this.counter.addTime(System.currentTimeMillis() - startTime);
+            statusCounter.incrementStatus(DatumStatus.SUCCESS);
+            return true;
+        } catch (Exception e) {
+            LOGGER.error("Error writing to persist writer {}", this.writer.getClass().getSimpleName(), e);
+            this.keepRunning.set(false); // why do we shutdown on a failed write ?
+            statusCounter.incrementStatus(DatumStatus.FAIL);
+            DatumUtils.addErrorToMetadata(datum, e, this.writer.getClass());
+            this.counter.incrementErrorCount();
+            return false;
+        }
+    }
+
+    /**
+     * Hands the whole batch to a {@link org.apache.streams.core.BatchStreamsPersistWriter}.
+     * @param batch datums to write
+     */
+    private void writeBatch(List<StreamsDatum> batch) {
+        try {
+            long startTime = System.currentTimeMillis();
+            ((BatchStreamsPersistWriter) this.writer).write(batch);
+            this.counter.addTime(System.currentTimeMillis() - startTime);
+            for(int i=0; i < batch.size(); ++i) {
+                statusCounter.incrementStatus(DatumStatus.SUCCESS);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Error writing to persist writer {}", this.writer.getClass().getSimpleName(), e);
+            this.keepRunning.set(false); // why do we shutdown on a failed write ?
+            for(StreamsDatum datum : batch) {
+                statusCounter.incrementStatus(DatumStatus.FAIL);
+                DatumUtils.addErrorToMetadata(datum, e, this.writer.getClass());
+            }
+            this.counter.incrementErrorCount(batch.size());
         }
     }
 
     @Override
     public void stopTask() {
         this.keepRunning.set(false);
+        signalStopped();
     }
 
 
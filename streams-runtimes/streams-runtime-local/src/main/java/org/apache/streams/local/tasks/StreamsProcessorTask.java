@@ -33,7 +33,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 /**
  *
  */
-public class StreamsProcessorTask extends BaseStreamsTask implements DatumStatusCountable {
+public class StreamsProcessorTask extends BaseStreamsTask implements CooperativeStreamsTask, DatumStatusCountable {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(StreamsProcessorTask.class);
 
@@ -46,6 +46,10 @@ public class StreamsProcessorTask extends BaseStreamsTask implements DatumStatus
     private AtomicBoolean isRunning;
     private AtomicBoolean blocked;
     private StreamsTaskCounter counter;
+    private boolean batchCapable;
+    private int batchSize;
+    private long batchTimeout;
+    private List<StreamsDatum> batch;
 
     private DatumStatusCounter statusCounter = new DatumStatusCounter();
 
@@ -91,6 +95,7 @@ public class StreamsProcessorTask extends BaseStreamsTask implements DatumStatus
     @Override
     public void stopTask() {
         this.keepRunning.set(false);
+        signalStopped();
     }
 
     @Override
@@ -111,56 +116,191 @@ public class StreamsProcessorTask extends BaseStreamsTask implements DatumStatus
     @Override
     public void run() {
         try {
-            this.processor.prepare(this.streamConfig);
-            if(this.counter == null) {
-                this.counter = new StreamsTaskCounter(this.processor.getClass().getName()+ UUID.randomUUID().toString(), getStreamIdentifier(), getStartedAt());
+            prepareTask();
+            while(!isComplete()) {
+                runBatch(IDLE_POLL_TIME_MS, this.batchTimeout);
             }
-            while(this.keepRunning.get()) {
-                StreamsDatum datum = null;
-                try {
-                    this.blocked.set(true);
-                    datum = this.inQueue.poll(5, TimeUnit.SECONDS);
-                } catch (InterruptedException ie) {
-                    LOGGER.debug("Received InteruptedException, shutting down and re-applying interrupt status.");
-                    this.keepRunning.set(false);
-                    if(!this.inQueue.isEmpty()) {
-                        LOGGER.error("Received InteruptedException and input queue still has data, count={}, processor={}",this.inQueue.size(), this.processor.getClass().getName());
-                    }
-                    Thread.currentThread().interrupt();
-                } finally {
-                    this.blocked.set(false);
-                }
-                if(datum != null) {
-                    this.counter.incrementReceivedCount();
-                    try {
-                        long startTime = System.currentTimeMillis();
-                        List<StreamsDatum> output = this.processor.process(datum);
-                        this.counter.addTime(System.currentTimeMillis() - startTime);
-                        if(output != null) {
-                            for(StreamsDatum outDatum : output) {
-                                super.addToOutgoingQueue(outDatum);
-                                this.counter.incrementEmittedCount();
-                                statusCounter.incrementStatus(DatumStatus.SUCCESS);
-                            }
-                        }
-                    } catch (InterruptedException ie) {
-                        LOGGER.warn("Received InteruptedException, shutting down and re-applying interrupt status.");
-                        this.keepRunning.set(false);
-                        Thread.currentThread().interrupt();
-                    } catch (Throwable t) {
-                        this.counter.incrementErrorCount();
-                        LOGGER.warn("Caught Throwable in processor, {} : {}", this.processor.getClass().getName(), t.getMessage());
-                        statusCounter.incrementStatus(DatumStatus.FAIL);
-                        //Add the error to the metadata, but keep processing
-                        DatumUtils.addErrorToMetadata(datum, t, this.processor.getClass());
-                    }
-                } else {
-                    LOGGER.debug("Removed NULL datum from queue at processor : {}", this.processor.getClass().getName());
-                }
+        } finally {
+            completeTask();
+        }
+    }
+
+    @Override
+    public void prepareTask() {
+        this.processor.prepare(this.streamConfig);
+        if(this.counter == null) {
+            this.counter = new StreamsTaskCounter(this.processor.getClass().getName()+ UUID.randomUUID().toString(), getStreamIdentifier(), getStartedAt());
+        }
+        this.batchCapable = this.processor instanceof BatchStreamsProcessor;
+        if(this.processor instanceof FusedStreamsProcessor) {
+            //a fused chain only takes batches by default if one of its stages does
+            this.batchSize = getBatchSize(((FusedStreamsProcessor) this.processor).hasBatchStage() ? DEFAULT_BATCH_SIZE : 1);
+        } else {
+            this.batchSize = getBatchSize(this.batchCapable);
+        }
+        this.batchTimeout = getBatchTimeout();
+        this.batch = new ArrayList<>(this.batchSize);
+    }
+
+    @Override
+    public boolean step() {
+        return runBatch(0, 0);
+    }
+
+    @Override
+    public boolean isComplete() {
+        return !this.keepRunning.get() || isEndOfStream();
+    }
+
+    @Override
+    public void completeTask() {
+        this.isRunning.set(false);
+        signalEndOfStream();
+        this.processor.cleanUp();
+    }
+
+    /**
+     * Takes a batch from the inbound queue and processes it.
+     * @param pollTimeout time to wait for the first datum in milliseconds
+     * @param batchTimeout time to wait for the batch to fill in milliseconds
+     * @return true if any datums were processed
+     */
+    private boolean runBatch(long pollTimeout, long batchTimeout) {
+        try {
+            this.blocked.set(true);
+            fillBatch(this.inQueue, this.batch, this.batchSize, pollTimeout, batchTimeout);
+        } catch (InterruptedException ie) {
+            LOGGER.debug("Received InteruptedException, shutting down and re-applying interrupt status.");
+            this.keepRunning.set(false);
+            if(!this.inQueue.isEmpty()) {
+                LOGGER.error("Received InteruptedException and input queue still has data, count={}, processor={}",this.inQueue.size(), this.processor.getClass().getName());
             }
+            Thread.currentThread().interrupt();
         } finally {
-            this.isRunning.set(false);
-            this.processor.cleanUp();
+            this.blocked.set(false);
+        }
+        if(this.batch.isEmpty()) {
+            LOGGER.debug("Removed NULL datum from queue at processor : {}", this.processor.getClass().getName());
+            return false;
+        }
+        this.counter.incrementReceivedCount(this.batch.size());
+        if(this.batchCapable) {
+            processBatch(this.batch);
+        } else {
+            processEach(this.batch);
+        }
+        this.batch.clear();
+        return true;
+    }
+
+    /**
+     * Processes the datums one at a time.  If the task is interrupted the datums that were not processed yet are
+     * counted as failed, they cannot be put back once the task has stopped.
+     * @param batch datums to process
+     */
+    private void processEach(List<StreamsDatum> batch) {
+        for(int i=0; i < batch.size(); ++i) {
+            if(!processDatum(batch.get(i))) {
+                failRemaining(batch, i + 1);
+                return;
+            }
+        }
+    }
+
+    private void failRemaining(List<StreamsDatum> batch, int from) {
+        int remaining = batch.size() - from;
+        if(remaining > 0) {
+            LOGGER.warn("Task stopped with {} datums of its batch unprocessed at processor : {}", remaining, this.processor.getClass().getName());
+            this.counter.incrementErrorCount(remaining);
+            statusCounter.incrementStatus(DatumStatus.FAIL, remaining);
+        }
+    }
+
+    /**
+     * Processes a single datum and emits the results.
+     * @param datum datum to process
+     * @return false if the task was interrupted while emitting results
+     */
+    private boolean processDatum(StreamsDatum datum) {
+        datum = claimStreamsDatum(datum);
+        if(datum == null) {
+            failUnclaimed();
+            return true;
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            List<StreamsDatum> output = this.processor.process(datum);
+            this.counter.addTime(System.currentTimeMillis() - startTime);
+            emit(output);
+        } catch (InterruptedException ie) {
+            LOGGER.warn("Received InteruptedException, shutting down and re-applying interrupt status.");
+            this.keepRunning.set(false);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Throwable t) {
+            this.counter.incrementErrorCount();
+            LOGGER.warn("Caught Throwable in processor, {} : {}", this.processor.getClass().getName(), t.getMessage());
+            statusCounter.incrementStatus(DatumStatus.FAIL);
+            //Add the error to the metadata, but keep processing
+            DatumUtils.addErrorToMetadata(datum, t, this.processor.getClass());
+        }
+        return true;
+    }
+
+    /**
+     * Hands the whole batch to a {@link org.apache.streams.core.BatchStreamsProcessor} and emits the results.  If the
+     * batch call fails the datums are handed to {@link org.apache.streams.core.StreamsProcessor#process(StreamsDatum)}
+     * one at a time instead, which the contract of BatchStreamsProcessor requires to be safe.
+     * @param batch datums to process
+     */
+    private void processBatch(List<StreamsDatum> batch) {
+        ListIterator<StreamsDatum> claiming = batch.listIterator();
+        while(claiming.hasNext()) {
+            StreamsDatum datum = claimStreamsDatum(claiming.next());
+            if(datum == null) {
+                failUnclaimed();
+                claiming.remove();
+            } else {
+                claiming.set(datum);
+            }
+        }
+        if(batch.isEmpty()) {
+            return;
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            List<StreamsDatum> output = ((BatchStreamsProcessor) this.processor).process(batch);
+            this.counter.addTime(System.currentTimeMillis() - startTime);
+            emit(output);
+        } catch (InterruptedException ie) {
+            LOGGER.warn("Received InteruptedException, shutting down and re-applying interrupt status.");
+            this.keepRunning.set(false);
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            //the results of a failed batch are not emitted, so each datum is retried on its own and only fails if it fails
+            //there; BatchStreamsProcessor requires a failed batch call to be safe to repeat
+            LOGGER.warn("Caught Throwable in batch processor, {} : {}, processing the batch one datum at a time", this.processor.getClass().getName(), t.getMessage());
+            processEach(batch);
+        }
+    }
+
+    /**
+     * Counts a shared datum whose document could not be copied as failed.  The processor never sees it, handing it the
+     * shared document would let it mutate the document under the other branches.
+     */
+    private void failUnclaimed() {
+        this.counter.incrementErrorCount();
+        statusCounter.incrementStatus(DatumStatus.FAIL);
+        LOGGER.warn("Could not copy shared document, dropping datum at processor : {}", this.processor.getClass().getName());
+    }
+
+    private void emit(List<StreamsDatum> output) throws InterruptedException {
+        if(output != null) {
+            for(StreamsDatum outDatum : output) {
+                super.addToOutgoingQueue(outDatum);
+                this.counter.incrementEmittedCount();
+                statusCounter.incrementStatus(DatumStatus.SUCCESS);
+            }
         }
     }
 
@@ -21,6 +21,7 @@ package org.apache.streams.local.tasks;
 import org.apache.streams.core.*;
 import org.apache.streams.core.util.DatumUtils;
 import org.apache.streams.local.counters.StreamsTaskCounter;
+import org.apache.streams.local.queues.SignallingBlockingQueue;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +31,8 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -67,6 +70,19 @@ public class StreamsProviderTask extends BaseStreamsTask implements DatumStatusC
     private int zeros = 0;
     private DatumStatusCounter statusCounter = new DatumStatusCounter();
     private StreamsTaskCounter counter;
+    /**
+     * Released by the downstream tasks when they take from an outbound queue.  Holds at most one permit, the permit only
+     * says that credits may have been granted since the last look.
+     */
+    private final Semaphore granted = new Semaphore(0);
+    private final Runnable grant = new Runnable() {
+        @Override
+        public void run() {
+            if(granted.availablePermits() == 0) {
+                granted.release();
+            }
+        }
+    };
 
     /**
      * Constructor for a StreamsProvider to execute {@link org.apache.streams.core.StreamsProvider:readCurrent()}
@@ -131,6 +147,7 @@ public class StreamsProviderTask extends BaseStreamsTask implements DatumStatusC
     public void stopTask() {
         LOGGER.debug("Stopping Provider Task for {}", this.provider.getClass().getSimpleName());
         this.keepRunning.set(false);
+        this.grant.run(); //wake up a task waiting for credits
     }
 
     @Override
@@ -138,6 +155,18 @@ public class StreamsProviderTask extends BaseStreamsTask implements DatumStatusC
         throw new UnsupportedOperationException(this.getClass().getName()+" does not support method - setInputQueue()");
     }
 
+    /**
+     * Outbound queues that are {@link org.apache.streams.local.queues.SignallingBlockingQueue}s grant credits when
+     * something is taken from them.
+     */
+    @Override
+    public void addOutputQueue(BlockingQueue<StreamsDatum> outputQueue) {
+        super.addOutputQueue(outputQueue);
+        if(outputQueue instanceof SignallingBlockingQueue) {
+            ((SignallingBlockingQueue<StreamsDatum>) outputQueue).addTakeListener(this.grant);
+        }
+    }
+
     @Override
     public void setStreamConfig(Map<String, Object> config) {
         this.config = config;
@@ -160,8 +189,12 @@ public class StreamsProviderTask extends BaseStreamsTask implements DatumStatusC
                     this.started.set(true);
                     while(this.isRunning()) {
                         try {
+                            int credits = awaitCredits();
+                            if(credits == 0) {
+                                break; //stopped while waiting
+                            }
                             long startTime = System.currentTimeMillis();
-                            resultSet = provider.readCurrent();
+                            resultSet = readCurrent(credits);
                             this.counter.addTime(System.currentTimeMillis() - startTime);
                             if( resultSet.size() == 0 )
                                 zeros++;
@@ -172,7 +205,8 @@ public class StreamsProviderTask extends BaseStreamsTask implements DatumStatusC
                             // the way this works needs to change...
                             if(zeros > maxZeros)
                                 this.keepRunning.set(false);
-                            if(zeros > 0)
+                            //no point waiting for more data once the provider has finished
+                            if(zeros > 0 && this.isRunning())
                                 Thread.sleep(sleepTime);
                         } catch (InterruptedException e) {
                             this.counter.incrementErrorCount();
@@ -203,6 +237,7 @@ public class StreamsProviderTask extends BaseStreamsTask implements DatumStatusC
             LOGGER.error("Error in processing provider stream", e);
         } finally {
             LOGGER.debug("Complete Provider Task execution for {}", this.provider.getClass().getSimpleName());
+            signalEndOfStream();
             this.provider.cleanUp();
             //Setting started to 'true' here will allow the isRunning() method to return false in the event of an exception
             //before started would normally be set to true n the run method.
@@ -220,6 +255,50 @@ public class StreamsProviderTask extends BaseStreamsTask implements DatumStatusC
         return !this.started.get() || this.flushing.get() || (this.provider.isRunning() && this.keepRunning.get());
     }
 
+    /**
+     * Waits until the downstream tasks have granted credits by taking datums off the outbound queues.  The credits are
+     * the room left in the fullest outbound queue, so a stalled component stops the provider from being read, and
+     * through the blocking queues between them this pressure reaches back from writers to providers.  The task is woken
+     * up by the takes on its {@link org.apache.streams.local.queues.SignallingBlockingQueue} outbound queues, other
+     * outbound queues are looked at again every sleep time.
+     * <p/>
+     * Only perpetual streams wait for credits.  The other stream types read their provider once, in full, and are held
+     * back only by blocking on the bounded outbound queues while they hand the result over, so a provider that buffers
+     * its whole result set is not held back by them.
+     * @return credits available, 0 only if the task was stopped while waiting
+     * @throws InterruptedException
+     */
+    protected int awaitCredits() throws InterruptedException {
+        int credits = getCredits();
+        while(credits == 0 && this.keepRunning.get()) {
+            this.granted.tryAcquire(Math.max(1, this.sleepTime), TimeUnit.MILLISECONDS);
+            credits = getCredits();
+        }
+        return credits;
+    }
+
+    /**
+     * The number of datums the outbound queues can take without blocking
+     * @return credits
+     */
+    protected int getCredits() {
+        int credits = Integer.MAX_VALUE;
+        for(BlockingQueue<StreamsDatum> queue : getOutputQueues()) {
+            credits = Math.min(credits, queue.remainingCapacity());
+        }
+        return credits;
+    }
+
+    /**
+     * Tells a {@link org.apache.streams.core.BoundedStreamsProvider} how much the stream can take
+     */
+    private StreamsResultSet readCurrent(int credits) {
+        if(this.provider instanceof BoundedStreamsProvider) {
+            return ((BoundedStreamsProvider) this.provider).readCurrent(credits);
+        }
+        return this.provider.readCurrent();
+    }
+
     public void flushResults(StreamsResultSet resultSet) {
         Queue<StreamsDatum> queue = resultSet.getQueue();
         this.flushing.set(true);
@@ -36,6 +36,11 @@ public interface StreamsTask extends Runnable{
      */
     static final long DEFAULT_SLEEP_TIME_MS = 5000;
 
+    /**
+     * How long an idle task waits for data before it checks whether it was stopped
+     */
+    static final long IDLE_POLL_TIME_MS = 500;
+
     /**
      * Represents the default amount of time to wait for new data to flow through the system before assuming it should
      * shut down
@@ -25,6 +25,7 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -38,6 +39,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import com.carrotsearch.randomizedtesting.RandomizedTest;
 import com.carrotsearch.randomizedtesting.annotations.Repeat;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
 import com.google.common.collect.Lists;
 import org.apache.streams.core.StreamBuilder;
 import org.apache.streams.core.StreamsDatum;
@@ -45,6 +47,7 @@ import org.apache.streams.core.StreamsPersistWriter;
 import org.apache.streams.core.StreamsProcessor;
 import org.apache.streams.local.counters.StreamsTaskCounter;
 import org.apache.streams.local.queues.ThroughputQueue;
+import org.apache.streams.local.tasks.FanOutMode;
 import org.apache.streams.local.test.processors.PassthroughDatumCounterProcessor;
 import org.apache.streams.local.test.processors.SlowProcessor;
 import org.apache.streams.local.test.providers.EmptyResultSetProvider;
@@ -74,6 +77,7 @@ import javax.management.*;
  *
  *
  */
+@ThreadLeakLingering(linger = 5000) //executor threads can still be exiting when a stream returns from start()
 public class LocalStreamBuilderTest extends RandomizedTest {
     private static final String MBEAN_ID = "test_id";
     private static final String STREAM_ID = "test_stream";
@@ -226,6 +230,187 @@ public class LocalStreamBuilderTest extends RandomizedTest {
         }
     }
 
+    @Test
+    public void testFusedProcessorChain() throws Exception {
+        String processorId = "fused_proc";
+        int numProcessors = randomIntBetween(2, 6);
+        int numTasks = randomIntBetween(1, 3);
+        int numDatums = randomIntBetween(1, 100000);
+        try {
+            Map<String, Object> config = Maps.newHashMap();
+            config.put(LocalStreamBuilder.FUSE_PROCESSORS_KEY, true);
+            StreamBuilder builder = new LocalStreamBuilder(50, config);
+            builder.newPerpetualStream("numeric_provider", new NumericMessageProvider(numDatums));
+            String connectTo = "numeric_provider";
+            for(int i=0; i < numProcessors; ++i) {
+                builder.addStreamsProcessor(processorId+i, new PassthroughDatumCounterProcessor(processorId+i), numTasks, connectTo);
+                connectTo = processorId+i;
+            }
+            builder.addStreamsPersistWriter("writer", new DatumCounterWriter("writer"), 1, connectTo);
+            builder.start();
+
+            assertEquals(numDatums, DatumCounterWriter.RECEIVED.get("writer").size());
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            for(int i=0; i < numProcessors; ++i) {
+                assertEquals(numDatums, PassthroughDatumCounterProcessor.COUNTS.get(processorId+i).get());
+                //every stage of the fused chain still reports its own counts
+                Set<ObjectName> names = mbs.queryNames(new ObjectName("org.apache.streams.local:type=StreamsTaskCounter,name="+processorId+i+",*"), null);
+                assertEquals(1, names.size());
+                assertEquals((long) numDatums, mbs.getAttribute(names.iterator().next(), "NumReceived"));
+                assertEquals((long) numDatums, mbs.getAttribute(names.iterator().next(), "NumEmitted"));
+                //only the head of the chain keeps an inbound queue
+                Set<ObjectName> queues = mbs.queryNames(new ObjectName("org.apache.streams.local:type=ThroughputQueue,name="+processorId+i+",*"), null);
+                assertEquals(i == 0 ? 1 : 0, queues.size());
+            }
+            //the datums were processed by a single set of tasks for the whole chain
+            assertEquals(numTasks, PassthroughDatumCounterProcessor.CLAIMED_ID.size() / numProcessors);
+        } finally {
+            for(int i=0; i < numProcessors; ++i) {
+                removeRegisteredMBeans(processorId+i);
+            }
+            removeRegisteredMBeans("writer", "numeric_provider");
+        }
+    }
+
+    @Test
+    public void testBranchesAreNotFused() {
+        int numDatums = randomIntBetween(1, 10000);
+        try {
+            Map<String, Object> config = Maps.newHashMap();
+            config.put(LocalStreamBuilder.FUSE_PROCESSORS_KEY, "true");
+            StreamBuilder builder = new LocalStreamBuilder(50, config);
+            builder.newPerpetualStream("prov1", new NumericMessageProvider(numDatums))
+                    .addStreamsProcessor("proc1", new PassthroughDatumCounterProcessor("proc1"), 1, "prov1")
+                    .addStreamsProcessor("proc2", new PassthroughDatumCounterProcessor("proc2"), 1, "proc1")
+                    .addStreamsProcessor("proc3", new PassthroughDatumCounterProcessor("proc3"), 1, "proc1")
+                    .addStreamsProcessor("proc4", new PassthroughDatumCounterProcessor("proc4"), 2, "proc3")
+                    .addStreamsPersistWriter("w1", new DatumCounterWriter("writer"), 1, "proc2", "proc4");
+            builder.start();
+            for(String id : new String[] {"proc1", "proc2", "proc3", "proc4"}) {
+                assertEquals(numDatums, PassthroughDatumCounterProcessor.COUNTS.get(id).get());
+            }
+            assertEquals(numDatums * 2, DatumCounterWriter.COUNTS.get("writer").get());
+        } finally {
+            removeRegisteredMBeans("prov1", "proc1", "proc2", "proc3", "proc4", "w1");
+        }
+    }
+
+    @Test
+    public void testRingBufferQueueLinearStream() {
+        String processorId = "proc";
+        int numProcessors = randomIntBetween(1, 10);
+        int numDatums = randomIntBetween(1, 300000);
+        try {
+            Map<String, Object> config = Maps.newHashMap();
+            config.put(LocalStreamBuilder.QUEUE_TYPE_KEY, LocalStreamBuilder.RING_BUFFER_QUEUE_TYPE);
+            StreamBuilder builder = new LocalStreamBuilder(50, config);
+            builder.newPerpetualStream("numeric_provider", new NumericMessageProvider(numDatums));
+            String connectTo = null;
+            for(int i=0; i < numProcessors; ++i) {
+                if(i == 0) {
+                    connectTo = "numeric_provider";
+                } else {
+                    connectTo = processorId+(i-1);
+                }
+                int parallelHint = randomIntBetween(1,5);
+                builder.addStreamsProcessor(processorId+i, new PassthroughDatumCounterProcessor(processorId+i), parallelHint, connectTo);
+            }
+            builder.addStreamsPersistWriter("writer", new DatumCounterWriter("writer"), 1, processorId+(numProcessors-1));
+            builder.start();
+
+            assertEquals(numDatums, DatumCounterWriter.RECEIVED.get("writer").size());
+            for(int i=0; i < numProcessors; ++i) {
+                assertEquals(numDatums, PassthroughDatumCounterProcessor.COUNTS.get(processorId+i).get());
+            }
+        } finally {
+            for(int i=0; i < numProcessors; ++i) {
+                removeRegisteredMBeans(processorId+i);
+            }
+            removeRegisteredMBeans("writer", "numeric_provider");
+        }
+    }
+
+    @Test
+    public void testStreamCompletesOnEndOfStream() {
+        try {
+            int numDatums = randomIntBetween(1, 1000);
+            StreamBuilder builder = new LocalStreamBuilder(50);
+            builder.newPerpetualStream("prov1", new NumericMessageProvider(numDatums))
+                    .addStreamsProcessor("proc1", new PassthroughDatumCounterProcessor("proc1"), randomIntBetween(1, 5), "prov1")
+                    .addStreamsPersistWriter("w1", new DatumCounterWriter("writer"), randomIntBetween(1, 5), "proc1");
+            long start = System.currentTimeMillis();
+            builder.start();
+            //completion used to be polled every 3 seconds and each task given 500ms to stop
+            assertThat(System.currentTimeMillis() - start, lessThan(3000L));
+            assertEquals(numDatums, PassthroughDatumCounterProcessor.COUNTS.get("proc1").get());
+            assertEquals(numDatums, DatumCounterWriter.COUNTS.get("writer").get());
+        } finally {
+            removeRegisteredMBeans("prov1", "proc1", "w1");
+        }
+    }
+
+    @Test
+    public void testStreamCompletesWhenWriterExits() throws Exception {
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        try {
+            StreamsPersistWriter writer = mock(StreamsPersistWriter.class);
+            doThrow(new RuntimeException("Testing writer failure")).when(writer).prepare(any());
+            final StreamBuilder builder = new LocalStreamBuilder(10);
+            builder.newPerpetualStream("prov1", new NumericMessageProvider(10000))
+                    .addStreamsProcessor("proc1", new PassthroughDatumCounterProcessor("proc1"), 1, "prov1")
+                    .addStreamsPersistWriter("w1", writer, 1, "proc1");
+            Future<?> started = service.submit(new Runnable() {
+                @Override
+                public void run() {
+                    builder.start();
+                }
+            });
+            //upstream tasks used to block forever on the full queue of the writer that was gone
+            started.get(30, TimeUnit.SECONDS);
+            assertThat(PassthroughDatumCounterProcessor.COUNTS.get("proc1").get(), lessThan(10000L));
+        } finally {
+            service.shutdownNow();
+            service.awaitTermination(5, TimeUnit.SECONDS);
+            removeRegisteredMBeans("prov1", "proc1", "w1");
+        }
+    }
+
+    @Test
+    public void testForkJoinExecutorLinearStream() {
+        String processorId = "fj_proc";
+        int numProcessors = randomIntBetween(1, 10);
+        int numDatums = randomIntBetween(1, 300000);
+        try {
+            Map<String, Object> config = Maps.newHashMap();
+            config.put(LocalStreamBuilder.EXECUTOR_TYPE_KEY, LocalStreamBuilder.FORK_JOIN_EXECUTOR_TYPE);
+            config.put(LocalStreamBuilder.PARALLELISM_KEY, randomIntBetween(1, 4));
+            StreamBuilder builder = new LocalStreamBuilder(50, config);
+            builder.newPerpetualStream("numeric_provider", new NumericMessageProvider(numDatums));
+            String connectTo = null;
+            for(int i=0; i < numProcessors; ++i) {
+                if(i == 0) {
+                    connectTo = "numeric_provider";
+                } else {
+                    connectTo = processorId+(i-1);
+                }
+                int parallelHint = randomIntBetween(1,5);
+                builder.addStreamsProcessor(processorId+i, new PassthroughDatumCounterProcessor(processorId+i), parallelHint, connectTo);
+            }
+            builder.addStreamsPersistWriter("fj_writer", new DatumCounterWriter("fj_writer"), randomIntBetween(1, 3), processorId+(numProcessors-1));
+            builder.start();
+
+            assertEquals(numDatums, DatumCounterWriter.COUNTS.get("fj_writer").get());
+            for(int i=0; i < numProcessors; ++i) {
+                assertEquals(numDatums, PassthroughDatumCounterProcessor.COUNTS.get(processorId+i).get());
+            }
+        } finally {
+            for(int i=0; i < numProcessors; ++i) {
+                removeRegisteredMBeans(processorId+i);
+            }
+            removeRegisteredMBeans("fj_writer", "numeric_provider");
+        }
+    }
+
     @Test
     public void testBasicMergeStream() {
         try {
@@ -271,6 +456,66 @@ public class LocalStreamBuilderTest extends RandomizedTest {
         }
     }
 
+    @Test
+    public void testCopyOnWriteBranch() {
+        try {
+            int numDatums = randomIntBetween(1, 300000);
+            LocalStreamBuilder builder = new LocalStreamBuilder(50);
+            builder.newPerpetualStream("prov1", new NumericMessageProvider(numDatums))
+                    .addStreamsProcessor("proc1", new PassthroughDatumCounterProcessor("proc1"), 1, "prov1")
+                    .addStreamsProcessor("proc2", new PassthroughDatumCounterProcessor("proc2"), 1, "prov1")
+                    .addStreamsPersistWriter("w1", new DatumCounterWriter("writer"), 1, "proc1", "proc2");
+            builder.setFanOutMode("prov1", FanOutMode.COPY_ON_WRITE);
+            builder.start();
+            assertEquals(numDatums, PassthroughDatumCounterProcessor.COUNTS.get("proc1").get());
+            assertEquals(numDatums, PassthroughDatumCounterProcessor.COUNTS.get("proc2").get());
+            assertEquals(numDatums*2, DatumCounterWriter.COUNTS.get("writer").get());
+        } finally {
+            removeRegisteredMBeans("prov1", "proc1", "proc2", "w1");
+        }
+    }
+
+    @Test(expected = InvalidStreamException.class)
+    public void testFanOutModeOfUnknownId() {
+        new LocalStreamBuilder().setFanOutMode("missing", FanOutMode.COPY_ON_WRITE);
+    }
+
+    @Test
+    public void testAutoscaledSlowProcessor() {
+        try {
+            int numDatums = 200;
+            Map<String, Object> config = Maps.newHashMap();
+            config.put(LocalStreamBuilder.AUTOSCALE_INTERVAL_KEY, 100);
+            LocalStreamBuilder builder = new LocalStreamBuilder(50, config);
+            builder.newPerpetualStream("prov1", new NumericMessageProvider(numDatums))
+                    .addStreamsProcessor("proc1", new SlowProcessor(10), 1, "prov1")
+                    .addStreamsPersistWriter("w1", new DatumCounterWriter("writer"), 1, "proc1");
+            builder.setParallelismBounds("proc1", 1, 4);
+            long start = System.currentTimeMillis();
+            builder.start();
+            //a single task needs at least 2 seconds to sleep through every datum
+            assertThat(System.currentTimeMillis() - start, lessThan(2000L));
+            assertEquals(numDatums, DatumCounterWriter.COUNTS.get("writer").get());
+        } finally {
+            removeRegisteredMBeans("prov1", "proc1", "w1");
+        }
+    }
+
+    @Test(expected = InvalidStreamException.class)
+    public void testParallelismBoundsOfProvider() {
+        LocalStreamBuilder builder = new LocalStreamBuilder();
+        builder.newPerpetualStream("prov1", new NumericMessageProvider(1));
+        builder.setParallelismBounds("prov1", 1, 2);
+    }
+
+    @Test(expected = InvalidStreamException.class)
+    public void testInvalidParallelismBounds() {
+        LocalStreamBuilder builder = new LocalStreamBuilder();
+        builder.newPerpetualStream("prov1", new NumericMessageProvider(1))
+                .addStreamsPersistWriter("w1", new DatumCounterWriter("writer"), 1, "prov1");
+        builder.setParallelismBounds("w1", 3, 2);
+    }
+
     @Test
     public void testSlowProcessorBranch() {
         try {
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.local.builders;
+
+import org.apache.streams.local.queues.EndOfStreamLatch;
+import org.apache.streams.local.queues.ThroughputQueue;
+import org.apache.streams.core.StreamsDatum;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link org.apache.streams.local.builders.StreamComponentAutoscaler}
+ */
+public class StreamComponentAutoscalerTest {
+
+    private static final long INTERVAL = 1000;
+    private static final long MAX_WAIT = 500;
+
+    private StreamComponentAutoscaler autoscaler = new StreamComponentAutoscaler(null, Collections.<StreamComponent>emptyList(), INTERVAL, MAX_WAIT);
+
+    @Test
+    public void testGrowsWhenQueueIsNearlyFull() {
+        assertEquals(3, autoscaler.targetTasks(2, 1, 8, 90, 100, 10, 10, 0, 0, 0, 0));
+    }
+
+    @Test
+    public void testGrowsWhenUnboundedQueueWaitsTooLong() {
+        assertEquals(2, autoscaler.targetTasks(1, 1, 8, 1000, Integer.MAX_VALUE, 100, 50, MAX_WAIT, 0, 0, 0));
+        assertEquals(1, autoscaler.targetTasks(1, 1, 8, 1000, Integer.MAX_VALUE, 50, 100, MAX_WAIT, 0, 0, 0));
+    }
+
+    @Test
+    public void testGrowsToArrivalRateTimesProcessingTime() {
+        //5 datums per ms taking 1 ms each need 5 tasks
+        assertEquals(5, autoscaler.targetTasks(1, 1, 8, 90, 100, 5 * INTERVAL, INTERVAL, 0, 1.0, 0, 0));
+        assertEquals(8, autoscaler.targetTasks(1, 1, 8, 90, 100, 50 * INTERVAL, INTERVAL, 0, 1.0, 0, 0));
+    }
+
+    @Test
+    public void testDoesNotGrowFailingComponent() {
+        assertEquals(2, autoscaler.targetTasks(2, 1, 8, 90, 100, 10, 10, 0, 0, 0.9, 0));
+    }
+
+    @Test
+    public void testShrinksAfterIdleChecks() {
+        assertEquals(4, autoscaler.targetTasks(4, 1, 8, 0, 100, 0, 0, 0, 0, 0, StreamComponentAutoscaler.IDLE_CHECKS_BEFORE_SCALE_DOWN - 1));
+        assertEquals(3, autoscaler.targetTasks(4, 1, 8, 0, 100, 0, 0, 0, 0, 0, StreamComponentAutoscaler.IDLE_CHECKS_BEFORE_SCALE_DOWN));
+        assertEquals(2, autoscaler.targetTasks(2, 2, 8, 0, 100, 0, 0, 0, 0, 0, StreamComponentAutoscaler.IDLE_CHECKS_BEFORE_SCALE_DOWN));
+    }
+
+    @Test
+    public void testStaysWithinBounds() {
+        assertEquals(2, autoscaler.targetTasks(1, 2, 8, 0, 100, 0, 0, 0, 0, 0, 0));
+        assertEquals(8, autoscaler.targetTasks(10, 2, 8, 90, 100, 10, 10, 0, 0, 0, 0));
+        assertEquals(8, autoscaler.targetTasks(8, 2, 8, 90, 100, 10, 10, 0, 0, 0, 0));
+    }
+
+    @Test
+    public void testLatchRefusesTasksAfterRelease() throws Exception {
+        ThroughputQueue<StreamsDatum> queue = new ThroughputQueue<>();
+        EndOfStreamLatch latch = new EndOfStreamLatch(queue, 1, 1);
+        assertTrue(latch.addConsumer());
+        assertTrue(latch.addConsumer());
+        latch.removeConsumer();
+        assertEquals(2, latch.getConsumers());
+        latch.countDown();
+        assertEquals(2, queue.size());
+        assertFalse(latch.addConsumer());
+        assertFalse(latch.addProducer());
+    }
+}
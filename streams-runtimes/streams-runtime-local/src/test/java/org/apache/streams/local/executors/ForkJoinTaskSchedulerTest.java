@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.local.executors;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.Repeat;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.core.StreamsPersistWriter;
+import org.apache.streams.core.StreamsProcessor;
+import org.apache.streams.local.queues.EndOfStreamLatch;
+import org.apache.streams.local.queues.SignallingBlockingQueue;
+import org.apache.streams.local.test.processors.PassthroughDatumCounterProcessor;
+import org.apache.streams.local.test.writer.DatumCounterWriter;
+import org.apache.streams.local.tasks.StreamsPersistWriterTask;
+import org.apache.streams.local.tasks.StreamsProcessorTask;
+import org.apache.streams.util.ComponentUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Unit tests for {@link org.apache.streams.local.executors.ForkJoinTaskScheduler}
+ */
+@ThreadLeakLingering(linger = 5000) //pool workers can still be deregistering after the pool terminates
+public class ForkJoinTaskSchedulerTest extends RandomizedTest {
+
+    @After
+    public void removeLocalMBeans() {
+        try {
+            ComponentUtils.removeAllMBeansOfDomain("org.apache.streams.local");
+        } catch (Exception e) {
+            //No op.  proceed to next test
+        }
+    }
+
+    /**
+     * Runs a chain of processors connected by small bounded queues on fewer workers than there are tasks.  Producers
+     * blocked on full queues must not starve the consumers that would empty them.
+     * @throws Exception
+     */
+    @Test
+    @Repeat(iterations = 3)
+    public void testLinearChainOnFewWorkers() throws Exception {
+        int numStages = randomIntBetween(1, 10);
+        int numDatums = randomIntBetween(1, 20000);
+        int parallelism = randomIntBetween(1, 3);
+        String writerId = "fork_join_writer_"+randomIntBetween(0, Integer.MAX_VALUE);
+        ForkJoinTaskScheduler scheduler = new ForkJoinTaskScheduler(parallelism);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            SignallingBlockingQueue<StreamsDatum> first = createQueue();
+            EndOfStreamLatch firstLatch = new EndOfStreamLatch(first, 1, 1);
+            SignallingBlockingQueue<StreamsDatum> in = first;
+            for(int i=0; i < numStages; ++i) {
+                SignallingBlockingQueue<StreamsDatum> out = createQueue();
+                StreamsProcessorTask task = new StreamsProcessorTask(new PassthroughDatumCounterProcessor(writerId+i), null);
+                task.addInputQueue(in);
+                task.addOutputQueue(out);
+                task.addEndOfStreamLatch(new EndOfStreamLatch(out, 1, 1));
+                futures.add(scheduler.submit(task));
+                in = out;
+            }
+            StreamsPersistWriterTask writer = new StreamsPersistWriterTask(new DatumCounterWriter(writerId), null);
+            writer.addInputQueue(in);
+            futures.add(scheduler.submit(writer));
+
+            for(int i=0; i < numDatums; ++i) {
+                first.put(new StreamsDatum(i));
+            }
+            firstLatch.countDown();
+            for(Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            assertEquals(numDatums, DatumCounterWriter.COUNTS.get(writerId).get());
+        } finally {
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Test that cancelling the future of an idle task completes the task
+     * @throws Exception
+     */
+    @Test
+    public void testCancelIdleTask() throws Exception {
+        ForkJoinTaskScheduler scheduler = new ForkJoinTaskScheduler(1);
+        try {
+            StreamsPersistWriterTask writer = new StreamsPersistWriterTask(new DatumCounterWriter("fork_join_cancel"), null);
+            writer.addInputQueue(createQueue());
+            Future<?> future = scheduler.submit(writer);
+            Thread.sleep(100);
+            assertFalse(future.isDone());
+            writer.stopTask();
+            future.cancel(true);
+            assertTrue(scheduler.awaitCompletion(future, 5, TimeUnit.SECONDS));
+            assertFalse(writer.isRunning());
+        } finally {
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Test that stopping an idle task completes the task without any data arriving
+     * @throws Exception
+     */
+    @Test
+    public void testStopIdleTask() throws Exception {
+        ForkJoinTaskScheduler scheduler = new ForkJoinTaskScheduler(1);
+        try {
+            StreamsPersistWriterTask writer = new StreamsPersistWriterTask(new DatumCounterWriter("fork_join_stop"), null);
+            writer.addInputQueue(createQueue());
+            Future<?> future = scheduler.submit(writer);
+            Thread.sleep(100);
+            assertFalse(future.isDone());
+            writer.stopTask();
+            future.get(5, TimeUnit.SECONDS);
+            assertFalse(writer.isRunning());
+        } finally {
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Test that a blocking writer does not hold the only worker while it waits on a processor of the same scheduler
+     * @throws Exception
+     */
+    @Test
+    public void testBlockingWriterReleasesWorker() throws Exception {
+        ForkJoinTaskScheduler scheduler = new ForkJoinTaskScheduler(1);
+        RELEASED = new CountDownLatch(1);
+        try {
+            SignallingBlockingQueue<StreamsDatum> writerIn = createQueue();
+            StreamsPersistWriterTask writer = new StreamsPersistWriterTask(new AwaitingWriter(), null);
+            writer.addInputQueue(writerIn);
+            Future<?> writerFuture = scheduler.submit(writer, true);
+            writerIn.put(new StreamsDatum(0));
+
+            SignallingBlockingQueue<StreamsDatum> processorIn = createQueue();
+            StreamsProcessorTask processor = new StreamsProcessorTask(new ReleasingProcessor(), null);
+            processor.addInputQueue(processorIn);
+            processor.addOutputQueue(createQueue());
+            Future<?> processorFuture = scheduler.submit(processor);
+            processorIn.put(new StreamsDatum(1));
+
+            assertTrue(RELEASED.await(5, TimeUnit.SECONDS));
+            writer.stopTask();
+            processor.stopTask();
+            writerFuture.get(5, TimeUnit.SECONDS);
+            processorFuture.get(5, TimeUnit.SECONDS);
+        } finally {
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Test that tasks without signalling input queues are rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNonSignallingQueue() throws Exception {
+        ForkJoinTaskScheduler scheduler = new ForkJoinTaskScheduler(1);
+        try {
+            StreamsPersistWriterTask writer = new StreamsPersistWriterTask(new DatumCounterWriter("fork_join_reject"), null);
+            writer.addInputQueue(new LinkedBlockingQueue<StreamsDatum>());
+            scheduler.submit(writer);
+        } finally {
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private SignallingBlockingQueue<StreamsDatum> createQueue() {
+        return new SignallingBlockingQueue<StreamsDatum>(new LinkedBlockingQueue<StreamsDatum>(randomIntBetween(1, 20)));
+    }
+
+    private static volatile CountDownLatch RELEASED;
+
+    /**
+     * Writer that blocks until {@link #RELEASED} has been counted down
+     */
+    private static class AwaitingWriter implements StreamsPersistWriter {
+
+        @Override
+        public void write(StreamsDatum entry) {
+            try {
+                RELEASED.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void prepare(Object configurationObject) {
+        }
+
+        @Override
+        public void cleanUp() {
+        }
+    }
+
+    /**
+     * Processor that counts down {@link #RELEASED}
+     */
+    private static class ReleasingProcessor implements StreamsProcessor {
+
+        @Override
+        public List<StreamsDatum> process(StreamsDatum entry) {
+            RELEASED.countDown();
+            return new ArrayList<>();
+        }
+
+        @Override
+        public void prepare(Object configurationObject) {
+        }
+
+        @Override
+        public void cleanUp() {
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.local.queues;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.Repeat;
+import org.apache.streams.util.ComponentUtils;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unit tests for {@link org.apache.streams.local.queues.RingBufferThroughputQueue}
+ */
+public class RingBufferThroughputQueueTest extends RandomizedTest {
+
+    private static final String MBEAN_ID = "test_ring_id";
+    private static final String STREAM_ID = "test_stream";
+    private static long STREAM_START_TIME = (new DateTime()).getMillis();
+
+    @After
+    public void removeLocalMBeans() {
+        try {
+            ComponentUtils.removeAllMBeansOfDomain("org.apache.streams.local");
+        } catch (Exception e) {
+            //No op.  proceed to next test
+        }
+    }
+
+    /**
+     * Test that capacity is rounded up to a power of two and that offers fail once full
+     */
+    @Test
+    public void testCapacity() {
+        RingBufferThroughputQueue<Integer> queue = new RingBufferThroughputQueue<>(5);
+        assertEquals(8, queue.getCapacity());
+        for(int i=0; i < 8; ++i) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(8));
+        assertEquals(0, queue.remainingCapacity());
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertTrue(queue.offer(8));
+    }
+
+    /**
+     * Test that put and take queue and dequeue data in order and all measurements are returning data.
+     * @throws Exception
+     */
+    @Test
+    @Repeat(iterations = 3)
+    public void testTakeAndPut() throws Exception {
+        int putCount = randomIntBetween(1, 1000);
+        RingBufferThroughputQueue<Integer> queue = new RingBufferThroughputQueue<>(putCount);
+        for(int i=0; i < putCount; ++i) {
+            queue.put(i);
+            assertEquals(i+1, queue.size());
+            assertEquals(queue.size(), queue.getCurrentSize());
+        }
+        Thread.sleep(100); //ensure measurable wait time
+        assertTrue(0.0 < queue.getAvgWait());
+        int takeCount = randomIntBetween(1, putCount);
+        for(int i=0; i < takeCount; ++i) {
+            Integer element = queue.take();
+            assertNotNull(element);
+            assertEquals(i, element.intValue());
+            assertEquals(putCount - (1+i), queue.size());
+        }
+        assertTrue(0.0 < queue.getMaxWait());
+        assertTrue(0.0 < queue.getAvgWait());
+        assertTrue(0.0 < queue.getThroughput());
+        assertEquals(putCount, queue.getAdded());
+        assertEquals(takeCount, queue.getRemoved());
+    }
+
+    /**
+     * Test that drainTo dequeues data in order and respects the max elements
+     */
+    @Test
+    public void testDrainTo() {
+        RingBufferThroughputQueue<Integer> queue = new RingBufferThroughputQueue<>(16);
+        for(int i=0; i < 10; ++i) {
+            queue.offer(i);
+        }
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, queue.drainTo(drained, 4));
+        assertEquals(6, queue.drainTo(drained));
+        for(int i=0; i < 10; ++i) {
+            assertEquals(i, drained.get(i).intValue());
+        }
+        assertTrue(queue.isEmpty());
+        assertEquals(10, queue.getRemoved());
+    }
+
+    /**
+     * Test that timed offer and poll give up once the timeout expires
+     * @throws Exception
+     */
+    @Test
+    public void testTimedOfferAndPoll() throws Exception {
+        RingBufferThroughputQueue<Integer> queue = new RingBufferThroughputQueue<>(1);
+        assertEquals(2, queue.getCapacity());
+        assertNull(queue.poll(100, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(1, 100, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(2, 100, TimeUnit.MILLISECONDS));
+        assertFalse(queue.offer(3, 100, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(1), queue.peek());
+        assertEquals(Integer.valueOf(1), queue.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(2), queue.poll(100, TimeUnit.MILLISECONDS));
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Test that a thread blocked on take responds to interrupts
+     * @throws Exception
+     */
+    @Test
+    public void testInterruptBlockedTake() throws Exception {
+        final RingBufferThroughputQueue<Integer> queue = new RingBufferThroughputQueue<>(4);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> future = executor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return queue.take();
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(future.isDone());
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(1000, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Test multiple producers and consumers moving data through the queue while this thread
+     * repeatedly reads the MXBean measurements.
+     * @throws Exception
+     */
+    @Test
+    @Repeat(iterations = 3)
+    public void testMultipleProducersAndConsumers() throws Exception {
+        int threadCount = randomIntBetween(1, 8);
+        final int dataCount = randomIntBetween(1, 200000);
+        final RingBufferThroughputQueue<Integer> queue = new RingBufferThroughputQueue<>(randomIntBetween(1, 1000), MBEAN_ID, STREAM_ID, STREAM_START_TIME);
+        final AtomicLong sum = new AtomicLong(0);
+        final long total = ((long) dataCount) * threadCount;
+        final CountDownLatch finished = new CountDownLatch(threadCount * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount * 2);
+        for(int i=0; i < threadCount; ++i) {
+            executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    for(int i=0; i < dataCount; ++i) {
+                        queue.put(i);
+                    }
+                    finished.countDown();
+                    return null;
+                }
+            });
+            executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    for(int i=0; i < dataCount; ++i) {
+                        sum.addAndGet(queue.take());
+                    }
+                    finished.countDown();
+                    return null;
+                }
+            });
+        }
+        while(finished.getCount() > 0) {
+            queue.getAvgWait();
+            queue.getMaxWait();
+            queue.getCurrentSize();
+            queue.getThroughput();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1000, TimeUnit.MILLISECONDS));
+        assertEquals(total, queue.getAdded());
+        assertEquals(total, queue.getRemoved());
+        assertEquals(((long) dataCount - 1) * dataCount / 2 * threadCount, sum.get());
+        assertTrue(queue.isEmpty());
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        assertNotNull(mbs.getObjectInstance(new ObjectName(String.format(ThroughputQueue.NAME_TEMPLATE, MBEAN_ID, STREAM_ID, STREAM_START_TIME))));
+    }
+}
@@ -29,6 +29,8 @@ import javax.management.ObjectInstance;
 import javax.management.ObjectName;
 
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 
@@ -148,6 +150,32 @@ public class ThroughputQueueSingleThreadTest extends RandomizedTest {
 
 
 
+    /**
+     * Test that drainTo dequeues data in order, respects the max elements
+     * and updates the measurements
+     */
+    @Test
+    @Repeat(iterations = 3)
+    public void testDrainTo() {
+        ThroughputQueue<Integer> queue = new ThroughputQueue<>();
+        int putCount = randomIntBetween(1, 1000);
+        for(int i=0; i < putCount; ++i) {
+            queue.offer(i);
+        }
+        int drainCount = randomIntBetween(1, putCount);
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(drainCount, queue.drainTo(drained, drainCount));
+        for(int i=0; i < drainCount; ++i) {
+            assertEquals(i, drained.get(i).intValue());
+        }
+        assertEquals(putCount - drainCount, queue.size());
+        assertEquals(drainCount, queue.getRemoved());
+        assertEquals(putCount - drainCount, queue.drainTo(drained));
+        assertEquals(putCount, drained.size());
+        assertEquals(0, queue.getCurrentSize());
+        assertEquals(putCount, queue.getRemoved());
+    }
+
     /**
      * Test that max wait and avg wait return expected values
      * @throws Exception
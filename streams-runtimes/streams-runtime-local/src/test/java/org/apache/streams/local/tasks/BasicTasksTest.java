@@ -18,12 +18,21 @@
 
 package org.apache.streams.local.tasks;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.streams.core.BatchStreamsProcessor;
 import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.local.builders.LocalStreamBuilder;
 import org.apache.streams.local.counters.DatumStatusCounter;
 import org.apache.streams.local.counters.StreamsTaskCounter;
+import org.apache.streams.local.datums.EndOfStreamDatum;
+import org.apache.streams.local.datums.SharedStreamsDatum;
+import org.apache.streams.local.queues.EndOfStreamLatch;
 import org.apache.streams.local.queues.ThroughputQueue;
+import org.apache.streams.local.test.processors.BatchPassthroughDatumCounterProcessor;
 import org.apache.streams.local.test.processors.PassthroughDatumCounterProcessor;
 import org.apache.streams.local.test.providers.NumericMessageProvider;
+import org.apache.streams.local.test.writer.BatchDatumCounterWriter;
 import org.apache.streams.local.test.writer.DatumCounterWriter;
 import org.apache.streams.util.ComponentUtils;
 import org.junit.After;
@@ -32,6 +41,9 @@ import org.junit.Test;
 import javax.management.InstanceNotFoundException;
 import javax.management.ObjectName;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.*;
 
@@ -140,6 +152,47 @@ public class BasicTasksTest {
         assertEquals(0.0, counter.getErrorRate(), 0.0);
     }
 
+    @Test
+    public void testProcessorTasksEndOfStream() {
+        int numMessages = 1000;
+        int numTasks = 3;
+        Map<String, Object> config = Maps.newHashMap();
+        config.put(LocalStreamBuilder.BATCH_SIZE_KEY, 10);
+        BlockingQueue<StreamsDatum> outQueue = new LinkedBlockingQueue<>();
+        BlockingQueue<StreamsDatum> inQueue = createInputQueue(numMessages);
+        EndOfStreamLatch inLatch = new EndOfStreamLatch(inQueue, 1, numTasks);
+        EndOfStreamLatch outLatch = new EndOfStreamLatch(outQueue, numTasks, 1);
+        ExecutorService service = Executors.newFixedThreadPool(numTasks);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i=0; i < numTasks; ++i) {
+            StreamsProcessorTask task = new StreamsProcessorTask(new PassthroughDatumCounterProcessor(""), config);
+            task.addInputQueue(inQueue);
+            task.addOutputQueue(outQueue);
+            task.addEndOfStreamLatch(outLatch);
+            futures.add(service.submit(task));
+        }
+        try {
+            inLatch.countDown();
+            for(Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        } catch (Exception e) {
+            fail("Processor tasks did not finish on end of stream : "+e);
+        } finally {
+            service.shutdownNow();
+        }
+        assertEquals(0, outLatch.getCount());
+        assertEquals(numMessages + 1, outQueue.size());
+        int received = 0;
+        StreamsDatum datum;
+        while(!EndOfStreamDatum.isEndOfStream(datum = outQueue.poll())) {
+            assertNotNull(datum);
+            ++received;
+        }
+        assertEquals(numMessages, received);
+        assertTrue(inQueue.isEmpty());
+    }
+
     @Test
     public void testWriterTask() {
         int numMessages = 100;
@@ -191,6 +244,93 @@ public class BasicTasksTest {
         assertEquals(0.0, counter.getErrorRate(), 0.0);
     }
 
+    @Test
+    public void testBatchProcessorTask() {
+        int numMessages = 1000;
+        BatchPassthroughDatumCounterProcessor processor = new BatchPassthroughDatumCounterProcessor("");
+        StreamsProcessorTask task = new StreamsProcessorTask(processor);
+        StreamsTaskCounter counter = new StreamsTaskCounter(MBEAN_ID, null, -1);
+        task.setStreamsTaskCounter(counter);
+        BlockingQueue<StreamsDatum> outQueue = new LinkedBlockingQueue<>();
+        BlockingQueue<StreamsDatum> inQueue = createThroughputQueue(numMessages);
+        task.addOutputQueue(outQueue);
+        task.addInputQueue(inQueue);
+        ExecutorService service = Executors.newFixedThreadPool(1);
+        service.submit(task);
+        int attempts = 0;
+        while(outQueue.size() != numMessages) {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                //Ignore
+            }
+            ++attempts;
+            if(attempts == 10) {
+                fail("Processor task failed to output "+numMessages+" in a timely fashion.");
+            }
+        }
+        task.stopTask();
+        service.shutdown();
+        try {
+            if(!service.awaitTermination(10, TimeUnit.SECONDS)){
+                service.shutdownNow();
+                fail("Service did not terminate.");
+            }
+        } catch (InterruptedException e) {
+            fail("Test Interupted.");
+        }
+        assertEquals(numMessages, processor.getMessageCount());
+        assertEquals(numMessages / BaseStreamsTask.DEFAULT_BATCH_SIZE, processor.getBatchesCounted());
+        assertEquals(numMessages, counter.getNumReceived());
+        assertEquals(numMessages, counter.getNumEmitted());
+        for(int i=0; i < numMessages; ++i) {
+            assertEquals(i, outQueue.poll().getDocument());
+        }
+    }
+
+    @Test
+    public void testBatchWriterTask() {
+        int numMessages = 1000;
+        int batchSize = 64;
+        Map<String, Object> config = Maps.newHashMap();
+        config.put(LocalStreamBuilder.BATCH_SIZE_KEY, batchSize);
+        BatchDatumCounterWriter writer = new BatchDatumCounterWriter("");
+        StreamsPersistWriterTask task = new StreamsPersistWriterTask(writer, config);
+        StreamsTaskCounter counter = new StreamsTaskCounter(MBEAN_ID, null, -1);
+        task.setStreamsTaskCounter(counter);
+        BlockingQueue<StreamsDatum> inQueue = createThroughputQueue(numMessages);
+        task.addInputQueue(inQueue);
+        ExecutorService service = Executors.newFixedThreadPool(1);
+        service.submit(task);
+        int attempts = 0;
+        while(inQueue.size() != 0) {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                //Ignore
+            }
+            ++attempts;
+            if(attempts == 10) {
+                fail("Writer task failed to write "+numMessages+" in a timely fashion.");
+            }
+        }
+        task.stopTask();
+        service.shutdown();
+        try {
+            if(!service.awaitTermination(10, TimeUnit.SECONDS)){
+                service.shutdownNow();
+                fail("Service did not terminate.");
+            }
+        } catch (InterruptedException e) {
+            fail("Test Interupted.");
+        }
+        assertEquals(numMessages, writer.getDatumsCounted());
+        assertEquals(batchSize, writer.getLargestBatch());
+        assertEquals((numMessages + batchSize - 1) / batchSize, writer.getBatchesCounted());
+        assertEquals(numMessages, counter.getNumReceived());
+        assertEquals(0, counter.getNumUnhandledErrors());
+    }
+
     @Test
     public void testMergeTask() {
         int numMessages = 100;
@@ -319,6 +459,137 @@ public class BasicTasksTest {
         assertNotEquals(datum1, datum2);
     }
 
+    @Test
+    public void testCopyOnWriteBranching() {
+        int numMessages = 10;
+        Map<String, Object> config = Maps.newHashMap();
+        config.put(LocalStreamBuilder.FAN_OUT_MODE_KEY, FanOutMode.COPY_ON_WRITE.name());
+        PassthroughDatumCounterProcessor processor = new PassthroughDatumCounterProcessor("");
+        StreamsProcessorTask task = new StreamsProcessorTask(processor, config);
+        assertEquals(FanOutMode.COPY_ON_WRITE, task.getFanOutMode());
+        BlockingQueue<StreamsDatum> outQueue1 = new LinkedBlockingQueue<>();
+        BlockingQueue<StreamsDatum> outQueue2 = new LinkedBlockingQueue<>();
+        BlockingQueue<StreamsDatum> inQueue = createInputQueue(numMessages);
+        task.addOutputQueue(outQueue1);
+        task.addOutputQueue(outQueue2);
+        task.addInputQueue(inQueue);
+        ExecutorService service = Executors.newFixedThreadPool(1);
+        service.submit(task);
+        int attempts = 0;
+        while(inQueue.size() != 0 ) {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                //Ignore
+            }
+            ++attempts;
+            if(attempts == 10) {
+                assertEquals("Processor task failed to output "+(numMessages)+" in a timely fashion.", 0, inQueue.size());
+            }
+        }
+        task.stopTask();
+
+        service.shutdown();
+        try {
+            if(!service.awaitTermination(5, TimeUnit.SECONDS)){
+                service.shutdownNow();
+                fail("Service did not terminate.");
+            }
+            assertTrue("Task should have completed running in aloted time.", service.isTerminated());
+        } catch (InterruptedException e) {
+            fail("Test Interupted.");
+        }
+        assertEquals(numMessages, outQueue1.size());
+        assertEquals(numMessages, outQueue2.size());
+        StreamsDatum datum1 = outQueue1.poll();
+        StreamsDatum datum2 = outQueue2.poll();
+        assertTrue(datum1 instanceof SharedStreamsDatum);
+        assertTrue(datum2 instanceof SharedStreamsDatum);
+        assertSame(datum1.getDocument(), datum2.getDocument());
+
+        datum1.getMetadata().put("branch", 1);
+        assertFalse(datum2.getMetadata().containsKey("branch"));
+
+        StreamsDatum claimed1 = task.claimStreamsDatum(datum1);
+        assertNotSame(datum1, claimed1);
+        assertEquals(datum1.getDocument(), claimed1.getDocument());
+        assertEquals(1, claimed1.getMetadata().get("branch"));
+        StreamsDatum claimed2 = task.claimStreamsDatum(datum2);
+        assertSame(datum2, claimed2);
+        assertSame(claimed2, task.claimStreamsDatum(datum2));
+    }
+
+    @Test
+    public void testUncopyableSharedDatumFails() {
+        List<StreamsDatum> shared = SharedStreamsDatum.share(new StreamsDatum(new Object()), 2);
+        PassthroughDatumCounterProcessor processor = new PassthroughDatumCounterProcessor("");
+        StreamsProcessorTask task = new StreamsProcessorTask(processor);
+        StreamsTaskCounter counter = new StreamsTaskCounter(MBEAN_ID, null, -1);
+        task.setStreamsTaskCounter(counter);
+        BlockingQueue<StreamsDatum> outQueue = new LinkedBlockingQueue<>();
+        BlockingQueue<StreamsDatum> inQueue = new LinkedBlockingQueue<>();
+        inQueue.add(shared.get(0));
+        task.addOutputQueue(outQueue);
+        task.addInputQueue(inQueue);
+        task.prepareTask();
+        assertTrue(task.step());
+        assertEquals(0, processor.getMessageCount());
+        assertEquals(0, outQueue.size());
+        assertEquals(1, counter.getNumUnhandledErrors());
+        assertEquals(1, task.getDatumStatusCounter().getFail());
+        //the failed copy still gave up its share, so the other branch owns the document
+        assertSame(shared.get(1), task.claimStreamsDatum(shared.get(1)));
+    }
+
+    @Test
+    public void testFailedBatchIsProcessedOneAtATime() {
+        int numMessages = 10;
+        Map<String, Object> config = Maps.newHashMap();
+        config.put(LocalStreamBuilder.BATCH_SIZE_KEY, numMessages);
+        BatchStreamsProcessor processor = new BatchStreamsProcessor() {
+            @Override
+            public List<StreamsDatum> process(List<StreamsDatum> entries) {
+                throw new RuntimeException("Testing batch failure");
+            }
+
+            @Override
+            public List<StreamsDatum> process(StreamsDatum entry) {
+                if(entry.getDocument().equals(3)) {
+                    throw new RuntimeException("Testing datum failure");
+                }
+                return Lists.newArrayList(entry);
+            }
+
+            @Override
+            public void prepare(Object configurationObject) {
+            }
+
+            @Override
+            public void cleanUp() {
+            }
+        };
+        StreamsProcessorTask task = new StreamsProcessorTask(processor, config);
+        StreamsTaskCounter counter = new StreamsTaskCounter(MBEAN_ID, null, -1);
+        task.setStreamsTaskCounter(counter);
+        BlockingQueue<StreamsDatum> outQueue = new LinkedBlockingQueue<>();
+        task.addOutputQueue(outQueue);
+        task.addInputQueue(createInputQueue(numMessages));
+        task.prepareTask();
+        assertTrue(task.step());
+        assertEquals(numMessages - 1, outQueue.size());
+        assertEquals(numMessages, counter.getNumReceived());
+        assertEquals(1, counter.getNumUnhandledErrors());
+        assertEquals(1, task.getDatumStatusCounter().getFail());
+    }
+
+    private BlockingQueue<StreamsDatum> createThroughputQueue(int numDatums) {
+        BlockingQueue<StreamsDatum> queue = new ThroughputQueue<>();
+        for(int i=0; i < numDatums; ++i) {
+            queue.add(new StreamsDatum(i));
+        }
+        return queue;
+    }
+
     private BlockingQueue<StreamsDatum> createInputQueue(int numDatums) {
         BlockingQueue<StreamsDatum> queue = new LinkedBlockingQueue<>();
         for(int i=0; i < numDatums; ++i) {
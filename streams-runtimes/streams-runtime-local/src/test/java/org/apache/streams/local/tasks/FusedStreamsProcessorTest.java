@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.streams.local.tasks;
+
+import com.google.common.collect.Lists;
+import org.apache.streams.core.BatchStreamsProcessor;
+import org.apache.streams.core.StreamsDatum;
+import org.apache.streams.core.StreamsProcessor;
+import org.apache.streams.local.counters.StreamsTaskCounter;
+import org.apache.streams.local.test.processors.BatchPassthroughDatumCounterProcessor;
+import org.apache.streams.local.test.processors.PassthroughDatumCounterProcessor;
+import org.apache.streams.util.ComponentUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link org.apache.streams.local.tasks.FusedStreamsProcessor}
+ */
+public class FusedStreamsProcessorTest {
+
+    @After
+    public void removeLocalMBeans() {
+        try {
+            ComponentUtils.removeAllMBeansOfDomain("org.apache.streams.local");
+        } catch (Exception e) {
+            //No op.  proceed to next test
+        }
+    }
+
+    @Test
+    public void testStagesRunInOrderAndCount() {
+        List<StreamsTaskCounter> counters = Lists.newArrayList(new StreamsTaskCounter("stage0"), new StreamsTaskCounter("stage1"));
+        FusedStreamsProcessor processor = new FusedStreamsProcessor(Lists.newArrayList("stage0", "stage1"),
+                Lists.<StreamsProcessor>newArrayList(new PassthroughDatumCounterProcessor("stage0"), new BatchPassthroughDatumCounterProcessor("stage1")),
+                counters);
+        processor.prepare(null);
+        List<StreamsDatum> batch = Lists.newArrayList(new StreamsDatum(1), new StreamsDatum(2), new StreamsDatum(3));
+        assertEquals(3, processor.process(batch).size());
+        assertEquals(1, processor.process(new StreamsDatum(4)).size());
+        for(StreamsTaskCounter counter : counters) {
+            assertEquals(4, counter.getNumReceived());
+            assertEquals(4, counter.getNumEmitted());
+            assertEquals(0, counter.getNumUnhandledErrors());
+        }
+    }
+
+    @Test
+    public void testFailedDatumsSkipLaterStages() {
+        List<StreamsTaskCounter> counters = Lists.newArrayList(new StreamsTaskCounter("failing"), new StreamsTaskCounter("after"));
+        StreamsProcessor failing = new StreamsProcessor() {
+            @Override
+            public List<StreamsDatum> process(StreamsDatum entry) {
+                if(((Integer) entry.getDocument()) % 2 == 0) {
+                    throw new RuntimeException("even");
+                }
+                return Lists.newArrayList(entry);
+            }
+
+            @Override
+            public void prepare(Object configurationObject) {
+            }
+
+            @Override
+            public void cleanUp() {
+            }
+        };
+        FusedStreamsProcessor processor = new FusedStreamsProcessor(Lists.newArrayList("failing", "after"),
+                Lists.<StreamsProcessor>newArrayList(failing, new PassthroughDatumCounterProcessor("after")), counters);
+        processor.prepare(null);
+        StreamsDatum even = new StreamsDatum(2);
+        List<StreamsDatum> output = processor.process(Lists.newArrayList(new StreamsDatum(1), even, new StreamsDatum(3)));
+        assertEquals(2, output.size());
+        assertEquals(1, counters.get(0).getNumUnhandledErrors());
+        assertEquals(2, counters.get(1).getNumReceived());
+        assertTrue(even.getMetadata().containsKey("errors"));
+    }
+
+    @Test
+    public void testFailedBatchStageIsProcessedOneAtATime() {
+        List<StreamsTaskCounter> counters = Lists.newArrayList(new StreamsTaskCounter("batch"), new StreamsTaskCounter("after"));
+        BatchStreamsProcessor failing = new BatchStreamsProcessor() {
+            @Override
+            public List<StreamsDatum> process(List<StreamsDatum> entries) {
+                throw new RuntimeException("Testing batch failure");
+            }
+
+            @Override
+            public List<StreamsDatum> process(StreamsDatum entry) {
+                if(entry.getDocument().equals(3)) {
+                    throw new RuntimeException("Testing datum failure");
+                }
+                return Lists.newArrayList(entry);
+            }
+
+            @Override
+            public void prepare(Object configurationObject) {
+            }
+
+            @Override
+            public void cleanUp() {
+            }
+        };
+        FusedStreamsProcessor processor = new FusedStreamsProcessor(Lists.newArrayList("batch", "after"),
+                Lists.<StreamsProcessor>newArrayList(failing, new PassthroughDatumCounterProcessor("after")), counters);
+        processor.prepare(null);
+        List<StreamsDatum> batch = Lists.newArrayList();
+        for(int i=0; i < 10; ++i) {
+            batch.add(new StreamsDatum(i));
+        }
+        List<StreamsDatum> output = processor.process(batch);
+        assertEquals(9, output.size());
+        assertEquals(10, counters.get(0).getNumReceived());
+        assertEquals(9, counters.get(0).getNumEmitted());
+        assertEquals(1, counters.get(0).getNumUnhandledErrors());
+        assertEquals(9, counters.get(1).getNumReceived());
+        assertTrue(batch.get(3).getMetadata().containsKey("errors"));
+        assertFalse(batch.get(4).getMetadata().containsKey("errors"));
+    }
+
+    @Test
+    public void testCopySharesCounters() {
+        StreamsTaskCounter counter = new StreamsTaskCounter("shared");
+        PassthroughDatumCounterProcessor stage = new PassthroughDatumCounterProcessor("shared");
+        FusedStreamsProcessor processor = new FusedStreamsProcessor(Lists.newArrayList("shared"),
+                Lists.<StreamsProcessor>newArrayList(stage), Lists.newArrayList(counter));
+        FusedStreamsProcessor copy = processor.copy();
+        assertNotSame(processor, copy);
+        copy.prepare(null);
+        copy.process(new StreamsDatum(1));
+        processor.prepare(null);
+        processor.process(new StreamsDatum(2));
+        assertEquals(2, counter.getNumReceived());
+        assertEquals(1, stage.getMessageCount());
+    }
+}
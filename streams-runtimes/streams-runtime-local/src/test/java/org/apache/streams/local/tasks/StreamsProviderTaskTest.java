@@ -19,20 +19,26 @@
 
 package org.apache.streams.local.tasks;
 
+import org.apache.streams.core.BoundedStreamsProvider;
 import org.apache.streams.core.StreamsDatum;
 import org.apache.streams.core.StreamsProvider;
 import org.apache.streams.core.StreamsResultSet;
+import org.apache.streams.local.queues.SignallingBlockingQueue;
 import org.apache.streams.util.ComponentUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.util.Queue;
 import java.util.concurrent.*;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
@@ -85,6 +91,100 @@ public class StreamsProviderTaskTest {
         assertThat(out.size(), is(equalTo(3)));
     }
 
+    @Test
+    public void boundedProviderReadsOnlyWhatFits() throws Exception {
+        BoundedStreamsProvider boundedProvider = mock(BoundedStreamsProvider.class);
+        final CountDownLatch full = new CountDownLatch(1);
+        BlockingQueue<StreamsDatum> out = new LinkedBlockingQueue<StreamsDatum>(5) {
+            @Override
+            public boolean offer(StreamsDatum datum) {
+                boolean added = super.offer(datum);
+                signalFull();
+                return added;
+            }
+
+            @Override
+            public void put(StreamsDatum datum) throws InterruptedException {
+                super.put(datum);
+                signalFull();
+            }
+
+            private void signalFull() {
+                if(remainingCapacity() == 0) {
+                    full.countDown();
+                }
+            }
+        };
+        final BlockingQueue<Integer> reads = new LinkedBlockingQueue<>();
+        StreamsProviderTask task = new StreamsProviderTask(boundedProvider, true, null);
+        when(boundedProvider.isRunning()).thenReturn(true);
+        when(boundedProvider.readCurrent(anyInt())).thenAnswer(new Answer<StreamsResultSet>() {
+            @Override
+            public StreamsResultSet answer(InvocationOnMock invocation) throws Throwable {
+                int maxItems = (Integer) invocation.getArguments()[0];
+                reads.add(maxItems);
+                return new StreamsResultSet(getQueue(maxItems));
+            }
+        });
+        task.setTimeout(-1);
+        task.setSleepTime(10);
+        task.getOutputQueues().add(out);
+        Future<?> taskResult = pool.submit(task);
+
+        assertThat(reads.poll(5, TimeUnit.SECONDS), is(equalTo(5)));
+        assertTrue(full.await(5, TimeUnit.SECONDS));
+        //the full queue grants no credits, so the provider is only read again for the room that is made
+        out.drainTo(new LinkedBlockingQueue<StreamsDatum>(), 2);
+        assertThat(reads.poll(5, TimeUnit.SECONDS), is(equalTo(2)));
+
+        task.stopTask();
+        out.clear();
+        taskResult.get(5, TimeUnit.SECONDS);
+        verifyNotRunning(task, taskResult);
+        verify(boundedProvider, never()).readCurrent();
+    }
+
+    @Test
+    public void takeGrantsCredits() throws Exception {
+        BoundedStreamsProvider boundedProvider = mock(BoundedStreamsProvider.class);
+        final SignallingBlockingQueue<StreamsDatum> out = new SignallingBlockingQueue<StreamsDatum>(new LinkedBlockingQueue<StreamsDatum>(5));
+        final CountDownLatch full = new CountDownLatch(1);
+        out.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if(out.remainingCapacity() == 0) {
+                    full.countDown();
+                }
+            }
+        });
+        final BlockingQueue<Integer> reads = new LinkedBlockingQueue<>();
+        StreamsProviderTask task = new StreamsProviderTask(boundedProvider, true, null);
+        when(boundedProvider.isRunning()).thenReturn(true);
+        when(boundedProvider.readCurrent(anyInt())).thenAnswer(new Answer<StreamsResultSet>() {
+            @Override
+            public StreamsResultSet answer(InvocationOnMock invocation) throws Throwable {
+                int maxItems = (Integer) invocation.getArguments()[0];
+                reads.add(maxItems);
+                return new StreamsResultSet(getQueue(maxItems));
+            }
+        });
+        task.setTimeout(-1);
+        //far longer than the test waits, only the takes can wake the task up
+        task.setSleepTime(60000);
+        task.addOutputQueue(out);
+        Future<?> taskResult = pool.submit(task);
+
+        assertThat(reads.poll(5, TimeUnit.SECONDS), is(equalTo(5)));
+        assertTrue(full.await(5, TimeUnit.SECONDS));
+        out.take();
+        out.poll();
+        assertThat(reads.poll(5, TimeUnit.SECONDS), is(greaterThan(0)));
+
+        task.stopTask();
+        taskResult.get(5, TimeUnit.SECONDS);
+        verifyNotRunning(task, taskResult);
+    }
+
     protected Queue<StreamsDatum> getQueue(int numElems) {
         Queue<StreamsDatum> results = new LinkedBlockingQueue<>();
         for(int i=0; i<numElems; i++) {
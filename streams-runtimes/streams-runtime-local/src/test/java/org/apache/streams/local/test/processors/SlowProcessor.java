@@ -28,10 +28,21 @@ import java.util.List;
 /**
  */
 public class SlowProcessor  implements StreamsProcessor {
+
+    private long delayMs;
+
+    public SlowProcessor() {
+        this(1000);
+    }
+
+    public SlowProcessor(long delayMs) {
+        this.delayMs = delayMs;
+    }
+
     @Override
     public List<StreamsDatum> process(StreamsDatum entry) {
         try {
-            Thread.sleep(1000);
+            Thread.sleep(this.delayMs);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
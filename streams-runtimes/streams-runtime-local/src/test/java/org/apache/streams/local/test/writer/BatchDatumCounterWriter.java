@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.streams.local.test.writer;
+
+import org.apache.streams.core.BatchStreamsPersistWriter;
+import org.apache.streams.core.StreamsDatum;
+
+import java.util.List;
+
+/**
+ * {@link org.apache.streams.local.test.writer.DatumCounterWriter} that also accepts batches and records how many
+ * batches it was handed.
+ */
+public class BatchDatumCounterWriter extends DatumCounterWriter implements BatchStreamsPersistWriter {
+
+    private int batches = 0;
+    private int largestBatch = 0;
+
+    public BatchDatumCounterWriter(String writerId) {
+        super(writerId);
+    }
+
+    @Override
+    public void write(List<StreamsDatum> entries) {
+        ++this.batches;
+        this.largestBatch = Math.max(this.largestBatch, entries.size());
+        for(StreamsDatum entry : entries) {
+            write(entry);
+        }
+    }
+
+    public int getBatchesCounted() {
+        return this.batches;
+    }
+
+    public int getLargestBatch() {
+        return this.largestBatch;
+    }
+}